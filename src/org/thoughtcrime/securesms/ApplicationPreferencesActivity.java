@@ -43,6 +43,7 @@ import org.thoughtcrime.securesms.preferences.NotificationsPreferenceFragment;
 import org.thoughtcrime.securesms.preferences.SmsMmsPreferenceFragment;
 import org.thoughtcrime.securesms.preferences.widgets.ProfilePreference;
 import org.thoughtcrime.securesms.service.KeyCachingService;
+import org.thoughtcrime.securesms.service.TrimThreadsListener;
 import org.thoughtcrime.securesms.util.DynamicLanguage;
 import org.thoughtcrime.securesms.util.DynamicTheme;
 import org.thoughtcrime.securesms.util.TextSecurePreferences;
@@ -127,6 +128,8 @@ public class ApplicationPreferencesActivity extends PassphraseRequiredActionBarA
       Intent intent = new Intent(this, KeyCachingService.class);
       intent.setAction(KeyCachingService.LOCALE_CHANGE_EVENT);
       startService(intent);
+    } else if (key.equals(TextSecurePreferences.THREAD_TRIM_ENABLED) || key.equals(TextSecurePreferences.THREAD_TRIM_AGE)) {
+      TrimThreadsListener.schedule(this);
     }
   }
 
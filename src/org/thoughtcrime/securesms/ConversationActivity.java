@@ -1812,10 +1812,8 @@ public class ConversationActivity extends PassphraseRequiredActionBarActivity
   }
 
   @Override
-  public void onImageCapture(@NonNull final byte[] imageBytes) {
-    setMedia(PersistentBlobProvider.getInstance(this)
-                                   .create(this, imageBytes, MediaUtil.IMAGE_JPEG, null),
-             MediaType.IMAGE);
+  public void onImageCapture(@NonNull final Uri uri) {
+    setMedia(uri, MediaType.IMAGE);
     quickAttachmentDrawer.hide(false);
   }
 
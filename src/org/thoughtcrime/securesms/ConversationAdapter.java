@@ -29,37 +29,31 @@ import android.view.View;
 import android.view.ViewGroup;
 import android.widget.TextView;
 
-import com.annimon.stream.Stream;
-
 import org.thoughtcrime.securesms.ConversationAdapter.HeaderViewHolder;
+import org.thoughtcrime.securesms.ConversationRowCache.Row;
+import org.thoughtcrime.securesms.attachments.AttachmentId;
 import org.thoughtcrime.securesms.attachments.DatabaseAttachment;
 import org.thoughtcrime.securesms.database.DatabaseFactory;
 import org.thoughtcrime.securesms.database.FastCursorRecyclerViewAdapter;
-import org.thoughtcrime.securesms.database.MmsSmsColumns;
 import org.thoughtcrime.securesms.database.MmsSmsDatabase;
 import org.thoughtcrime.securesms.database.model.MessageRecord;
 import org.thoughtcrime.securesms.database.model.MmsMessageRecord;
 import org.thoughtcrime.securesms.mms.GlideRequests;
+import org.thoughtcrime.securesms.mms.Slide;
 import org.thoughtcrime.securesms.mms.SlideDeck;
 import org.thoughtcrime.securesms.recipients.Recipient;
-import org.thoughtcrime.securesms.util.Conversions;
 import org.thoughtcrime.securesms.util.DateUtils;
-import org.thoughtcrime.securesms.util.LRUCache;
 import org.thoughtcrime.securesms.util.StickyHeaderDecoration;
 import org.thoughtcrime.securesms.util.Util;
 import org.thoughtcrime.securesms.util.ViewUtil;
 
-import java.lang.ref.SoftReference;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-import java.util.Calendar;
 import java.util.Collections;
-import java.util.Date;
 import java.util.HashSet;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
-import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
 
 /**
  * A cursor adapter for a conversation thread.  Ultimately
@@ -74,10 +68,13 @@ public class ConversationAdapter <V extends View & BindableConversationItem>
   implements StickyHeaderDecoration.StickyHeaderAdapter<HeaderViewHolder>
 {
 
-  private static final int MAX_CACHE_SIZE = 40;
   private static final String TAG = ConversationAdapter.class.getSimpleName();
-  private final Map<String,SoftReference<MessageRecord>> messageRecordCache =
-      Collections.synchronizedMap(new LRUCache<String, SoftReference<MessageRecord>>(MAX_CACHE_SIZE));
+
+  private static final int             PREFETCH_DISTANCE = 15;
+  private static final ExecutorService prefetchExecutor  = Util.newSingleThreadedLifoExecutor();
+
+  private final ConversationRowCache         rowCache = new ConversationRowCache();
+  private final ConversationRowCache.Decoder decoder  = new ConversationRowCache.Decoder();
 
   private static final int MESSAGE_TYPE_OUTGOING           = 0;
   private static final int MESSAGE_TYPE_INCOMING           = 1;
@@ -91,14 +88,13 @@ public class ConversationAdapter <V extends View & BindableConversationItem>
 
   private final Set<MessageRecord> batchSelected = Collections.synchronizedSet(new HashSet<MessageRecord>());
 
-  private final @Nullable ItemClickListener clickListener;
-  private final @NonNull  GlideRequests     glideRequests;
-  private final @NonNull  Locale            locale;
-  private final @NonNull  Recipient         recipient;
-  private final @NonNull  MmsSmsDatabase    db;
-  private final @NonNull  LayoutInflater    inflater;
-  private final @NonNull  Calendar          calendar;
-  private final @NonNull  MessageDigest     digest;
+  private final @Nullable ItemClickListener   clickListener;
+  private final @NonNull  GlideRequests       glideRequests;
+  private final @NonNull  Locale              locale;
+  private final @NonNull  Recipient           recipient;
+  private final @NonNull  MmsSmsDatabase      db;
+  private final @NonNull  LayoutInflater      inflater;
+  private final @NonNull  MessageBodyRenderer bodyRenderer;
 
   private MessageRecord recordToPulseHighlight;
 
@@ -140,20 +136,15 @@ public class ConversationAdapter <V extends View & BindableConversationItem>
 
   @SuppressWarnings("ConstantConditions")
   @VisibleForTesting
-  ConversationAdapter(Context context, Cursor cursor) {
+  ConversationAdapter(Context context, MmsSmsDatabase db, Cursor cursor) {
     super(context, cursor);
-    try {
-      this.glideRequests = null;
-      this.locale        = null;
-      this.clickListener = null;
-      this.recipient     = null;
-      this.inflater      = null;
-      this.db            = null;
-      this.calendar      = null;
-      this.digest        = MessageDigest.getInstance("SHA1");
-    } catch (NoSuchAlgorithmException nsae) {
-      throw new AssertionError("SHA1 isn't supported!");
-    }
+    this.glideRequests = null;
+    this.locale        = null;
+    this.clickListener = null;
+    this.recipient     = null;
+    this.inflater      = null;
+    this.db            = db;
+    this.bodyRenderer  = null;
   }
 
   public ConversationAdapter(@NonNull Context context,
@@ -165,25 +156,20 @@ public class ConversationAdapter <V extends View & BindableConversationItem>
   {
     super(context, cursor);
 
-    try {
-      this.glideRequests = glideRequests;
-      this.locale        = locale;
-      this.clickListener = clickListener;
-      this.recipient     = recipient;
-      this.inflater      = LayoutInflater.from(context);
-      this.db            = DatabaseFactory.getMmsSmsDatabase(context);
-      this.calendar      = Calendar.getInstance();
-      this.digest        = MessageDigest.getInstance("SHA1");
-
-      setHasStableIds(true);
-    } catch (NoSuchAlgorithmException nsae) {
-      throw new AssertionError("SHA1 isn't supported!");
-    }
+    this.glideRequests = glideRequests;
+    this.locale        = locale;
+    this.clickListener = clickListener;
+    this.recipient     = recipient;
+    this.inflater      = LayoutInflater.from(context);
+    this.db            = DatabaseFactory.getMmsSmsDatabase(context);
+    this.bodyRenderer  = MessageBodyRenderer.getInstance(context);
+
+    setHasStableIds(true);
   }
 
   @Override
   public void changeCursor(Cursor cursor) {
-    messageRecordCache.clear();
+    rowCache.clear();
     super.cleanFastRecords();
     super.changeCursor(cursor);
   }
@@ -269,16 +255,7 @@ public class ConversationAdapter <V extends View & BindableConversationItem>
 
   @Override
   public long getItemId(@NonNull Cursor cursor) {
-    List<DatabaseAttachment> attachments        = DatabaseFactory.getAttachmentDatabase(getContext()).getAttachment(cursor);
-    List<DatabaseAttachment> messageAttachments = Stream.of(attachments).filterNot(DatabaseAttachment::isQuote).toList();
-
-    if (messageAttachments.size() > 0 && messageAttachments.get(0).getFastPreflightId() != null) {
-      return Long.valueOf(messageAttachments.get(0).getFastPreflightId());
-    }
-
-    final String unique = cursor.getString(cursor.getColumnIndexOrThrow(MmsSmsColumns.UNIQUE_ROW_ID));
-    final byte[] bytes  = digest.digest(unique.getBytes());
-    return Conversions.byteArrayToLong(bytes);
+    return getRowFromCursor(cursor).getItemId();
   }
 
   @Override
@@ -296,19 +273,74 @@ public class ConversationAdapter <V extends View & BindableConversationItem>
 
   @Override
   protected MessageRecord getRecordFromCursor(@NonNull Cursor cursor) {
-    long   messageId = cursor.getLong(cursor.getColumnIndexOrThrow(MmsSmsColumns.ID));
-    String type      = cursor.getString(cursor.getColumnIndexOrThrow(MmsSmsDatabase.TRANSPORT));
+    return getRowFromCursor(cursor).getMessageRecord();
+  }
+
+  private @NonNull Row getRowFromCursor(@NonNull Cursor cursor) {
+    String key = ConversationRowCache.getKey(cursor);
+    Row    row = rowCache.get(key);
+
+    if (row == null) {
+      row = decoder.decode(db.readerFor(cursor), cursor);
+      rowCache.put(rowCache.getGeneration(), key, row);
+    }
+
+    return row;
+  }
+
+  /**
+   * Decodes the rows just outside of the visible range on a background thread, so that
+   * they're already cached by the time they're scrolled into view.
+   */
+  public void prefetch(long threadId, int firstVisiblePosition, int lastVisiblePosition) {
+    if (!isActiveCursor() || firstVisiblePosition < 0 || lastVisiblePosition < firstVisiblePosition) {
+      return;
+    }
+
+    Cursor cursor = getCursor();
+    int    first  = Math.max(0, getCursorPosition(firstVisiblePosition) - PREFETCH_DISTANCE);
+    int    last   = Math.min(cursor.getCount() - 1, getCursorPosition(lastVisiblePosition) + PREFETCH_DISTANCE);
+
+    if (first > last) return;
+
+    int firstMissing = -1;
+    int lastMissing  = -1;
 
-    final SoftReference<MessageRecord> reference = messageRecordCache.get(type + messageId);
-    if (reference != null) {
-      final MessageRecord record = reference.get();
-      if (record != null) return record;
+    for (int i = first; i <= last; i++) {
+      if (cursor.moveToPosition(i) && !rowCache.contains(ConversationRowCache.getKey(cursor))) {
+        if (firstMissing == -1) firstMissing = i;
+        lastMissing = i;
+      }
     }
 
-    final MessageRecord messageRecord = db.readerFor(cursor).getCurrent();
-    messageRecordCache.put(type + messageId, new SoftReference<>(messageRecord));
+    if (firstMissing == -1) return;
+
+    final int offset     = firstMissing;
+    final int limit      = lastMissing - firstMissing + 1;
+    final int generation = rowCache.getGeneration();
+
+    prefetchExecutor.execute(() -> {
+      ConversationRowCache.Decoder prefetchDecoder = new ConversationRowCache.Decoder();
+      List<MessageRecord>          records         = new LinkedList<>();
+
+      try (Cursor window = db.getConversationWindow(threadId, offset, limit)) {
+        MmsSmsDatabase.Reader reader = db.readerFor(window);
+
+        while (window.moveToNext()) {
+          if (generation != rowCache.getGeneration()) return;
 
-    return messageRecord;
+          String key = ConversationRowCache.getKey(window);
+
+          if (!rowCache.contains(key)) {
+            Row row = prefetchDecoder.decode(reader, window);
+            rowCache.put(generation, key, row);
+            records.add(row.getMessageRecord());
+          }
+        }
+      }
+
+      bodyRenderer.prefetch(records);
+    });
   }
 
   public void close() {
@@ -374,10 +406,11 @@ public class ConversationAdapter <V extends View & BindableConversationItem>
     if (position >= getItemCount()) return -1;
     if (position < 0)               return -1;
 
-    MessageRecord record = getRecordForPositionOrThrow(position);
+    if (isFastAccessPosition(position)) {
+      return decoder.getHeaderId(getRecordForPositionOrThrow(position));
+    }
 
-    calendar.setTime(new Date(record.getDateSent()));
-    return Util.hashCode(calendar.get(Calendar.YEAR), calendar.get(Calendar.DAY_OF_YEAR));
+    return getRowFromCursor(getCursorAtPositionOrThrow(position)).getHeaderId();
   }
 
   public long getReceivedTimestamp(int position) {
@@ -393,6 +426,28 @@ public class ConversationAdapter <V extends View & BindableConversationItem>
     else                            return messageRecord.getDateReceived();
   }
 
+  public @NonNull List<AttachmentId> getInProgressAttachments(int firstPosition, int lastPosition) {
+    List<AttachmentId> attachmentIds = new LinkedList<>();
+
+    if (!isActiveCursor()) return attachmentIds;
+
+    for (int position = Math.max(0, firstPosition); position <= lastPosition && position < getItemCount(); position++) {
+      if (isHeaderPosition(position) || isFooterPosition(position)) continue;
+
+      MessageRecord messageRecord = getRecordForPositionOrThrow(position);
+
+      if (!messageRecord.isMms()) continue;
+
+      for (Slide slide : ((MmsMessageRecord)messageRecord).getSlideDeck().getSlides()) {
+        if (slide.isInProgress() && slide.asAttachment() instanceof DatabaseAttachment) {
+          attachmentIds.add(((DatabaseAttachment)slide.asAttachment()).getAttachmentId());
+        }
+      }
+    }
+
+    return attachmentIds;
+  }
+
   @Override
   public HeaderViewHolder onCreateHeaderViewHolder(ViewGroup parent) {
     return new HeaderViewHolder(LayoutInflater.from(getContext()).inflate(R.layout.conversation_item_header, parent, false));
@@ -52,6 +52,8 @@ import android.widget.Toast;
 
 import org.thoughtcrime.securesms.ConversationAdapter.HeaderViewHolder;
 import org.thoughtcrime.securesms.ConversationAdapter.ItemClickListener;
+import org.thoughtcrime.securesms.attachments.AttachmentDownloadScheduler;
+import org.thoughtcrime.securesms.attachments.AttachmentId;
 import org.thoughtcrime.securesms.database.DatabaseFactory;
 import org.thoughtcrime.securesms.database.MmsSmsDatabase;
 import org.thoughtcrime.securesms.database.RecipientDatabase;
@@ -66,6 +68,7 @@ import org.thoughtcrime.securesms.profiles.UnknownSenderView;
 import org.thoughtcrime.securesms.recipients.Recipient;
 import org.thoughtcrime.securesms.sms.MessageSender;
 import org.thoughtcrime.securesms.sms.OutgoingTextMessage;
+import org.thoughtcrime.securesms.util.FrameTimeMonitor;
 import org.thoughtcrime.securesms.util.SaveAttachmentTask;
 import org.thoughtcrime.securesms.util.SaveAttachmentTask.Attachment;
 import org.thoughtcrime.securesms.util.StickyHeaderDecoration;
@@ -160,6 +163,12 @@ public class ConversationFragment extends Fragment
     }
   }
 
+  @Override
+  public void onPause() {
+    super.onPause();
+    AttachmentDownloadScheduler.getInstance(getActivity()).setVisible(Collections.<AttachmentId>emptyList());
+  }
+
   public void onNewIntent() {
     if (actionMode != null) {
       actionMode.finish();
@@ -509,15 +518,19 @@ public class ConversationFragment extends Fragment
     private final Animation              scrollButtonInAnimation;
     private final Animation              scrollButtonOutAnimation;
     private final ConversationDateHeader conversationDateHeader;
+    private final FrameTimeMonitor       frameTimeMonitor;
 
     private boolean wasAtBottom           = true;
     private boolean wasAtZoomScrollHeight = false;
     private long    lastPositionId        = -1;
+    private int     lastPrefetchFirst     = -1;
+    private int     lastPrefetchLast      = -1;
 
     ConversationScrollListener(@NonNull Context context) {
       this.scrollButtonInAnimation  = AnimationUtils.loadAnimation(context, R.anim.fade_scale_in);
       this.scrollButtonOutAnimation = AnimationUtils.loadAnimation(context, R.anim.fade_scale_out);
       this.conversationDateHeader   = new ConversationDateHeader(context, scrollDateHeader);
+      this.frameTimeMonitor         = new FrameTimeMonitor(TAG);
 
       this.scrollButtonInAnimation.setDuration(100);
       this.scrollButtonOutAnimation.setDuration(50);
@@ -544,6 +557,8 @@ public class ConversationFragment extends Fragment
         bindScrollHeader(conversationDateHeader, positionId);
       }
 
+      prefetchRows();
+
       wasAtBottom           = currentlyAtBottom;
       wasAtZoomScrollHeight = currentlyAtZoomScrollHeight;
       lastPositionId        = positionId;
@@ -553,8 +568,10 @@ public class ConversationFragment extends Fragment
     public void onScrollStateChanged(RecyclerView recyclerView, int newState) {
       if (newState == RecyclerView.SCROLL_STATE_DRAGGING) {
         conversationDateHeader.show();
+        frameTimeMonitor.start();
       } else if (newState == RecyclerView.SCROLL_STATE_IDLE) {
         conversationDateHeader.hide();
+        frameTimeMonitor.stop();
       }
     }
 
@@ -576,6 +593,21 @@ public class ConversationFragment extends Fragment
       return ((LinearLayoutManager)list.getLayoutManager()).findLastVisibleItemPosition();
     }
 
+    private void prefetchRows() {
+      if (threadId == -1 || getListAdapter() == null) return;
+
+      LinearLayoutManager layoutManager = (LinearLayoutManager) list.getLayoutManager();
+      int                 first         = layoutManager.findFirstVisibleItemPosition();
+      int                 last          = layoutManager.findLastVisibleItemPosition();
+
+      if (first != lastPrefetchFirst || last != lastPrefetchLast) {
+        getListAdapter().prefetch(threadId, first, last);
+        AttachmentDownloadScheduler.getInstance(getActivity()).setVisible(getListAdapter().getInProgressAttachments(first, last));
+        lastPrefetchFirst = first;
+        lastPrefetchLast  = last;
+      }
+    }
+
     private void bindScrollHeader(HeaderViewHolder headerViewHolder, int positionId) {
       if (((ConversationAdapter)list.getAdapter()).getHeaderId(positionId) != -1) {
         ((ConversationAdapter) list.getAdapter()).onBindHeaderViewHolder(headerViewHolder, positionId);
@@ -0,0 +1,174 @@
+package org.thoughtcrime.securesms;
+
+import android.database.Cursor;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.thoughtcrime.securesms.database.MmsSmsColumns;
+import org.thoughtcrime.securesms.database.MmsSmsDatabase;
+import org.thoughtcrime.securesms.database.model.MessageRecord;
+import org.thoughtcrime.securesms.database.model.MmsMessageRecord;
+import org.thoughtcrime.securesms.mms.Slide;
+import org.thoughtcrime.securesms.util.Conversions;
+import org.thoughtcrime.securesms.util.Util;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * A memory-bounded cache of decoded conversation rows, keyed by transport and message id.
+ *
+ * Each row holds everything the adapter needs repeatedly while scrolling: the decoded
+ * {@link MessageRecord} (with its parsed attachments), the stable item id, and the
+ * day bucket used for date headers.
+ */
+class ConversationRowCache {
+
+  private static final int MEMORY_FRACTION = 32;
+
+  private final LinkedHashMap<String, Row> cache = new LinkedHashMap<>(16, 0.75f, true);
+  private final long                       maxSize;
+
+  private long size;
+  private int  generation;
+
+  ConversationRowCache() {
+    this.maxSize = Runtime.getRuntime().maxMemory() / MEMORY_FRACTION;
+  }
+
+  static @NonNull String getKey(@NonNull Cursor cursor) {
+    long   messageId = cursor.getLong(cursor.getColumnIndexOrThrow(MmsSmsColumns.ID));
+    String transport = cursor.getString(cursor.getColumnIndexOrThrow(MmsSmsDatabase.TRANSPORT));
+
+    return transport + messageId;
+  }
+
+  synchronized @Nullable Row get(@NonNull String key) {
+    return cache.get(key);
+  }
+
+  synchronized boolean contains(@NonNull String key) {
+    return cache.containsKey(key);
+  }
+
+  synchronized int getGeneration() {
+    return generation;
+  }
+
+  synchronized void put(int generation, @NonNull String key, @NonNull Row row) {
+    if (generation != this.generation) return;
+
+    Row previous = cache.put(key, row);
+
+    if (previous != null) size -= previous.getSize();
+    size += row.getSize();
+
+    Iterator<Row> iterator = cache.values().iterator();
+
+    while (size > maxSize && iterator.hasNext()) {
+      size -= iterator.next().getSize();
+      iterator.remove();
+    }
+  }
+
+  synchronized void clear() {
+    generation++;
+    cache.clear();
+    size = 0;
+  }
+
+  static class Row {
+
+    private final MessageRecord messageRecord;
+    private final long          itemId;
+    private final long          headerId;
+    private final int           size;
+
+    private Row(@NonNull MessageRecord messageRecord, long itemId, long headerId, int size) {
+      this.messageRecord = messageRecord;
+      this.itemId        = itemId;
+      this.headerId      = headerId;
+      this.size          = size;
+    }
+
+    @NonNull MessageRecord getMessageRecord() {
+      return messageRecord;
+    }
+
+    long getItemId() {
+      return itemId;
+    }
+
+    long getHeaderId() {
+      return headerId;
+    }
+
+    int getSize() {
+      return size;
+    }
+  }
+
+  /**
+   * Decodes rows from a conversation cursor. Not thread safe, each thread that decodes
+   * rows should use its own instance.
+   */
+  static class Decoder {
+
+    private static final int BASE_ROW_SIZE   = 512;
+    private static final int BASE_SLIDE_SIZE = 256;
+
+    private final MessageDigest digest;
+    private final Calendar      calendar;
+
+    Decoder() {
+      try {
+        this.digest   = MessageDigest.getInstance("SHA1");
+        this.calendar = Calendar.getInstance();
+      } catch (NoSuchAlgorithmException nsae) {
+        throw new AssertionError("SHA1 isn't supported!");
+      }
+    }
+
+    @NonNull Row decode(@NonNull MmsSmsDatabase.Reader reader, @NonNull Cursor cursor) {
+      MessageRecord messageRecord = reader.getCurrent();
+      String        uniqueRowId   = cursor.getString(cursor.getColumnIndexOrThrow(MmsSmsColumns.UNIQUE_ROW_ID));
+
+      return new Row(messageRecord,
+                     getItemId(messageRecord, uniqueRowId),
+                     getHeaderId(messageRecord),
+                     getSize(messageRecord));
+    }
+
+    private long getItemId(@NonNull MessageRecord messageRecord, @NonNull String uniqueRowId) {
+      if (messageRecord.isMms()) {
+        List<Slide> slides = ((MmsMessageRecord)messageRecord).getSlideDeck().getSlides();
+
+        if (slides.size() > 0 && slides.get(0).getFastPreflightId() != null) {
+          return Long.valueOf(slides.get(0).getFastPreflightId());
+        }
+      }
+
+      return Conversions.byteArrayToLong(digest.digest(uniqueRowId.getBytes()));
+    }
+
+    long getHeaderId(@NonNull MessageRecord messageRecord) {
+      calendar.setTime(new Date(messageRecord.getDateSent()));
+      return Util.hashCode(calendar.get(Calendar.YEAR), calendar.get(Calendar.DAY_OF_YEAR));
+    }
+
+    private int getSize(@NonNull MessageRecord messageRecord) {
+      int size = BASE_ROW_SIZE + messageRecord.getBody().length() * 2;
+
+      if (messageRecord.isMms()) {
+        size += ((MmsMessageRecord)messageRecord).getSlideDeck().getSlides().size() * BASE_SLIDE_SIZE;
+      }
+
+      return size;
+    }
+  }
+}
@@ -117,7 +117,7 @@ public class ImportExportFragment extends Fragment {
   }
 
   @SuppressLint("StaticFieldLeak")
-  private class ImportPlaintextBackupTask extends AsyncTask<Void, Void, Integer> {
+  private class ImportPlaintextBackupTask extends AsyncTask<Void, Integer, Integer> {
 
     @Override
     protected void onPreExecute() {
@@ -127,6 +127,15 @@ public class ImportExportFragment extends Fragment {
                                            true, false);
     }
 
+    @Override
+    protected void onProgressUpdate(Integer... imported) {
+      Context context = getActivity();
+
+      if (progressDialog != null && context != null) {
+        progressDialog.setMessage(context.getString(R.string.ImportFragment_imported_d_messages, imported[0]));
+      }
+    }
+
     protected void onPostExecute(Integer result) {
       Context context = getActivity();
 
@@ -158,7 +167,7 @@ public class ImportExportFragment extends Fragment {
     @Override
     protected Integer doInBackground(Void... params) {
       try {
-        PlaintextBackupImporter.importPlaintextFromSd(getActivity());
+        PlaintextBackupImporter.importPlaintextFromSd(getActivity(), imported -> publishProgress(imported));
         return SUCCESS;
       } catch (NoExternalStorageException e) {
         Log.w("ImportFragment", e);
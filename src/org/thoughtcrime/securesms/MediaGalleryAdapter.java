@@ -82,10 +82,14 @@ class MediaGalleryAdapter extends StickyHeaderGridAdapter {
     this.media             = media;
     this.itemClickListener = clickListener;
     this.selected          = new HashSet<>();
+
+    this.media.setPageLoadListener(this::notifyAllSectionsDataSetChanged);
   }
 
   public void setMedia(BucketedThreadMedia media) {
+    this.media.setPageLoadListener(null);
     this.media = media;
+    this.media.setPageLoadListener(this::notifyAllSectionsDataSetChanged);
   }
 
   @Override
@@ -108,7 +112,16 @@ class MediaGalleryAdapter extends StickyHeaderGridAdapter {
     MediaRecord   mediaRecord       = media.get(section, offset);
     ThumbnailView thumbnailView     = ((ViewHolder)viewHolder).imageView;
     View          selectedIndicator = ((ViewHolder)viewHolder).selectedIndicator;
-    Slide         slide             = MediaUtil.getSlideForAttachment(context, mediaRecord.getAttachment());
+
+    if (mediaRecord == null) {
+      thumbnailView.clear(glideRequests);
+      thumbnailView.setOnClickListener(null);
+      thumbnailView.setOnLongClickListener(null);
+      selectedIndicator.setVisibility(View.GONE);
+      return;
+    }
+
+    Slide slide = MediaUtil.getSlideForAttachment(context, mediaRecord.getAttachment());
 
     if (slide != null) {
       thumbnailView.setImageResource(glideRequests, slide, false, false);
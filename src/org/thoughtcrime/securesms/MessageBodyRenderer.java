@@ -0,0 +1,146 @@
+package org.thoughtcrime.securesms;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.text.SpannableString;
+import android.text.Spanned;
+import android.text.style.URLSpan;
+import android.text.util.Linkify;
+
+import org.thoughtcrime.securesms.components.emoji.EmojiTextView;
+import org.thoughtcrime.securesms.components.emoji.parsing.EmojiParser;
+import org.thoughtcrime.securesms.database.model.MessageRecord;
+import org.thoughtcrime.securesms.util.LRUCache;
+import org.thoughtcrime.securesms.util.LongClickCopySpan;
+import org.thoughtcrime.securesms.util.TextSecurePreferences;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Renders conversation message bodies (links and emoji candidates) and caches the result,
+ * keyed by message, body and the settings that affect rendering.
+ *
+ * Rows that are about to scroll into view are rendered on a small worker pool, so binding
+ * a {@link ConversationItem} usually only has to attach the finished spans.
+ */
+class MessageBodyRenderer {
+
+  private static final int MAX_CACHE_SIZE = 300;
+  private static final int WORKER_COUNT   = 2;
+
+  private static volatile MessageBodyRenderer instance;
+
+  private final Context                   context;
+  private final Map<String, RenderedBody> cache;
+  private final ExecutorService           executor;
+
+  static MessageBodyRenderer getInstance(@NonNull Context context) {
+    if (instance == null) {
+      synchronized (MessageBodyRenderer.class) {
+        if (instance == null) {
+          instance = new MessageBodyRenderer(context.getApplicationContext());
+        }
+      }
+    }
+
+    return instance;
+  }
+
+  private MessageBodyRenderer(@NonNull Context context) {
+    this.context  = context;
+    this.cache    = Collections.synchronizedMap(new LRUCache<>(MAX_CACHE_SIZE));
+    this.executor = new ThreadPoolExecutor(WORKER_COUNT, WORKER_COUNT, 30, TimeUnit.SECONDS,
+                                           new LinkedBlockingQueue<>(),
+                                           runnable -> {
+                                             Thread thread = new Thread(runnable, "MessageBodyRenderer");
+                                             thread.setPriority(Thread.MIN_PRIORITY);
+                                             return thread;
+                                           });
+
+    ((ThreadPoolExecutor)executor).allowCoreThreadTimeOut(true);
+  }
+
+  /**
+   * Returns the rendered body for a message, rendering it on the calling thread if it
+   * hasn't been rendered ahead of time.
+   */
+  @NonNull RenderedBody get(@NonNull MessageRecord messageRecord, boolean linkifyAllLinks) {
+    String       key      = getKey(messageRecord, linkifyAllLinks);
+    RenderedBody rendered = cache.get(key);
+
+    if (rendered == null) {
+      rendered = render(messageRecord, linkifyAllLinks);
+      cache.put(key, rendered);
+    }
+
+    return rendered;
+  }
+
+  /**
+   * Renders the bodies of the given messages in the background, with links rendered the
+   * way they are when nothing is selected.
+   */
+  void prefetch(@NonNull List<MessageRecord> messageRecords) {
+    for (MessageRecord messageRecord : messageRecords) {
+      final String key = getKey(messageRecord, true);
+
+      if (!cache.containsKey(key)) {
+        executor.execute(() -> {
+          if (!cache.containsKey(key)) {
+            cache.put(key, render(messageRecord, true));
+          }
+        });
+      }
+    }
+  }
+
+  private @NonNull String getKey(@NonNull MessageRecord messageRecord, boolean linkifyAllLinks) {
+    return (messageRecord.isMms() ? "MMS::" : "SMS::") + messageRecord.getId()      + "::" +
+           messageRecord.getType()                                                   + "::" +
+           messageRecord.getBody().hashCode()                                        + "::" +
+           linkifyAllLinks                                                           + "::" +
+           TextSecurePreferences.isSystemEmojiPreferred(context);
+  }
+
+  private @NonNull RenderedBody render(@NonNull MessageRecord messageRecord, boolean linkifyAllLinks) {
+    SpannableString body     = messageRecord.getDisplayBody();
+    boolean         hasLinks = Linkify.addLinks(body, linkifyAllLinks ? Linkify.ALL : 0);
+
+    if (hasLinks) {
+      URLSpan[] urlSpans = body.getSpans(0, body.length(), URLSpan.class);
+      for (URLSpan urlSpan : urlSpans) {
+        int start = body.getSpanStart(urlSpan);
+        int end   = body.getSpanEnd(urlSpan);
+        body.setSpan(new LongClickCopySpan(urlSpan.getURL()), start, end, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+      }
+    }
+
+    return new RenderedBody(body, EmojiTextView.findCandidates(context, body));
+  }
+
+  static class RenderedBody {
+
+    private final SpannableString                     body;
+    private final @Nullable EmojiParser.CandidateList emojiCandidates;
+
+    private RenderedBody(@NonNull SpannableString body, @Nullable EmojiParser.CandidateList emojiCandidates) {
+      this.body            = body;
+      this.emojiCandidates = emojiCandidates;
+    }
+
+    @NonNull SpannableString getBody() {
+      return body;
+    }
+
+    @Nullable EmojiParser.CandidateList getEmojiCandidates() {
+      return emojiCandidates;
+    }
+  }
+}
@@ -0,0 +1,253 @@
+package org.thoughtcrime.securesms.attachments;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.support.annotation.VisibleForTesting;
+import android.text.TextUtils;
+import android.util.Log;
+
+import org.thoughtcrime.securesms.ApplicationContext;
+import org.thoughtcrime.securesms.database.AttachmentDatabase;
+import org.thoughtcrime.securesms.database.DatabaseFactory;
+import org.thoughtcrime.securesms.jobs.AttachmentDownloadJob;
+import org.thoughtcrime.securesms.util.AttachmentUtil;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Decides which attachment downloads run, and in what order.
+ *
+ * The downloads waiting to run are the attachments the database has marked as started, so the
+ * queue survives a restart without its jobs being persisted. Only a few of them are handed to
+ * the job manager at a time: whatever is on screen first, then the smallest, then the oldest.
+ * A download that was handed over because it was on screen, and scrolls off before its job has
+ * started, is taken back so that its slot goes to what's on screen now.
+ */
+public class AttachmentDownloadScheduler {
+
+  private static final String TAG = AttachmentDownloadScheduler.class.getSimpleName();
+
+  private static final int MAX_CONCURRENT = 3;
+
+  private static AttachmentDownloadScheduler instance;
+
+  public static synchronized @NonNull AttachmentDownloadScheduler getInstance(@NonNull Context context) {
+    if (instance == null) {
+      Context application = context.getApplicationContext();
+
+      instance = new AttachmentDownloadScheduler(application,
+                                                 () -> DatabaseFactory.getAttachmentDatabase(application).getPendingAttachments(),
+                                                 attachment -> ApplicationContext.getInstance(application)
+                                                                                 .getJobManager()
+                                                                                 .add(new AttachmentDownloadJob(application, attachment.getMmsId(), attachment.getAttachmentId(), true)),
+                                                 Executors.newSingleThreadExecutor(),
+                                                 MAX_CONCURRENT);
+    }
+
+    return instance;
+  }
+
+  private final Context                     context;
+  private final PendingAttachments          pendingAttachments;
+  private final Dispatcher                  dispatcher;
+  private final Executor                    executor;
+  private final int                         maxConcurrent;
+  private final Map<AttachmentId, Boolean>  dispatched;
+  private final Set<AttachmentId>           running;
+
+  private Set<AttachmentId> visible;
+  private boolean           refreshPending;
+
+  @VisibleForTesting
+  AttachmentDownloadScheduler(Context context,
+                              @NonNull PendingAttachments pendingAttachments,
+                              @NonNull Dispatcher dispatcher,
+                              @NonNull Executor executor,
+                              int maxConcurrent)
+  {
+    this.context            = context;
+    this.pendingAttachments = pendingAttachments;
+    this.dispatcher         = dispatcher;
+    this.executor           = executor;
+    this.maxConcurrent      = maxConcurrent;
+    this.dispatched         = new HashMap<>();
+    this.running            = new HashSet<>();
+    this.visible            = Collections.emptySet();
+  }
+
+  /**
+   * Queues an attachment for download. Unless it was asked for, it's only queued if it can be
+   * downloaded automatically on the current connection.
+   */
+  public void schedule(long messageId, @NonNull AttachmentId attachmentId, boolean manual) {
+    executor.execute(() -> {
+      AttachmentDatabase database   = DatabaseFactory.getAttachmentDatabase(context);
+      Attachment         attachment = database.getAttachment(attachmentId);
+
+      if (attachment == null || !attachment.isInProgress()) {
+        return;
+      }
+
+      if (!manual && !AttachmentUtil.isAutoDownloadPermitted(context, attachment)) {
+        Log.w(TAG, "Attachment can't be auto downloaded...");
+        return;
+      }
+
+      if (attachment.getTransferState() != AttachmentDatabase.TRANSFER_PROGRESS_STARTED) {
+        database.setTransferState(messageId, attachmentId, AttachmentDatabase.TRANSFER_PROGRESS_STARTED);
+      }
+
+      dispatch();
+    });
+  }
+
+  /**
+   * Hands out any downloads that are waiting, as slots allow.
+   */
+  public void refresh() {
+    synchronized (this) {
+      if (refreshPending) return;
+      refreshPending = true;
+    }
+
+    executor.execute(this::dispatch);
+  }
+
+  /**
+   * Sets the attachments that are on screen, which are downloaded ahead of everything else.
+   */
+  public void setVisible(@NonNull Collection<AttachmentId> attachmentIds) {
+    synchronized (this) {
+      Set<AttachmentId> visible = new HashSet<>(attachmentIds);
+
+      if (visible.equals(this.visible)) {
+        return;
+      }
+
+      Iterator<Map.Entry<AttachmentId, Boolean>> iterator = dispatched.entrySet().iterator();
+
+      while (iterator.hasNext()) {
+        Map.Entry<AttachmentId, Boolean> entry = iterator.next();
+
+        if (entry.getValue() && !visible.contains(entry.getKey())) {
+          Log.w(TAG, "Taking back " + entry.getKey() + ", it's no longer on screen.");
+          iterator.remove();
+        }
+      }
+
+      this.visible = visible;
+    }
+
+    refresh();
+  }
+
+  /**
+   * Called by a download job when it starts.
+   *
+   * @return False if the download wasn't handed out, or has since been taken back, in which case
+   * the job shouldn't download it.
+   */
+  public synchronized boolean onStarted(@NonNull AttachmentId attachmentId) {
+    if (dispatched.remove(attachmentId) != null) {
+      running.add(attachmentId);
+      return true;
+    }
+
+    return running.contains(attachmentId);
+  }
+
+  /**
+   * Called by a download job once it's done with its attachment, whether or not it succeeded.
+   */
+  public void onFinished(@NonNull AttachmentId attachmentId) {
+    synchronized (this) {
+      running.remove(attachmentId);
+      dispatched.remove(attachmentId);
+    }
+
+    refresh();
+  }
+
+  private void dispatch() {
+    synchronized (this) {
+      refreshPending = false;
+    }
+
+    List<? extends Attachment> pending  = pendingAttachments.get();
+    List<DatabaseAttachment>   selected = new LinkedList<>();
+
+    synchronized (this) {
+      List<DatabaseAttachment> waiting = new LinkedList<>();
+
+      for (Attachment attachment : pending) {
+        DatabaseAttachment databaseAttachment = (DatabaseAttachment) attachment;
+        AttachmentId       attachmentId       = databaseAttachment.getAttachmentId();
+
+        if (!databaseAttachment.hasData() && !TextUtils.isEmpty(databaseAttachment.getLocation()) &&
+            !dispatched.containsKey(attachmentId) && !running.contains(attachmentId))
+        {
+          waiting.add(databaseAttachment);
+        }
+      }
+
+      Collections.sort(waiting, new PriorityComparator(visible));
+
+      for (DatabaseAttachment attachment : waiting) {
+        if (dispatched.size() + running.size() >= maxConcurrent) break;
+
+        dispatched.put(attachment.getAttachmentId(), visible.contains(attachment.getAttachmentId()));
+        selected.add(attachment);
+      }
+    }
+
+    for (DatabaseAttachment attachment : selected) {
+      Log.w(TAG, "Handing out " + attachment.getAttachmentId() + " (" + attachment.getSize() + " bytes)");
+      dispatcher.dispatch(attachment);
+    }
+  }
+
+  private static class PriorityComparator implements Comparator<DatabaseAttachment> {
+
+    private final Set<AttachmentId> visible;
+
+    private PriorityComparator(@NonNull Set<AttachmentId> visible) {
+      this.visible = visible;
+    }
+
+    @Override
+    public int compare(DatabaseAttachment lhs, DatabaseAttachment rhs) {
+      boolean lhsVisible = visible.contains(lhs.getAttachmentId());
+      boolean rhsVisible = visible.contains(rhs.getAttachmentId());
+
+      if (lhsVisible != rhsVisible) return lhsVisible ? -1 : 1;
+
+      long lhsSize = lhs.getSize() > 0 ? lhs.getSize() : Long.MAX_VALUE;
+      long rhsSize = rhs.getSize() > 0 ? rhs.getSize() : Long.MAX_VALUE;
+
+      if (lhsSize != rhsSize) return lhsSize < rhsSize ? -1 : 1;
+
+      return Long.compare(lhs.getAttachmentId().getRowId(), rhs.getAttachmentId().getRowId());
+    }
+  }
+
+  @VisibleForTesting
+  interface PendingAttachments {
+    @NonNull List<? extends Attachment> get();
+  }
+
+  @VisibleForTesting
+  interface Dispatcher {
+    void dispatch(@NonNull DatabaseAttachment attachment);
+  }
+}
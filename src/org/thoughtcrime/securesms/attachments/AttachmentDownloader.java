@@ -0,0 +1,481 @@
+package org.thoughtcrime.securesms.attachments;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import org.thoughtcrime.securesms.crypto.AttachmentSecret;
+import org.thoughtcrime.securesms.crypto.ModernDecryptingPartInputStream;
+import org.thoughtcrime.securesms.crypto.ModernEncryptingPartOutputStream;
+import org.whispersystems.libsignal.InvalidMessageException;
+import org.whispersystems.signalservice.api.messages.SignalServiceAttachment.ProgressListener;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.Cipher;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.Mac;
+import javax.crypto.NoSuchPaddingException;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Downloads the ciphertext of an attachment and decrypts it as it arrives, straight into an
+ * encrypted part, so the part is the only copy of the attachment that's ever written.
+ *
+ * The ciphertext is an IV, a run of AES-CBC blocks and an HMAC-SHA256 over both. Every so often
+ * the number of blocks written to the part is recorded next to it, so a download that's
+ * interrupted carries on from there the next time rather than starting over. Only the plaintext
+ * of those blocks is kept, so they're encrypted again on resume to bring the MAC and digest up
+ * to date. The part isn't handed out until the MAC and digest over all of it have been checked,
+ * and a resumed download that fails those checks is discarded and tried once more from the start.
+ */
+public class AttachmentDownloader {
+
+  private static final String TAG = AttachmentDownloader.class.getSimpleName();
+
+  private static final int  BLOCK_SIZE        = 16;
+  private static final int  MAC_SIZE          = 32;
+  private static final int  BUFFER_SIZE       = 8192;
+  private static final long COMMIT_INTERVAL   = 256 * 1024;
+  private static final long PROGRESS_INTERVAL = 250;
+  private static final int  STATE_VERSION     = 1;
+
+  private final AttachmentSecret attachmentSecret;
+  private final File             directory;
+  private final Source           source;
+
+  public AttachmentDownloader(@NonNull AttachmentSecret attachmentSecret, @NonNull File directory, @NonNull Source source) {
+    this.attachmentSecret = attachmentSecret;
+    this.directory        = directory;
+    this.source           = source;
+  }
+
+  /**
+   * @param keyMaterial The attachment's AES key followed by its MAC key.
+   * @param digest The digest of the whole ciphertext, if the sender provided one.
+   * @param plaintextLength The length of the attachment without padding, or 0 if it isn't known.
+   */
+  public @NonNull DownloadedPart download(@NonNull AttachmentId attachmentId,
+                                          @NonNull byte[] keyMaterial,
+                                          @Nullable byte[] digest,
+                                          long plaintextLength,
+                                          long maxLength,
+                                          @Nullable ProgressListener listener)
+      throws IOException, InvalidMessageException
+  {
+    try {
+      return download(attachmentId, keyMaterial, digest, plaintextLength, maxLength, listener, true);
+    } catch (ResumedPartException e) {
+      Log.w(TAG, "Resumed download of " + attachmentId + " failed verification, starting over.", e);
+      return download(attachmentId, keyMaterial, digest, plaintextLength, maxLength, listener, false);
+    }
+  }
+
+  private @NonNull DownloadedPart download(@NonNull AttachmentId attachmentId,
+                                           @NonNull byte[] keyMaterial,
+                                           @Nullable byte[] digest,
+                                           long plaintextLength,
+                                           long maxLength,
+                                           @Nullable ProgressListener listener,
+                                           boolean resume)
+      throws IOException, InvalidMessageException
+  {
+    File  partFile  = getPartFile(directory, attachmentId);
+    File  stateFile = getStateFile(directory, attachmentId);
+    State state     = resume ? readState(stateFile, partFile) : null;
+    Range range     = null;
+
+    try {
+      if (state != null) {
+        range = source.open(state.getCiphertextOffset());
+
+        if (range.getLength() != state.length) {
+          Log.w(TAG, "Ciphertext changed from " + state.length + " to " + range.getLength() + ", starting over.");
+          range.close();
+          range = null;
+          state = null;
+        } else {
+          Log.w(TAG, "Resuming " + attachmentId + " at " + state.getCiphertextOffset() + " of " + state.length);
+        }
+      }
+
+      if (state == null) {
+        discard(directory, attachmentId);
+
+        range = source.open(0);
+        state = new State(range.getLength(), readFully(range.getStream(), new byte[BLOCK_SIZE]), createRandom(), 0);
+      }
+
+      if (state.length > maxLength) {
+        throw new InvalidMessageException("Attachment exceeds max size: " + state.length);
+      }
+
+      if (state.length < 2 * BLOCK_SIZE + MAC_SIZE || (state.length - BLOCK_SIZE - MAC_SIZE) % BLOCK_SIZE != 0) {
+        throw new InvalidMessageException("Bad ciphertext length: " + state.length);
+      }
+
+      boolean resumed = state.blocks > 0;
+      long    written;
+
+      try {
+        written = decrypt(range.getStream(), partFile, stateFile, state, keyMaterial, digest, listener);
+      } catch (InvalidMessageException e) {
+        if (resumed) throw new ResumedPartException(e);
+        else         throw e;
+      }
+
+      if (plaintextLength > 0 && plaintextLength < written) {
+        RandomAccessFile file = new RandomAccessFile(partFile, "rw");
+        file.setLength(plaintextLength);
+        file.close();
+        written = plaintextLength;
+      }
+
+      File dataFile = File.createTempFile("part", ".mms", directory);
+
+      if (!partFile.renameTo(dataFile)) {
+        throw new IOException("Rename failed: " + partFile + " to " + dataFile);
+      }
+
+      //noinspection ResultOfMethodCallIgnored
+      stateFile.delete();
+
+      return new DownloadedPart(dataFile, written, state.random);
+    } catch (InvalidMessageException e) {
+      discard(directory, attachmentId);
+      throw e;
+    } finally {
+      if (range != null) range.close();
+    }
+  }
+
+  /**
+   * Deletes anything left behind by an unfinished download of the attachment.
+   */
+  @SuppressWarnings("ResultOfMethodCallIgnored")
+  public static void discard(@NonNull File directory, @NonNull AttachmentId attachmentId) {
+    getPartFile(directory, attachmentId).delete();
+    getStateFile(directory, attachmentId).delete();
+  }
+
+  private long decrypt(@NonNull InputStream in, @NonNull File partFile, @NonNull File stateFile, @NonNull State state,
+                       @NonNull byte[] keyMaterial, @Nullable byte[] theirDigest, @Nullable ProgressListener listener)
+      throws IOException, InvalidMessageException
+  {
+    try {
+      byte[] cipherKey = Arrays.copyOfRange(keyMaterial, 0, 32);
+      byte[] macKey    = Arrays.copyOfRange(keyMaterial, 32, 64);
+
+      Mac mac = Mac.getInstance("HmacSHA256");
+      mac.init(new SecretKeySpec(macKey, "HmacSHA256"));
+
+      MessageDigest messageDigest = MessageDigest.getInstance("SHA-256");
+
+      mac.update(state.iv);
+      messageDigest.update(state.iv);
+
+      byte[] previousBlock = replay(partFile, state, cipherKey, mac, messageDigest);
+      Cipher cipher        = Cipher.getInstance("AES/CBC/NoPadding");
+      cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(cipherKey, "AES"), new IvParameterSpec(previousBlock));
+
+      long         ciphertextEnd  = state.length - MAC_SIZE;
+      long         lastBlockStart = ciphertextEnd - BLOCK_SIZE;
+      long         position       = state.getCiphertextOffset();
+      long         written        = state.blocks * BLOCK_SIZE;
+      long         committed      = written;
+      long         reported       = 0;
+      byte[]       buffer         = new byte[BUFFER_SIZE];
+      byte[]       lastBlock      = new byte[BLOCK_SIZE];
+      OutputStream out            = ModernEncryptingPartOutputStream.createAppendingFor(attachmentSecret, state.random, partFile, written);
+
+      try {
+        while (position < ciphertextEnd) {
+          int read = in.read(buffer, 0, (int) Math.min(buffer.length, ciphertextEnd - position));
+
+          if (read == -1) throw new IOException("Stream ended at " + position + " of " + state.length);
+
+          mac.update(buffer, 0, read);
+          messageDigest.update(buffer, 0, read);
+
+          int decryptable = (int) Math.max(0, Math.min(read, lastBlockStart - position));
+
+          if (decryptable > 0) {
+            byte[] plaintext = cipher.update(buffer, 0, decryptable);
+
+            if (plaintext != null) {
+              out.write(plaintext);
+              written += plaintext.length;
+            }
+          }
+
+          if (decryptable < read) {
+            System.arraycopy(buffer, decryptable, lastBlock, (int) (position + decryptable - lastBlockStart), read - decryptable);
+          }
+
+          position += read;
+
+          if (written - committed >= COMMIT_INTERVAL) {
+            out.flush();
+            state.blocks = written / BLOCK_SIZE;
+            writeState(stateFile, state);
+            committed = written;
+          }
+
+          if (listener != null && System.currentTimeMillis() - reported >= PROGRESS_INTERVAL) {
+            listener.onAttachmentProgress(state.length, position);
+            reported = System.currentTimeMillis();
+          }
+        }
+
+        byte[] theirMac = readFully(in, new byte[MAC_SIZE]);
+        byte[] ourMac   = mac.doFinal();
+
+        messageDigest.update(theirMac);
+
+        if (!MessageDigest.isEqual(ourMac, theirMac)) {
+          throw new InvalidMessageException("MAC doesn't match!");
+        }
+
+        if (theirDigest != null && !MessageDigest.isEqual(messageDigest.digest(), theirDigest)) {
+          throw new InvalidMessageException("Digest doesn't match!");
+        }
+
+        byte[] plaintext = cipher.doFinal(lastBlock);
+        int    padding   = plaintext[BLOCK_SIZE - 1] & 0xFF;
+
+        if (padding < 1 || padding > BLOCK_SIZE) {
+          throw new InvalidMessageException("Bad padding: " + padding);
+        }
+
+        out.write(plaintext, 0, BLOCK_SIZE - padding);
+        written += BLOCK_SIZE - padding;
+
+        if (listener != null) {
+          listener.onAttachmentProgress(state.length, state.length);
+        }
+
+        return written;
+      } finally {
+        out.close();
+      }
+    } catch (NoSuchAlgorithmException | InvalidKeyException | InvalidAlgorithmParameterException | NoSuchPaddingException e) {
+      throw new AssertionError(e);
+    } catch (IllegalBlockSizeException | BadPaddingException e) {
+      throw new InvalidMessageException(e);
+    }
+  }
+
+  /**
+   * Encrypts the blocks already in the part again, to feed the ciphertext they came from into
+   * the MAC and digest.
+   *
+   * @return The last ciphertext block, which the next one is chained to.
+   */
+  private @NonNull byte[] replay(@NonNull File partFile, @NonNull State state, @NonNull byte[] cipherKey,
+                                 @NonNull Mac mac, @NonNull MessageDigest messageDigest)
+      throws IOException, NoSuchAlgorithmException, NoSuchPaddingException, InvalidKeyException, InvalidAlgorithmParameterException
+  {
+    byte[] previousBlock = state.iv;
+    long   remaining     = state.blocks * BLOCK_SIZE;
+
+    if (remaining == 0) {
+      return previousBlock;
+    }
+
+    Cipher cipher = Cipher.getInstance("AES/CBC/NoPadding");
+    cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(cipherKey, "AES"), new IvParameterSpec(state.iv));
+
+    try (InputStream in = ModernDecryptingPartInputStream.createFor(attachmentSecret, state.random, partFile, 0)) {
+      byte[] buffer = new byte[BUFFER_SIZE];
+
+      while (remaining > 0) {
+        int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+
+        if (read == -1) throw new IOException("Part ended with " + remaining + " bytes to go");
+
+        byte[] ciphertext = cipher.update(buffer, 0, read);
+
+        if (ciphertext != null && ciphertext.length > 0) {
+          mac.update(ciphertext);
+          messageDigest.update(ciphertext);
+          previousBlock = Arrays.copyOfRange(ciphertext, ciphertext.length - BLOCK_SIZE, ciphertext.length);
+        }
+
+        remaining -= read;
+      }
+    }
+
+    return previousBlock;
+  }
+
+  private static @Nullable State readState(@NonNull File stateFile, @NonNull File partFile) {
+    if (!stateFile.exists()) {
+      return null;
+    }
+
+    try (DataInputStream in = new DataInputStream(new FileInputStream(stateFile))) {
+      if (in.readInt() != STATE_VERSION) {
+        return null;
+      }
+
+      State state = new State(in.readLong(), readFully(in, new byte[BLOCK_SIZE]), readFully(in, new byte[32]), in.readLong());
+
+      if (partFile.length() < state.blocks * BLOCK_SIZE) {
+        Log.w(TAG, "Part is shorter than its recorded progress, starting over.");
+        return null;
+      }
+
+      return state;
+    } catch (IOException e) {
+      Log.w(TAG, e);
+      return null;
+    }
+  }
+
+  private static void writeState(@NonNull File stateFile, @NonNull State state) throws IOException {
+    File temporary = new File(stateFile.getPath() + ".tmp");
+
+    try (DataOutputStream out = new DataOutputStream(new FileOutputStream(temporary))) {
+      out.writeInt(STATE_VERSION);
+      out.writeLong(state.length);
+      out.write(state.iv);
+      out.write(state.random);
+      out.writeLong(state.blocks);
+    }
+
+    if (!temporary.renameTo(stateFile)) {
+      throw new IOException("Rename failed: " + temporary + " to " + stateFile);
+    }
+  }
+
+  private static @NonNull File getPartFile(@NonNull File directory, @NonNull AttachmentId attachmentId) {
+    return new File(directory, "download-" + attachmentId.getRowId() + "-" + attachmentId.getUniqueId() + ".mms");
+  }
+
+  private static @NonNull File getStateFile(@NonNull File directory, @NonNull AttachmentId attachmentId) {
+    return new File(directory, "download-" + attachmentId.getRowId() + "-" + attachmentId.getUniqueId() + ".state");
+  }
+
+  private static @NonNull byte[] createRandom() {
+    byte[] random = new byte[32];
+    new SecureRandom().nextBytes(random);
+    return random;
+  }
+
+  private static @NonNull byte[] readFully(@NonNull InputStream in, @NonNull byte[] buffer) throws IOException {
+    int offset = 0;
+
+    while (offset < buffer.length) {
+      int read = in.read(buffer, offset, buffer.length - offset);
+
+      if (read == -1) throw new IOException("Stream ended after " + offset + " of " + buffer.length + " bytes");
+
+      offset += read;
+    }
+
+    return buffer;
+  }
+
+  private static class State {
+    private final long   length;
+    private final byte[] iv;
+    private final byte[] random;
+
+    private long blocks;
+
+    private State(long length, byte[] iv, byte[] random, long blocks) {
+      this.length = length;
+      this.iv     = iv;
+      this.random = random;
+      this.blocks = blocks;
+    }
+
+    private long getCiphertextOffset() {
+      return BLOCK_SIZE + blocks * BLOCK_SIZE;
+    }
+  }
+
+  public static class DownloadedPart {
+    private final File   file;
+    private final long   length;
+    private final byte[] random;
+
+    private DownloadedPart(@NonNull File file, long length, @NonNull byte[] random) {
+      this.file   = file;
+      this.length = length;
+      this.random = random;
+    }
+
+    public @NonNull File getFile() {
+      return file;
+    }
+
+    public long getLength() {
+      return length;
+    }
+
+    public @NonNull byte[] getRandom() {
+      return random;
+    }
+  }
+
+  /**
+   * The whole ciphertext of an attachment, read from some offset on.
+   */
+  public static class Range implements Closeable {
+    private final InputStream stream;
+    private final long        length;
+
+    public Range(@NonNull InputStream stream, long length) {
+      this.stream = stream;
+      this.length = length;
+    }
+
+    public @NonNull InputStream getStream() {
+      return stream;
+    }
+
+    /**
+     * @return The length of the whole ciphertext, not just what's left of it.
+     */
+    public long getLength() {
+      return length;
+    }
+
+    @Override
+    public void close() throws IOException {
+      stream.close();
+    }
+  }
+
+  /**
+   * Verification failed for a download that carried on from a saved part, so the saved part
+   * may be what's wrong rather than the attachment.
+   */
+  private static class ResumedPartException extends InvalidMessageException {
+    private ResumedPartException(@NonNull InvalidMessageException cause) {
+      super(cause);
+    }
+  }
+
+  public interface Source {
+    @NonNull Range open(long offset) throws IOException;
+  }
+}
@@ -0,0 +1,226 @@
+package org.thoughtcrime.securesms.attachments;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.whispersystems.signalservice.api.push.TrustStore;
+import org.whispersystems.signalservice.api.push.exceptions.NonSuccessfulResponseCodeException;
+import org.whispersystems.signalservice.api.push.exceptions.PushNetworkException;
+import org.whispersystems.signalservice.internal.configuration.SignalCdnUrl;
+import org.whispersystems.signalservice.internal.configuration.SignalServiceConfiguration;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.SecureRandom;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.TrustManagerFactory;
+import javax.net.ssl.X509TrustManager;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * Reads the ciphertext of an attachment from the CDN, starting wherever it's asked to with a
+ * Range request. A server that ignores the range is read from the start and skipped forward.
+ *
+ * Network failures surface as {@link PushNetworkException}, so a job can tell them apart from
+ * anything else that goes wrong.
+ */
+public class CdnAttachmentSource implements AttachmentDownloader.Source {
+
+  private static final Pattern CONTENT_RANGE = Pattern.compile("bytes (\\d+)-(\\d+)/(\\d+)");
+
+  private static final Map<String, OkHttpClient> CLIENTS = new HashMap<>();
+
+  private final OkHttpClient client;
+  private final String       url;
+  private final String       hostHeader;
+
+  public CdnAttachmentSource(@NonNull OkHttpClient client, @NonNull String url, @Nullable String hostHeader) {
+    this.client     = client;
+    this.url        = url;
+    this.hostHeader = hostHeader;
+  }
+
+  public static @NonNull CdnAttachmentSource forAttachment(@NonNull SignalServiceConfiguration configuration, long attachmentId) {
+    SignalCdnUrl[] cdnUrls = configuration.getSignalCdnUrls();
+    SignalCdnUrl   cdnUrl  = cdnUrls[new SecureRandom().nextInt(cdnUrls.length)];
+
+    return new CdnAttachmentSource(getClient(cdnUrl),
+                                   cdnUrl.getUrl() + "/attachments/" + attachmentId,
+                                   cdnUrl.getHostHeader().orNull());
+  }
+
+  @Override
+  public @NonNull AttachmentDownloader.Range open(long offset) throws IOException {
+    Request.Builder builder = new Request.Builder().url(url)
+                                                   .addHeader("Accept-Encoding", "identity")
+                                                   .get();
+
+    if (offset > 0)         builder.addHeader("Range", "bytes=" + offset + "-");
+    if (hostHeader != null) builder.addHeader("Host", hostHeader);
+
+    Response response;
+
+    try {
+      response = client.newCall(builder.build()).execute();
+    } catch (IOException e) {
+      throw new PushNetworkException(e);
+    }
+
+    ResponseBody body = response.body();
+
+    if (body == null) {
+      throw new PushNetworkException(new IOException("Response body was null"));
+    }
+
+    if (response.code() == 206) {
+      Matcher matcher = CONTENT_RANGE.matcher(String.valueOf(response.header("Content-Range")));
+
+      if (!matcher.matches() || Long.parseLong(matcher.group(1)) != offset) {
+        body.close();
+        throw new NonSuccessfulResponseCodeException("Bad range: " + response.header("Content-Range") + " for " + offset);
+      }
+
+      long length = Long.parseLong(matcher.group(3));
+
+      return new AttachmentDownloader.Range(new NetworkInputStream(body.byteStream(), length - offset), length);
+    } else if (response.code() == 200) {
+      if (body.contentLength() < 0) {
+        body.close();
+        throw new NonSuccessfulResponseCodeException("No content length");
+      }
+
+      InputStream stream = new NetworkInputStream(body.byteStream(), body.contentLength());
+
+      skipFully(stream, offset);
+      return new AttachmentDownloader.Range(stream, body.contentLength());
+    } else {
+      body.close();
+      throw new NonSuccessfulResponseCodeException("Bad response: " + response.code() + " - " + response.message());
+    }
+  }
+
+  private static void skipFully(@NonNull InputStream in, long length) throws IOException {
+    while (length > 0) {
+      long skipped = in.skip(length);
+
+      if (skipped <= 0) {
+        in.read();
+        skipped = 1;
+      }
+
+      length -= skipped;
+    }
+  }
+
+  /**
+   * Clients are kept per CDN, so every download shares its trust store and connection pool
+   * rather than loading the keystore and handshaking again.
+   */
+  private static @NonNull OkHttpClient getClient(@NonNull SignalCdnUrl cdnUrl) {
+    String key = cdnUrl.getUrl() + " " + cdnUrl.getHostHeader().or("");
+
+    synchronized (CLIENTS) {
+      OkHttpClient client = CLIENTS.get(key);
+
+      if (client == null) {
+        client = createClient(cdnUrl);
+        CLIENTS.put(key, client);
+      }
+
+      return client;
+    }
+  }
+
+  private static @NonNull OkHttpClient createClient(@NonNull SignalCdnUrl cdnUrl) {
+    try {
+      TrustStore trustStore = cdnUrl.getTrustStore();
+      KeyStore   keyStore   = KeyStore.getInstance("BKS");
+      keyStore.load(trustStore.getKeyStoreInputStream(), trustStore.getKeyStorePassword().toCharArray());
+
+      TrustManagerFactory trustManagerFactory = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+      trustManagerFactory.init(keyStore);
+
+      TrustManager[] trustManagers = trustManagerFactory.getTrustManagers();
+      SSLContext     sslContext    = SSLContext.getInstance("TLS");
+      sslContext.init(null, trustManagers, null);
+
+      OkHttpClient.Builder builder = new OkHttpClient.Builder().sslSocketFactory(sslContext.getSocketFactory(), (X509TrustManager) trustManagers[0]);
+
+      if (cdnUrl.getConnectionSpec().isPresent()) {
+        builder.connectionSpecs(Collections.singletonList(cdnUrl.getConnectionSpec().get()));
+      }
+
+      return builder.build();
+    } catch (GeneralSecurityException | IOException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  /**
+   * Reports read failures, and a body that ends before it should, as network failures.
+   */
+  private static class NetworkInputStream extends FilterInputStream {
+
+    private long remaining;
+
+    private NetworkInputStream(@NonNull InputStream in, long length) {
+      super(in);
+      this.remaining = length;
+    }
+
+    @Override
+    public int read() throws IOException {
+      byte[] buffer = new byte[1];
+      int    read   = read(buffer, 0, 1);
+
+      return read == -1 ? -1 : buffer[0] & 0xFF;
+    }
+
+    @Override
+    public int read(@NonNull byte[] buffer, int offset, int length) throws IOException {
+      int read;
+
+      try {
+        read = super.read(buffer, offset, length);
+      } catch (IOException e) {
+        throw new PushNetworkException(e);
+      }
+
+      if (read == -1 && remaining > 0) {
+        throw new PushNetworkException(new IOException("Stream ended with " + remaining + " bytes to go"));
+      }
+
+      if (read > 0) remaining -= read;
+
+      return read;
+    }
+
+    @Override
+    public long skip(long length) throws IOException {
+      long skipped;
+
+      try {
+        skipped = super.skip(length);
+      } catch (IOException e) {
+        throw new PushNetworkException(e);
+      }
+
+      remaining -= skipped;
+      return skipped;
+    }
+  }
+}
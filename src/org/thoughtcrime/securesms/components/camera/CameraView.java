@@ -21,11 +21,13 @@ import android.content.Context;
 import android.content.pm.ActivityInfo;
 import android.content.res.TypedArray;
 import android.graphics.Color;
+import android.graphics.ImageFormat;
 import android.graphics.Rect;
 import android.hardware.Camera;
 import android.hardware.Camera.CameraInfo;
 import android.hardware.Camera.Parameters;
 import android.hardware.Camera.Size;
+import android.net.Uri;
 import android.os.AsyncTask;
 import android.os.Build;
 import android.os.Build.VERSION;
@@ -40,20 +42,32 @@ import java.io.IOException;
 import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 
-import org.thoughtcrime.securesms.ApplicationContext;
 import org.thoughtcrime.securesms.R;
+import org.thoughtcrime.securesms.providers.PersistentBlobProvider;
 import org.thoughtcrime.securesms.util.BitmapUtil;
+import org.thoughtcrime.securesms.util.MediaUtil;
 import org.thoughtcrime.securesms.util.TextSecurePreferences;
 import org.thoughtcrime.securesms.util.Util;
-import org.whispersystems.jobqueue.Job;
-import org.whispersystems.jobqueue.JobParameters;
 import org.whispersystems.libsignal.util.guava.Optional;
 
 @SuppressWarnings("deprecation")
 public class CameraView extends ViewGroup {
   private static final String TAG = CameraView.class.getSimpleName();
 
+  /**
+   * Preview frames are delivered in buffers from this pool, which are handed back to the camera
+   * once the callback is done with them. If they're all in use, the camera drops frames.
+   */
+  private static final int PREVIEW_BUFFER_COUNT = 3;
+
+  /**
+   * Camera open, release and parameter changes run one at a time, in order, off the main thread.
+   */
+  private static final Executor TASK_EXECUTOR = Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "CameraView"));
+
   private final CameraSurfaceView   surface;
   private final OnOrientationChange onOrientationChange;
 
@@ -234,25 +248,49 @@ public class CameraView extends ViewGroup {
       @Override
       protected void onPostMain(Void avoid) {
         if (camera.isPresent()) {
-          camera.get().setPreviewCallback(new Camera.PreviewCallback() {
+          camera.get().setPreviewCallbackWithBuffer(new Camera.PreviewCallback() {
+            private Size previewSize = camera.get().getParameters().getPreviewSize();
+
             @Override
             public void onPreviewFrame(byte[] data, Camera camera) {
               if (!CameraView.this.camera.isPresent()) {
                 return;
               }
 
-              final int  rotation    = getCameraPictureOrientation();
-              final Size previewSize = camera.getParameters().getPreviewSize();
-              if (data != null) {
-                previewCallback.onPreviewFrame(new PreviewFrame(data, previewSize.width, previewSize.height, rotation));
+              if (data == null || data.length < getPreviewBufferSize(previewSize)) {
+                // The preview size changed, so the buffers we handed out are no longer big enough
+                previewSize = camera.getParameters().getPreviewSize();
+                addPreviewBuffers(camera, previewSize);
+                return;
               }
+
+              final int rotation = getCameraPictureOrientation();
+              previewCallback.onPreviewFrame(new PreviewFrame(data, previewSize.width, previewSize.height, rotation, () -> {
+                try {
+                  camera.addCallbackBuffer(data);
+                } catch (RuntimeException e) {
+                  Log.w(TAG, "Camera released before the preview buffer was returned.");
+                }
+              }));
             }
           });
+
+          addPreviewBuffers(camera.get(), camera.get().getParameters().getPreviewSize());
         }
       }
     });
   }
 
+  private static int getPreviewBufferSize(@NonNull Size previewSize) {
+    return previewSize.width * previewSize.height * ImageFormat.getBitsPerPixel(ImageFormat.NV21) / 8;
+  }
+
+  private static void addPreviewBuffers(@NonNull Camera camera, @NonNull Size previewSize) {
+    for (int i = 0; i < PREVIEW_BUFFER_COUNT; i++) {
+      camera.addCallbackBuffer(new byte[getPreviewBufferSize(previewSize)]);
+    }
+  }
+
   public boolean isMultiCamera() {
     return Camera.getNumberOfCameras() > 1;
   }
@@ -484,19 +522,13 @@ public class CameraView extends ViewGroup {
     rect.set(rect.top, rect.left, rect.bottom, rect.right);
   }
 
-  private void enqueueTask(SerialAsyncTask job) {
-    ApplicationContext.getInstance(getContext()).getJobManager().add(job);
+  private void enqueueTask(SerialAsyncTask task) {
+    TASK_EXECUTOR.execute(task);
   }
 
-  private static abstract class SerialAsyncTask<Result> extends Job {
-
-    public SerialAsyncTask() {
-      super(JobParameters.newBuilder().withGroupId(CameraView.class.getSimpleName()).create());
-    }
+  private static abstract class SerialAsyncTask<Result> implements Runnable {
 
-    @Override public void onAdded() {}
-
-    @Override public final void onRun() {
+    @Override public final void run() {
       try {
         onWait();
         Util.runOnMainSync(new Runnable() {
@@ -517,12 +549,6 @@ public class CameraView extends ViewGroup {
       }
     }
 
-    @Override public boolean onShouldRetry(Exception e) {
-      return false;
-    }
-
-    @Override public void onCanceled() { }
-
     protected void onWait() throws PreconditionsNotMetException {}
     protected void onPreMain() {}
     protected Result onRunBackground() { return null; }
@@ -543,7 +569,7 @@ public class CameraView extends ViewGroup {
     }
   }
 
-  private class CaptureTask extends AsyncTask<byte[], Void, byte[]> {
+  private class CaptureTask extends AsyncTask<byte[], Void, Uri> {
     private final Size previewSize;
     private final int  rotation;
     private final Rect croppingRect;
@@ -555,15 +581,20 @@ public class CameraView extends ViewGroup {
     }
 
     @Override
-    protected byte[] doInBackground(byte[]... params) {
+    protected Uri doInBackground(byte[]... params) {
       final byte[] data = params[0];
       try {
-        return BitmapUtil.createFromNV21(data,
-                                         previewSize.width,
-                                         previewSize.height,
-                                         rotation,
-                                         croppingRect,
-                                         cameraId == CameraInfo.CAMERA_FACING_FRONT);
+        return PersistentBlobProvider.getInstance(getContext())
+                                     .create(getContext(),
+                                             out -> BitmapUtil.createFromNV21(data,
+                                                                              previewSize.width,
+                                                                              previewSize.height,
+                                                                              rotation,
+                                                                              croppingRect,
+                                                                              cameraId == CameraInfo.CAMERA_FACING_FRONT,
+                                                                              out),
+                                             MediaUtil.IMAGE_JPEG,
+                                             null);
       } catch (IOException e) {
         Log.w(TAG, e);
         return null;
@@ -571,10 +602,10 @@ public class CameraView extends ViewGroup {
     }
 
     @Override
-    protected void onPostExecute(byte[] imageBytes) {
-      if (imageBytes != null) {
+    protected void onPostExecute(Uri uri) {
+      if (uri != null) {
         for (CameraViewListener listener : listeners) {
-          listener.onImageCapture(imageBytes);
+          listener.onImageCapture(uri);
         }
       }
     }
@@ -583,7 +614,7 @@ public class CameraView extends ViewGroup {
   private static class PreconditionsNotMetException extends Exception {}
 
   public interface CameraViewListener {
-    void onImageCapture(@NonNull final byte[] imageBytes);
+    void onImageCapture(@NonNull final Uri uri);
     void onCameraFail();
     void onCameraStart();
     void onCameraStop();
@@ -593,17 +624,27 @@ public class CameraView extends ViewGroup {
     void onPreviewFrame(@NonNull PreviewFrame frame);
   }
 
+  /**
+   * A preview frame backed by a pooled buffer. {@link #release()} must be called once the frame
+   * is no longer needed, or the camera runs out of buffers to deliver frames in.
+   */
   public static class PreviewFrame {
-    private final @NonNull byte[] data;
-    private final          int    width;
-    private final          int    height;
-    private final          int    orientation;
+    private final @NonNull byte[]   data;
+    private final          int      width;
+    private final          int      height;
+    private final          int      orientation;
+    private final @NonNull Runnable onRelease;
 
-    private PreviewFrame(@NonNull byte[] data, int width, int height, int orientation) {
+    private PreviewFrame(@NonNull byte[] data, int width, int height, int orientation, @NonNull Runnable onRelease) {
       this.data        = data;
       this.width       = width;
       this.height      = height;
       this.orientation = orientation;
+      this.onRelease   = onRelease;
+    }
+
+    public void release() {
+      onRelease.run();
     }
 
     public @NonNull byte[] getData() {
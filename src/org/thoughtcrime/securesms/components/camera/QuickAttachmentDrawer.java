@@ -5,6 +5,7 @@ import android.content.pm.PackageManager;
 import android.graphics.Canvas;
 import android.graphics.Rect;
 import android.hardware.Camera;
+import android.net.Uri;
 import android.os.Build.VERSION;
 import android.os.Build.VERSION_CODES;
 import android.support.annotation.NonNull;
@@ -342,7 +343,7 @@ public class QuickAttachmentDrawer extends ViewGroup implements InputView, Camer
   }
 
   @Override
-  public void onImageCapture(@NonNull byte[] imageBytes) {}
+  public void onImageCapture(@NonNull Uri uri) {}
 
   @Override
   public void onCameraFail() {
@@ -45,10 +45,23 @@ public class EmojiTextView extends AppCompatTextView {
     a.recycle();
   }
 
+  /**
+   * Parses the emoji in {@code text}. Safe to call off the main thread, the result can be
+   * handed to {@link #setText(CharSequence, EmojiParser.CandidateList)} later.
+   */
+  public static @Nullable EmojiParser.CandidateList findCandidates(@NonNull Context context, @Nullable CharSequence text) {
+    return EmojiProvider.getInstance(context).getCandidates(text);
+  }
+
   @Override public void setText(@Nullable CharSequence text, BufferType type) {
-    EmojiProvider provider = EmojiProvider.getInstance(getContext());
-    EmojiParser.CandidateList candidates = provider.getCandidates(text);
+    setText(text, type, EmojiProvider.getInstance(getContext()).getCandidates(text));
+  }
+
+  public void setText(@Nullable CharSequence text, @Nullable EmojiParser.CandidateList candidates) {
+    setText(text, BufferType.NORMAL, candidates);
+  }
 
+  private void setText(@Nullable CharSequence text, BufferType type, @Nullable EmojiParser.CandidateList candidates) {
     if (scaleEmojis && candidates != null && candidates.allEmojis) {
       int emojis = candidates.size();
       float scale = 1.0f;
@@ -0,0 +1,441 @@
+package org.thoughtcrime.securesms.contacts;
+
+import android.Manifest;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.provider.ContactsContract;
+import android.provider.ContactsContract.CommonDataKinds.Phone;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+import android.text.TextUtils;
+import android.util.Log;
+
+import org.thoughtcrime.securesms.database.Address;
+import org.thoughtcrime.securesms.database.DatabaseFactory;
+import org.thoughtcrime.securesms.permissions.Permissions;
+
+import java.text.Collator;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * An in-memory index of the phone numbers in the system contacts, along with whether each one is
+ * registered with Signal.
+ *
+ * The index is read from the contacts provider and the recipient database in one pass the first
+ * time it's needed, and read again the next time it's needed after the contacts change. It's read
+ * outside the lock, so searches of the last index and registration changes don't wait on it, and
+ * swapped in when it's done. Changes to registration are applied to it in place. Names and numbers are kept in parallel arrays, already
+ * normalized for matching, so that a search is a single scan with no queries.
+ *
+ * A search matches names by prefix, by the start of any word and by substring, names typed on a
+ * phone keypad (T9), and numbers by their digits.
+ */
+public class ContactIndex {
+
+  private static final String TAG = ContactIndex.class.getSimpleName();
+
+  private static final String[] PROJECTION = new String[] {Phone.CONTACT_ID,
+                                                           Phone.DISPLAY_NAME,
+                                                           Phone.NUMBER,
+                                                           Phone.TYPE,
+                                                           Phone.LABEL};
+
+  private static final String T9_KEYS = "22233344455566677778889999";
+
+  private static ContactIndex instance;
+
+  private final Context context;
+  private final Object  loadLock = new Object();
+
+  private Snapshot snapshot;
+  private boolean  stale = true;
+  private long     version;
+
+  public static synchronized @NonNull ContactIndex getInstance(@NonNull Context context) {
+    if (instance == null) {
+      instance = new ContactIndex(context.getApplicationContext());
+    }
+
+    return instance;
+  }
+
+  private ContactIndex(@NonNull Context context) {
+    this.context = context;
+
+    context.getContentResolver().registerContentObserver(ContactsContract.Contacts.CONTENT_URI, true, new ContentObserver(null) {
+      @Override
+      public void onChange(boolean selfChange) {
+        invalidate();
+      }
+    });
+  }
+
+  /**
+   * @param filter What was typed, or null for every contact.
+   * @param registered Whether to return numbers that are registered, or numbers that aren't.
+   */
+  public @NonNull Results search(@Nullable String filter, boolean registered) {
+    return getSnapshot().search(filter, registered);
+  }
+
+  /**
+   * @param filter What was typed, or null for every contact.
+   * @return Numbers that match whether or not they're registered.
+   */
+  public @NonNull Results searchAll(@Nullable String filter) {
+    return getSnapshot().searchAll(filter);
+  }
+
+  /**
+   * Every registered number that's in the system contacts, once each.
+   */
+  public @NonNull Results getRegistered() {
+    return getSnapshot().search(null, true).distinct();
+  }
+
+  public synchronized void setRegistered(@NonNull Address address, boolean registered) {
+    version++;
+
+    if (snapshot != null) {
+      snapshot.setRegistered(address, registered);
+    }
+  }
+
+  /**
+   * Reads the index again the next time it's needed.
+   */
+  public synchronized void invalidate() {
+    stale = true;
+    version++;
+  }
+
+  /**
+   * Only one read happens at a time. If the contacts or a registration change while it's going
+   * on, the result is still used but is read again the next time it's needed.
+   */
+  private @NonNull Snapshot getSnapshot() {
+    synchronized (this) {
+      if (!stale && snapshot != null) return snapshot;
+    }
+
+    synchronized (loadLock) {
+      long startVersion;
+
+      synchronized (this) {
+        if (!stale && snapshot != null) return snapshot;
+        startVersion = version;
+      }
+
+      long     startMillis = System.currentTimeMillis();
+      boolean  permitted   = Permissions.hasAny(context, Manifest.permission.READ_CONTACTS, Manifest.permission.WRITE_CONTACTS);
+      Snapshot loaded      = permitted ? load() : new Snapshot(new ArrayList<>());
+
+      Log.w(TAG, "Indexed " + loaded.size() + " numbers in " + (System.currentTimeMillis() - startMillis) + "ms");
+
+      synchronized (this) {
+        snapshot = loaded;
+        stale    = !permitted || version != startVersion;
+      }
+
+      return loaded;
+    }
+  }
+
+  private @NonNull Snapshot load() {
+    List<Contact> contacts = new ArrayList<>();
+
+    Set<Address> registered = new HashSet<>(DatabaseFactory.getRecipientDatabase(context).getRegistered());
+    Set<String>  seen       = new HashSet<>();
+
+    try (Cursor cursor = context.getContentResolver().query(Phone.CONTENT_URI, PROJECTION, null, null, null)) {
+      while (cursor != null && cursor.moveToNext()) {
+        long   contactId = cursor.getLong(0);
+        String name      = cursor.getString(1);
+        String number    = cursor.getString(2);
+
+        if (TextUtils.isEmpty(number)) continue;
+
+        Address address = Address.fromExternal(context, number);
+
+        if (!seen.add(contactId + ":" + address.serialize())) continue;
+
+        contacts.add(new Contact(contactId, name, number, cursor.getInt(3), cursor.getString(4),
+                                 address, registered.contains(address)));
+      }
+    }
+
+    return new Snapshot(contacts);
+  }
+
+  @VisibleForTesting
+  static @NonNull String normalizeName(@Nullable String name) {
+    if (name == null) return "";
+
+    String        decomposed = Normalizer.normalize(name, Normalizer.Form.NFD);
+    StringBuilder normalized = new StringBuilder(decomposed.length());
+
+    for (int i = 0; i < decomposed.length(); i++) {
+      char c = decomposed.charAt(i);
+
+      if (Character.getType(c) == Character.NON_SPACING_MARK) continue;
+
+      if (Character.isLetterOrDigit(c)) {
+        normalized.append(Character.toLowerCase(c));
+      } else if (normalized.length() > 0 && normalized.charAt(normalized.length() - 1) != ' ') {
+        normalized.append(' ');
+      }
+    }
+
+    return normalized.toString().trim();
+  }
+
+  @VisibleForTesting
+  static @NonNull String toT9(@NonNull String normalizedName) {
+    StringBuilder keys = new StringBuilder(normalizedName.length());
+
+    for (int i = 0; i < normalizedName.length(); i++) {
+      char c = normalizedName.charAt(i);
+
+      if      (c >= 'a' && c <= 'z') keys.append(T9_KEYS.charAt(c - 'a'));
+      else if (c >= '0' && c <= '9') keys.append(c);
+      else if (c == ' ')             keys.append(' ');
+      else                           keys.append('?');
+    }
+
+    return keys.toString();
+  }
+
+  @VisibleForTesting
+  static @NonNull String toDigits(@Nullable String number) {
+    if (number == null) return "";
+
+    StringBuilder digits = new StringBuilder(number.length());
+
+    for (int i = 0; i < number.length(); i++) {
+      char c = number.charAt(i);
+      if (c >= '0' && c <= '9') digits.append(c);
+    }
+
+    return digits.toString();
+  }
+
+  private static boolean isDialable(@NonNull String filter) {
+    for (int i = 0; i < filter.length(); i++) {
+      char c = filter.charAt(i);
+
+      if ((c < '0' || c > '9') && c != '+' && c != '-' && c != ' ' && c != '(' && c != ')' && c != '.') {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  @VisibleForTesting
+  static class Contact {
+    private final long    contactId;
+    private final String  name;
+    private final String  number;
+    private final int     numberType;
+    private final String  label;
+    private final Address address;
+    private final boolean registered;
+
+    Contact(long contactId, @Nullable String name, @NonNull String number, int numberType,
+            @Nullable String label, @NonNull Address address, boolean registered)
+    {
+      this.contactId  = contactId;
+      this.name       = name;
+      this.number     = number;
+      this.numberType = numberType;
+      this.label      = label;
+      this.address    = address;
+      this.registered = registered;
+    }
+  }
+
+  @VisibleForTesting
+  static class Snapshot {
+
+    private final long[]    contactIds;
+    private final String[]  names;
+    private final String[]  numbers;
+    private final int[]     numberTypes;
+    private final String[]  labels;
+    private final Address[] addresses;
+    private final boolean[] registered;
+    private final String[]  searchNames;
+    private final String[]  searchKeys;
+    private final String[]  searchNumbers;
+
+    Snapshot(@NonNull List<Contact> contacts) {
+      final Collator collator = Collator.getInstance();
+
+      contacts = new ArrayList<>(contacts);
+
+      Collections.sort(contacts, (lhs, rhs) -> collator.compare(lhs.name != null ? lhs.name : "",
+                                                                rhs.name != null ? rhs.name : ""));
+
+      int size = contacts.size();
+
+      contactIds    = new long[size];
+      names         = new String[size];
+      numbers       = new String[size];
+      numberTypes   = new int[size];
+      labels        = new String[size];
+      addresses     = new Address[size];
+      registered    = new boolean[size];
+      searchNames   = new String[size];
+      searchKeys    = new String[size];
+      searchNumbers = new String[size];
+
+      for (int i = 0; i < size; i++) {
+        Contact contact = contacts.get(i);
+
+        contactIds[i]    = contact.contactId;
+        names[i]         = contact.name;
+        numbers[i]       = contact.number;
+        numberTypes[i]   = contact.numberType;
+        labels[i]        = contact.label;
+        addresses[i]     = contact.address;
+        registered[i]    = contact.registered;
+        searchNames[i]   = normalizeName(contact.name);
+        searchKeys[i]    = toT9(searchNames[i]);
+        searchNumbers[i] = toDigits(contact.number);
+      }
+    }
+
+    int size() {
+      return names.length;
+    }
+
+    synchronized void setRegistered(@NonNull Address address, boolean registered) {
+      for (int i = 0; i < addresses.length; i++) {
+        if (addresses[i].equals(address)) {
+          this.registered[i] = registered;
+        }
+      }
+    }
+
+    /**
+     * Matches are ordered by how well they match (the start of the name or number, then the start
+     * of a word, then anywhere) and then by name.
+     */
+    @NonNull Results search(@Nullable String filter, boolean registered) {
+      return search(filter, registered, !registered);
+    }
+
+    @NonNull Results searchAll(@Nullable String filter) {
+      return search(filter, true, true);
+    }
+
+    private synchronized @NonNull Results search(@Nullable String filter, boolean includeRegistered, boolean includeUnregistered) {
+      int[] best  = new int[names.length];
+      int[] good  = new int[names.length];
+      int[] other = new int[names.length];
+      int   bestCount = 0, goodCount = 0, otherCount = 0;
+
+      boolean all      = TextUtils.isEmpty(filter);
+      String  name     = normalizeName(filter);
+      String  word     = " " + name;
+      String  digits   = toDigits(filter);
+      String  keys     = " " + digits;
+      boolean dialable = !all && isDialable(filter) && digits.length() > 0;
+
+      for (int i = 0; i < names.length; i++) {
+        if (this.registered[i] ? !includeRegistered : !includeUnregistered) continue;
+
+        if (all) {
+          best[bestCount++] = i;
+        } else if (name.length() > 0 && searchNames[i].startsWith(name) ||
+                   dialable && (searchNumbers[i].startsWith(digits) || searchKeys[i].startsWith(digits)))
+        {
+          best[bestCount++] = i;
+        } else if (name.length() > 0 && searchNames[i].contains(word) ||
+                   dialable && searchKeys[i].contains(keys))
+        {
+          good[goodCount++] = i;
+        } else if (name.length() > 0 && searchNames[i].contains(name) ||
+                   dialable && searchNumbers[i].contains(digits))
+        {
+          other[otherCount++] = i;
+        }
+      }
+
+      int[] positions = new int[bestCount + goodCount + otherCount];
+
+      System.arraycopy(best, 0, positions, 0, bestCount);
+      System.arraycopy(good, 0, positions, bestCount, goodCount);
+      System.arraycopy(other, 0, positions, bestCount + goodCount, otherCount);
+
+      return new Results(this, positions);
+    }
+  }
+
+  /**
+   * The contacts found by a search, in order.
+   */
+  public static class Results {
+
+    private final Snapshot snapshot;
+    private final int[]    positions;
+
+    private Results(@NonNull Snapshot snapshot, @NonNull int[] positions) {
+      this.snapshot  = snapshot;
+      this.positions = positions;
+    }
+
+    public int size() {
+      return positions.length;
+    }
+
+    public long getContactId(int index) {
+      return snapshot.contactIds[positions[index]];
+    }
+
+    public @Nullable String getName(int index) {
+      return snapshot.names[positions[index]];
+    }
+
+    public @NonNull String getNumber(int index) {
+      return snapshot.numbers[positions[index]];
+    }
+
+    public int getNumberType(int index) {
+      return snapshot.numberTypes[positions[index]];
+    }
+
+    public @Nullable String getLabel(int index) {
+      return snapshot.labels[positions[index]];
+    }
+
+    public @NonNull Address getAddress(int index) {
+      return snapshot.addresses[positions[index]];
+    }
+
+    /**
+     * @return These results with only the first contact for each address.
+     */
+    public @NonNull Results distinct() {
+      Set<Address> seen     = new HashSet<>();
+      int[]        distinct = new int[positions.length];
+      int          count    = 0;
+
+      for (int position : positions) {
+        if (seen.add(snapshot.addresses[position])) {
+          distinct[count++] = position;
+        }
+      }
+
+      return new Results(snapshot, Arrays.copyOf(distinct, count));
+    }
+  }
+}
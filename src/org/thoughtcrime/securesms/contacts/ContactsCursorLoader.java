@@ -25,17 +25,13 @@ import android.provider.ContactsContract;
 import android.support.annotation.NonNull;
 import android.support.v4.content.CursorLoader;
 import android.text.TextUtils;
-import android.util.Log;
 
 import org.thoughtcrime.securesms.R;
-import org.thoughtcrime.securesms.database.Address;
 import org.thoughtcrime.securesms.database.DatabaseFactory;
 import org.thoughtcrime.securesms.database.GroupDatabase;
-import org.thoughtcrime.securesms.database.RecipientDatabase;
 import org.thoughtcrime.securesms.database.ThreadDatabase;
 import org.thoughtcrime.securesms.database.model.ThreadRecord;
 import org.thoughtcrime.securesms.permissions.Permissions;
-import org.thoughtcrime.securesms.recipients.Recipient;
 import org.thoughtcrime.securesms.util.NumberUtil;
 
 import java.util.ArrayList;
@@ -179,22 +175,23 @@ public class ContactsCursorLoader extends CursorLoader {
   }
 
   private List<Cursor> getContactsCursors() {
-    ContactsDatabase contactsDatabase = DatabaseFactory.getContactsDatabase(getContext());
-    List<Cursor>     cursorList       = new ArrayList<>(2);
+    ContactIndex index      = ContactIndex.getInstance(getContext());
+    List<Cursor> cursorList = new ArrayList<>(2);
 
     if (!Permissions.hasAny(getContext(), Manifest.permission.READ_CONTACTS, Manifest.permission.WRITE_CONTACTS)) {
       return cursorList;
     }
 
     if (pushEnabled(mode)) {
-      cursorList.add(contactsDatabase.queryTextSecureContacts(filter));
+      cursorList.add(getPushContactsCursor(index.search(filter, true).distinct()));
     }
 
     if (pushEnabled(mode) && smsEnabled(mode)) {
-      cursorList.add(contactsDatabase.querySystemContacts(filter));
+      cursorList.add(getSystemContactsCursor(index.searchAll(filter)));
     } else if (smsEnabled(mode)) {
-      cursorList.add(filterNonPushContacts(contactsDatabase.querySystemContacts(filter)));
+      cursorList.add(getSystemContactsCursor(index.search(filter, false)));
     }
+
     return cursorList;
   }
 
@@ -223,27 +220,34 @@ public class ContactsCursorLoader extends CursorLoader {
     return newNumberCursor;
   }
 
-  private @NonNull Cursor filterNonPushContacts(@NonNull Cursor cursor) {
-    try {
-      final long startMillis = System.currentTimeMillis();
-      final MatrixCursor matrix = new MatrixCursor(CONTACT_PROJECTION);
-      while (cursor.moveToNext()) {
-        final String    number    = cursor.getString(cursor.getColumnIndexOrThrow(ContactsDatabase.NUMBER_COLUMN));
-        final Recipient recipient = Recipient.from(getContext(), Address.fromExternal(getContext(), number), false);
-
-        if (recipient.resolve().getRegistered() != RecipientDatabase.RegisteredState.REGISTERED) {
-          matrix.addRow(new Object[]{cursor.getString(cursor.getColumnIndexOrThrow(ContactsDatabase.NAME_COLUMN)),
-                                     number,
-                                     cursor.getString(cursor.getColumnIndexOrThrow(ContactsDatabase.NUMBER_TYPE_COLUMN)),
-                                     cursor.getString(cursor.getColumnIndexOrThrow(ContactsDatabase.LABEL_COLUMN)),
-                                     ContactsDatabase.NORMAL_TYPE});
-        }
-      }
-      Log.w(TAG, "filterNonPushContacts() -> " + (System.currentTimeMillis() - startMillis) + "ms");
-      return matrix;
-    } finally {
-      cursor.close();
+  private @NonNull Cursor getPushContactsCursor(@NonNull ContactIndex.Results contacts) {
+    MatrixCursor matrix = new MatrixCursor(CONTACT_PROJECTION, contacts.size());
+
+    for (int i = 0; i < contacts.size(); i++) {
+      matrix.addRow(new Object[] { contacts.getName(i),
+                                   contacts.getAddress(i).serialize(),
+                                   0,
+                                   "TextSecure",
+                                   ContactsDatabase.PUSH_TYPE });
+    }
+
+    matrix.setNotificationUri(getContext().getContentResolver(), ContactsContract.Contacts.CONTENT_URI);
+    return matrix;
+  }
+
+  private @NonNull Cursor getSystemContactsCursor(@NonNull ContactIndex.Results contacts) {
+    MatrixCursor matrix = new MatrixCursor(CONTACT_PROJECTION, contacts.size());
+
+    for (int i = 0; i < contacts.size(); i++) {
+      matrix.addRow(new Object[] { contacts.getName(i),
+                                   contacts.getNumber(i),
+                                   contacts.getNumberType(i),
+                                   contacts.getLabel(i),
+                                   ContactsDatabase.NORMAL_TYPE });
     }
+
+    matrix.setNotificationUri(getContext().getContentResolver(), ContactsContract.Contacts.CONTENT_URI);
+    return matrix;
   }
 
   private static boolean isCursorListEmpty(List<Cursor> list) {
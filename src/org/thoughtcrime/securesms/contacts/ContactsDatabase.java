@@ -17,23 +17,18 @@
 package org.thoughtcrime.securesms.contacts;
 
 import android.accounts.Account;
-import android.annotation.SuppressLint;
 import android.content.ContentProviderOperation;
 import android.content.Context;
 import android.content.OperationApplicationException;
 import android.database.Cursor;
-import android.database.CursorWrapper;
 import android.net.Uri;
-import android.os.Build;
 import android.os.RemoteException;
 import android.provider.BaseColumns;
 import android.provider.ContactsContract;
 import android.provider.ContactsContract.RawContacts;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
-import android.text.TextUtils;
 import android.util.Log;
-import android.util.Pair;
 
 import org.thoughtcrime.securesms.ContactSelectionListFragment;
 import org.thoughtcrime.securesms.R;
@@ -142,90 +137,6 @@ public class ContactsDatabase {
     }
   }
 
-  @SuppressLint("Recycle")
-  @NonNull Cursor querySystemContacts(@Nullable String filter) {
-    Uri uri;
-
-    if (!TextUtils.isEmpty(filter)) {
-      uri = Uri.withAppendedPath(ContactsContract.CommonDataKinds.Phone.CONTENT_FILTER_URI, Uri.encode(filter));
-    } else {
-      uri = ContactsContract.CommonDataKinds.Phone.CONTENT_URI;
-    }
-
-    if (android.os.Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
-      uri = uri.buildUpon().appendQueryParameter(ContactsContract.REMOVE_DUPLICATE_ENTRIES, "true").build();
-    }
-
-    String[] projection = new String[]{ContactsContract.CommonDataKinds.Phone.DISPLAY_NAME,
-                                       ContactsContract.CommonDataKinds.Phone.NUMBER,
-                                       ContactsContract.CommonDataKinds.Phone.TYPE,
-                                       ContactsContract.CommonDataKinds.Phone.LABEL};
-
-    String sort = ContactsContract.CommonDataKinds.Phone.DISPLAY_NAME + " COLLATE LOCALIZED ASC";
-
-    Map<String, String> projectionMap = new HashMap<String, String>() {{
-      put(NAME_COLUMN, ContactsContract.CommonDataKinds.Phone.DISPLAY_NAME);
-      put(NUMBER_COLUMN, ContactsContract.CommonDataKinds.Phone.NUMBER);
-      put(NUMBER_TYPE_COLUMN, ContactsContract.CommonDataKinds.Phone.TYPE);
-      put(LABEL_COLUMN, ContactsContract.CommonDataKinds.Phone.LABEL);
-    }};
-
-    String formattedNumber = "REPLACE(REPLACE(REPLACE(REPLACE(data1,' ',''),'-',''),'(',''),')','')";
-    String excludeSelection = "(" + formattedNumber +" NOT IN " +
-            "(SELECT data1 FROM view_data WHERE "+formattedNumber+" = data1) " +
-            "OR "+formattedNumber+" = data1)" +
-            "AND " + formattedNumber + "NOT IN (SELECT "+formattedNumber+" FROM view_data where mimetype = '"+CONTACT_MIMETYPE+"')" ;
-
-    String fallbackSelection = ContactsContract.Data.SYNC2 + " IS NULL OR " + ContactsContract.Data.SYNC2 + " != '" + SYNC + "'";
-
-    Cursor cursor;
-
-    try {
-      cursor = context.getContentResolver().query(uri, projection, excludeSelection, null, sort);
-    } catch (Exception e) {
-      Log.w(TAG, e);
-      cursor = context.getContentResolver().query(uri, projection, fallbackSelection, null, sort);
-    }
-
-    return new ProjectionMappingCursor(cursor, projectionMap, new Pair<>(CONTACT_TYPE_COLUMN, NORMAL_TYPE));
-  }
-
-  @SuppressLint("Recycle")
-  @NonNull Cursor queryTextSecureContacts(String filter) {
-    String[] projection = new String[] {ContactsContract.Contacts.DISPLAY_NAME,
-                                        ContactsContract.Data.DATA1};
-
-    String  sort = ContactsContract.Contacts.DISPLAY_NAME + " COLLATE LOCALIZED ASC";
-
-    Map<String, String> projectionMap = new HashMap<String, String>(){{
-      put(NAME_COLUMN, ContactsContract.Contacts.DISPLAY_NAME);
-      put(NUMBER_COLUMN, ContactsContract.Data.DATA1);
-    }};
-
-    Cursor cursor;
-
-    if (TextUtils.isEmpty(filter)) {
-      cursor = context.getContentResolver().query(ContactsContract.Data.CONTENT_URI,
-                                                  projection,
-                                                  ContactsContract.Data.MIMETYPE + " = ?",
-                                                  new String[] {CONTACT_MIMETYPE},
-                                                  sort);
-    } else {
-      cursor = context.getContentResolver().query(ContactsContract.Data.CONTENT_URI,
-                                                  projection,
-                                                  ContactsContract.Data.MIMETYPE + " = ? AND (" + ContactsContract.Contacts.DISPLAY_NAME + " LIKE ? OR " + ContactsContract.Data.DATA1 + " LIKE ?)",
-                                                  new String[] {CONTACT_MIMETYPE,
-                                                                "%" + filter + "%", "%" + filter + "%"},
-                                                  sort);
-    }
-
-    return new ProjectionMappingCursor(cursor, projectionMap,
-                                       new Pair<>(LABEL_COLUMN, "TextSecure"),
-                                       new Pair<>(NUMBER_TYPE_COLUMN, 0),
-                                       new Pair<>(CONTACT_TYPE_COLUMN, PUSH_TYPE));
-
-  }
-
   private void addContactVoiceSupport(List<ContentProviderOperation> operations,
                                       @NonNull Address address, long rawContactId)
   {
@@ -425,105 +336,6 @@ public class ContactsDatabase {
     }
   }
 
-  private static class ProjectionMappingCursor extends CursorWrapper {
-
-    private final Map<String, String>    projectionMap;
-    private final Pair<String, Object>[] extras;
-
-    @SafeVarargs
-    ProjectionMappingCursor(Cursor cursor,
-                            Map<String, String> projectionMap,
-                            Pair<String, Object>... extras)
-    {
-      super(cursor);
-      this.projectionMap = projectionMap;
-      this.extras        = extras;
-    }
-
-    @Override
-    public int getColumnCount() {
-      return super.getColumnCount() + extras.length;
-    }
-
-    @Override
-    public int getColumnIndex(String columnName) {
-      for (int i=0;i<extras.length;i++) {
-        if (extras[i].first.equals(columnName)) {
-          return super.getColumnCount() + i;
-        }
-      }
-
-      return super.getColumnIndex(projectionMap.get(columnName));
-    }
-
-    @Override
-    public int getColumnIndexOrThrow(String columnName) throws IllegalArgumentException {
-      int index = getColumnIndex(columnName);
-
-      if (index == -1) throw new IllegalArgumentException("Bad column name!");
-      else             return index;
-    }
-
-    @Override
-    public String getColumnName(int columnIndex) {
-      int baseColumnCount = super.getColumnCount();
-
-      if (columnIndex >= baseColumnCount) {
-        int offset = columnIndex - baseColumnCount;
-        return extras[offset].first;
-      }
-
-      return getReverseProjection(super.getColumnName(columnIndex));
-    }
-
-    @Override
-    public String[] getColumnNames() {
-      String[] names    = super.getColumnNames();
-      String[] allNames = new String[names.length + extras.length];
-
-      for (int i=0;i<names.length;i++) {
-        allNames[i] = getReverseProjection(names[i]);
-      }
-
-      for (int i=0;i<extras.length;i++) {
-        allNames[names.length + i] = extras[i].first;
-      }
-
-      return allNames;
-    }
-
-    @Override
-    public int getInt(int columnIndex) {
-      if (columnIndex >= super.getColumnCount()) {
-        int offset = columnIndex - super.getColumnCount();
-        return (Integer)extras[offset].second;
-      }
-
-      return super.getInt(columnIndex);
-    }
-
-    @Override
-    public String getString(int columnIndex) {
-      if (columnIndex >= super.getColumnCount()) {
-        int offset = columnIndex - super.getColumnCount();
-        return (String)extras[offset].second;
-      }
-
-      return super.getString(columnIndex);
-    }
-
-
-    private @Nullable String getReverseProjection(String columnName) {
-      for (Map.Entry<String, String> entry : projectionMap.entrySet()) {
-        if (entry.getValue().equals(columnName)) {
-          return entry.getKey();
-        }
-      }
-
-      return null;
-    }
-  }
-
   private static class SystemContactInfo {
     private final String name;
     private final String number;
@@ -0,0 +1,196 @@
+package org.thoughtcrime.securesms.contacts;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.database.Cursor;
+import android.net.Uri;
+import android.provider.ContactsContract;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import org.thoughtcrime.securesms.util.Hex;
+import org.thoughtcrime.securesms.util.Util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps copies of system contact photos on disk, named by the hash of their content.
+ *
+ * A photo is only read from the contacts provider when its data row changes, so repeated
+ * multi-device contact syncs can tell which avatars changed, and re-send unchanged ones
+ * from the cache.
+ */
+public class SystemContactAvatarCache {
+
+  private static final String TAG = SystemContactAvatarCache.class.getSimpleName();
+
+  private static final String DIRECTORY = "contact_avatars";
+
+  private static final SystemContactAvatarCache instance = new SystemContactAvatarCache();
+
+  private final Map<String, String> hashesByPhotoVersion = new HashMap<>();
+
+  public static SystemContactAvatarCache getInstance() {
+    return instance;
+  }
+
+  private SystemContactAvatarCache() {}
+
+  public synchronized @Nullable CachedAvatar get(@NonNull Context context, @NonNull Uri contactUri) {
+    String photoVersion = getPhotoVersion(context, contactUri);
+
+    if (photoVersion == null) {
+      return null;
+    }
+
+    String hash = hashesByPhotoVersion.get(photoVersion);
+
+    if (hash != null && getFile(context, hash).exists()) {
+      return new CachedAvatar(hash, getFile(context, hash));
+    }
+
+    try {
+      byte[] data = readPhoto(context, contactUri);
+
+      if (data == null) {
+        return null;
+      }
+
+      hash = Hex.toStringCondensed(MessageDigest.getInstance("SHA-256").digest(data));
+
+      File file = getFile(context, hash);
+
+      if (!file.exists()) {
+        File         temp = new File(file.getPath() + ".tmp");
+        OutputStream out  = new FileOutputStream(temp);
+
+        try {
+          out.write(data);
+        } finally {
+          out.close();
+        }
+
+        if (!temp.renameTo(file)) {
+          throw new IOException("Failed to rename " + temp);
+        }
+      }
+
+      hashesByPhotoVersion.put(photoVersion, hash);
+
+      return new CachedAvatar(hash, file);
+    } catch (IOException e) {
+      Log.w(TAG, e);
+      return null;
+    } catch (NoSuchAlgorithmException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  /**
+   * Deletes every cached photo whose hash isn't in the given set.
+   */
+  public synchronized void retainOnly(@NonNull Context context, @NonNull Set<String> hashes) {
+    File[] files = getDirectory(context).listFiles();
+
+    if (files != null) {
+      for (File file : files) {
+        if (!hashes.contains(file.getName()) && !file.delete()) {
+          Log.w(TAG, "Failed to delete " + file);
+        }
+      }
+    }
+
+    Iterator<String> iterator = hashesByPhotoVersion.values().iterator();
+
+    while (iterator.hasNext()) {
+      if (!hashes.contains(iterator.next())) iterator.remove();
+    }
+  }
+
+  /**
+   * Identifies the current photo of a contact without reading it. The data version changes
+   * whenever the thumbnail is rewritten, and a new display photo gets a new file id.
+   */
+  private @Nullable String getPhotoVersion(@NonNull Context context, @NonNull Uri contactUri) {
+    Uri      photoUri   = Uri.withAppendedPath(contactUri, ContactsContract.Contacts.Photo.CONTENT_DIRECTORY);
+    String[] projection = new String[] {ContactsContract.Data._ID,
+                                        ContactsContract.Data.DATA_VERSION,
+                                        ContactsContract.CommonDataKinds.Photo.PHOTO_FILE_ID};
+
+    try (Cursor cursor = context.getContentResolver().query(photoUri, projection, null, null, null)) {
+      if (cursor != null && cursor.moveToFirst()) {
+        return cursor.getLong(0) + ":" + cursor.getInt(1) + ":" + cursor.getLong(2);
+      }
+    } catch (IllegalArgumentException e) {
+      Log.w(TAG, e);
+    }
+
+    return null;
+  }
+
+  private @Nullable byte[] readPhoto(@NonNull Context context, @NonNull Uri contactUri) throws IOException {
+    try {
+      Uri                 displayPhotoUri = Uri.withAppendedPath(contactUri, ContactsContract.Contacts.Photo.DISPLAY_PHOTO);
+      AssetFileDescriptor fd              = context.getContentResolver().openAssetFileDescriptor(displayPhotoUri, "r");
+
+      if (fd != null) {
+        return Util.readFully(fd.createInputStream());
+      }
+    } catch (IOException e) {
+      Log.w(TAG, e);
+    }
+
+    Uri photoUri = Uri.withAppendedPath(contactUri, ContactsContract.Contacts.Photo.CONTENT_DIRECTORY);
+
+    try (Cursor cursor = context.getContentResolver().query(photoUri, new String[] {ContactsContract.CommonDataKinds.Photo.PHOTO}, null, null, null)) {
+      if (cursor != null && cursor.moveToFirst()) {
+        return cursor.getBlob(0);
+      }
+    }
+
+    return null;
+  }
+
+  private @NonNull File getFile(@NonNull Context context, @NonNull String hash) {
+    return new File(getDirectory(context), hash);
+  }
+
+  private @NonNull File getDirectory(@NonNull Context context) {
+    File directory = new File(context.getCacheDir(), DIRECTORY);
+
+    if (!directory.exists() && !directory.mkdirs()) {
+      Log.w(TAG, "Failed to create " + directory);
+    }
+
+    return directory;
+  }
+
+  public static class CachedAvatar {
+
+    private final String hash;
+    private final File   file;
+
+    private CachedAvatar(@NonNull String hash, @NonNull File file) {
+      this.hash = hash;
+      this.file = file;
+    }
+
+    public @NonNull String getHash() {
+      return hash;
+    }
+
+    public @NonNull File getFile() {
+      return file;
+    }
+  }
+}
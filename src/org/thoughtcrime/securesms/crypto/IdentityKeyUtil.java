@@ -52,6 +52,8 @@ public class IdentityKeyUtil {
   private static final String IDENTITY_PUBLIC_KEY_PREF                    = "pref_identity_public_v3";
   private static final String IDENTITY_PRIVATE_KEY_PREF                   = "pref_identity_private_v3";
 
+  private static volatile DecodedKeyPair decoded;
+
   public static boolean hasIdentityKey(Context context) {
     SharedPreferences preferences = context.getSharedPreferences(MasterSecretUtil.PREFERENCES_NAME, 0);
 
@@ -61,27 +63,26 @@ public class IdentityKeyUtil {
   }
 
   public static @NonNull IdentityKey getIdentityKey(@NonNull Context context) {
-    if (!hasIdentityKey(context)) throw new AssertionError("There isn't one!");
-
-    try {
-      byte[] publicKeyBytes = Base64.decode(retrieve(context, IDENTITY_PUBLIC_KEY_PREF));
-      return new IdentityKey(publicKeyBytes, 0);
-    } catch (IOException | InvalidKeyException e) {
-      throw new AssertionError(e);
-    }
+    return getIdentityKeyPair(context).getPublicKey();
   }
 
+  /**
+   * The key pair is decoded once, and decoded again only if what's stored changes (as it does
+   * when a backup is restored).
+   */
   public static @NonNull IdentityKeyPair getIdentityKeyPair(@NonNull Context context) {
     if (!hasIdentityKey(context)) throw new AssertionError("There isn't one!");
 
-    try {
-      IdentityKey  publicKey  = getIdentityKey(context);
-      ECPrivateKey privateKey = Curve.decodePrivatePoint(Base64.decode(retrieve(context, IDENTITY_PRIVATE_KEY_PREF)));
+    String         publicKey  = retrieve(context, IDENTITY_PUBLIC_KEY_PREF);
+    String         privateKey = retrieve(context, IDENTITY_PRIVATE_KEY_PREF);
+    DecodedKeyPair current    = decoded;
 
-      return new IdentityKeyPair(publicKey, privateKey);
-    } catch (IOException e) {
-      throw new AssertionError(e);
+    if (current == null || !current.publicKey.equals(publicKey) || !current.privateKey.equals(privateKey)) {
+      current = new DecodedKeyPair(publicKey, privateKey);
+      decoded = current;
     }
+
+    return current.keyPair;
   }
 
   public static void generateIdentityKeys(Context context) {
@@ -166,4 +167,21 @@ public class IdentityKeyUtil {
     context.getSharedPreferences(MasterSecretUtil.PREFERENCES_NAME, 0).edit().remove(key).commit();
   }
 
+  private static class DecodedKeyPair {
+    private final String          publicKey;
+    private final String          privateKey;
+    private final IdentityKeyPair keyPair;
+
+    private DecodedKeyPair(@NonNull String publicKey, @NonNull String privateKey) {
+      try {
+        this.publicKey  = publicKey;
+        this.privateKey = privateKey;
+        this.keyPair    = new IdentityKeyPair(new IdentityKey(Base64.decode(publicKey), 0),
+                                              Curve.decodePrivatePoint(Base64.decode(privateKey)));
+      } catch (IOException | InvalidKeyException e) {
+        throw new AssertionError(e);
+      }
+    }
+  }
+
 }
@@ -4,6 +4,8 @@ package org.thoughtcrime.securesms.crypto;
 import android.support.annotation.NonNull;
 import android.util.Pair;
 
+import org.thoughtcrime.securesms.util.Conversions;
+
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
@@ -54,4 +56,33 @@ public class ModernEncryptingPartOutputStream {
     }
   }
 
+  /**
+   * Continues a part that isn't stored inline, which is already {@code offset} bytes long.
+   * Anything in the file past that point is dropped.
+   */
+  public static OutputStream createAppendingFor(@NonNull AttachmentSecret attachmentSecret, @NonNull byte[] random, @NonNull File file, long offset)
+      throws IOException
+  {
+    try {
+      Mac mac = Mac.getInstance("HmacSHA256");
+      mac.init(new SecretKeySpec(attachmentSecret.getModernKey(), "HmacSHA256"));
+
+      byte[] iv        = new byte[16];
+      int    remainder = (int) (offset % 16);
+      Conversions.longTo4ByteArray(iv, 12, offset / 16);
+
+      byte[] key    = mac.doFinal(random);
+      Cipher cipher = Cipher.getInstance("AES/CTR/NoPadding");
+      cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "AES"), new IvParameterSpec(iv));
+      cipher.update(new byte[remainder]);
+
+      FileOutputStream fileOutputStream = new FileOutputStream(file, true);
+      fileOutputStream.getChannel().truncate(offset);
+
+      return new CipherOutputStream(fileOutputStream, cipher);
+    } catch (NoSuchAlgorithmException | InvalidKeyException | InvalidAlgorithmParameterException | NoSuchPaddingException e) {
+      throw new AssertionError(e);
+    }
+  }
+
 }
@@ -18,6 +18,8 @@
 package org.thoughtcrime.securesms.crypto;
 
 import android.content.Context;
+import android.support.annotation.NonNull;
+import android.support.annotation.VisibleForTesting;
 
 import org.thoughtcrime.securesms.crypto.storage.TextSecurePreKeyStore;
 import org.thoughtcrime.securesms.util.TextSecurePreferences;
@@ -26,40 +28,120 @@ import org.whispersystems.libsignal.InvalidKeyException;
 import org.whispersystems.libsignal.ecc.Curve;
 import org.whispersystems.libsignal.ecc.ECKeyPair;
 import org.whispersystems.libsignal.state.PreKeyRecord;
-import org.whispersystems.libsignal.state.PreKeyStore;
 import org.whispersystems.libsignal.state.SignedPreKeyRecord;
 import org.whispersystems.libsignal.state.SignedPreKeyStore;
 import org.whispersystems.libsignal.util.Medium;
 
-import java.util.LinkedList;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 public class PreKeyUtil {
 
   @SuppressWarnings("unused")
   private static final String TAG = PreKeyUtil.class.getName();
 
-  private static final int BATCH_SIZE = 100;
+  private static final int BATCH_SIZE        = 100;
+  private static final int GENERATOR_THREADS = 2;
 
-  public synchronized static List<PreKeyRecord> generatePreKeys(Context context) {
-    PreKeyStore        preKeyStore    = new TextSecurePreKeyStore(context);
-    List<PreKeyRecord> records        = new LinkedList<>();
-    int                preKeyIdOffset = TextSecurePreferences.getNextPreKeyId(context);
+  private static final ExecutorService GENERATOR_EXECUTOR = newGeneratorExecutor();
 
-    for (int i=0;i<BATCH_SIZE;i++) {
-      int          preKeyId = (preKeyIdOffset + i) % Medium.MAX_VALUE;
-      ECKeyPair    keyPair  = Curve.generateKeyPair();
-      PreKeyRecord record   = new PreKeyRecord(preKeyId, keyPair);
+  public static List<PreKeyRecord> generatePreKeys(Context context) throws IOException {
+    return generatePreKeys(context, BATCH_SIZE);
+  }
 
-      preKeyStore.storePreKey(preKeyId, record);
-      records.add(record);
+  /**
+   * Generates a batch of one-time prekeys on a small worker pool and stores them all in a single
+   * transaction.
+   *
+   * @throws InterruptedIOException if interrupted while waiting for the workers, in which case
+   * nothing is stored and the thread's interrupt status is set again.
+   */
+  public synchronized static List<PreKeyRecord> generatePreKeys(Context context, int count) throws IOException {
+    TextSecurePreKeyStore preKeyStore    = new TextSecurePreKeyStore(context);
+    List<ECKeyPair>       keyPairs       = generateKeyPairs(count, GENERATOR_THREADS);
+    List<PreKeyRecord>    records        = new ArrayList<>(count);
+    int                   preKeyIdOffset = TextSecurePreferences.getNextPreKeyId(context);
+
+    for (int i=0;i<count;i++) {
+      int preKeyId = (preKeyIdOffset + i) % Medium.MAX_VALUE;
+      records.add(new PreKeyRecord(preKeyId, keyPairs.get(i)));
     }
 
-    TextSecurePreferences.setNextPreKeyId(context, (preKeyIdOffset + BATCH_SIZE + 1) % Medium.MAX_VALUE);
+    preKeyStore.storePreKeys(records);
+    TextSecurePreferences.setNextPreKeyId(context, (preKeyIdOffset + count + 1) % Medium.MAX_VALUE);
 
     return records;
   }
 
+  /**
+   * Splits the key pairs to generate into up to {@code threads} chunks, which are generated in
+   * parallel and returned in order. Chunks that are still outstanding when this fails are
+   * cancelled.
+   */
+  @VisibleForTesting
+  static @NonNull List<ECKeyPair> generateKeyPairs(int count, int threads) throws InterruptedIOException {
+    int chunkSize = Math.max(1, (count + threads - 1) / threads);
+
+    if (count <= chunkSize) {
+      return generateKeyPairs(count);
+    }
+
+    List<Future<List<ECKeyPair>>> chunks   = new ArrayList<>(threads);
+    List<ECKeyPair>               keyPairs = new ArrayList<>(count);
+
+    for (int start = 0; start < count; start += chunkSize) {
+      int size = Math.min(chunkSize, count - start);
+      chunks.add(GENERATOR_EXECUTOR.submit(() -> generateKeyPairs(size)));
+    }
+
+    try {
+      for (Future<List<ECKeyPair>> chunk : chunks) {
+        keyPairs.addAll(chunk.get());
+      }
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) throw (RuntimeException)e.getCause();
+      else                                          throw new AssertionError(e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      InterruptedIOException exception = new InterruptedIOException("Interrupted while generating prekeys");
+      exception.initCause(e);
+      throw exception;
+    } finally {
+      for (Future<List<ECKeyPair>> chunk : chunks) {
+        chunk.cancel(true);
+      }
+    }
+
+    return keyPairs;
+  }
+
+  private static @NonNull List<ECKeyPair> generateKeyPairs(int count) {
+    List<ECKeyPair> keyPairs = new ArrayList<>(count);
+
+    for (int i = 0; i < count; i++) {
+      keyPairs.add(Curve.generateKeyPair());
+    }
+
+    return keyPairs;
+  }
+
+  private static ExecutorService newGeneratorExecutor() {
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(GENERATOR_THREADS, GENERATOR_THREADS, 30, TimeUnit.SECONDS,
+                                                         new LinkedBlockingQueue<>(),
+                                                         runnable -> new Thread(runnable, "PreKeyGenerator"));
+    executor.allowCoreThreadTimeOut(true);
+
+    return executor;
+  }
+
   public synchronized static SignedPreKeyRecord generateSignedPreKey(Context context, IdentityKeyPair identityKeyPair, boolean active) {
     try {
       SignedPreKeyStore  signedPreKeyStore = new TextSecurePreKeyStore(context);
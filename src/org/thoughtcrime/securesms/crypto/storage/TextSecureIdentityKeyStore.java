@@ -25,8 +25,14 @@ public class TextSecureIdentityKeyStore implements IdentityKeyStore {
 
   private static final int TIMESTAMP_THRESHOLD_SECONDS = 5;
 
-  private static final String TAG = TextSecureIdentityKeyStore.class.getSimpleName();
-  private static final Object LOCK = new Object();
+  private static final String   TAG   = TextSecureIdentityKeyStore.class.getSimpleName();
+  private static final Object[] LOCKS = new Object[32];
+
+  static {
+    for (int i = 0; i < LOCKS.length; i++) {
+      LOCKS[i] = new Object();
+    }
+  }
 
   private final Context context;
 
@@ -45,9 +51,10 @@ public class TextSecureIdentityKeyStore implements IdentityKeyStore {
   }
 
   public boolean saveIdentity(SignalProtocolAddress address, IdentityKey identityKey, boolean nonBlockingApproval) {
-    synchronized (LOCK) {
+    Address signalAddress = Address.fromExternal(context, address.getName());
+
+    synchronized (getLock(signalAddress)) {
       IdentityDatabase         identityDatabase = DatabaseFactory.getIdentityDatabase(context);
-      Address                  signalAddress    = Address.fromExternal(context, address.getName());
       Optional<IdentityRecord> identityRecord   = identityDatabase.getIdentity(signalAddress);
 
       if (!identityRecord.isPresent()) {
@@ -91,10 +98,11 @@ public class TextSecureIdentityKeyStore implements IdentityKeyStore {
 
   @Override
   public boolean isTrustedIdentity(SignalProtocolAddress address, IdentityKey identityKey, Direction direction) {
-    synchronized (LOCK) {
+    Address theirAddress = Address.fromExternal(context, address.getName());
+
+    synchronized (getLock(theirAddress)) {
       IdentityDatabase identityDatabase = DatabaseFactory.getIdentityDatabase(context);
       String           ourNumber        = TextSecurePreferences.getLocalNumber(context);
-      Address          theirAddress     = Address.fromExternal(context, address.getName());
 
       if (ourNumber.equals(address.getName()) || Address.fromSerialized(ourNumber).equals(theirAddress)) {
         return identityKey.equals(IdentityKeyUtil.getIdentityKey(context));
@@ -108,6 +116,14 @@ public class TextSecureIdentityKeyStore implements IdentityKeyStore {
     }
   }
 
+  /**
+   * Identities are locked by address, so checks and updates for different addresses can run at
+   * the same time.
+   */
+  private static Object getLock(Address address) {
+    return LOCKS[(address.hashCode() & Integer.MAX_VALUE) % LOCKS.length];
+  }
+
   private boolean isTrustedForSending(IdentityKey identityKey, Optional<IdentityRecord> identityRecord) {
     if (!identityRecord.isPresent()) {
       Log.w(TAG, "Nothing here, returning true...");
@@ -60,6 +60,12 @@ public class TextSecurePreKeyStore implements PreKeyStore, SignedPreKeyStore {
     }
   }
 
+  public void storePreKeys(List<PreKeyRecord> records) {
+    synchronized (FILE_LOCK) {
+      DatabaseFactory.getPreKeyDatabase(context).insertPreKeys(records);
+    }
+  }
+
   @Override
   public void storeSignedPreKey(int signedPreKeyId, SignedPreKeyRecord record) {
     synchronized (FILE_LOCK) {
@@ -33,9 +33,9 @@ import android.util.Pair;
 
 import net.sqlcipher.database.SQLiteDatabase;
 
-import org.json.JSONArray;
-import org.json.JSONException;
 import org.thoughtcrime.securesms.attachments.Attachment;
+import org.thoughtcrime.securesms.attachments.AttachmentDownloader;
+import org.thoughtcrime.securesms.attachments.AttachmentDownloader.DownloadedPart;
 import org.thoughtcrime.securesms.attachments.AttachmentId;
 import org.thoughtcrime.securesms.attachments.DatabaseAttachment;
 import org.thoughtcrime.securesms.crypto.AttachmentSecret;
@@ -48,7 +48,6 @@ import org.thoughtcrime.securesms.mms.MmsException;
 import org.thoughtcrime.securesms.mms.PartAuthority;
 import org.thoughtcrime.securesms.util.BitmapDecodingException;
 import org.thoughtcrime.securesms.util.BitmapUtil;
-import org.thoughtcrime.securesms.util.JsonUtils;
 import org.thoughtcrime.securesms.util.MediaUtil;
 import org.thoughtcrime.securesms.util.MediaUtil.ThumbnailData;
 import org.thoughtcrime.securesms.util.StorageUtil;
@@ -73,7 +72,7 @@ public class AttachmentDatabase extends Database {
 
   public  static final String TABLE_NAME             = "part";
   public  static final String ROW_ID                 = "_id";
-          static final String ATTACHMENT_JSON_ALIAS  = "attachment_json";
+          static final String PACKED_ATTACHMENTS     = "packed_attachments";
           static final String MMS_ID                 = "mid";
           static final String CONTENT_TYPE           = "ct";
           static final String NAME                   = "name";
@@ -126,6 +125,7 @@ public class AttachmentDatabase extends Database {
   public static final String[] CREATE_INDEXS = {
     "CREATE INDEX IF NOT EXISTS part_mms_id_index ON " + TABLE_NAME + " (" + MMS_ID + ");",
     "CREATE INDEX IF NOT EXISTS pending_push_index ON " + TABLE_NAME + " (" + TRANSFER_STATE + ");",
+    "CREATE INDEX IF NOT EXISTS part_mms_id_content_type_index ON " + TABLE_NAME + " (" + MMS_ID + ", " + CONTENT_TYPE + ");",
   };
 
   private final ExecutorService thumbnailExecutor = Util.newSingleThreadedLifoExecutor();
@@ -242,22 +242,26 @@ public class AttachmentDatabase extends Database {
 
   @SuppressWarnings("ResultOfMethodCallIgnored")
   void deleteAttachmentsForMessage(long mmsId) {
-    SQLiteDatabase database = databaseHelper.getWritableDatabase();
-    Cursor cursor           = null;
+    deleteAttachmentsForMessages(new long[] {mmsId});
+  }
 
-    try {
-      cursor = database.query(TABLE_NAME, new String[] {DATA, THUMBNAIL}, MMS_ID + " = ?",
-                              new String[] {mmsId+""}, null, null, null);
+  /**
+   * Deletes the attachments of several messages with one query and one delete, removing their
+   * files as it goes.
+   */
+  void deleteAttachmentsForMessages(@NonNull long[] mmsIds) {
+    SQLiteDatabase database  = databaseHelper.getWritableDatabase();
+    String         where     = MMS_ID + " IN (" + Util.join(mmsIds, ",") + ")";
+    File           directory = context.getDir(DIRECTORY, Context.MODE_PRIVATE);
 
+    try (Cursor cursor = database.query(TABLE_NAME, new String[] {DATA, THUMBNAIL, ROW_ID, UNIQUE_ID}, where, null, null, null, null)) {
       while (cursor != null && cursor.moveToNext()) {
         deleteAttachmentOnDisk(cursor.getString(0), cursor.getString(1));
+        AttachmentDownloader.discard(directory, new AttachmentId(cursor.getLong(2), cursor.getLong(3)));
       }
-    } finally {
-      if (cursor != null)
-        cursor.close();
     }
 
-    database.delete(TABLE_NAME, MMS_ID + " = ?", new String[] {mmsId + ""});
+    database.delete(TABLE_NAME, where, null);
     notifyAttachmentListeners();
   }
 
@@ -281,6 +285,7 @@ public class AttachmentDatabase extends Database {
 
       database.delete(TABLE_NAME, PART_ID_WHERE, id.toStrings());
       deleteAttachmentOnDisk(data, thumbnail);
+      AttachmentDownloader.discard(context.getDir(DIRECTORY, Context.MODE_PRIVATE), id);
       notifyAttachmentListeners();
     }
   }
@@ -312,13 +317,11 @@ public class AttachmentDatabase extends Database {
     }
   }
 
-  public void insertAttachmentsForPlaceholder(long mmsId, @NonNull AttachmentId attachmentId, @NonNull InputStream inputStream)
-      throws MmsException
-  {
+  public void insertAttachmentsForPlaceholder(long mmsId, @NonNull AttachmentId attachmentId, @NonNull DownloadedPart part) {
     DatabaseAttachment placeholder = getAttachment(attachmentId);
     SQLiteDatabase     database    = databaseHelper.getWritableDatabase();
     ContentValues      values      = new ContentValues();
-    DataInfo           dataInfo    = setAttachmentData(inputStream);
+    DataInfo           dataInfo    = new DataInfo(part.getFile(), part.getLength(), part.getRandom());
 
     if (placeholder != null && placeholder.isQuote() && !placeholder.getContentType().startsWith("image")) {
       values.put(THUMBNAIL, dataInfo.file.getAbsolutePath());
@@ -545,62 +548,29 @@ public class AttachmentDatabase extends Database {
   }
 
   public List<DatabaseAttachment> getAttachment(@NonNull Cursor cursor) {
-    try {
-      if (cursor.getColumnIndex(AttachmentDatabase.ATTACHMENT_JSON_ALIAS) != -1) {
-        if (cursor.isNull(cursor.getColumnIndexOrThrow(ATTACHMENT_JSON_ALIAS))) {
-          return new LinkedList<>();
-        }
-
-        List<DatabaseAttachment> result = new LinkedList<>();
-        JSONArray                array  = new JSONArray(cursor.getString(cursor.getColumnIndexOrThrow(ATTACHMENT_JSON_ALIAS)));
-
-        for (int i=0;i<array.length();i++) {
-          JsonUtils.SaneJSONObject object = new JsonUtils.SaneJSONObject(array.getJSONObject(i));
-
-          if (!object.isNull(ROW_ID)) {
-            result.add(new DatabaseAttachment(new AttachmentId(object.getLong(ROW_ID), object.getLong(UNIQUE_ID)),
-                                              object.getLong(MMS_ID),
-                                              !TextUtils.isEmpty(object.getString(DATA)),
-                                              !TextUtils.isEmpty(object.getString(THUMBNAIL)),
-                                              object.getString(CONTENT_TYPE),
-                                              object.getInt(TRANSFER_STATE),
-                                              object.getLong(SIZE),
-                                              object.getString(FILE_NAME),
-                                              object.getString(CONTENT_LOCATION),
-                                              object.getString(CONTENT_DISPOSITION),
-                                              object.getString(NAME),
-                                              null,
-                                              object.getString(FAST_PREFLIGHT_ID),
-                                              object.getInt(VOICE_NOTE) == 1,
-                                              object.getInt(WIDTH),
-                                              object.getInt(HEIGHT),
-                                              object.getInt(QUOTE) == 1));
-          }
-        }
+    AttachmentColumns columns = ColumnIndexCache.get(cursor, AttachmentColumns.class, AttachmentColumns::new);
 
-        return result;
-      } else {
-        return Collections.singletonList(new DatabaseAttachment(new AttachmentId(cursor.getLong(cursor.getColumnIndexOrThrow(ROW_ID)),
-                                                                                 cursor.getLong(cursor.getColumnIndexOrThrow(UNIQUE_ID))),
-                                                                cursor.getLong(cursor.getColumnIndexOrThrow(MMS_ID)),
-                                                                !cursor.isNull(cursor.getColumnIndexOrThrow(DATA)),
-                                                                !cursor.isNull(cursor.getColumnIndexOrThrow(THUMBNAIL)),
-                                                                cursor.getString(cursor.getColumnIndexOrThrow(CONTENT_TYPE)),
-                                                                cursor.getInt(cursor.getColumnIndexOrThrow(TRANSFER_STATE)),
-                                                                cursor.getLong(cursor.getColumnIndexOrThrow(SIZE)),
-                                                                cursor.getString(cursor.getColumnIndexOrThrow(FILE_NAME)),
-                                                                cursor.getString(cursor.getColumnIndexOrThrow(CONTENT_LOCATION)),
-                                                                cursor.getString(cursor.getColumnIndexOrThrow(CONTENT_DISPOSITION)),
-                                                                cursor.getString(cursor.getColumnIndexOrThrow(NAME)),
-                                                                cursor.getBlob(cursor.getColumnIndexOrThrow(DIGEST)),
-                                                                cursor.getString(cursor.getColumnIndexOrThrow(FAST_PREFLIGHT_ID)),
-                                                                cursor.getInt(cursor.getColumnIndexOrThrow(VOICE_NOTE)) == 1,
-                                                                cursor.getInt(cursor.getColumnIndexOrThrow(WIDTH)),
-                                                                cursor.getInt(cursor.getColumnIndexOrThrow(HEIGHT)),
-                                                                cursor.getInt(cursor.getColumnIndexOrThrow(QUOTE)) == 1));
-      }
-    } catch (JSONException e) {
-      throw new AssertionError(e);
+    if (columns.packedAttachments != -1) {
+      return PackedAttachments.unpack(cursor.getString(columns.packedAttachments));
+    } else {
+      return Collections.singletonList(new DatabaseAttachment(new AttachmentId(cursor.getLong(columns.rowId),
+                                                                               cursor.getLong(columns.uniqueId)),
+                                                              cursor.getLong(columns.mmsId),
+                                                              !cursor.isNull(columns.data),
+                                                              !cursor.isNull(columns.thumbnail),
+                                                              cursor.getString(columns.contentType),
+                                                              cursor.getInt(columns.transferState),
+                                                              cursor.getLong(columns.size),
+                                                              cursor.getString(columns.fileName),
+                                                              cursor.getString(columns.contentLocation),
+                                                              cursor.getString(columns.contentDisposition),
+                                                              cursor.getString(columns.name),
+                                                              cursor.getBlob(columns.digest),
+                                                              cursor.getString(columns.fastPreflightId),
+                                                              cursor.getInt(columns.voiceNote) == 1,
+                                                              cursor.getInt(columns.width),
+                                                              cursor.getInt(columns.height),
+                                                              cursor.getInt(columns.quote) == 1));
     }
   }
 
@@ -784,4 +754,52 @@ public class AttachmentDatabase extends Database {
       this.random = random;
     }
   }
+
+  private static class AttachmentColumns {
+
+    private final int packedAttachments;
+    private final int rowId;
+    private final int uniqueId;
+    private final int mmsId;
+    private final int data;
+    private final int thumbnail;
+    private final int contentType;
+    private final int transferState;
+    private final int size;
+    private final int fileName;
+    private final int contentLocation;
+    private final int contentDisposition;
+    private final int name;
+    private final int digest;
+    private final int fastPreflightId;
+    private final int voiceNote;
+    private final int width;
+    private final int height;
+    private final int quote;
+
+    private AttachmentColumns(@NonNull Cursor cursor) {
+      this.packedAttachments = cursor.getColumnIndex(PACKED_ATTACHMENTS);
+
+      boolean direct = packedAttachments == -1;
+
+      this.rowId              = direct ? cursor.getColumnIndexOrThrow(ROW_ID)              : -1;
+      this.uniqueId           = direct ? cursor.getColumnIndexOrThrow(UNIQUE_ID)           : -1;
+      this.mmsId              = direct ? cursor.getColumnIndexOrThrow(MMS_ID)              : -1;
+      this.data               = direct ? cursor.getColumnIndexOrThrow(DATA)                : -1;
+      this.thumbnail          = direct ? cursor.getColumnIndexOrThrow(THUMBNAIL)           : -1;
+      this.contentType        = direct ? cursor.getColumnIndexOrThrow(CONTENT_TYPE)        : -1;
+      this.transferState      = direct ? cursor.getColumnIndexOrThrow(TRANSFER_STATE)      : -1;
+      this.size               = direct ? cursor.getColumnIndexOrThrow(SIZE)                : -1;
+      this.fileName           = direct ? cursor.getColumnIndexOrThrow(FILE_NAME)           : -1;
+      this.contentLocation    = direct ? cursor.getColumnIndexOrThrow(CONTENT_LOCATION)    : -1;
+      this.contentDisposition = direct ? cursor.getColumnIndexOrThrow(CONTENT_DISPOSITION) : -1;
+      this.name               = direct ? cursor.getColumnIndexOrThrow(NAME)                : -1;
+      this.digest             = direct ? cursor.getColumnIndexOrThrow(DIGEST)              : -1;
+      this.fastPreflightId    = direct ? cursor.getColumnIndexOrThrow(FAST_PREFLIGHT_ID)   : -1;
+      this.voiceNote          = direct ? cursor.getColumnIndexOrThrow(VOICE_NOTE)          : -1;
+      this.width              = direct ? cursor.getColumnIndexOrThrow(WIDTH)               : -1;
+      this.height             = direct ? cursor.getColumnIndexOrThrow(HEIGHT)              : -1;
+      this.quote              = direct ? cursor.getColumnIndexOrThrow(QUOTE)               : -1;
+    }
+  }
 }
@@ -0,0 +1,75 @@
+package org.thoughtcrime.securesms.database;
+
+import android.database.Cursor;
+import android.support.annotation.NonNull;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Resolves the column indexes a reader needs once per cursor, rather than looking every
+ * column up by name on every row.
+ *
+ * Indexes are cached against the cursor's column name array, which a cursor keeps for as
+ * long as it lives. Readers that are created per row (as the adapters do) share a single
+ * lookup, and a merged cursor whose parts have different projections is resolved per part.
+ * An instance remembers the last indexes it saw, so it should only be used by one thread;
+ * shared code can call {@link #get(Cursor, Class, Resolver)} instead.
+ */
+public class ColumnIndexCache<T> {
+
+  private static final Map<String[], Map<Class<?>, Object>> shared = new WeakHashMap<>();
+
+  private final Class<T>    type;
+  private final Resolver<T> resolver;
+
+  private String[] columnNames;
+  private T        columns;
+
+  public ColumnIndexCache(@NonNull Class<T> type, @NonNull Resolver<T> resolver) {
+    this.type     = type;
+    this.resolver = resolver;
+  }
+
+  public @NonNull T get(@NonNull Cursor cursor) {
+    String[] names = cursor.getColumnNames();
+
+    if (columns == null || names != columnNames) {
+      columns     = get(cursor, type, resolver);
+      columnNames = names;
+    }
+
+    return columns;
+  }
+
+  public static @NonNull <T> T get(@NonNull Cursor cursor, @NonNull Class<T> type, @NonNull Resolver<T> resolver) {
+    String[] names = cursor.getColumnNames();
+
+    if (names == null) {
+      return resolver.resolve(cursor);
+    }
+
+    synchronized (shared) {
+      Map<Class<?>, Object> resolved = shared.get(names);
+
+      if (resolved == null) {
+        resolved = new HashMap<>(2);
+        shared.put(names, resolved);
+      }
+
+      T result = type.cast(resolved.get(type));
+
+      if (result == null) {
+        result = resolver.resolve(cursor);
+        resolved.put(type, result);
+      }
+
+      return result;
+    }
+  }
+
+  public interface Resolver<T> {
+    @NonNull T resolve(@NonNull Cursor cursor);
+  }
+}
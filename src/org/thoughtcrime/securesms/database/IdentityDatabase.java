@@ -27,11 +27,13 @@ import net.sqlcipher.database.SQLiteDatabase;
 import org.greenrobot.eventbus.EventBus;
 import org.thoughtcrime.securesms.database.helpers.SQLCipherOpenHelper;
 import org.thoughtcrime.securesms.util.Base64;
+import org.thoughtcrime.securesms.util.LRUCache;
 import org.whispersystems.libsignal.IdentityKey;
 import org.whispersystems.libsignal.InvalidKeyException;
 import org.whispersystems.libsignal.util.guava.Optional;
 
 import java.io.IOException;
+import java.util.Map;
 
 public class IdentityDatabase extends Database {
 
@@ -47,6 +49,8 @@ public class IdentityDatabase extends Database {
   private static final String NONBLOCKING_APPROVAL = "nonblocking_approval";
   private static final String VERIFIED             = "verified";
 
+  private static final int MAX_CACHED_IDENTITIES = 500;
+
   public static final String CREATE_TABLE = "CREATE TABLE " + TABLE_NAME +
       " (" + ID + " INTEGER PRIMARY KEY, " +
       ADDRESS + " TEXT UNIQUE, " +
@@ -74,6 +78,10 @@ public class IdentityDatabase extends Database {
     }
   }
 
+  private final Map<Address, Optional<IdentityRecord>> cache = new LRUCache<>(MAX_CACHED_IDENTITIES);
+
+  private long cacheGeneration;
+
   IdentityDatabase(Context context, SQLCipherOpenHelper databaseHelper) {
     super(context, databaseHelper);
   }
@@ -88,24 +96,40 @@ public class IdentityDatabase extends Database {
     return new IdentityReader(cursor);
   }
 
+  /**
+   * Identities are cached as they're read. The database is only read for addresses that haven't
+   * been looked up recently, and the cache isn't held while it is, so lookups for different
+   * addresses don't wait on each other.
+   */
   public Optional<IdentityRecord> getIdentity(Address address) {
-    SQLiteDatabase database = databaseHelper.getReadableDatabase();
-    Cursor         cursor   = null;
+    long generation;
 
-    try {
-      cursor = database.query(TABLE_NAME, null, ADDRESS + " = ?",
-                              new String[] {address.serialize()}, null, null, null);
+    synchronized (cache) {
+      Optional<IdentityRecord> cached = cache.get(address);
+      if (cached != null) return cached;
 
-      if (cursor != null && cursor.moveToFirst()) {
-        return Optional.of(getIdentityRecord(cursor));
+      generation = cacheGeneration;
+    }
+
+    Optional<IdentityRecord> record = readIdentity(address);
+
+    synchronized (cache) {
+      if (generation == cacheGeneration) {
+        cache.put(address, record);
       }
-    } catch (InvalidKeyException | IOException e) {
-      throw new AssertionError(e);
-    } finally {
-      if (cursor != null) cursor.close();
     }
 
-    return Optional.absent();
+    return record;
+  }
+
+  /**
+   * Drops every cached identity, for when the table has been written to directly.
+   */
+  public void invalidateCache() {
+    synchronized (cache) {
+      cache.clear();
+      cacheGeneration++;
+    }
   }
 
   public void saveIdentity(Address address, IdentityKey identityKey, VerifiedStatus verifiedStatus,
@@ -124,8 +148,15 @@ public class IdentityDatabase extends Database {
 
     database.replace(TABLE_NAME, null, contentValues);
 
-    EventBus.getDefault().post(new IdentityRecord(address, identityKey, verifiedStatus,
-                                                  firstUse, timestamp, nonBlockingApproval));
+    IdentityRecord record = new IdentityRecord(address, identityKey, verifiedStatus,
+                                               firstUse, timestamp, nonBlockingApproval);
+
+    synchronized (cache) {
+      cache.put(address, Optional.of(record));
+      cacheGeneration++;
+    }
+
+    EventBus.getDefault().post(record);
   }
 
   public void setApproval(Address address, boolean nonBlockingApproval) {
@@ -135,6 +166,7 @@ public class IdentityDatabase extends Database {
     contentValues.put(NONBLOCKING_APPROVAL, nonBlockingApproval);
 
     database.update(TABLE_NAME, contentValues, ADDRESS + " = ?", new String[] {address.serialize()});
+    invalidate(address);
   }
 
   public void setVerified(Address address, IdentityKey identityKey, VerifiedStatus verifiedStatus) {
@@ -147,11 +179,40 @@ public class IdentityDatabase extends Database {
                                   new String[] {address.serialize(), Base64.encodeBytes(identityKey.serialize())});
 
     if (updated > 0) {
+      invalidate(address);
+
       Optional<IdentityRecord> record = getIdentity(address);
       if (record.isPresent()) EventBus.getDefault().post(record.get());
     }
   }
 
+  private Optional<IdentityRecord> readIdentity(@NonNull Address address) {
+    SQLiteDatabase database = databaseHelper.getReadableDatabase();
+    Cursor         cursor   = null;
+
+    try {
+      cursor = database.query(TABLE_NAME, null, ADDRESS + " = ?",
+                              new String[] {address.serialize()}, null, null, null);
+
+      if (cursor != null && cursor.moveToFirst()) {
+        return Optional.of(getIdentityRecord(cursor));
+      }
+    } catch (InvalidKeyException | IOException e) {
+      throw new AssertionError(e);
+    } finally {
+      if (cursor != null) cursor.close();
+    }
+
+    return Optional.absent();
+  }
+
+  private void invalidate(@NonNull Address address) {
+    synchronized (cache) {
+      cache.remove(address);
+      cacheGeneration++;
+    }
+  }
+
   private IdentityRecord getIdentityRecord(@NonNull Cursor cursor) throws IOException, InvalidKeyException {
     String      address             = cursor.getString(cursor.getColumnIndexOrThrow(ADDRESS));
     String      serializedIdentity  = cursor.getString(cursor.getColumnIndexOrThrow(IDENTITY_KEY));
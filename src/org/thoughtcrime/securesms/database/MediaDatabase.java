@@ -12,12 +12,14 @@ import net.sqlcipher.database.SQLiteDatabase;
 import org.thoughtcrime.securesms.attachments.Attachment;
 import org.thoughtcrime.securesms.attachments.DatabaseAttachment;
 import org.thoughtcrime.securesms.database.helpers.SQLCipherOpenHelper;
+import org.thoughtcrime.securesms.util.Util;
 
+import java.util.LinkedList;
 import java.util.List;
 
 public class MediaDatabase extends Database {
 
-    private static final String BASE_MEDIA_QUERY = "SELECT " + AttachmentDatabase.TABLE_NAME + "." + AttachmentDatabase.ROW_ID + " AS " + AttachmentDatabase.ROW_ID + ", "
+    private static final String MEDIA_COLUMNS = AttachmentDatabase.TABLE_NAME + "." + AttachmentDatabase.ROW_ID + " AS " + AttachmentDatabase.ROW_ID + ", "
         + AttachmentDatabase.TABLE_NAME + "." + AttachmentDatabase.CONTENT_TYPE + ", "
         + AttachmentDatabase.TABLE_NAME + "." + AttachmentDatabase.THUMBNAIL_ASPECT_RATIO + ", "
         + AttachmentDatabase.TABLE_NAME + "." + AttachmentDatabase.UNIQUE_ID + ", "
@@ -39,7 +41,9 @@ public class MediaDatabase extends Database {
         + MmsDatabase.TABLE_NAME + "." + MmsDatabase.MESSAGE_BOX + ", "
         + MmsDatabase.TABLE_NAME + "." + MmsDatabase.DATE_SENT + ", "
         + MmsDatabase.TABLE_NAME + "." + MmsDatabase.DATE_RECEIVED + ", "
-        + MmsDatabase.TABLE_NAME + "." + MmsDatabase.ADDRESS + " "
+        + MmsDatabase.TABLE_NAME + "." + MmsDatabase.ADDRESS + " ";
+
+    private static final String BASE_MEDIA_QUERY = "SELECT " + MEDIA_COLUMNS
         + "FROM " + AttachmentDatabase.TABLE_NAME + " LEFT JOIN " + MmsDatabase.TABLE_NAME
         + " ON " + AttachmentDatabase.TABLE_NAME + "." + AttachmentDatabase.MMS_ID + " = " + MmsDatabase.TABLE_NAME + "." + MmsDatabase.ID + " "
         + "WHERE " + AttachmentDatabase.MMS_ID + " IN (SELECT " + MmsSmsColumns.ID
@@ -48,9 +52,40 @@ public class MediaDatabase extends Database {
         + AttachmentDatabase.DATA + " IS NOT NULL "
         + "ORDER BY " + AttachmentDatabase.TABLE_NAME + "." + AttachmentDatabase.ROW_ID + " DESC";
 
-  private static final String GALLERY_MEDIA_QUERY  = String.format(BASE_MEDIA_QUERY, AttachmentDatabase.CONTENT_TYPE + " LIKE 'image/%' OR " + AttachmentDatabase.CONTENT_TYPE + " LIKE 'video/%'");
+  private static final String GALLERY_CONDITION = AttachmentDatabase.CONTENT_TYPE + " LIKE 'image/%' OR " + AttachmentDatabase.CONTENT_TYPE + " LIKE 'video/%'";
+
+  private static final String GALLERY_MEDIA_QUERY  = String.format(BASE_MEDIA_QUERY, GALLERY_CONDITION);
   private static final String DOCUMENT_MEDIA_QUERY = String.format(BASE_MEDIA_QUERY, AttachmentDatabase.CONTENT_TYPE + " NOT LIKE 'image/%' AND " + AttachmentDatabase.CONTENT_TYPE + " NOT LIKE 'video/%' AND " + AttachmentDatabase.CONTENT_TYPE + " NOT LIKE 'audio/%'");
 
+  // Driven from the messages of the thread in the (thread_id, date_received) index, so a page
+  // after a known item starts at it rather than sorting or skipping everything before it
+  private static final String GALLERY_PAGE_QUERY = "SELECT " + MEDIA_COLUMNS
+        + "FROM " + MmsDatabase.TABLE_NAME + " INNER JOIN " + AttachmentDatabase.TABLE_NAME
+        + " ON " + AttachmentDatabase.TABLE_NAME + "." + AttachmentDatabase.MMS_ID + " = " + MmsDatabase.TABLE_NAME + "." + MmsDatabase.ID + " "
+        + "WHERE " + MmsDatabase.TABLE_NAME + "." + MmsDatabase.THREAD_ID + " = ? AND (" + GALLERY_CONDITION + ") AND "
+        + AttachmentDatabase.DATA + " IS NOT NULL";
+
+  private static final String GALLERY_PAGE_ORDER = " ORDER BY " + MmsDatabase.TABLE_NAME + "." + MmsDatabase.DATE_RECEIVED + " DESC, "
+        + AttachmentDatabase.TABLE_NAME + "." + AttachmentDatabase.ROW_ID + " DESC";
+
+  private static final String GALLERY_PAGE_AFTER = " AND " + MmsDatabase.TABLE_NAME + "." + MmsDatabase.DATE_RECEIVED + " <= ? AND ("
+        + MmsDatabase.TABLE_NAME + "." + MmsDatabase.DATE_RECEIVED + " < ? OR " + AttachmentDatabase.TABLE_NAME + "." + AttachmentDatabase.ROW_ID + " < ?)";
+
+  private static final String GALLERY_DATES_QUERY = "SELECT " + MmsDatabase.TABLE_NAME + "." + MmsDatabase.DATE_RECEIVED + " AS media_date "
+        + "FROM " + MmsDatabase.TABLE_NAME + " INNER JOIN " + AttachmentDatabase.TABLE_NAME
+        + " ON " + AttachmentDatabase.TABLE_NAME + "." + AttachmentDatabase.MMS_ID + " = " + MmsDatabase.TABLE_NAME + "." + MmsDatabase.ID + " "
+        + "WHERE " + MmsDatabase.TABLE_NAME + "." + MmsDatabase.THREAD_ID + " = ? AND (" + GALLERY_CONDITION + ") AND "
+        + AttachmentDatabase.DATA + " IS NOT NULL";
+
+  private static final String GALLERY_BUCKETS_QUERY = "SELECT CASE "
+        + "WHEN media_date > ? THEN '" + GalleryBucket.TODAY + "' "
+        + "WHEN media_date > ? THEN '" + GalleryBucket.YESTERDAY + "' "
+        + "WHEN media_date > ? THEN '" + GalleryBucket.THIS_WEEK + "' "
+        + "WHEN media_date > ? THEN '" + GalleryBucket.THIS_MONTH + "' "
+        + "ELSE strftime('%Y-%m', media_date / 1000, 'unixepoch', 'localtime') END AS bucket, "
+        + "COUNT(*) AS count, MAX(media_date) AS latest "
+        + "FROM (" + GALLERY_DATES_QUERY + ") GROUP BY bucket ORDER BY latest DESC";
+
   MediaDatabase(Context context, SQLCipherOpenHelper databaseHelper) {
     super(context, databaseHelper);
   }
@@ -62,6 +97,60 @@ public class MediaDatabase extends Database {
     return cursor;
   }
 
+  /**
+   * Returns the first page of the thread's gallery, or the page at an offset when the item
+   * before it isn't known. Pages are ordered newest first by the date each message was received,
+   * which isn't the order of {@link #getGalleryMediaForThread(long)}.
+   */
+  public Cursor getGalleryPageForThread(long threadId, int offset, int limit) {
+    SQLiteDatabase database = databaseHelper.getReadableDatabase();
+    String         query    = GALLERY_PAGE_QUERY + GALLERY_PAGE_ORDER + " LIMIT " + limit + " OFFSET " + offset;
+
+    return database.rawQuery(query, new String[] {String.valueOf(threadId)});
+  }
+
+  /**
+   * Returns the page of the thread's gallery that follows the item with the given message date
+   * received and attachment row id.
+   */
+  public Cursor getGalleryPageForThread(long threadId, long afterDateReceived, long afterRowId, int limit) {
+    SQLiteDatabase database = databaseHelper.getReadableDatabase();
+    String         query    = GALLERY_PAGE_QUERY + GALLERY_PAGE_AFTER + GALLERY_PAGE_ORDER + " LIMIT " + limit;
+
+    return database.rawQuery(query, new String[] {String.valueOf(threadId), String.valueOf(afterDateReceived),
+                                                  String.valueOf(afterDateReceived), String.valueOf(afterRowId)});
+  }
+
+  /**
+   * @return The message date received and attachment row id of the cursor's current item, for
+   * reading on from it with {@link #getGalleryPageForThread(long, long, long, int)}.
+   */
+  public static @NonNull long[] getGalleryPageKey(@NonNull Cursor cursor) {
+    return new long[] {cursor.getLong(cursor.getColumnIndexOrThrow(MmsDatabase.DATE_RECEIVED)),
+                       cursor.getLong(cursor.getColumnIndexOrThrow(AttachmentDatabase.ROW_ID))};
+  }
+
+  /**
+   * Counts the thread's gallery media per time bucket, newest bucket first. Media received after
+   * the given boundaries falls into the fixed buckets, anything older is grouped by local month.
+   * Since gallery pages are ordered by the same date, each bucket is a contiguous range of them.
+   */
+  public @NonNull List<GalleryBucket> getGalleryBucketsForThread(long threadId, long today, long yesterday, long thisWeek, long thisMonth) {
+    SQLiteDatabase      database = databaseHelper.getReadableDatabase();
+    List<GalleryBucket> buckets  = new LinkedList<>();
+    String[]            args     = new String[] {String.valueOf(today), String.valueOf(yesterday),
+                                                 String.valueOf(thisWeek), String.valueOf(thisMonth),
+                                                 String.valueOf(threadId)};
+
+    try (Cursor cursor = database.rawQuery(GALLERY_BUCKETS_QUERY, args)) {
+      while (cursor != null && cursor.moveToNext()) {
+        buckets.add(new GalleryBucket(cursor.getString(0), cursor.getInt(1)));
+      }
+    }
+
+    return buckets;
+  }
+
   public void subscribeToMediaChanges(@NonNull ContentObserver observer) {
     registerAttachmentListeners(observer);
   }
@@ -77,6 +166,33 @@ public class MediaDatabase extends Database {
     return cursor;
   }
 
+  public static class GalleryBucket {
+
+    public static final String TODAY      = "today";
+    public static final String YESTERDAY  = "yesterday";
+    public static final String THIS_WEEK  = "this_week";
+    public static final String THIS_MONTH = "this_month";
+
+    private final String key;
+    private final int    count;
+
+    private GalleryBucket(@NonNull String key, int count) {
+      this.key   = key;
+      this.count = count;
+    }
+
+    /**
+     * One of the fixed bucket keys, or the bucket's month formatted as yyyy-MM.
+     */
+    public @NonNull String getKey() {
+      return key;
+    }
+
+    public int getCount() {
+      return count;
+    }
+  }
+
   public static class MediaRecord {
 
     private final DatabaseAttachment attachment;
@@ -133,6 +249,16 @@ public class MediaDatabase extends Database {
       return outgoing;
     }
 
+    @Override
+    public boolean equals(Object other) {
+      return other instanceof MediaRecord && Util.equals(((MediaRecord)other).attachment, attachment);
+    }
+
+    @Override
+    public int hashCode() {
+      return attachment != null ? attachment.hashCode() : 0;
+    }
+
   }
 
 
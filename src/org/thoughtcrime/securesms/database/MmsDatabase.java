@@ -38,6 +38,7 @@ import org.thoughtcrime.securesms.attachments.DatabaseAttachment;
 import org.thoughtcrime.securesms.attachments.MmsNotificationAttachment;
 import org.thoughtcrime.securesms.database.documents.IdentityKeyMismatch;
 import org.thoughtcrime.securesms.database.documents.IdentityKeyMismatchList;
+import org.thoughtcrime.securesms.database.documents.LazyDocumentList;
 import org.thoughtcrime.securesms.database.documents.NetworkFailure;
 import org.thoughtcrime.securesms.database.documents.NetworkFailureList;
 import org.thoughtcrime.securesms.database.helpers.SQLCipherOpenHelper;
@@ -45,6 +46,7 @@ import org.thoughtcrime.securesms.database.model.MediaMmsMessageRecord;
 import org.thoughtcrime.securesms.database.model.MessageRecord;
 import org.thoughtcrime.securesms.database.model.NotificationMmsMessageRecord;
 import org.thoughtcrime.securesms.database.model.Quote;
+import org.thoughtcrime.securesms.jobmanager.JobManager;
 import org.thoughtcrime.securesms.jobs.TrimThreadJob;
 import org.thoughtcrime.securesms.mms.IncomingMediaMessage;
 import org.thoughtcrime.securesms.mms.MmsException;
@@ -56,10 +58,8 @@ import org.thoughtcrime.securesms.mms.QuoteModel;
 import org.thoughtcrime.securesms.mms.SlideDeck;
 import org.thoughtcrime.securesms.recipients.Recipient;
 import org.thoughtcrime.securesms.recipients.RecipientFormattingException;
-import org.thoughtcrime.securesms.util.JsonUtils;
 import org.thoughtcrime.securesms.util.TextSecurePreferences;
 import org.thoughtcrime.securesms.util.Util;
-import org.whispersystems.jobqueue.JobManager;
 import org.whispersystems.libsignal.util.guava.Optional;
 
 import java.io.IOException;
@@ -131,25 +131,7 @@ public class MmsDatabase extends MessagingDatabase {
       BODY, PART_COUNT, ADDRESS, ADDRESS_DEVICE_ID,
       DELIVERY_RECEIPT_COUNT, READ_RECEIPT_COUNT, MISMATCHED_IDENTITIES, NETWORK_FAILURE, SUBSCRIPTION_ID,
       EXPIRES_IN, EXPIRE_STARTED, NOTIFIED, QUOTE_ID, QUOTE_AUTHOR, QUOTE_BODY, QUOTE_ATTACHMENT,
-      "json_group_array(json_object(" +
-          "'" + AttachmentDatabase.ROW_ID + "', " + AttachmentDatabase.TABLE_NAME + "." + AttachmentDatabase.ROW_ID + ", " +
-          "'" + AttachmentDatabase.UNIQUE_ID + "', " + AttachmentDatabase.TABLE_NAME + "." + AttachmentDatabase.UNIQUE_ID + ", " +
-          "'" + AttachmentDatabase.MMS_ID + "', " + AttachmentDatabase.TABLE_NAME + "." + AttachmentDatabase.MMS_ID + ", " +
-          "'" + AttachmentDatabase.SIZE + "', " + AttachmentDatabase.TABLE_NAME + "." + AttachmentDatabase.SIZE + ", " +
-          "'" + AttachmentDatabase.FILE_NAME + "', " + AttachmentDatabase.TABLE_NAME + "." + AttachmentDatabase.FILE_NAME + ", " +
-          "'" + AttachmentDatabase.DATA + "', " + AttachmentDatabase.TABLE_NAME + "." + AttachmentDatabase.DATA + ", " +
-          "'" + AttachmentDatabase.THUMBNAIL + "', " + AttachmentDatabase.TABLE_NAME + "." + AttachmentDatabase.THUMBNAIL + ", " +
-          "'" + AttachmentDatabase.CONTENT_TYPE + "', " + AttachmentDatabase.TABLE_NAME + "." + AttachmentDatabase.CONTENT_TYPE + ", " +
-          "'" + AttachmentDatabase.CONTENT_LOCATION + "', " + AttachmentDatabase.TABLE_NAME + "." + AttachmentDatabase.CONTENT_LOCATION + ", " +
-          "'" + AttachmentDatabase.FAST_PREFLIGHT_ID + "', " + AttachmentDatabase.TABLE_NAME + "." + AttachmentDatabase.FAST_PREFLIGHT_ID + "," +
-          "'" + AttachmentDatabase.VOICE_NOTE + "', " + AttachmentDatabase.TABLE_NAME + "." + AttachmentDatabase.VOICE_NOTE + "," +
-          "'" + AttachmentDatabase.WIDTH + "', " + AttachmentDatabase.TABLE_NAME + "." + AttachmentDatabase.WIDTH + "," +
-          "'" + AttachmentDatabase.HEIGHT + "', " + AttachmentDatabase.TABLE_NAME + "." + AttachmentDatabase.HEIGHT + "," +
-          "'" + AttachmentDatabase.QUOTE + "', " + AttachmentDatabase.TABLE_NAME + "." + AttachmentDatabase.QUOTE + ", " +
-          "'" + AttachmentDatabase.CONTENT_DISPOSITION + "', " + AttachmentDatabase.TABLE_NAME + "." + AttachmentDatabase.CONTENT_DISPOSITION + ", " +
-          "'" + AttachmentDatabase.NAME + "', " + AttachmentDatabase.TABLE_NAME + "." + AttachmentDatabase.NAME + ", " +
-          "'" + AttachmentDatabase.TRANSFER_STATE + "', " + AttachmentDatabase.TABLE_NAME + "." + AttachmentDatabase.TRANSFER_STATE +
-          ")) AS " + AttachmentDatabase.ATTACHMENT_JSON_ALIAS,
+      PackedAttachments.getProjection(),
   };
 
   private static final String RAW_ID_WHERE = TABLE_NAME + "._id = ?";
@@ -939,33 +921,48 @@ public class MmsDatabase extends MessagingDatabase {
     }
   }
 
-  /*package*/void deleteMessagesInThreadBeforeDate(long threadId, long date) {
-    Cursor cursor = null;
+  /**
+   * Deletes up to {@code limit} of the messages in a thread from before a date, along with their
+   * attachments and receipts. Unlike {@link #delete(long)}, the thread itself isn't updated.
+   *
+   * @return The number of messages deleted.
+   */
+  /*package*/ int deleteMessagesInThreadBeforeDate(long threadId, long date, int limit) {
+    SQLiteDatabase db    = databaseHelper.getWritableDatabase();
+    String         where = THREAD_ID + " = ? AND (CASE (" + MESSAGE_BOX + " & " + Types.BASE_TYPE_MASK + ") ";
+    long[]         ids;
+
+    for (long outgoingType : Types.OUTGOING_MESSAGE_TYPES) {
+      where += " WHEN " + outgoingType + " THEN " + DATE_SENT + " < " + date;
+    }
 
-    try {
-      SQLiteDatabase db = databaseHelper.getReadableDatabase();
-      String where      = THREAD_ID + " = ? AND (CASE (" + MESSAGE_BOX + " & " + Types.BASE_TYPE_MASK + ") ";
+    where += (" ELSE " + DATE_RECEIVED + " < " + date + " END)");
+
+    try (Cursor cursor = db.query(TABLE_NAME, new String[] {ID}, where, new String[] {threadId+""}, null, null, null, String.valueOf(limit))) {
+      ids = new long[cursor.getCount()];
 
-      for (long outgoingType : Types.OUTGOING_MESSAGE_TYPES) {
-        where += " WHEN " + outgoingType + " THEN " + DATE_SENT + " < " + date;
+      for (int i = 0; cursor.moveToNext(); i++) {
+        ids[i] = cursor.getLong(0);
       }
+    }
 
-      where += (" ELSE " + DATE_RECEIVED + " < " + date + " END)");
+    if (ids.length == 0) return 0;
 
-      Log.w("MmsDatabase", "Executing trim query: " + where);
-      cursor = db.query(TABLE_NAME, new String[] {ID}, where, new String[] {threadId+""}, null, null, null);
+    DatabaseFactory.getAttachmentDatabase(context).deleteAttachmentsForMessages(ids);
 
-      while (cursor != null && cursor.moveToNext()) {
-        Log.w("MmsDatabase", "Trimming: " + cursor.getLong(0));
-        delete(cursor.getLong(0));
-      }
+    db.beginTransaction();
+
+    try {
+      DatabaseFactory.getGroupReceiptDatabase(context).deleteRowsForMessages(ids);
+      db.delete(TABLE_NAME, ID + " IN (" + Util.join(ids, ",") + ")", null);
 
+      db.setTransactionSuccessful();
     } finally {
-      if (cursor != null)
-        cursor.close();
+      db.endTransaction();
     }
-  }
 
+    return ids.length;
+  }
 
   public void deleteAllThreads() {
     DatabaseFactory.getAttachmentDatabase(context).deleteAllAttachments();
@@ -1077,10 +1074,12 @@ public class MmsDatabase extends MessagingDatabase {
 
   public class Reader {
 
-    private final Cursor cursor;
+    private final Cursor                          cursor;
+    private final ColumnIndexCache<ReaderColumns> columnCache;
 
     public Reader(Cursor cursor) {
-      this.cursor = cursor;
+      this.cursor      = cursor;
+      this.columnCache = new ColumnIndexCache<>(ReaderColumns.class, ReaderColumns::new);
     }
 
     public MessageRecord getNext() {
@@ -1091,33 +1090,34 @@ public class MmsDatabase extends MessagingDatabase {
     }
 
     public MessageRecord getCurrent() {
-      long mmsType = cursor.getLong(cursor.getColumnIndexOrThrow(MmsDatabase.MESSAGE_TYPE));
+      ReaderColumns columns = columnCache.get(cursor);
+      long          mmsType = cursor.getLong(columns.messageType);
 
       if (mmsType == PduHeaders.MESSAGE_TYPE_NOTIFICATION_IND) {
-        return getNotificationMmsMessageRecord(cursor);
+        return getNotificationMmsMessageRecord(cursor, columns);
       } else {
-        return getMediaMmsMessageRecord(cursor);
+        return getMediaMmsMessageRecord(cursor, columns);
       }
     }
 
-    private NotificationMmsMessageRecord getNotificationMmsMessageRecord(Cursor cursor) {
-      long      id                   = cursor.getLong(cursor.getColumnIndexOrThrow(MmsDatabase.ID));
-      long      dateSent             = cursor.getLong(cursor.getColumnIndexOrThrow(MmsDatabase.NORMALIZED_DATE_SENT));
-      long      dateReceived         = cursor.getLong(cursor.getColumnIndexOrThrow(MmsDatabase.NORMALIZED_DATE_RECEIVED));
-      long      threadId             = cursor.getLong(cursor.getColumnIndexOrThrow(MmsDatabase.THREAD_ID));
-      long      mailbox              = cursor.getLong(cursor.getColumnIndexOrThrow(MmsDatabase.MESSAGE_BOX));
-      String    address              = cursor.getString(cursor.getColumnIndexOrThrow(MmsDatabase.ADDRESS));
-      int       addressDeviceId      = cursor.getInt(cursor.getColumnIndexOrThrow(MmsDatabase.ADDRESS_DEVICE_ID));
+    private NotificationMmsMessageRecord getNotificationMmsMessageRecord(Cursor cursor, ReaderColumns columns) {
+      long      id                   = cursor.getLong(columns.id);
+      long      dateSent             = cursor.getLong(columns.dateSent);
+      long      dateReceived         = cursor.getLong(columns.dateReceived);
+      long      threadId             = cursor.getLong(columns.threadId);
+      long      mailbox              = cursor.getLong(columns.messageBox);
+      String    address              = cursor.getString(columns.address);
+      int       addressDeviceId      = cursor.getInt(columns.addressDeviceId);
       Recipient recipient            = getRecipientFor(address);
 
-      String    contentLocation      = cursor.getString(cursor.getColumnIndexOrThrow(MmsDatabase.CONTENT_LOCATION));
-      String    transactionId        = cursor.getString(cursor.getColumnIndexOrThrow(MmsDatabase.TRANSACTION_ID));
-      long      messageSize          = cursor.getLong(cursor.getColumnIndexOrThrow(MmsDatabase.MESSAGE_SIZE));
-      long      expiry               = cursor.getLong(cursor.getColumnIndexOrThrow(MmsDatabase.EXPIRY));
-      int       status               = cursor.getInt(cursor.getColumnIndexOrThrow(MmsDatabase.STATUS));
-      int       deliveryReceiptCount = cursor.getInt(cursor.getColumnIndexOrThrow(MmsDatabase.DELIVERY_RECEIPT_COUNT));
-      int       readReceiptCount     = cursor.getInt(cursor.getColumnIndexOrThrow(MmsDatabase.READ_RECEIPT_COUNT));
-      int       subscriptionId       = cursor.getInt(cursor.getColumnIndexOrThrow(MmsDatabase.SUBSCRIPTION_ID));
+      String    contentLocation      = cursor.getString(columns.contentLocation);
+      String    transactionId        = cursor.getString(columns.transactionId);
+      long      messageSize          = cursor.getLong(columns.messageSize);
+      long      expiry               = cursor.getLong(columns.expiry);
+      int       status               = cursor.getInt(columns.status);
+      int       deliveryReceiptCount = cursor.getInt(columns.deliveryReceiptCount);
+      int       readReceiptCount     = cursor.getInt(columns.readReceiptCount);
+      int       subscriptionId       = cursor.getInt(columns.subscriptionId);
 
       if (!TextSecurePreferences.isReadReceiptsEnabled(context)) {
         readReceiptCount = 0;
@@ -1142,33 +1142,34 @@ public class MmsDatabase extends MessagingDatabase {
                                               readReceiptCount);
     }
 
-    private MediaMmsMessageRecord getMediaMmsMessageRecord(Cursor cursor) {
-      long               id                   = cursor.getLong(cursor.getColumnIndexOrThrow(MmsDatabase.ID));
-      long               dateSent             = cursor.getLong(cursor.getColumnIndexOrThrow(MmsDatabase.NORMALIZED_DATE_SENT));
-      long               dateReceived         = cursor.getLong(cursor.getColumnIndexOrThrow(MmsDatabase.NORMALIZED_DATE_RECEIVED));
-      long               box                  = cursor.getLong(cursor.getColumnIndexOrThrow(MmsDatabase.MESSAGE_BOX));
-      long               threadId             = cursor.getLong(cursor.getColumnIndexOrThrow(MmsDatabase.THREAD_ID));
-      String             address              = cursor.getString(cursor.getColumnIndexOrThrow(MmsDatabase.ADDRESS));
-      int                addressDeviceId      = cursor.getInt(cursor.getColumnIndexOrThrow(MmsDatabase.ADDRESS_DEVICE_ID));
-      int                deliveryReceiptCount = cursor.getInt(cursor.getColumnIndexOrThrow(MmsDatabase.DELIVERY_RECEIPT_COUNT));
-      int                readReceiptCount     = cursor.getInt(cursor.getColumnIndexOrThrow(MmsDatabase.READ_RECEIPT_COUNT));
-      String             body                 = cursor.getString(cursor.getColumnIndexOrThrow(MmsDatabase.BODY));
-      int                partCount            = cursor.getInt(cursor.getColumnIndexOrThrow(MmsDatabase.PART_COUNT));
-      String             mismatchDocument     = cursor.getString(cursor.getColumnIndexOrThrow(MmsDatabase.MISMATCHED_IDENTITIES));
-      String             networkDocument      = cursor.getString(cursor.getColumnIndexOrThrow(MmsDatabase.NETWORK_FAILURE));
-      int                subscriptionId       = cursor.getInt(cursor.getColumnIndexOrThrow(MmsDatabase.SUBSCRIPTION_ID));
-      long               expiresIn            = cursor.getLong(cursor.getColumnIndexOrThrow(MmsDatabase.EXPIRES_IN));
-      long               expireStarted        = cursor.getLong(cursor.getColumnIndexOrThrow(MmsDatabase.EXPIRE_STARTED));
+    private MediaMmsMessageRecord getMediaMmsMessageRecord(Cursor cursor, ReaderColumns columns) {
+      long               id                   = cursor.getLong(columns.id);
+      long               dateSent             = cursor.getLong(columns.dateSent);
+      long               dateReceived         = cursor.getLong(columns.dateReceived);
+      long               box                  = cursor.getLong(columns.messageBox);
+      long               threadId             = cursor.getLong(columns.threadId);
+      String             address              = cursor.getString(columns.address);
+      int                addressDeviceId      = cursor.getInt(columns.addressDeviceId);
+      int                deliveryReceiptCount = cursor.getInt(columns.deliveryReceiptCount);
+      int                readReceiptCount     = cursor.getInt(columns.readReceiptCount);
+      String             body                 = cursor.getString(columns.body);
+      int                partCount            = cursor.getInt(columns.partCount);
+      String             mismatchDocument     = cursor.getString(columns.mismatchedIdentities);
+      String             networkDocument      = cursor.getString(columns.networkFailures);
+      int                subscriptionId       = cursor.getInt(columns.subscriptionId);
+      long               expiresIn            = cursor.getLong(columns.expiresIn);
+      long               expireStarted        = cursor.getLong(columns.expireStarted);
 
       if (!TextSecurePreferences.isReadReceiptsEnabled(context)) {
         readReceiptCount = 0;
       }
 
       Recipient                 recipient       = getRecipientFor(address);
-      List<IdentityKeyMismatch> mismatches      = getMismatchedIdentities(mismatchDocument);
-      List<NetworkFailure>      networkFailures = getFailures(networkDocument);
-      SlideDeck                 slideDeck       = getSlideDeck(cursor);
-      Quote                     quote           = getQuote(cursor);
+      List<IdentityKeyMismatch> mismatches      = LazyDocumentList.of(mismatchDocument, IdentityKeyMismatchList.class);
+      List<NetworkFailure>      networkFailures = LazyDocumentList.of(networkDocument, NetworkFailureList.class);
+      List<DatabaseAttachment>  attachments     = DatabaseFactory.getAttachmentDatabase(context).getAttachment(cursor);
+      SlideDeck                 slideDeck       = getSlideDeck(attachments);
+      Quote                     quote           = getQuote(cursor, columns, attachments);
 
       return new MediaMmsMessageRecord(context, id, recipient, recipient,
                                        addressDeviceId, dateSent, dateReceived, deliveryReceiptCount,
@@ -1189,41 +1190,15 @@ public class MmsDatabase extends MessagingDatabase {
       return Recipient.from(context, address, true);
     }
 
-    private List<IdentityKeyMismatch> getMismatchedIdentities(String document) {
-      if (!TextUtils.isEmpty(document)) {
-        try {
-          return JsonUtils.fromJson(document, IdentityKeyMismatchList.class).getList();
-        } catch (IOException e) {
-          Log.w(TAG, e);
-        }
-      }
-
-      return new LinkedList<>();
-    }
-
-    private List<NetworkFailure> getFailures(String document) {
-      if (!TextUtils.isEmpty(document)) {
-        try {
-          return JsonUtils.fromJson(document, NetworkFailureList.class).getList();
-        } catch (IOException ioe) {
-          Log.w(TAG, ioe);
-        }
-      }
-
-      return new LinkedList<>();
-    }
-
-    private SlideDeck getSlideDeck(@NonNull Cursor cursor) {
-      List<DatabaseAttachment>   attachment         = DatabaseFactory.getAttachmentDatabase(context).getAttachment(cursor);
-      List<? extends Attachment> messageAttachmnets = Stream.of(attachment).filterNot(Attachment::isQuote).toList();
+    private SlideDeck getSlideDeck(@NonNull List<DatabaseAttachment> attachments) {
+      List<? extends Attachment> messageAttachmnets = Stream.of(attachments).filterNot(Attachment::isQuote).toList();
       return new SlideDeck(context, messageAttachmnets);
     }
 
-    private @Nullable Quote getQuote(@NonNull Cursor cursor) {
-      long                       quoteId          = cursor.getLong(cursor.getColumnIndexOrThrow(MmsDatabase.QUOTE_ID));
-      String                     quoteAuthor      = cursor.getString(cursor.getColumnIndexOrThrow(MmsDatabase.QUOTE_AUTHOR));
-      String                     quoteText        = cursor.getString(cursor.getColumnIndexOrThrow(MmsDatabase.QUOTE_BODY));
-      List<DatabaseAttachment>   attachments      = DatabaseFactory.getAttachmentDatabase(context).getAttachment(cursor);
+    private @Nullable Quote getQuote(@NonNull Cursor cursor, @NonNull ReaderColumns columns, @NonNull List<DatabaseAttachment> attachments) {
+      long                       quoteId          = cursor.getLong(columns.quoteId);
+      String                     quoteAuthor      = cursor.getString(columns.quoteAuthor);
+      String                     quoteText        = cursor.getString(columns.quoteBody);
       List<? extends Attachment> quoteAttachments = Stream.of(attachments).filter(Attachment::isQuote).toList();
       SlideDeck                  quoteDeck        = new SlideDeck(context, quoteAttachments);
 
@@ -1239,6 +1214,63 @@ public class MmsDatabase extends MessagingDatabase {
     }
   }
 
+  private static class ReaderColumns {
+
+    private final int messageType;
+    private final int id;
+    private final int dateSent;
+    private final int dateReceived;
+    private final int threadId;
+    private final int messageBox;
+    private final int address;
+    private final int addressDeviceId;
+    private final int contentLocation;
+    private final int transactionId;
+    private final int messageSize;
+    private final int expiry;
+    private final int status;
+    private final int deliveryReceiptCount;
+    private final int readReceiptCount;
+    private final int body;
+    private final int partCount;
+    private final int mismatchedIdentities;
+    private final int networkFailures;
+    private final int subscriptionId;
+    private final int expiresIn;
+    private final int expireStarted;
+    private final int quoteId;
+    private final int quoteAuthor;
+    private final int quoteBody;
+
+    private ReaderColumns(@NonNull Cursor cursor) {
+      this.messageType          = cursor.getColumnIndexOrThrow(MmsDatabase.MESSAGE_TYPE);
+      this.id                   = cursor.getColumnIndexOrThrow(MmsDatabase.ID);
+      this.dateSent             = cursor.getColumnIndexOrThrow(MmsDatabase.NORMALIZED_DATE_SENT);
+      this.dateReceived         = cursor.getColumnIndexOrThrow(MmsDatabase.NORMALIZED_DATE_RECEIVED);
+      this.threadId             = cursor.getColumnIndexOrThrow(MmsDatabase.THREAD_ID);
+      this.messageBox           = cursor.getColumnIndexOrThrow(MmsDatabase.MESSAGE_BOX);
+      this.address              = cursor.getColumnIndexOrThrow(MmsDatabase.ADDRESS);
+      this.addressDeviceId      = cursor.getColumnIndexOrThrow(MmsDatabase.ADDRESS_DEVICE_ID);
+      this.contentLocation      = cursor.getColumnIndexOrThrow(MmsDatabase.CONTENT_LOCATION);
+      this.transactionId        = cursor.getColumnIndexOrThrow(MmsDatabase.TRANSACTION_ID);
+      this.messageSize          = cursor.getColumnIndexOrThrow(MmsDatabase.MESSAGE_SIZE);
+      this.expiry               = cursor.getColumnIndexOrThrow(MmsDatabase.EXPIRY);
+      this.status               = cursor.getColumnIndexOrThrow(MmsDatabase.STATUS);
+      this.deliveryReceiptCount = cursor.getColumnIndexOrThrow(MmsDatabase.DELIVERY_RECEIPT_COUNT);
+      this.readReceiptCount     = cursor.getColumnIndexOrThrow(MmsDatabase.READ_RECEIPT_COUNT);
+      this.body                 = cursor.getColumnIndexOrThrow(MmsDatabase.BODY);
+      this.partCount            = cursor.getColumnIndexOrThrow(MmsDatabase.PART_COUNT);
+      this.mismatchedIdentities = cursor.getColumnIndexOrThrow(MmsDatabase.MISMATCHED_IDENTITIES);
+      this.networkFailures      = cursor.getColumnIndexOrThrow(MmsDatabase.NETWORK_FAILURE);
+      this.subscriptionId       = cursor.getColumnIndexOrThrow(MmsDatabase.SUBSCRIPTION_ID);
+      this.expiresIn            = cursor.getColumnIndexOrThrow(MmsDatabase.EXPIRES_IN);
+      this.expireStarted        = cursor.getColumnIndexOrThrow(MmsDatabase.EXPIRE_STARTED);
+      this.quoteId              = cursor.getColumnIndexOrThrow(MmsDatabase.QUOTE_ID);
+      this.quoteAuthor          = cursor.getColumnIndexOrThrow(MmsDatabase.QUOTE_AUTHOR);
+      this.quoteBody            = cursor.getColumnIndexOrThrow(MmsDatabase.QUOTE_BODY);
+    }
+  }
+
   private long generatePduCompatTimestamp() {
     final long time = System.currentTimeMillis();
     return time - (time % 1000);
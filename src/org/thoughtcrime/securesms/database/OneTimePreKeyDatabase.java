@@ -19,6 +19,7 @@ import org.whispersystems.libsignal.ecc.ECPublicKey;
 import org.whispersystems.libsignal.state.PreKeyRecord;
 
 import java.io.IOException;
+import java.util.List;
 
 public class OneTimePreKeyDatabase extends Database {
 
@@ -64,13 +65,22 @@ public class OneTimePreKeyDatabase extends Database {
 
   public void insertPreKey(int keyId, PreKeyRecord record) {
     SQLiteDatabase database = databaseHelper.getWritableDatabase();
+    database.replace(TABLE_NAME, null, getContentValues(keyId, record));
+  }
 
-    ContentValues contentValues = new ContentValues();
-    contentValues.put(KEY_ID, keyId);
-    contentValues.put(PUBLIC_KEY, Base64.encodeBytes(record.getKeyPair().getPublicKey().serialize()));
-    contentValues.put(PRIVATE_KEY, Base64.encodeBytes(record.getKeyPair().getPrivateKey().serialize()));
+  public void insertPreKeys(List<PreKeyRecord> records) {
+    SQLiteDatabase database = databaseHelper.getWritableDatabase();
+    database.beginTransaction();
+
+    try {
+      for (PreKeyRecord record : records) {
+        database.replace(TABLE_NAME, null, getContentValues(record.getId(), record));
+      }
 
-    database.replace(TABLE_NAME, null, contentValues);
+      database.setTransactionSuccessful();
+    } finally {
+      database.endTransaction();
+    }
   }
 
   public void removePreKey(int keyId) {
@@ -78,4 +88,13 @@ public class OneTimePreKeyDatabase extends Database {
     database.delete(TABLE_NAME, KEY_ID + " = ?", new String[] {String.valueOf(keyId)});
   }
 
+  private ContentValues getContentValues(int keyId, PreKeyRecord record) {
+    ContentValues contentValues = new ContentValues();
+    contentValues.put(KEY_ID, keyId);
+    contentValues.put(PUBLIC_KEY, Base64.encodeBytes(record.getKeyPair().getPublicKey().serialize()));
+    contentValues.put(PRIVATE_KEY, Base64.encodeBytes(record.getKeyPair().getPrivateKey().serialize()));
+
+    return contentValues;
+  }
+
 }
@@ -0,0 +1,179 @@
+package org.thoughtcrime.securesms.database;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+
+import org.thoughtcrime.securesms.attachments.AttachmentId;
+import org.thoughtcrime.securesms.attachments.DatabaseAttachment;
+
+import java.nio.charset.Charset;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Packs the attachments of a message into a single column of a message query, and reads them
+ * back without going through a JSON parser.
+ *
+ * Every attachment is a fixed sequence of fields, each followed by a comma. Numbers are written
+ * in decimal, and strings as the hex of their UTF-8 bytes (so they can contain anything, commas
+ * and NULs included), or as "-" when they're null. Attachments follow each other with nothing in
+ * between, and a message without any has a NULL column.
+ */
+public class PackedAttachments {
+
+  private static final String  TABLE = AttachmentDatabase.TABLE_NAME + ".";
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+  private static final char[]  HEX   = "0123456789ABCDEF".toCharArray();
+
+  private PackedAttachments() {}
+
+  /**
+   * @return A grouping column expression for a query joining the attachment table, named
+   * {@link AttachmentDatabase#PACKED_ATTACHMENTS}.
+   */
+  static @NonNull String getProjection() {
+    return "group_concat(CASE WHEN " + TABLE + AttachmentDatabase.ROW_ID + " IS NULL THEN NULL ELSE " +
+           packNumber(AttachmentDatabase.ROW_ID)              + " || " +
+           packNumber(AttachmentDatabase.UNIQUE_ID)           + " || " +
+           packNumber(AttachmentDatabase.MMS_ID)              + " || " +
+           packPresent(AttachmentDatabase.DATA)               + " || " +
+           packPresent(AttachmentDatabase.THUMBNAIL)          + " || " +
+           packString(AttachmentDatabase.CONTENT_TYPE)        + " || " +
+           packNumber(AttachmentDatabase.TRANSFER_STATE)      + " || " +
+           packNumber(AttachmentDatabase.SIZE)                + " || " +
+           packString(AttachmentDatabase.FILE_NAME)           + " || " +
+           packString(AttachmentDatabase.CONTENT_LOCATION)    + " || " +
+           packString(AttachmentDatabase.CONTENT_DISPOSITION) + " || " +
+           packString(AttachmentDatabase.NAME)                + " || " +
+           packString(AttachmentDatabase.FAST_PREFLIGHT_ID)   + " || " +
+           packNumber(AttachmentDatabase.VOICE_NOTE)          + " || " +
+           packNumber(AttachmentDatabase.WIDTH)               + " || " +
+           packNumber(AttachmentDatabase.HEIGHT)              + " || " +
+           packNumber(AttachmentDatabase.QUOTE)               +
+           " END, '') AS " + AttachmentDatabase.PACKED_ATTACHMENTS;
+  }
+
+  static @NonNull List<DatabaseAttachment> unpack(@Nullable String packed) {
+    List<DatabaseAttachment> attachments = new LinkedList<>();
+
+    if (packed == null) {
+      return attachments;
+    }
+
+    Unpacker unpacker = new Unpacker(packed);
+
+    while (unpacker.hasRemaining()) {
+      long    rowId              = unpacker.nextLong();
+      long    uniqueId           = unpacker.nextLong();
+      long    mmsId              = unpacker.nextLong();
+      boolean hasData            = unpacker.nextLong() == 1;
+      boolean hasThumbnail       = unpacker.nextLong() == 1;
+      String  contentType        = unpacker.nextString();
+      int     transferState      = (int)unpacker.nextLong();
+      long    size               = unpacker.nextLong();
+      String  fileName           = unpacker.nextString();
+      String  contentLocation    = unpacker.nextString();
+      String  contentDisposition = unpacker.nextString();
+      String  name               = unpacker.nextString();
+      String  fastPreflightId    = unpacker.nextString();
+      boolean voiceNote          = unpacker.nextLong() == 1;
+      int     width              = (int)unpacker.nextLong();
+      int     height             = (int)unpacker.nextLong();
+      boolean quote              = unpacker.nextLong() == 1;
+
+      attachments.add(new DatabaseAttachment(new AttachmentId(rowId, uniqueId), mmsId, hasData, hasThumbnail,
+                                             contentType, transferState, size, fileName, contentLocation,
+                                             contentDisposition, name, null, fastPreflightId, voiceNote,
+                                             width, height, quote));
+    }
+
+    return attachments;
+  }
+
+  /**
+   * @return A string field the way {@link #getProjection()} packs it.
+   */
+  @VisibleForTesting
+  static @NonNull String packString(@Nullable String value) {
+    if (value == null) return "-,";
+
+    byte[]        bytes  = value.getBytes(UTF_8);
+    StringBuilder packed = new StringBuilder(bytes.length * 2 + 1);
+
+    for (byte b : bytes) {
+      packed.append(HEX[(b >> 4) & 0xF]).append(HEX[b & 0xF]);
+    }
+
+    return packed.append(',').toString();
+  }
+
+  private static String packNumber(@NonNull String column) {
+    return "IFNULL(CAST(" + TABLE + column + " AS INTEGER), 0) || ','";
+  }
+
+  private static String packPresent(@NonNull String column) {
+    return "(IFNULL(" + TABLE + column + ", '') != '') || ','";
+  }
+
+  private static String packString(@NonNull String column) {
+    return "(CASE WHEN " + TABLE + column + " IS NULL THEN '-' " +
+           "ELSE hex(CAST(" + TABLE + column + " AS BLOB)) END) || ','";
+  }
+
+  private static class Unpacker {
+
+    private final String packed;
+
+    private int position;
+
+    private Unpacker(@NonNull String packed) {
+      this.packed = packed;
+    }
+
+    boolean hasRemaining() {
+      return position < packed.length();
+    }
+
+    long nextLong() {
+      boolean negative = packed.charAt(position) == '-';
+      long    value    = 0;
+
+      if (negative) position++;
+
+      for (char c = packed.charAt(position++); c != ','; c = packed.charAt(position++)) {
+        if (c < '0' || c > '9') throw new IllegalStateException("Bad number at " + (position - 1));
+        value = value * 10 + (c - '0');
+      }
+
+      return negative ? -value : value;
+    }
+
+    @Nullable String nextString() {
+      if (packed.charAt(position) == '-') {
+        position += 2;
+        return null;
+      }
+
+      int end = packed.indexOf(',', position);
+
+      if (end == -1 || (end - position) % 2 != 0) throw new IllegalStateException("Bad string at " + position);
+
+      byte[] bytes = new byte[(end - position) / 2];
+
+      for (int i = 0; i < bytes.length; i++) {
+        bytes[i] = (byte)(hexValue(packed.charAt(position + 2 * i)) << 4 | hexValue(packed.charAt(position + 2 * i + 1)));
+      }
+
+      position = end + 1;
+      return new String(bytes, UTF_8);
+    }
+
+    private int hexValue(char c) {
+      if      (c >= '0' && c <= '9') return c - '0';
+      else if (c >= 'A' && c <= 'F') return c - 'A' + 10;
+      else if (c >= 'a' && c <= 'f') return c - 'a' + 10;
+      else                           throw new IllegalStateException("Bad hex digit at " + position);
+    }
+  }
+}
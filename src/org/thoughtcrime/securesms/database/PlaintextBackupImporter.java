@@ -2,6 +2,8 @@ package org.thoughtcrime.securesms.database;
 
 import android.content.Context;
 import android.os.Environment;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
 import android.util.Log;
 
 import net.sqlcipher.database.SQLiteDatabase;
@@ -13,35 +15,68 @@ import org.xmlpull.v1.XmlPullParserException;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 
 public class PlaintextBackupImporter {
 
+  private static final String TAG = PlaintextBackupImporter.class.getSimpleName();
+
+  private static final int CHUNK_SIZE = 500;
+
   public static void importPlaintextFromSd(Context context)
       throws NoExternalStorageException, IOException
   {
-    Log.w("PlaintextBackupImporter", "importPlaintext()");
-    SmsDatabase    db          = DatabaseFactory.getSmsDatabase(context);
-    SQLiteDatabase transaction = db.beginTransaction();
+    importPlaintextFromSd(context, null);
+  }
+
+  public static void importPlaintextFromSd(Context context, @Nullable ProgressListener listener)
+      throws NoExternalStorageException, IOException
+  {
+    importPlaintext(context, getPlaintextExportFile(), listener);
+  }
+
+  /**
+   * Streams the backup into the database, committing every {@link #CHUNK_SIZE} messages so the
+   * journal stays small, and reporting the running total to the listener after each commit.
+   */
+  @VisibleForTesting
+  static void importPlaintext(Context context, File backupFile, @Nullable ProgressListener listener)
+      throws IOException
+  {
+    Log.w(TAG, "importPlaintext()");
+    SmsDatabase       db              = DatabaseFactory.getSmsDatabase(context);
+    ThreadDatabase    threads         = DatabaseFactory.getThreadDatabase(context);
+    Map<String, Long> threadIds       = new HashMap<>();
+    Set<Long>         modifiedThreads = new HashSet<>();
+    long              startTime       = System.currentTimeMillis();
+    int               imported        = 0;
+
+    SQLiteDatabase  transaction = db.beginTransaction();
+    SQLiteStatement statement   = db.createInsertStatement(transaction);
 
     try {
-      ThreadDatabase threads         = DatabaseFactory.getThreadDatabase(context);
-      XmlBackup      backup          = new XmlBackup(getPlaintextExportFile().getAbsolutePath());
-      Set<Long>      modifiedThreads = new HashSet<>();
+      XmlBackup               backup = new XmlBackup(backupFile.getAbsolutePath());
       XmlBackup.XmlBackupItem item;
 
       while ((item = backup.getNext()) != null) {
-        Recipient       recipient  = Recipient.from(context, Address.fromExternal(context, item.getAddress()), false);
-        long            threadId   = threads.getThreadIdFor(recipient);
-        SQLiteStatement statement  = db.createInsertStatement(transaction);
-
         if (item.getAddress() == null || item.getAddress().equals("null"))
           continue;
 
         if (!isAppropriateTypeForImport(item.getType()))
           continue;
 
+        Long threadId = threadIds.get(item.getAddress());
+
+        if (threadId == null) {
+          Recipient recipient = Recipient.from(context, Address.fromExternal(context, item.getAddress()), false);
+          threadId = threads.getThreadIdFor(recipient);
+          threadIds.put(item.getAddress(), threadId);
+        }
+
+        statement.clearBindings();
         addStringToStatement(statement, 1, item.getAddress());
         addNullToStatement(statement, 2);
         addLongToStatement(statement, 3, item.getDate());
@@ -57,19 +92,35 @@ public class PlaintextBackupImporter {
         addLongToStatement(statement, 13, threadId);
         modifiedThreads.add(threadId);
         statement.execute();
+
+        if (++imported % CHUNK_SIZE == 0) {
+          db.endTransaction(transaction);
+          Log.w(TAG, "Imported " + imported + " messages in " + (System.currentTimeMillis() - startTime) + "ms");
+
+          if (listener != null) listener.onProgress(imported);
+
+          transaction = db.beginTransaction();
+        }
       }
 
       for (long threadId : modifiedThreads) {
         threads.update(threadId, true);
       }
 
-      Log.w("PlaintextBackupImporter", "Exited loop");
+      Log.w(TAG, "Imported " + imported + " messages into " + modifiedThreads.size() + " threads in " + (System.currentTimeMillis() - startTime) + "ms");
     } catch (XmlPullParserException e) {
-      Log.w("PlaintextBackupImporter", e);
+      Log.w(TAG, e);
       throw new IOException("XML Parsing error!");
     } finally {
+      statement.close();
       db.endTransaction(transaction);
     }
+
+    if (listener != null) listener.onProgress(imported);
+  }
+
+  public interface ProgressListener {
+    void onProgress(int imported);
   }
 
   private static File getPlaintextExportFile() throws NoExternalStorageException {
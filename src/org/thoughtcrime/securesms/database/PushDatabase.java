@@ -28,15 +28,25 @@ public class PushDatabase extends Database {
   public  static final String LEGACY_MSG   = "body";
   public  static final String CONTENT      = "content";
   public  static final String TIMESTAMP    = "timestamp";
+  public  static final String BATCHED      = "batched";
 
   public static final String CREATE_TABLE = "CREATE TABLE " + TABLE_NAME + " (" + ID + " INTEGER PRIMARY KEY, " +
-      TYPE + " INTEGER, " + SOURCE + " TEXT, " + DEVICE_ID + " INTEGER, " + LEGACY_MSG + " TEXT, " + CONTENT + " TEXT, " + TIMESTAMP + " INTEGER);";
+      TYPE + " INTEGER, " + SOURCE + " TEXT, " + DEVICE_ID + " INTEGER, " + LEGACY_MSG + " TEXT, " + CONTENT + " TEXT, " + TIMESTAMP + " INTEGER, " +
+      BATCHED + " INTEGER DEFAULT 0);";
 
   public PushDatabase(Context context, SQLCipherOpenHelper databaseHelper) {
     super(context, databaseHelper);
   }
 
   public long insert(@NonNull SignalServiceEnvelope envelope) {
+    return insert(envelope, false);
+  }
+
+  /**
+   * @param batched whether the envelope may be decrypted by a batch job that drains
+   *                pending envelopes, rather than only by the job created for it.
+   */
+  public long insert(@NonNull SignalServiceEnvelope envelope, boolean batched) {
     Optional<Long> messageId = find(envelope);
 
     if (messageId.isPresent()) {
@@ -49,6 +59,7 @@ public class PushDatabase extends Database {
       values.put(LEGACY_MSG, envelope.hasLegacyMessage() ? Base64.encodeBytes(envelope.getLegacyMessage()) : "");
       values.put(CONTENT, envelope.hasContent() ? Base64.encodeBytes(envelope.getContent()) : "");
       values.put(TIMESTAMP, envelope.getTimestamp());
+      values.put(BATCHED, batched ? 1 : 0);
 
       return databaseHelper.getWritableDatabase().insert(TABLE_NAME, null, values);
     }
@@ -89,6 +100,28 @@ public class PushDatabase extends Database {
     return databaseHelper.getReadableDatabase().query(TABLE_NAME, null, null, null, null, null, null);
   }
 
+  /**
+   * Returns up to {@code limit} batched envelopes, starting at {@code fromId} and in the order
+   * they were received.
+   */
+  public Cursor getPendingBatch(long fromId, int limit) {
+    return databaseHelper.getReadableDatabase().query(TABLE_NAME, null, ID + " >= ? AND " + BATCHED + " = 1",
+                                                      new String[] {String.valueOf(fromId)},
+                                                      null, null, ID + " ASC", String.valueOf(limit));
+  }
+
+  public void beginTransaction() {
+    databaseHelper.getWritableDatabase().beginTransaction();
+  }
+
+  public void setTransactionSuccessful() {
+    databaseHelper.getWritableDatabase().setTransactionSuccessful();
+  }
+
+  public void endTransaction() {
+    databaseHelper.getWritableDatabase().endTransaction();
+  }
+
   public void delete(long id) {
     databaseHelper.getWritableDatabase().delete(TABLE_NAME, ID_WHERE, new String[] {id+""});
   }
@@ -130,6 +163,10 @@ public class PushDatabase extends Database {
       this.cursor = cursor;
     }
 
+    public long getCurrentId() {
+      return cursor.getLong(cursor.getColumnIndexOrThrow(ID));
+    }
+
     public SignalServiceEnvelope getNext() {
       try {
         if (cursor == null || !cursor.moveToNext())
@@ -143,8 +180,8 @@ public class PushDatabase extends Database {
         long   timestamp     = cursor.getLong(cursor.getColumnIndexOrThrow(TIMESTAMP));
 
         return new SignalServiceEnvelope(type, source, deviceId, "", timestamp,
-                                         legacyMessage != null ? Base64.decode(legacyMessage) : null,
-                                         content != null ? Base64.decode(content) : null);
+                                         Util.isEmpty(legacyMessage) ? null : Base64.decode(legacyMessage),
+                                         Util.isEmpty(content) ? null : Base64.decode(content));
       } catch (IOException e) {
         throw new AssertionError(e);
       }
@@ -13,6 +13,7 @@ import com.annimon.stream.Stream;
 import net.sqlcipher.database.SQLiteDatabase;
 
 import org.thoughtcrime.securesms.color.MaterialColor;
+import org.thoughtcrime.securesms.contacts.ContactIndex;
 import org.thoughtcrime.securesms.database.helpers.SQLCipherOpenHelper;
 import org.thoughtcrime.securesms.recipients.Recipient;
 import org.thoughtcrime.securesms.util.Base64;
@@ -53,6 +54,7 @@ public class RecipientDatabase extends Database {
   private static final String PROFILE_SHARING         = "profile_sharing_approval";
   private static final String CALL_RINGTONE           = "call_ringtone";
   private static final String CALL_VIBRATE            = "call_vibrate";
+  private static final String DEVICE_SYNC_DIGEST      = "device_sync_digest";
 
   private static final String[] RECIPIENT_PROJECTION = new String[] {
       BLOCK, NOTIFICATION, CALL_RINGTONE, VIBRATE, CALL_VIBRATE, MUTE_UNTIL, COLOR, SEEN_INVITE_REMINDER, DEFAULT_SUBSCRIPTION_ID, EXPIRE_MESSAGES, REGISTERED,
@@ -122,7 +124,8 @@ public class RecipientDatabase extends Database {
           SIGNAL_PROFILE_AVATAR + " TEXT DEFAULT NULL, " +
           PROFILE_SHARING + " INTEGER DEFAULT 0, " +
           CALL_RINGTONE + " TEXT DEFAULT NULL, " +
-          CALL_VIBRATE + " INTEGER DEFAULT " + VibrateState.DEFAULT.getId() + ");";
+          CALL_VIBRATE + " INTEGER DEFAULT " + VibrateState.DEFAULT.getId() + ", " +
+          DEVICE_SYNC_DIGEST + " TEXT DEFAULT NULL);";
 
   public RecipientDatabase(Context context, SQLCipherOpenHelper databaseHelper) {
     super(context, databaseHelper);
@@ -342,6 +345,7 @@ public class RecipientDatabase extends Database {
     contentValues.put(REGISTERED, registeredState.getId());
     updateOrInsert(recipient.getAddress(), contentValues);
     recipient.setRegistered(registeredState);
+    ContactIndex.getInstance(context).setRegistered(recipient.getAddress(), registeredState == RegisteredState.REGISTERED);
   }
 
   public void setRegistered(@NonNull List<Address> activeAddresses,
@@ -362,6 +366,8 @@ public class RecipientDatabase extends Database {
       updateOrInsert(inactiveAddress, contentValues);
       Recipient.applyCached(inactiveAddress, recipient -> recipient.setRegistered(RegisteredState.NOT_REGISTERED));
     }
+
+    ContactIndex.getInstance(context).invalidate();
   }
 
   public List<Address> getRegistered() {
@@ -390,6 +396,58 @@ public class RecipientDatabase extends Database {
     return results;
   }
 
+  /**
+   * @return The digest of each contact as it was last sent to linked devices.
+   */
+  public @NonNull Map<Address, String> getDeviceSyncDigests() {
+    SQLiteDatabase       db      = databaseHelper.getReadableDatabase();
+    Map<Address, String> results = new HashMap<>();
+
+    try (Cursor cursor = db.query(TABLE_NAME, new String[] {ADDRESS, DEVICE_SYNC_DIGEST}, DEVICE_SYNC_DIGEST + " IS NOT NULL", null, null, null, null)) {
+      while (cursor != null && cursor.moveToNext()) {
+        results.put(Address.fromSerialized(cursor.getString(0)), cursor.getString(1));
+      }
+    }
+
+    return results;
+  }
+
+  public void setDeviceSyncDigests(@NonNull Map<Address, String> digests) {
+    setDeviceSyncDigests(digests, false);
+  }
+
+  /**
+   * Replaces every stored digest with the given ones, after a complete sync has replaced the
+   * linked devices' contact list.
+   */
+  public void replaceDeviceSyncDigests(@NonNull Map<Address, String> digests) {
+    setDeviceSyncDigests(digests, true);
+  }
+
+  private void setDeviceSyncDigests(@NonNull Map<Address, String> digests, boolean clearExisting) {
+    SQLiteDatabase database = databaseHelper.getWritableDatabase();
+
+    database.beginTransaction();
+
+    try {
+      if (clearExisting) {
+        ContentValues cleared = new ContentValues(1);
+        cleared.putNull(DEVICE_SYNC_DIGEST);
+        database.update(TABLE_NAME, cleared, DEVICE_SYNC_DIGEST + " IS NOT NULL", null);
+      }
+
+      for (Map.Entry<Address, String> entry : digests.entrySet()) {
+        ContentValues values = new ContentValues(1);
+        values.put(DEVICE_SYNC_DIGEST, entry.getValue());
+        updateOrInsert(entry.getKey(), values);
+      }
+
+      database.setTransactionSuccessful();
+    } finally {
+      database.endTransaction();
+    }
+  }
+
   // XXX This shouldn't be here, and is just a temporary workaround
   public RegisteredState isRegistered(@NonNull Address address) {
     SQLiteDatabase db = databaseHelper.getReadableDatabase();
@@ -33,20 +33,19 @@ import net.sqlcipher.database.SQLiteStatement;
 import org.thoughtcrime.securesms.ApplicationContext;
 import org.thoughtcrime.securesms.database.documents.IdentityKeyMismatch;
 import org.thoughtcrime.securesms.database.documents.IdentityKeyMismatchList;
+import org.thoughtcrime.securesms.database.documents.LazyDocumentList;
 import org.thoughtcrime.securesms.database.helpers.SQLCipherOpenHelper;
 import org.thoughtcrime.securesms.database.model.MessageRecord;
 import org.thoughtcrime.securesms.database.model.SmsMessageRecord;
+import org.thoughtcrime.securesms.jobmanager.JobManager;
 import org.thoughtcrime.securesms.jobs.TrimThreadJob;
 import org.thoughtcrime.securesms.recipients.Recipient;
 import org.thoughtcrime.securesms.sms.IncomingGroupMessage;
 import org.thoughtcrime.securesms.sms.IncomingTextMessage;
 import org.thoughtcrime.securesms.sms.OutgoingTextMessage;
-import org.thoughtcrime.securesms.util.JsonUtils;
 import org.thoughtcrime.securesms.util.TextSecurePreferences;
-import org.whispersystems.jobqueue.JobManager;
 import org.whispersystems.libsignal.util.guava.Optional;
 
-import java.io.IOException;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.util.LinkedList;
@@ -718,7 +717,12 @@ public class SmsDatabase extends MessagingDatabase {
     db.delete(TABLE_NAME, THREAD_ID + " = ?", new String[] {threadId+""});
   }
 
-  /*package*/void deleteMessagesInThreadBeforeDate(long threadId, long date) {
+  /**
+   * Deletes up to {@code limit} of the messages in a thread from before a date.
+   *
+   * @return The number of messages deleted.
+   */
+  /*package*/ int deleteMessagesInThreadBeforeDate(long threadId, long date, int limit) {
     SQLiteDatabase db = databaseHelper.getWritableDatabase();
     String where      = THREAD_ID + " = ? AND (CASE " + TYPE;
 
@@ -728,7 +732,8 @@ public class SmsDatabase extends MessagingDatabase {
 
     where += (" ELSE " + DATE_RECEIVED + " < " + date + " END)");
 
-    db.delete(TABLE_NAME, where, new String[] {threadId + ""});
+    return db.delete(TABLE_NAME, ID + " IN (SELECT " + ID + " FROM " + TABLE_NAME + " WHERE " + where + " LIMIT " + limit + ")",
+                     new String[] {threadId + ""});
   }
 
   /*package*/ void deleteThreads(Set<Long> threadIds) {
@@ -821,10 +826,12 @@ public class SmsDatabase extends MessagingDatabase {
 
   public class Reader {
 
-    private final Cursor cursor;
+    private final Cursor                          cursor;
+    private final ColumnIndexCache<ReaderColumns> columnCache;
 
     public Reader(Cursor cursor) {
-      this.cursor = cursor;
+      this.cursor      = cursor;
+      this.columnCache = new ColumnIndexCache<>(ReaderColumns.class, ReaderColumns::new);
     }
 
     public SmsMessageRecord getNext() {
@@ -840,27 +847,29 @@ public class SmsDatabase extends MessagingDatabase {
     }
 
     public SmsMessageRecord getCurrent() {
-      long    messageId            = cursor.getLong(cursor.getColumnIndexOrThrow(SmsDatabase.ID));
-      Address address              = Address.fromSerialized(cursor.getString(cursor.getColumnIndexOrThrow(SmsDatabase.ADDRESS)));
-      int     addressDeviceId      = cursor.getInt(cursor.getColumnIndexOrThrow(SmsDatabase.ADDRESS_DEVICE_ID));
-      long    type                 = cursor.getLong(cursor.getColumnIndexOrThrow(SmsDatabase.TYPE));
-      long    dateReceived         = cursor.getLong(cursor.getColumnIndexOrThrow(SmsDatabase.NORMALIZED_DATE_RECEIVED));
-      long    dateSent             = cursor.getLong(cursor.getColumnIndexOrThrow(SmsDatabase.NORMALIZED_DATE_SENT));
-      long    threadId             = cursor.getLong(cursor.getColumnIndexOrThrow(SmsDatabase.THREAD_ID));
-      int     status               = cursor.getInt(cursor.getColumnIndexOrThrow(SmsDatabase.STATUS));
-      int     deliveryReceiptCount = cursor.getInt(cursor.getColumnIndexOrThrow(SmsDatabase.DELIVERY_RECEIPT_COUNT));
-      int     readReceiptCount     = cursor.getInt(cursor.getColumnIndexOrThrow(SmsDatabase.READ_RECEIPT_COUNT));
-      String  mismatchDocument     = cursor.getString(cursor.getColumnIndexOrThrow(SmsDatabase.MISMATCHED_IDENTITIES));
-      int     subscriptionId       = cursor.getInt(cursor.getColumnIndexOrThrow(SmsDatabase.SUBSCRIPTION_ID));
-      long    expiresIn            = cursor.getLong(cursor.getColumnIndexOrThrow(SmsDatabase.EXPIRES_IN));
-      long    expireStarted        = cursor.getLong(cursor.getColumnIndexOrThrow(SmsDatabase.EXPIRE_STARTED));
-      String  body                 = cursor.getString(cursor.getColumnIndexOrThrow(SmsDatabase.BODY));
+      ReaderColumns columns = columnCache.get(cursor);
+
+      long    messageId            = cursor.getLong(columns.id);
+      Address address              = Address.fromSerialized(cursor.getString(columns.address));
+      int     addressDeviceId      = cursor.getInt(columns.addressDeviceId);
+      long    type                 = cursor.getLong(columns.type);
+      long    dateReceived         = cursor.getLong(columns.dateReceived);
+      long    dateSent             = cursor.getLong(columns.dateSent);
+      long    threadId             = cursor.getLong(columns.threadId);
+      int     status               = cursor.getInt(columns.status);
+      int     deliveryReceiptCount = cursor.getInt(columns.deliveryReceiptCount);
+      int     readReceiptCount     = cursor.getInt(columns.readReceiptCount);
+      String  mismatchDocument     = cursor.getString(columns.mismatchedIdentities);
+      int     subscriptionId       = cursor.getInt(columns.subscriptionId);
+      long    expiresIn            = cursor.getLong(columns.expiresIn);
+      long    expireStarted        = cursor.getLong(columns.expireStarted);
+      String  body                 = cursor.getString(columns.body);
 
       if (!TextSecurePreferences.isReadReceiptsEnabled(context)) {
         readReceiptCount = 0;
       }
 
-      List<IdentityKeyMismatch> mismatches = getMismatches(mismatchDocument);
+      List<IdentityKeyMismatch> mismatches = LazyDocumentList.of(mismatchDocument, IdentityKeyMismatchList.class);
       Recipient                 recipient  = Recipient.from(context, address, true);
 
       return new SmsMessageRecord(context, messageId, body, recipient,
@@ -871,23 +880,48 @@ public class SmsDatabase extends MessagingDatabase {
                                   expiresIn, expireStarted, readReceiptCount);
     }
 
-    private List<IdentityKeyMismatch> getMismatches(String document) {
-      try {
-        if (!TextUtils.isEmpty(document)) {
-          return JsonUtils.fromJson(document, IdentityKeyMismatchList.class).getList();
-        }
-      } catch (IOException e) {
-        Log.w(TAG, e);
-      }
-
-      return new LinkedList<>();
-    }
-
     public void close() {
       cursor.close();
     }
   }
 
+  private static class ReaderColumns {
+
+    private final int id;
+    private final int address;
+    private final int addressDeviceId;
+    private final int type;
+    private final int dateReceived;
+    private final int dateSent;
+    private final int threadId;
+    private final int status;
+    private final int deliveryReceiptCount;
+    private final int readReceiptCount;
+    private final int mismatchedIdentities;
+    private final int subscriptionId;
+    private final int expiresIn;
+    private final int expireStarted;
+    private final int body;
+
+    private ReaderColumns(@NonNull Cursor cursor) {
+      this.id                   = cursor.getColumnIndexOrThrow(SmsDatabase.ID);
+      this.address              = cursor.getColumnIndexOrThrow(SmsDatabase.ADDRESS);
+      this.addressDeviceId      = cursor.getColumnIndexOrThrow(SmsDatabase.ADDRESS_DEVICE_ID);
+      this.type                 = cursor.getColumnIndexOrThrow(SmsDatabase.TYPE);
+      this.dateReceived         = cursor.getColumnIndexOrThrow(SmsDatabase.NORMALIZED_DATE_RECEIVED);
+      this.dateSent             = cursor.getColumnIndexOrThrow(SmsDatabase.NORMALIZED_DATE_SENT);
+      this.threadId             = cursor.getColumnIndexOrThrow(SmsDatabase.THREAD_ID);
+      this.status               = cursor.getColumnIndexOrThrow(SmsDatabase.STATUS);
+      this.deliveryReceiptCount = cursor.getColumnIndexOrThrow(SmsDatabase.DELIVERY_RECEIPT_COUNT);
+      this.readReceiptCount     = cursor.getColumnIndexOrThrow(SmsDatabase.READ_RECEIPT_COUNT);
+      this.mismatchedIdentities = cursor.getColumnIndexOrThrow(SmsDatabase.MISMATCHED_IDENTITIES);
+      this.subscriptionId       = cursor.getColumnIndexOrThrow(SmsDatabase.SUBSCRIPTION_ID);
+      this.expiresIn            = cursor.getColumnIndexOrThrow(SmsDatabase.EXPIRES_IN);
+      this.expireStarted        = cursor.getColumnIndexOrThrow(SmsDatabase.EXPIRE_STARTED);
+      this.body                 = cursor.getColumnIndexOrThrow(SmsDatabase.BODY);
+    }
+  }
+
   public interface InsertListener {
     public void onComplete();
   }
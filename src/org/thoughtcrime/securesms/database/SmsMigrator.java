@@ -29,79 +29,76 @@ import net.sqlcipher.database.SQLiteStatement;
 import org.thoughtcrime.securesms.recipients.Recipient;
 import org.thoughtcrime.securesms.util.TextSecurePreferences;
 
+import org.whispersystems.libsignal.util.guava.Optional;
+
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
+/**
+ * Imports the system SMS database as a two stage pipeline. A reader thread pages through the
+ * provider's conversations and resolves their addresses, while the calling thread writes each
+ * page in its own transaction with a single compiled insert statement.
+ */
 public class SmsMigrator {
 
   private static final String TAG = SmsMigrator.class.getSimpleName();
 
-  private static void addStringToStatement(SQLiteStatement statement, Cursor cursor,
-                                           int index, String key)
-  {
-    int columnIndex = cursor.getColumnIndexOrThrow(key);
+  private static final int PAGE_SIZE       = 500;
+  private static final int PAGES_IN_FLIGHT = 4;
 
-    if (cursor.isNull(columnIndex)) {
-      statement.bindNull(index);
-    } else {
-      statement.bindString(index, cursor.getString(columnIndex));
-    }
-  }
+  private static final Page END_OF_MIGRATION = new Page(null, null, null, 0, 0, false);
 
-  private static void addIntToStatement(SQLiteStatement statement, Cursor cursor,
-                                        int index, String key)
-  {
-    int columnIndex = cursor.getColumnIndexOrThrow(key);
+  private static @Nullable Long getLong(Cursor cursor, int columnIndex) {
+    if (columnIndex == -1 || cursor.isNull(columnIndex)) return null;
+    else                                                 return cursor.getLong(columnIndex);
+  }
 
-    if (cursor.isNull(columnIndex)) {
-      statement.bindNull(index);
-    } else {
-      statement.bindLong(index, cursor.getLong(columnIndex));
-    }
+  private static @Nullable String getString(Cursor cursor, int columnIndex) {
+    if (columnIndex == -1 || cursor.isNull(columnIndex)) return null;
+    else                                                 return cursor.getString(columnIndex);
   }
 
-  @SuppressWarnings("SameParameterValue")
-  private static void addTranslatedTypeToStatement(SQLiteStatement statement, Cursor cursor, int index, String key)
-  {
-    int columnIndex = cursor.getColumnIndexOrThrow(key);
+  private static void addStringToStatement(SQLiteStatement statement, int index, @Nullable String value) {
+    if (value == null) statement.bindNull(index);
+    else               statement.bindString(index, value);
+  }
 
-    if (cursor.isNull(columnIndex)) {
-      statement.bindLong(index, SmsDatabase.Types.BASE_INBOX_TYPE);
-    } else {
-      long theirType = cursor.getLong(columnIndex);
-      statement.bindLong(index, SmsDatabase.Types.translateFromSystemBaseType(theirType));
-    }
+  private static void addLongToStatement(SQLiteStatement statement, int index, @Nullable Long value) {
+    if (value == null) statement.bindNull(index);
+    else               statement.bindLong(index, value);
   }
 
-  private static boolean isAppropriateTypeForMigration(Cursor cursor, int columnIndex) {
-    long systemType = cursor.getLong(columnIndex);
-    long ourType    = SmsDatabase.Types.translateFromSystemBaseType(systemType);
+  private static boolean isAppropriateTypeForMigration(long systemType) {
+    long ourType = SmsDatabase.Types.translateFromSystemBaseType(systemType);
 
     return ourType == MmsSmsColumns.Types.BASE_INBOX_TYPE ||
            ourType == MmsSmsColumns.Types.BASE_SENT_TYPE ||
            ourType == MmsSmsColumns.Types.BASE_SENT_FAILED_TYPE;
   }
 
-  private static void getContentValuesForRow(Context context, Cursor cursor,
-                                             long threadId, SQLiteStatement statement)
-  {
-    String theirAddress = cursor.getString(cursor.getColumnIndexOrThrow(SmsDatabase.ADDRESS));
-    statement.bindString(1, Address.fromExternal(context, theirAddress).serialize());
-
-    addIntToStatement(statement, cursor, 2, SmsDatabase.PERSON);
-    addIntToStatement(statement, cursor, 3, SmsDatabase.DATE_RECEIVED);
-    addIntToStatement(statement, cursor, 4, SmsDatabase.DATE_RECEIVED);
-    addIntToStatement(statement, cursor, 5, SmsDatabase.PROTOCOL);
-    addIntToStatement(statement, cursor, 6, SmsDatabase.READ);
-    addIntToStatement(statement, cursor, 7, SmsDatabase.STATUS);
-    addTranslatedTypeToStatement(statement, cursor, 8, SmsDatabase.TYPE);
-    addIntToStatement(statement, cursor, 9, SmsDatabase.REPLY_PATH_PRESENT);
-    addStringToStatement(statement, cursor, 10, SmsDatabase.SUBJECT);
-    addStringToStatement(statement, cursor, 11, SmsDatabase.BODY);
-    addStringToStatement(statement, cursor, 12, SmsDatabase.SERVICE_CENTER);
+  private static void bindRow(SQLiteStatement statement, Row row, long threadId) {
+    statement.clearBindings();
+    statement.bindString(1, row.address);
+
+    addLongToStatement(statement, 2, row.person);
+    addLongToStatement(statement, 3, row.dateReceived);
+    addLongToStatement(statement, 4, row.dateReceived);
+    addLongToStatement(statement, 5, row.protocol);
+    addLongToStatement(statement, 6, row.read);
+    addLongToStatement(statement, 7, row.status);
+    addLongToStatement(statement, 8, row.type);
+    addLongToStatement(statement, 9, row.replyPathPresent);
+    addStringToStatement(statement, 10, row.subject);
+    addStringToStatement(statement, 11, row.body);
+    addStringToStatement(statement, 12, row.serviceCenter);
 
     statement.bindLong(13, threadId);
   }
@@ -127,62 +124,71 @@ public class SmsMigrator {
     }
   }
 
-  private static @Nullable Set<Recipient> getOurRecipients(Context context, String theirRecipients) {
-    StringTokenizer tokenizer     = new StringTokenizer(theirRecipients.trim(), " ");
-    Set<Recipient>  recipientList = new HashSet<>();
-
-    while (tokenizer.hasMoreTokens()) {
-      String theirRecipientId = tokenizer.nextToken();
-      String address          = getTheirCanonicalAddress(context, theirRecipientId);
+  private static long getOurThreadId(Context context, Set<Address> ourAddresses) {
+    ThreadDatabase threadDatabase = DatabaseFactory.getThreadDatabase(context);
 
-      if (address != null) {
-        recipientList.add(Recipient.from(context, Address.fromExternal(context, address), true));
-      }
+    if (ourAddresses.size() == 1) {
+      return threadDatabase.getThreadIdFor(Recipient.from(context, ourAddresses.iterator().next(), true));
     }
 
-    if (recipientList.isEmpty()) return null;
-    else                         return recipientList;
+    Set<Address> members = new HashSet<>(ourAddresses);
+    members.add(Address.fromSerialized(TextSecurePreferences.getLocalNumber(context)));
+
+    List<Address> memberAddresses = new LinkedList<>(members);
+
+    String    ourGroupId        = DatabaseFactory.getGroupDatabase(context).getOrCreateGroupForMembers(memberAddresses, true);
+    Recipient ourGroupRecipient = Recipient.from(context, Address.fromSerialized(ourGroupId), true);
+
+    return threadDatabase.getThreadIdFor(ourGroupRecipient, ThreadDatabase.DistributionTypes.CONVERSATION);
   }
 
-  private static void migrateConversation(Context context, SmsMigrationProgressListener listener,
-                                          ProgressDescription progress,
-                                          long theirThreadId, long ourThreadId)
-  {
-    SmsDatabase ourSmsDatabase = DatabaseFactory.getSmsDatabase(context);
-    Cursor cursor              = null;
+  private static void writePages(Context context, SmsMigrationProgressListener listener, BlockingQueue<Page> pages) {
+    SmsDatabase     ourSmsDatabase = DatabaseFactory.getSmsDatabase(context);
+    ThreadDatabase  threadDatabase = DatabaseFactory.getThreadDatabase(context);
+    SQLiteStatement statement      = null;
+    long            ourThreadId    = -1;
 
     try {
-      Uri uri = Uri.parse("content://sms/conversations/" + theirThreadId);
+      Page page;
 
-      try {
-        cursor = context.getContentResolver().query(uri, null, null, null, null);
-      } catch (SQLiteException e) {
-        /// Work around for weird sony-specific (?) bug: #4309
-        Log.w(TAG, e);
-        return;
-      }
+      while ((page = take(pages)) != END_OF_MIGRATION) {
+        if (page.ourAddresses != null && page.rows != null) {
+          if (page.firstInConversation) {
+            ourThreadId = getOurThreadId(context, page.ourAddresses);
+          }
+
+          SQLiteDatabase database = ourSmsDatabase.beginTransaction();
 
-      SQLiteDatabase transaction = ourSmsDatabase.beginTransaction();
-      SQLiteStatement statement  = ourSmsDatabase.createInsertStatement(transaction);
+          try {
+            if (statement == null) statement = ourSmsDatabase.createInsertStatement(database);
 
-      while (cursor != null && cursor.moveToNext()) {
-        int typeColumn = cursor.getColumnIndex(SmsDatabase.TYPE);
+            for (Row row : page.rows) {
+              bindRow(statement, row, ourThreadId);
+              statement.execute();
+            }
+          } finally {
+            ourSmsDatabase.endTransaction(database);
+          }
 
-        if (cursor.isNull(typeColumn) || isAppropriateTypeForMigration(cursor, typeColumn)) {
-          getContentValuesForRow(context, cursor, ourThreadId, statement);
-          statement.execute();
+          if (page.isLastInConversation()) {
+            threadDatabase.update(ourThreadId, true);
+            threadDatabase.notifyConversationListeners(ourThreadId);
+          }
         }
 
-        listener.progressUpdate(new ProgressDescription(progress, cursor.getCount(), cursor.getPosition()));
+        listener.progressUpdate(page.progress);
       }
-
-      ourSmsDatabase.endTransaction(transaction);
-      DatabaseFactory.getThreadDatabase(context).update(ourThreadId, true);
-      DatabaseFactory.getThreadDatabase(context).notifyConversationListeners(ourThreadId);
-
     } finally {
-      if (cursor != null)
-        cursor.close();
+      if (statement != null)
+        statement.close();
+    }
+  }
+
+  private static Page take(BlockingQueue<Page> pages) {
+    try {
+      return pages.take();
+    } catch (InterruptedException ie) {
+      throw new AssertionError(ie);
     }
   }
 
@@ -191,50 +197,230 @@ public class SmsMigrator {
 //    if (context.getSharedPreferences("SecureSMS", Context.MODE_PRIVATE).getBoolean("migrated", false))
 //      return;
 
-    ThreadDatabase threadDatabase = DatabaseFactory.getThreadDatabase(context);
-    Cursor cursor                 = null;
+    BlockingQueue<Page> pages  = new ArrayBlockingQueue<>(PAGES_IN_FLIGHT);
+    ProviderReader      reader = new ProviderReader(context, pages);
+
+    reader.start();
 
     try {
-      Uri threadListUri = Uri.parse("content://mms-sms/conversations?simple=true");
-      cursor            = context.getContentResolver().query(threadListUri, null, null, null, "date ASC");
-
-      while (cursor != null && cursor.moveToNext()) {
-        long                theirThreadId   = cursor.getLong(cursor.getColumnIndexOrThrow("_id"));
-        String              theirRecipients = cursor.getString(cursor.getColumnIndexOrThrow("recipient_ids"));
-        Set<Recipient>     ourRecipients   = getOurRecipients(context, theirRecipients);
-        ProgressDescription progress        = new ProgressDescription(cursor.getCount(), cursor.getPosition(), 100, 0);
-
-        if (ourRecipients != null) {
-          if (ourRecipients.size() == 1) {
-            long ourThreadId = threadDatabase.getThreadIdFor(ourRecipients.iterator().next());
-            migrateConversation(context, listener, progress, theirThreadId, ourThreadId);
-          } else if (ourRecipients.size() > 1) {
-            ourRecipients.add(Recipient.from(context, Address.fromSerialized(TextSecurePreferences.getLocalNumber(context)), true));
-
-            List<Address> memberAddresses = new LinkedList<>();
-
-            for (Recipient recipient : ourRecipients) {
-              memberAddresses.add(recipient.getAddress());
-            }
+      writePages(context, listener, pages);
+    } finally {
+      reader.interrupt();
+    }
 
-            String    ourGroupId        = DatabaseFactory.getGroupDatabase(context).getOrCreateGroupForMembers(memberAddresses, true);
-            Recipient ourGroupRecipient = Recipient.from(context, Address.fromSerialized(ourGroupId), true);
-            long      ourThreadId       = threadDatabase.getThreadIdFor(ourGroupRecipient, ThreadDatabase.DistributionTypes.CONVERSATION);
+    if (reader.failure != null) {
+      throw reader.failure;
+    }
+
+    context.getSharedPreferences("SecureSMS", Context.MODE_PRIVATE).edit()
+      .putBoolean("migrated", true).apply();
+  }
+
+  /**
+   * Reads the system conversations in pages of {@link #PAGE_SIZE} messages, resolving each
+   * recipient id and address only once.
+   */
+  private static class ProviderReader extends Thread {
 
-            migrateConversation(context, listener, progress, theirThreadId, ourThreadId);
+    private final Context                        context;
+    private final BlockingQueue<Page>            pages;
+    private final Map<String, Optional<Address>> canonicalAddresses = new HashMap<>();
+    private final Map<String, String>            externalAddresses  = new HashMap<>();
+
+    private volatile RuntimeException failure;
+
+    ProviderReader(Context context, BlockingQueue<Page> pages) {
+      super("SmsMigratorReader");
+      this.context = context;
+      this.pages   = pages;
+    }
+
+    @Override
+    public void run() {
+      try {
+        try {
+          readConversations();
+        } catch (RuntimeException e) {
+          Log.w(TAG, e);
+          failure = e;
+        }
+
+        pages.put(END_OF_MIGRATION);
+      } catch (InterruptedException e) {
+        Log.w(TAG, "Writer stopped before all conversations were read.");
+      }
+    }
+
+    private void readConversations() throws InterruptedException {
+      Cursor cursor = null;
+
+      try {
+        Uri threadListUri = Uri.parse("content://mms-sms/conversations?simple=true");
+        cursor            = context.getContentResolver().query(threadListUri, null, null, null, "date ASC");
+
+        while (cursor != null && cursor.moveToNext()) {
+          long                theirThreadId   = cursor.getLong(cursor.getColumnIndexOrThrow("_id"));
+          String              theirRecipients = cursor.getString(cursor.getColumnIndexOrThrow("recipient_ids"));
+          Set<Address>        ourAddresses    = getOurAddresses(theirRecipients);
+          ProgressDescription progress        = new ProgressDescription(cursor.getCount(), cursor.getPosition(), 100, 0);
+
+          if (ourAddresses == null || !readConversation(progress, theirThreadId, ourAddresses)) {
+            progress.incrementPrimaryComplete();
+            pages.put(new Page(null, null, progress, 0, 0, false));
           }
         }
+      } finally {
+        if (cursor != null)
+          cursor.close();
+      }
+    }
+
+    private boolean readConversation(ProgressDescription progress, long theirThreadId, Set<Address> ourAddresses)
+        throws InterruptedException
+    {
+      Cursor cursor = null;
+
+      try {
+        Uri uri = Uri.parse("content://sms/conversations/" + theirThreadId);
+
+        try {
+          cursor = context.getContentResolver().query(uri, null, null, null, null);
+        } catch (SQLiteException e) {
+          /// Work around for weird sony-specific (?) bug: #4309
+          Log.w(TAG, e);
+          return false;
+        }
 
-        progress.incrementPrimaryComplete();
-        listener.progressUpdate(progress);
+        if (cursor == null) return false;
+
+        int addressColumn          = cursor.getColumnIndexOrThrow(SmsDatabase.ADDRESS);
+        int personColumn           = cursor.getColumnIndex(SmsDatabase.PERSON);
+        int dateReceivedColumn     = cursor.getColumnIndex(SmsDatabase.DATE_RECEIVED);
+        int protocolColumn         = cursor.getColumnIndex(SmsDatabase.PROTOCOL);
+        int readColumn             = cursor.getColumnIndex(SmsDatabase.READ);
+        int statusColumn           = cursor.getColumnIndex(SmsDatabase.STATUS);
+        int typeColumn             = cursor.getColumnIndex(SmsDatabase.TYPE);
+        int replyPathPresentColumn = cursor.getColumnIndex(SmsDatabase.REPLY_PATH_PRESENT);
+        int subjectColumn          = cursor.getColumnIndex(SmsDatabase.SUBJECT);
+        int bodyColumn             = cursor.getColumnIndex(SmsDatabase.BODY);
+        int serviceCenterColumn    = cursor.getColumnIndex(SmsDatabase.SERVICE_CENTER);
+
+        List<Row> rows  = new ArrayList<>(PAGE_SIZE);
+        boolean   first = true;
+
+        while (cursor.moveToNext()) {
+          Long theirType = getLong(cursor, typeColumn);
+
+          if (theirType == null || isAppropriateTypeForMigration(theirType)) {
+            Row row = new Row();
+            row.address          = getOurAddress(cursor.getString(addressColumn));
+            row.person           = getLong(cursor, personColumn);
+            row.dateReceived     = getLong(cursor, dateReceivedColumn);
+            row.protocol         = getLong(cursor, protocolColumn);
+            row.read             = getLong(cursor, readColumn);
+            row.status           = getLong(cursor, statusColumn);
+            row.type             = theirType == null ? SmsDatabase.Types.BASE_INBOX_TYPE : SmsDatabase.Types.translateFromSystemBaseType(theirType);
+            row.replyPathPresent = getLong(cursor, replyPathPresentColumn);
+            row.subject          = getString(cursor, subjectColumn);
+            row.body             = getString(cursor, bodyColumn);
+            row.serviceCenter    = getString(cursor, serviceCenterColumn);
+            rows.add(row);
+          }
+
+          if (rows.size() >= PAGE_SIZE || cursor.isLast()) {
+            boolean             last         = cursor.isLast();
+            ProgressDescription pageProgress = new ProgressDescription(progress, cursor.getCount(), cursor.getPosition() + 1);
+
+            if (last) pageProgress.incrementPrimaryComplete();
+
+            pages.put(new Page(ourAddresses, rows, pageProgress, cursor.getCount(), cursor.getPosition() + 1, first));
+
+            rows  = new ArrayList<>(PAGE_SIZE);
+            first = false;
+          }
+        }
+
+        return !first;
+      } finally {
+        if (cursor != null)
+          cursor.close();
       }
-    } finally {
-      if (cursor != null)
-        cursor.close();
     }
 
-    context.getSharedPreferences("SecureSMS", Context.MODE_PRIVATE).edit()
-      .putBoolean("migrated", true).apply();
+    private @Nullable Set<Address> getOurAddresses(String theirRecipients) {
+      StringTokenizer tokenizer   = new StringTokenizer(theirRecipients.trim(), " ");
+      Set<Address>    addressList = new HashSet<>();
+
+      while (tokenizer.hasMoreTokens()) {
+        String            theirRecipientId = tokenizer.nextToken();
+        Optional<Address> address          = canonicalAddresses.get(theirRecipientId);
+
+        if (address == null) {
+          String canonicalAddress = getTheirCanonicalAddress(context, theirRecipientId);
+
+          if (canonicalAddress != null) address = Optional.of(Address.fromExternal(context, canonicalAddress));
+          else                          address = Optional.absent();
+
+          canonicalAddresses.put(theirRecipientId, address);
+        }
+
+        if (address.isPresent()) {
+          addressList.add(address.get());
+        }
+      }
+
+      if (addressList.isEmpty()) return null;
+      else                       return addressList;
+    }
+
+    private String getOurAddress(String theirAddress) {
+      String ourAddress = externalAddresses.get(theirAddress);
+
+      if (ourAddress == null) {
+        ourAddress = Address.fromExternal(context, theirAddress).serialize();
+        externalAddresses.put(theirAddress, ourAddress);
+      }
+
+      return ourAddress;
+    }
+  }
+
+  private static class Page {
+    private final @Nullable Set<Address>        ourAddresses;
+    private final @Nullable List<Row>           rows;
+    private final @Nullable ProgressDescription progress;
+    private final           int                 conversationSize;
+    private final           int                 conversationPosition;
+    private final           boolean             firstInConversation;
+
+    private Page(@Nullable Set<Address> ourAddresses, @Nullable List<Row> rows, @Nullable ProgressDescription progress,
+                 int conversationSize, int conversationPosition, boolean firstInConversation)
+    {
+      this.ourAddresses         = ourAddresses;
+      this.rows                 = rows;
+      this.progress             = progress;
+      this.conversationSize     = conversationSize;
+      this.conversationPosition = conversationPosition;
+      this.firstInConversation  = firstInConversation;
+    }
+
+    private boolean isLastInConversation() {
+      return conversationPosition >= conversationSize;
+    }
+  }
+
+  private static class Row {
+    private String address;
+    private Long   person;
+    private Long   dateReceived;
+    private Long   protocol;
+    private Long   read;
+    private Long   status;
+    private long   type;
+    private Long   replyPathPresent;
+    private String subject;
+    private String body;
+    private String serviceCenter;
   }
 
   public interface SmsMigrationProgressListener {
@@ -49,11 +49,14 @@ import org.whispersystems.libsignal.util.guava.Optional;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 public class ThreadDatabase extends Database {
 
   private static final String TAG = ThreadDatabase.class.getSimpleName();
 
+  private static final int TRIM_CHUNK_SIZE = 100;
+
           static final String TABLE_NAME             = "thread";
   public  static final String ID                     = "_id";
   public  static final String DATE                   = "date";
@@ -192,53 +195,61 @@ public class ThreadDatabase extends Database {
     notifyConversationListListeners();
   }
 
-  public void trimAllThreads(int length, ProgressListener listener) {
-    Cursor cursor   = null;
-    int threadCount = 0;
-    int complete    = 0;
-
-    try {
-      cursor = this.getConversationList();
-
-      if (cursor != null)
-        threadCount = cursor.getCount();
+  public void trimAllThreads(@NonNull RetentionPolicy policy, @Nullable ProgressListener listener) {
+    SQLiteDatabase db        = databaseHelper.getReadableDatabase();
+    List<Long>     threadIds = new LinkedList<>();
+    int            complete  = 0;
 
+    try (Cursor cursor = db.query(TABLE_NAME, new String[] {ID}, null, null, null, null, null)) {
       while (cursor != null && cursor.moveToNext()) {
-        long threadId = cursor.getLong(cursor.getColumnIndexOrThrow(ID));
-        trimThread(threadId, length);
-
-        listener.onProgress(++complete, threadCount);
+        threadIds.add(cursor.getLong(0));
       }
-    } finally {
-      if (cursor != null)
-        cursor.close();
+    }
+
+    for (long threadId : threadIds) {
+      trimThread(threadId, policy);
+      if (listener != null) listener.onProgress(++complete, threadIds.size());
     }
   }
 
-  public void trimThread(long threadId, int length) {
-    Log.w("ThreadDatabase", "Trimming thread: " + threadId + " to: " + length);
-    Cursor cursor = null;
+  /**
+   * Deletes the messages in a thread that the policy no longer keeps. The cutoff date is found
+   * without reading the conversation, and messages are deleted a chunk at a time so that other
+   * writes can get in between.
+   */
+  public void trimThread(long threadId, @NonNull RetentionPolicy policy) {
+    long cutoff = -1;
 
-    try {
-      cursor = DatabaseFactory.getMmsSmsDatabase(context).getConversation(threadId);
+    if (policy.getMaxMessages() > 0) {
+      cutoff = DatabaseFactory.getMmsSmsDatabase(context).getDateReceivedOfNewest(threadId, policy.getMaxMessages());
+    }
+
+    if (policy.getMaxAge() > 0) {
+      cutoff = Math.max(cutoff, System.currentTimeMillis() - policy.getMaxAge());
+    }
 
-      if (cursor != null && length > 0 && cursor.getCount() > length) {
-        Log.w("ThreadDatabase", "Cursor count is greater than length!");
-        cursor.moveToPosition(length - 1);
+    if (cutoff <= 0) return;
 
-        long lastTweetDate = cursor.getLong(cursor.getColumnIndexOrThrow(MmsSmsColumns.NORMALIZED_DATE_RECEIVED));
+    SmsDatabase smsDatabase = DatabaseFactory.getSmsDatabase(context);
+    MmsDatabase mmsDatabase = DatabaseFactory.getMmsDatabase(context);
+    int         deleted     = 0;
+    int         chunk;
 
-        Log.w("ThreadDatabase", "Cut off tweet date: " + lastTweetDate);
+    do {
+      chunk    = smsDatabase.deleteMessagesInThreadBeforeDate(threadId, cutoff, TRIM_CHUNK_SIZE);
+      deleted += chunk;
+    } while (chunk > 0);
 
-        DatabaseFactory.getSmsDatabase(context).deleteMessagesInThreadBeforeDate(threadId, lastTweetDate);
-        DatabaseFactory.getMmsDatabase(context).deleteMessagesInThreadBeforeDate(threadId, lastTweetDate);
+    do {
+      chunk    = mmsDatabase.deleteMessagesInThreadBeforeDate(threadId, cutoff, TRIM_CHUNK_SIZE);
+      deleted += chunk;
+    } while (chunk > 0);
 
-        update(threadId, false);
-        notifyConversationListeners(threadId);
-      }
-    } finally {
-      if (cursor != null)
-        cursor.close();
+    if (deleted > 0) {
+      Log.w(TAG, "Trimmed " + deleted + " messages from thread " + threadId + " before " + cutoff);
+
+      update(threadId, false);
+      notifyConversationListeners(threadId);
     }
   }
 
@@ -613,6 +624,42 @@ public class ThreadDatabase extends Database {
     void onProgress(int complete, int total);
   }
 
+  /**
+   * How many messages, and how old, a thread keeps when it's trimmed. Either limit can be zero for
+   * none.
+   */
+  public static class RetentionPolicy {
+
+    private final int  maxMessages;
+    private final long maxAge;
+
+    public RetentionPolicy(int maxMessages, long maxAge) {
+      this.maxMessages = maxMessages;
+      this.maxAge      = maxAge;
+    }
+
+    public static @NonNull RetentionPolicy fromPreferences(@NonNull Context context) {
+      if (!TextSecurePreferences.isThreadLengthTrimmingEnabled(context)) {
+        return new RetentionPolicy(0, 0);
+      }
+
+      return new RetentionPolicy(TextSecurePreferences.getThreadTrimLength(context),
+                                 TimeUnit.DAYS.toMillis(TextSecurePreferences.getThreadTrimAgeDays(context)));
+    }
+
+    public int getMaxMessages() {
+      return maxMessages;
+    }
+
+    public long getMaxAge() {
+      return maxAge;
+    }
+
+    public boolean isEnabled() {
+      return maxMessages > 0 || maxAge > 0;
+    }
+  }
+
   public Reader readerFor(Cursor cursor) {
     return new Reader(cursor);
   }
@@ -627,10 +674,12 @@ public class ThreadDatabase extends Database {
 
   public class Reader {
 
-    private final Cursor cursor;
+    private final Cursor                          cursor;
+    private final ColumnIndexCache<ReaderColumns> columnCache;
 
     public Reader(Cursor cursor) {
-      this.cursor = cursor;
+      this.cursor      = cursor;
+      this.columnCache = new ColumnIndexCache<>(ReaderColumns.class, ReaderColumns::new);
     }
 
     public ThreadRecord getNext() {
@@ -641,9 +690,10 @@ public class ThreadDatabase extends Database {
     }
 
     public ThreadRecord getCurrent() {
-      long    threadId         = cursor.getLong(cursor.getColumnIndexOrThrow(ThreadDatabase.ID));
-      int     distributionType = cursor.getInt(cursor.getColumnIndexOrThrow(ThreadDatabase.TYPE));
-      Address address          = Address.fromSerialized(cursor.getString(cursor.getColumnIndexOrThrow(ThreadDatabase.ADDRESS)));
+      ReaderColumns columns          = columnCache.get(cursor);
+      long          threadId         = cursor.getLong(columns.id);
+      int           distributionType = cursor.getInt(columns.type);
+      Address       address          = Address.fromSerialized(cursor.getString(columns.address));
 
       Optional<RecipientSettings> settings;
       Optional<GroupRecord>       groupRecord;
@@ -657,18 +707,18 @@ public class ThreadDatabase extends Database {
       }
 
       Recipient          recipient            = Recipient.from(context, address, settings, groupRecord, true);
-      String             body                 = cursor.getString(cursor.getColumnIndexOrThrow(ThreadDatabase.SNIPPET));
-      long               date                 = cursor.getLong(cursor.getColumnIndexOrThrow(ThreadDatabase.DATE));
-      long               count                = cursor.getLong(cursor.getColumnIndexOrThrow(ThreadDatabase.MESSAGE_COUNT));
-      int                unreadCount          = cursor.getInt(cursor.getColumnIndexOrThrow(ThreadDatabase.UNREAD_COUNT));
-      long               type                 = cursor.getLong(cursor.getColumnIndexOrThrow(ThreadDatabase.SNIPPET_TYPE));
-      boolean            archived             = cursor.getInt(cursor.getColumnIndex(ThreadDatabase.ARCHIVED)) != 0;
-      int                status               = cursor.getInt(cursor.getColumnIndexOrThrow(ThreadDatabase.STATUS));
-      int                deliveryReceiptCount = cursor.getInt(cursor.getColumnIndexOrThrow(ThreadDatabase.DELIVERY_RECEIPT_COUNT));
-      int                readReceiptCount     = cursor.getInt(cursor.getColumnIndexOrThrow(ThreadDatabase.READ_RECEIPT_COUNT));
-      long               expiresIn            = cursor.getLong(cursor.getColumnIndexOrThrow(ThreadDatabase.EXPIRES_IN));
-      long               lastSeen             = cursor.getLong(cursor.getColumnIndexOrThrow(ThreadDatabase.LAST_SEEN));
-      Uri                snippetUri           = getSnippetUri(cursor);
+      String             body                 = cursor.getString(columns.snippet);
+      long               date                 = cursor.getLong(columns.date);
+      long               count                = cursor.getLong(columns.messageCount);
+      int                unreadCount          = cursor.getInt(columns.unreadCount);
+      long               type                 = cursor.getLong(columns.snippetType);
+      boolean            archived             = cursor.getInt(columns.archived) != 0;
+      int                status               = cursor.getInt(columns.status);
+      int                deliveryReceiptCount = cursor.getInt(columns.deliveryReceiptCount);
+      int                readReceiptCount     = cursor.getInt(columns.readReceiptCount);
+      long               expiresIn            = cursor.getLong(columns.expiresIn);
+      long               lastSeen             = cursor.getLong(columns.lastSeen);
+      Uri                snippetUri           = getSnippetUri(cursor, columns);
 
       if (!TextSecurePreferences.isReadReceiptsEnabled(context)) {
         readReceiptCount = 0;
@@ -679,13 +729,13 @@ public class ThreadDatabase extends Database {
                               distributionType, archived, expiresIn, lastSeen, readReceiptCount);
     }
 
-    private @Nullable Uri getSnippetUri(Cursor cursor) {
-      if (cursor.isNull(cursor.getColumnIndexOrThrow(ThreadDatabase.SNIPPET_URI))) {
+    private @Nullable Uri getSnippetUri(Cursor cursor, ReaderColumns columns) {
+      if (cursor.isNull(columns.snippetUri)) {
         return null;
       }
 
       try {
-        return Uri.parse(cursor.getString(cursor.getColumnIndexOrThrow(ThreadDatabase.SNIPPET_URI)));
+        return Uri.parse(cursor.getString(columns.snippetUri));
       } catch (IllegalArgumentException e) {
         Log.w(TAG, e);
         return null;
@@ -696,4 +746,41 @@ public class ThreadDatabase extends Database {
       cursor.close();
     }
   }
+
+  private static class ReaderColumns {
+
+    private final int id;
+    private final int type;
+    private final int address;
+    private final int snippet;
+    private final int date;
+    private final int messageCount;
+    private final int unreadCount;
+    private final int snippetType;
+    private final int archived;
+    private final int status;
+    private final int deliveryReceiptCount;
+    private final int readReceiptCount;
+    private final int expiresIn;
+    private final int lastSeen;
+    private final int snippetUri;
+
+    private ReaderColumns(@NonNull Cursor cursor) {
+      this.id                   = cursor.getColumnIndexOrThrow(ThreadDatabase.ID);
+      this.type                 = cursor.getColumnIndexOrThrow(ThreadDatabase.TYPE);
+      this.address              = cursor.getColumnIndexOrThrow(ThreadDatabase.ADDRESS);
+      this.snippet              = cursor.getColumnIndexOrThrow(ThreadDatabase.SNIPPET);
+      this.date                 = cursor.getColumnIndexOrThrow(ThreadDatabase.DATE);
+      this.messageCount         = cursor.getColumnIndexOrThrow(ThreadDatabase.MESSAGE_COUNT);
+      this.unreadCount          = cursor.getColumnIndexOrThrow(ThreadDatabase.UNREAD_COUNT);
+      this.snippetType          = cursor.getColumnIndexOrThrow(ThreadDatabase.SNIPPET_TYPE);
+      this.archived             = cursor.getColumnIndex(ThreadDatabase.ARCHIVED);
+      this.status               = cursor.getColumnIndexOrThrow(ThreadDatabase.STATUS);
+      this.deliveryReceiptCount = cursor.getColumnIndexOrThrow(ThreadDatabase.DELIVERY_RECEIPT_COUNT);
+      this.readReceiptCount     = cursor.getColumnIndexOrThrow(ThreadDatabase.READ_RECEIPT_COUNT);
+      this.expiresIn            = cursor.getColumnIndexOrThrow(ThreadDatabase.EXPIRES_IN);
+      this.lastSeen             = cursor.getColumnIndexOrThrow(ThreadDatabase.LAST_SEEN);
+      this.snippetUri           = cursor.getColumnIndexOrThrow(ThreadDatabase.SNIPPET_URI);
+    }
+  }
 }
@@ -0,0 +1,90 @@
+package org.thoughtcrime.securesms.database.documents;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import org.thoughtcrime.securesms.util.JsonUtils;
+import org.thoughtcrime.securesms.util.LRUCache;
+
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A read-only view of the items in a serialized {@link Document}, which is only parsed the first
+ * time they're looked at.
+ *
+ * Messages without a document get a shared empty list and are never parsed. Parsed documents are
+ * kept by their serialized form, so a message that is read again (as the conversation does when
+ * it rebinds a row) doesn't parse its document again.
+ */
+public class LazyDocumentList<T> extends AbstractList<T> {
+
+  private static final String TAG = LazyDocumentList.class.getSimpleName();
+
+  private static final int MAX_CACHED_DOCUMENTS = 100;
+
+  private static final Map<String, List<?>> parsed = new LRUCache<>(MAX_CACHED_DOCUMENTS);
+
+  private final String                       serialized;
+  private final Class<? extends Document<T>> type;
+
+  private List<T> items;
+
+  public static <T> List<T> of(@Nullable String serialized, @NonNull Class<? extends Document<T>> type) {
+    if (serialized == null || serialized.isEmpty()) return Collections.emptyList();
+    else                                            return new LazyDocumentList<>(serialized, type);
+  }
+
+  private LazyDocumentList(@NonNull String serialized, @NonNull Class<? extends Document<T>> type) {
+    this.serialized = serialized;
+    this.type       = type;
+  }
+
+  @Override
+  public T get(int index) {
+    return getItems().get(index);
+  }
+
+  @Override
+  public int size() {
+    return getItems().size();
+  }
+
+  private @NonNull List<T> getItems() {
+    if (items == null) {
+      items = parse(serialized, type);
+    }
+
+    return items;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static @NonNull <T> List<T> parse(@NonNull String serialized, @NonNull Class<? extends Document<T>> type) {
+    String key = type.getName() + ":" + serialized;
+
+    synchronized (parsed) {
+      List<?> cached = parsed.get(key);
+      if (cached != null) return (List<T>)cached;
+    }
+
+    List<T> items;
+
+    try {
+      List<T> list = JsonUtils.fromJson(serialized, type).getList();
+      items = list != null ? Collections.unmodifiableList(list) : Collections.emptyList();
+    } catch (IOException e) {
+      Log.w(TAG, e);
+      items = Collections.emptyList();
+    }
+
+    synchronized (parsed) {
+      parsed.put(key, items);
+    }
+
+    return items;
+  }
+}
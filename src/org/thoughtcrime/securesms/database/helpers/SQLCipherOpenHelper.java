@@ -44,8 +44,11 @@ public class SQLCipherOpenHelper extends SQLiteOpenHelper {
   private static final int NO_MORE_IMAGE_THUMBNAILS_VERSION = 5;
   private static final int ATTACHMENT_DIMENSIONS            = 6;
   private static final int QUOTED_REPLIES                   = 7;
+  private static final int PUSH_DECRYPT_BATCHES             = 8;
+  private static final int CONTACT_SYNC_DIGESTS             = 9;
+  private static final int GALLERY_MEDIA_INDEX              = 10;
 
-  private static final int    DATABASE_VERSION = 7;
+  private static final int    DATABASE_VERSION = 10;
   private static final String DATABASE_NAME    = "signal.db";
 
   private final Context        context;
@@ -177,6 +180,18 @@ public class SQLCipherOpenHelper extends SQLiteOpenHelper {
         db.execSQL("ALTER TABLE part ADD COLUMN quote INTEGER DEFAULT 0");
       }
 
+      if (oldVersion < PUSH_DECRYPT_BATCHES) {
+        db.execSQL("ALTER TABLE push ADD COLUMN batched INTEGER DEFAULT 0");
+      }
+
+      if (oldVersion < CONTACT_SYNC_DIGESTS) {
+        db.execSQL("ALTER TABLE recipient_preferences ADD COLUMN device_sync_digest TEXT DEFAULT NULL");
+      }
+
+      if (oldVersion < GALLERY_MEDIA_INDEX) {
+        db.execSQL("CREATE INDEX IF NOT EXISTS part_mms_id_content_type_index ON part (mid, ct)");
+      }
+
       db.setTransactionSuccessful();
     } finally {
       db.endTransaction();
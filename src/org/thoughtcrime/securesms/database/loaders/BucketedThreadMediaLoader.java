@@ -5,31 +5,36 @@ import android.content.Context;
 import android.database.ContentObserver;
 import android.database.Cursor;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.support.v4.content.AsyncTaskLoader;
-
-import com.annimon.stream.Stream;
+import android.util.Log;
 
 import org.thoughtcrime.securesms.R;
 import org.thoughtcrime.securesms.database.Address;
-import org.thoughtcrime.securesms.database.Database;
 import org.thoughtcrime.securesms.database.DatabaseFactory;
 import org.thoughtcrime.securesms.database.MediaDatabase;
 import org.thoughtcrime.securesms.recipients.Recipient;
+import org.thoughtcrime.securesms.util.LRUCache;
+import org.thoughtcrime.securesms.util.ThreadUtil;
+import org.thoughtcrime.securesms.util.Util;
 
+import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
 
 public class BucketedThreadMediaLoader extends AsyncTaskLoader<BucketedThreadMediaLoader.BucketedThreadMedia> {
 
-  @SuppressWarnings("unused")
   private static final String TAG = BucketedThreadMediaLoader.class.getSimpleName();
 
   private final Address         address;
@@ -62,168 +67,196 @@ public class BucketedThreadMediaLoader extends AsyncTaskLoader<BucketedThreadMed
 
   @Override
   public BucketedThreadMedia loadInBackground() {
-    BucketedThreadMedia result   = new BucketedThreadMedia(getContext());
-    long                threadId = DatabaseFactory.getThreadDatabase(getContext()).getThreadIdFor(Recipient.from(getContext(), address, true));
+    long                              threadId = DatabaseFactory.getThreadDatabase(getContext()).getThreadIdFor(Recipient.from(getContext(), address, true));
+    List<MediaDatabase.GalleryBucket> buckets;
 
     DatabaseFactory.getMediaDatabase(getContext()).subscribeToMediaChanges(observer);
-    try (Cursor cursor = DatabaseFactory.getMediaDatabase(getContext()).getGalleryMediaForThread(threadId)) {
-      while (cursor != null && cursor.moveToNext()) {
-        result.add(MediaDatabase.MediaRecord.from(getContext(), cursor));
-      }
-    }
+
+    buckets = DatabaseFactory.getMediaDatabase(getContext()).getGalleryBucketsForThread(threadId,
+                                                                                       addToCalendar(Calendar.DAY_OF_YEAR, -1),
+                                                                                       addToCalendar(Calendar.DAY_OF_YEAR, -2),
+                                                                                       addToCalendar(Calendar.DAY_OF_YEAR, -7),
+                                                                                       addToCalendar(Calendar.DAY_OF_YEAR, -30));
+
+    BucketedThreadMedia result = new BucketedThreadMedia(getContext(), threadId, buckets);
+    result.loadFirstPage();
 
     return result;
   }
 
+  private static long addToCalendar(int field, int amount) {
+    Calendar calendar = Calendar.getInstance();
+    calendar.add(field, amount);
+    return calendar.getTimeInMillis();
+  }
+
+  /**
+   * The gallery of a thread, split into time buckets whose sizes are counted up front. The media
+   * itself is loaded a page at a time as the grid asks for it, and only recently used pages are
+   * kept in memory. Everything except the first page is loaded and accessed on the main thread.
+   *
+   * The last item of each page that's been read is remembered, so the next page can be read on
+   * from it rather than by offset. Only a page that's jumped to is read by offset.
+   */
   public static class BucketedThreadMedia {
 
-    private final TimeBucket   TODAY;
-    private final TimeBucket   YESTERDAY;
-    private final TimeBucket   THIS_WEEK;
-    private final TimeBucket   THIS_MONTH;
-    private final MonthBuckets OLDER;
+    private static final int PAGE_SIZE = 60;
+    private static final int MAX_PAGES = 10;
+
+    private static final ExecutorService pageExecutor = ThreadUtil.newDynamicSingleThreadedExecutor();
 
-    private final TimeBucket[] TIME_SECTIONS;
+    private final Context                                       context;
+    private final long                                          threadId;
+    private final List<Section>                                 sections;
+    private final Map<Integer, List<MediaDatabase.MediaRecord>> pages;
+    private final Set<Integer>                                  pendingPages;
+    private final Map<Integer, long[]>                          pageStarts;
+
+    private @Nullable PageLoadListener listener;
 
     public BucketedThreadMedia(@NonNull Context context) {
-      this.TODAY         = new TimeBucket(context.getString(R.string.BucketedThreadMedia_Today), TimeBucket.addToCalendar(Calendar.DAY_OF_YEAR, -1), TimeBucket.addToCalendar(Calendar.DAY_OF_YEAR, 1000));
-      this.YESTERDAY     = new TimeBucket(context.getString(R.string.BucketedThreadMedia_Yesterday), TimeBucket.addToCalendar(Calendar.DAY_OF_YEAR, -2), TimeBucket.addToCalendar(Calendar.DAY_OF_YEAR, -1));
-      this.THIS_WEEK     = new TimeBucket(context.getString(R.string.BucketedThreadMedia_This_week), TimeBucket.addToCalendar(Calendar.DAY_OF_YEAR, -7), TimeBucket.addToCalendar(Calendar.DAY_OF_YEAR, -2));
-      this.THIS_MONTH    = new TimeBucket(context.getString(R.string.BucketedThreadMedia_This_month), TimeBucket.addToCalendar(Calendar.DAY_OF_YEAR, -30), TimeBucket.addToCalendar(Calendar.DAY_OF_YEAR, -7));
-      this.TIME_SECTIONS = new TimeBucket[]{TODAY, YESTERDAY, THIS_WEEK, THIS_MONTH};
-      this.OLDER         = new MonthBuckets();
+      this(context, -1, new LinkedList<>());
     }
 
+    private BucketedThreadMedia(@NonNull Context context, long threadId, @NonNull List<MediaDatabase.GalleryBucket> buckets) {
+      this.context      = context.getApplicationContext();
+      this.threadId     = threadId;
+      this.sections     = new ArrayList<>(buckets.size());
+      this.pages        = new LRUCache<>(MAX_PAGES);
+      this.pendingPages = new HashSet<>();
+      this.pageStarts   = Collections.synchronizedMap(new HashMap<>());
 
-    public void add(MediaDatabase.MediaRecord mediaRecord) {
-      for (TimeBucket timeSection : TIME_SECTIONS) {
-        if (timeSection.inRange(mediaRecord.getDate())) {
-          timeSection.add(mediaRecord);
-          return;
-        }
+      int offset = 0;
+
+      for (MediaDatabase.GalleryBucket bucket : buckets) {
+        sections.add(new Section(bucket.getKey(), offset, bucket.getCount()));
+        offset += bucket.getCount();
       }
+    }
 
-      OLDER.add(mediaRecord);
+    public void setPageLoadListener(@Nullable PageLoadListener listener) {
+      this.listener = listener;
     }
 
     public int getSectionCount() {
-      return (int)Stream.of(TIME_SECTIONS)
-                        .filter(timeBucket -> !timeBucket.isEmpty())
-                        .count() +
-             OLDER.getSectionCount();
+      return sections.size();
     }
 
     public int getSectionItemCount(int section) {
-      List<TimeBucket> activeTimeBuckets = Stream.of(TIME_SECTIONS).filter(timeBucket -> !timeBucket.isEmpty()).toList();
-
-      if (section < activeTimeBuckets.size()) return activeTimeBuckets.get(section).getItemCount();
-      else                                    return OLDER.getSectionItemCount(section - activeTimeBuckets.size());
+      return sections.get(section).count;
     }
 
-    public MediaDatabase.MediaRecord get(int section, int item) {
-      List<TimeBucket> activeTimeBuckets = Stream.of(TIME_SECTIONS).filter(timeBucket -> !timeBucket.isEmpty()).toList();
+    /**
+     * Returns the item if its page is loaded, or null after requesting the page.
+     */
+    public @Nullable MediaDatabase.MediaRecord get(int section, int item) {
+      int position = sections.get(section).offset + item;
+      int page     = position / PAGE_SIZE;
 
-      if (section < activeTimeBuckets.size()) return activeTimeBuckets.get(section).getItem(item);
-      else                                    return OLDER.getItem(section - activeTimeBuckets.size(), item);
-    }
+      List<MediaDatabase.MediaRecord> records = pages.get(page);
 
-    public String getName(int section, Locale locale) {
-      List<TimeBucket> activeTimeBuckets = Stream.of(TIME_SECTIONS).filter(timeBucket -> !timeBucket.isEmpty()).toList();
-
-      if (section < activeTimeBuckets.size()) return activeTimeBuckets.get(section).getName();
-      else                                    return OLDER.getName(section - activeTimeBuckets.size(), locale);
-    }
-
-    private static class TimeBucket {
+      if (position % PAGE_SIZE >= PAGE_SIZE * 3 / 4 && !pages.containsKey(page + 1)) {
+        requestPage(page + 1);
+      }
 
-      private final List<MediaDatabase.MediaRecord> records = new LinkedList<>();
+      if (records == null) {
+        requestPage(page);
+        return null;
+      }
 
-      private final long   startTime;
-      private final long   endtime;
-      private final String name;
+      return records.get(position % PAGE_SIZE);
+    }
 
-      TimeBucket(String name, long startTime, long endtime) {
-        this.name      = name;
-        this.startTime = startTime;
-        this.endtime   = endtime;
-      }
+    public String getName(int section, Locale locale) {
+      String key = sections.get(section).key;
 
-      void add(MediaDatabase.MediaRecord record) {
-        this.records.add(record);
+      switch (key) {
+        case MediaDatabase.GalleryBucket.TODAY:      return context.getString(R.string.BucketedThreadMedia_Today);
+        case MediaDatabase.GalleryBucket.YESTERDAY:  return context.getString(R.string.BucketedThreadMedia_Yesterday);
+        case MediaDatabase.GalleryBucket.THIS_WEEK:  return context.getString(R.string.BucketedThreadMedia_This_week);
+        case MediaDatabase.GalleryBucket.THIS_MONTH: return context.getString(R.string.BucketedThreadMedia_This_month);
       }
 
-      boolean inRange(long timestamp) {
-        return timestamp > startTime && timestamp <= endtime;
+      try {
+        Date month = new SimpleDateFormat("yyyy-MM", Locale.US).parse(key);
+        return new SimpleDateFormat("MMMM, yyyy", locale).format(month);
+      } catch (ParseException e) {
+        Log.w(TAG, e);
+        return key;
       }
+    }
 
-      boolean isEmpty() {
-        return records.isEmpty();
+    private void loadFirstPage() {
+      if (!sections.isEmpty()) {
+        pages.put(0, queryPage(0));
       }
+    }
 
-      int getItemCount() {
-        return records.size();
+    private void requestPage(int page) {
+      if (page * PAGE_SIZE >= getTotalCount() || !pendingPages.add(page)) {
+        return;
       }
 
-      MediaDatabase.MediaRecord getItem(int position) {
-        return records.get(position);
-      }
+      pageExecutor.execute(() -> {
+        List<MediaDatabase.MediaRecord> records = queryPage(page);
 
-      String getName() {
-        return name;
-      }
+        Util.runOnMain(() -> {
+          pendingPages.remove(page);
+          pages.put(page, records);
 
-      static long addToCalendar(int field, int amount) {
-        Calendar calendar = Calendar.getInstance();
-        calendar.add(field, amount);
-        return calendar.getTimeInMillis();
-      }
+          if (listener != null) listener.onPageLoaded();
+        });
+      });
     }
 
-    private static class MonthBuckets {
+    private @NonNull List<MediaDatabase.MediaRecord> queryPage(int page) {
+      List<MediaDatabase.MediaRecord> records = new ArrayList<>(PAGE_SIZE);
 
-      private final Map<Date, List<MediaDatabase.MediaRecord>> months = new HashMap<>();
+      MediaDatabase database = DatabaseFactory.getMediaDatabase(context);
+      long[]        after    = pageStarts.get(page);
 
-      void add(MediaDatabase.MediaRecord record) {
-        Calendar calendar = Calendar.getInstance();
-        calendar.setTimeInMillis(record.getDate());
-
-        int  year  = calendar.get(Calendar.YEAR) - 1900;
-        int  month = calendar.get(Calendar.MONTH);
-        Date date  = new Date(year, month, 1);
+      try (Cursor cursor = after != null ? database.getGalleryPageForThread(threadId, after[0], after[1], PAGE_SIZE)
+                                         : database.getGalleryPageForThread(threadId, page * PAGE_SIZE, PAGE_SIZE))
+      {
+        while (cursor != null && cursor.moveToNext()) {
+          records.add(MediaDatabase.MediaRecord.from(context, cursor));
+        }
 
-        if (months.containsKey(date)) {
-          months.get(date).add(record);
-        } else {
-          List<MediaDatabase.MediaRecord> list = new LinkedList<>();
-          list.add(record);
-          months.put(date, list);
+        if (cursor != null && records.size() == PAGE_SIZE && cursor.moveToLast()) {
+          pageStarts.put(page + 1, MediaDatabase.getGalleryPageKey(cursor));
         }
       }
 
-      int getSectionCount() {
-        return months.size();
+      // Media deleted since the buckets were counted; pad so positions still line up until the reload
+      while (records.size() < PAGE_SIZE && page * PAGE_SIZE + records.size() < getTotalCount()) {
+        records.add(null);
       }
 
-      int getSectionItemCount(int section) {
-        return months.get(getSection(section)).size();
-      }
+      return records;
+    }
 
-      MediaDatabase.MediaRecord getItem(int section, int position) {
-        return months.get(getSection(section)).get(position);
-      }
+    private int getTotalCount() {
+      if (sections.isEmpty()) return 0;
 
-      Date getSection(int section) {
-        ArrayList<Date> keys = new ArrayList<>(months.keySet());
-        Collections.sort(keys, Collections.reverseOrder());
+      Section last = sections.get(sections.size() - 1);
+      return last.offset + last.count;
+    }
 
-        return keys.get(section);
-      }
+    private static class Section {
 
-      String getName(int section, Locale locale) {
-        Date sectionDate = getSection(section);
+      private final String key;
+      private final int    offset;
+      private final int    count;
 
-        return new SimpleDateFormat("MMMM, yyyy", locale).format(sectionDate);
+      private Section(@NonNull String key, int offset, int count) {
+        this.key    = key;
+        this.offset = offset;
+        this.count  = count;
       }
     }
+
+    public interface PageLoadListener {
+      void onPageLoaded();
+    }
   }
 }
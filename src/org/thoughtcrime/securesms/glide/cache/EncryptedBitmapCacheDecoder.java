@@ -9,6 +9,7 @@ import android.util.Log;
 import com.bumptech.glide.load.Options;
 import com.bumptech.glide.load.ResourceDecoder;
 import com.bumptech.glide.load.engine.Resource;
+import com.bumptech.glide.load.engine.bitmap_recycle.ArrayPool;
 import com.bumptech.glide.load.resource.bitmap.StreamBitmapDecoder;
 
 import java.io.File;
@@ -21,10 +22,12 @@ public class EncryptedBitmapCacheDecoder extends EncryptedCoder implements Resou
 
   private final StreamBitmapDecoder streamBitmapDecoder;
   private final byte[]              secret;
+  private final ArrayPool           arrayPool;
 
-  public EncryptedBitmapCacheDecoder(@NonNull byte[] secret, @NonNull StreamBitmapDecoder streamBitmapDecoder) {
+  public EncryptedBitmapCacheDecoder(@NonNull byte[] secret, @NonNull StreamBitmapDecoder streamBitmapDecoder, @NonNull ArrayPool arrayPool) {
     this.secret              = secret;
     this.streamBitmapDecoder = streamBitmapDecoder;
+    this.arrayPool           = arrayPool;
   }
 
   @Override
@@ -33,7 +36,7 @@ public class EncryptedBitmapCacheDecoder extends EncryptedCoder implements Resou
   {
     Log.w(TAG, "Checking item for encrypted Bitmap cache decoder: " + source.toString());
 
-    try (InputStream inputStream = createEncryptedInputStream(secret, source)) {
+    try (InputStream inputStream = createEncryptedInputStream(secret, source, arrayPool)) {
       return streamBitmapDecoder.handles(inputStream, options);
     } catch (IOException e) {
       Log.w(TAG, e);
@@ -47,8 +50,12 @@ public class EncryptedBitmapCacheDecoder extends EncryptedCoder implements Resou
       throws IOException
   {
     Log.w(TAG, "Encrypted Bitmap cache decoder running: " + source.toString());
-    try (InputStream inputStream = createEncryptedInputStream(secret, source)) {
+    long startTime = System.currentTimeMillis();
+
+    try (InputStream inputStream = createEncryptedInputStream(secret, source, arrayPool)) {
       return streamBitmapDecoder.decode(inputStream, width, height, options);
+    } finally {
+      EncryptedCacheStats.getInstance().onDecode(System.currentTimeMillis() - startTime);
     }
   }
 }
@@ -9,6 +9,7 @@ import com.bumptech.glide.load.EncodeStrategy;
 import com.bumptech.glide.load.Options;
 import com.bumptech.glide.load.ResourceEncoder;
 import com.bumptech.glide.load.engine.Resource;
+import com.bumptech.glide.load.engine.bitmap_recycle.ArrayPool;
 import com.bumptech.glide.load.resource.bitmap.BitmapEncoder;
 
 import java.io.File;
@@ -19,10 +20,12 @@ public class EncryptedBitmapResourceEncoder extends EncryptedCoder implements Re
 
   private static final String TAG = EncryptedBitmapResourceEncoder.class.getSimpleName();
 
-  private final byte[] secret;
+  private final byte[]    secret;
+  private final ArrayPool arrayPool;
 
-  public EncryptedBitmapResourceEncoder(@NonNull byte[] secret) {
-    this.secret = secret;
+  public EncryptedBitmapResourceEncoder(@NonNull byte[] secret, @NonNull ArrayPool arrayPool) {
+    this.secret    = secret;
+    this.arrayPool = arrayPool;
   }
 
   @Override
@@ -38,10 +41,12 @@ public class EncryptedBitmapResourceEncoder extends EncryptedCoder implements Re
     Bitmap                bitmap  = data.get();
     Bitmap.CompressFormat format  = getFormat(bitmap, options);
     int                   quality = options.get(BitmapEncoder.COMPRESSION_QUALITY);
+    long                  start   = System.currentTimeMillis();
 
-    try (OutputStream os = createEncryptedOutputStream(secret, file)) {
+    try (OutputStream os = createEncryptedOutputStream(secret, file, arrayPool)) {
       bitmap.compress(format, quality, os);
       os.close();
+      EncryptedCacheStats.getInstance().onWrite(System.currentTimeMillis() - start);
       return true;
     } catch (IOException e) {
       Log.w(TAG, e);
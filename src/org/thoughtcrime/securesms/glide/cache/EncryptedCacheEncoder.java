@@ -31,14 +31,17 @@ public class EncryptedCacheEncoder extends EncryptedCoder implements Encoder<Inp
     Log.w(TAG, "Encrypted cache encoder running: " + file.toString());
 
     byte[] buffer = byteArrayPool.get(ArrayPool.STANDARD_BUFFER_SIZE_BYTES, byte[].class);
+    long   start  = System.currentTimeMillis();
 
-    try (OutputStream outputStream = createEncryptedOutputStream(secret, file)) {
+    try (OutputStream outputStream = createEncryptedOutputStream(secret, file, byteArrayPool)) {
       int read;
 
       while ((read = data.read(buffer)) != -1) {
         outputStream.write(buffer, 0, read);
       }
 
+      outputStream.close();
+      EncryptedCacheStats.getInstance().onWrite(System.currentTimeMillis() - start);
       return true;
     } catch (IOException e) {
       Log.w(TAG, e);
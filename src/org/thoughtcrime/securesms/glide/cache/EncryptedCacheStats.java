@@ -0,0 +1,71 @@
+package org.thoughtcrime.securesms.glide.cache;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.VisibleForTesting;
+import android.util.Log;
+
+/**
+ * Keeps count of how the encrypted Glide disk cache is performing, and logs a summary every
+ * so often.
+ */
+public class EncryptedCacheStats {
+
+  private static final String TAG = EncryptedCacheStats.class.getSimpleName();
+
+  private static final int LOG_PERIOD = 100;
+
+  private static final EncryptedCacheStats instance = new EncryptedCacheStats();
+
+  private int  hits;
+  private int  misses;
+  private int  writes;
+  private long writeMillis;
+  private int  decodes;
+  private long decodeMillis;
+
+  public static @NonNull EncryptedCacheStats getInstance() {
+    return instance;
+  }
+
+  private EncryptedCacheStats() {}
+
+  synchronized void onHit() {
+    hits++;
+    logIfDue();
+  }
+
+  synchronized void onMiss() {
+    misses++;
+    logIfDue();
+  }
+
+  synchronized void onWrite(long millis) {
+    writes++;
+    writeMillis += millis;
+  }
+
+  synchronized void onDecode(long millis) {
+    decodes++;
+    decodeMillis += millis;
+  }
+
+  @VisibleForTesting
+  synchronized int getHits() {
+    return hits;
+  }
+
+  @VisibleForTesting
+  synchronized int getMisses() {
+    return misses;
+  }
+
+  private void logIfDue() {
+    int lookups = hits + misses;
+
+    if (lookups % LOG_PERIOD == 0) {
+      Log.i(TAG, "Lookups: " + lookups + ", hit rate: " + (hits * 100 / lookups) + "%" +
+                 ", average write: " + (writes > 0 ? writeMillis / writes : 0) + "ms" +
+                 ", average decode: " + (decodes > 0 ? decodeMillis / decodes : 0) + "ms");
+    }
+  }
+}
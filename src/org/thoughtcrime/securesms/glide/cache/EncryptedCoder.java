@@ -2,7 +2,14 @@ package org.thoughtcrime.securesms.glide.cache;
 
 
 import android.support.annotation.NonNull;
+import android.support.annotation.VisibleForTesting;
 
+import com.bumptech.glide.load.data.BufferedOutputStream;
+import com.bumptech.glide.load.engine.bitmap_recycle.ArrayPool;
+import com.bumptech.glide.load.resource.bitmap.RecyclableBufferedInputStream;
+
+import org.thoughtcrime.securesms.util.Hex;
+import org.thoughtcrime.securesms.util.LRUCache;
 import org.thoughtcrime.securesms.util.Util;
 
 import java.io.File;
@@ -15,6 +22,8 @@ import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.Map;
 
 import javax.crypto.Cipher;
 import javax.crypto.CipherInputStream;
@@ -26,25 +35,28 @@ import javax.crypto.spec.SecretKeySpec;
 
 class EncryptedCoder {
 
+  @VisibleForTesting
+  static final int DERIVED_KEY_CACHE_SIZE = 500;
+
   private static byte[] MAGIC_BYTES = {(byte)0x91, (byte)0x5e, (byte)0x6d, (byte)0xb4,
                                        (byte)0x09, (byte)0xa6, (byte)0x68, (byte)0xbe,
                                        (byte)0xe5, (byte)0xb1, (byte)0x1b, (byte)0xd7,
                                        (byte)0x29, (byte)0xe5, (byte)0x04, (byte)0xcc};
 
-  OutputStream createEncryptedOutputStream(@NonNull byte[] masterKey, @NonNull File file)
+  private static final Map<String, DerivedKey> derivedKeys = Collections.synchronizedMap(new LRUCache<>(DERIVED_KEY_CACHE_SIZE));
+
+  OutputStream createEncryptedOutputStream(@NonNull byte[] masterKey, @NonNull File file, @NonNull ArrayPool arrayPool)
       throws IOException
   {
     try {
-      byte[] random = Util.getSecretBytes(32);
-      Mac    mac    = Mac.getInstance("HmacSHA256");
-      mac.init(new SecretKeySpec(masterKey, "HmacSHA256"));
+      byte[]        random = Util.getSecretBytes(32);
+      byte[]        iv     = new byte[16];
+      SecretKeySpec key    = getDerivedKey(masterKey, random);
 
-      FileOutputStream fileOutputStream = new FileOutputStream(file);
-      byte[]           iv               = new byte[16];
-      byte[]           key              = mac.doFinal(random);
+      OutputStream fileOutputStream = new BufferedOutputStream(new FileOutputStream(file), arrayPool);
 
       Cipher cipher = Cipher.getInstance("AES/CTR/NoPadding");
-      cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "AES"), new IvParameterSpec(iv));
+      cipher.init(Cipher.ENCRYPT_MODE, key, new IvParameterSpec(iv));
 
       fileOutputStream.write(MAGIC_BYTES);
       fileOutputStream.write(random);
@@ -58,15 +70,13 @@ class EncryptedCoder {
     }
   }
 
-  InputStream createEncryptedInputStream(@NonNull byte[] masterKey, @NonNull File file) throws IOException {
-    try {
-      Mac    mac    = Mac.getInstance("HmacSHA256");
-      mac.init(new SecretKeySpec(masterKey, "HmacSHA256"));
+  InputStream createEncryptedInputStream(@NonNull byte[] masterKey, @NonNull File file, @NonNull ArrayPool arrayPool) throws IOException {
+    InputStream fileInputStream = new RecyclableBufferedInputStream(new FileInputStream(file), arrayPool);
 
-      FileInputStream fileInputStream     = new FileInputStream(file);
-      byte[]          theirMagic          = new byte[MAGIC_BYTES.length];
-      byte[]          theirRandom         = new byte[32];
-      byte[]          theirEncryptedMagic = new byte[MAGIC_BYTES.length];
+    try {
+      byte[] theirMagic          = new byte[MAGIC_BYTES.length];
+      byte[] theirRandom         = new byte[32];
+      byte[] theirEncryptedMagic = new byte[MAGIC_BYTES.length];
 
       Util.readFully(fileInputStream, theirMagic);
       Util.readFully(fileInputStream, theirRandom);
@@ -75,11 +85,11 @@ class EncryptedCoder {
         throw new IOException("Not an encrypted cache file!");
       }
 
-      byte[] iv  = new byte[16];
-      byte[] key = mac.doFinal(theirRandom);
+      byte[]        iv  = new byte[16];
+      SecretKeySpec key = getDerivedKey(masterKey, theirRandom);
 
       Cipher cipher = Cipher.getInstance("AES/CTR/NoPadding");
-      cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(key, "AES"), new IvParameterSpec(iv));
+      cipher.init(Cipher.DECRYPT_MODE, key, new IvParameterSpec(iv));
 
       CipherInputStream inputStream = new CipherInputStream(fileInputStream, cipher);
       Util.readFully(inputStream, theirEncryptedMagic);
@@ -89,10 +99,50 @@ class EncryptedCoder {
       }
 
       return inputStream;
+    } catch (IOException e) {
+      fileInputStream.close();
+      throw e;
     } catch (NoSuchAlgorithmException | InvalidKeyException | NoSuchPaddingException | InvalidAlgorithmParameterException e) {
       throw new AssertionError(e);
     }
   }
 
+  /**
+   * Each cache file has its own key, derived from the master key and the random bytes in its
+   * header. Files are typically read many times, so recently used keys are kept around instead
+   * of running the HMAC on every read. A cached key is only used with the master key it was
+   * derived from.
+   */
+  private static @NonNull SecretKeySpec getDerivedKey(@NonNull byte[] masterKey, @NonNull byte[] random)
+      throws NoSuchAlgorithmException, InvalidKeyException
+  {
+    String     cacheKey = Hex.toStringCondensed(random);
+    DerivedKey derived  = derivedKeys.get(cacheKey);
+
+    if (derived == null || !MessageDigest.isEqual(derived.masterKey, masterKey)) {
+      Mac mac = Mac.getInstance("HmacSHA256");
+      mac.init(new SecretKeySpec(masterKey, "HmacSHA256"));
+
+      derived = new DerivedKey(masterKey, new SecretKeySpec(mac.doFinal(random), "AES"));
+      derivedKeys.put(cacheKey, derived);
+    }
+
+    return derived.key;
+  }
+
+  @VisibleForTesting
+  static int getDerivedKeyCount() {
+    return derivedKeys.size();
+  }
+
+  private static class DerivedKey {
+
+    private final byte[]        masterKey;
+    private final SecretKeySpec key;
 
+    private DerivedKey(@NonNull byte[] masterKey, @NonNull SecretKeySpec key) {
+      this.masterKey = masterKey;
+      this.key       = key;
+    }
+  }
 }
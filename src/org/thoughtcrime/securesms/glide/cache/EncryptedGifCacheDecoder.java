@@ -8,6 +8,7 @@ import android.util.Log;
 import com.bumptech.glide.load.Options;
 import com.bumptech.glide.load.ResourceDecoder;
 import com.bumptech.glide.load.engine.Resource;
+import com.bumptech.glide.load.engine.bitmap_recycle.ArrayPool;
 import com.bumptech.glide.load.resource.gif.GifDrawable;
 import com.bumptech.glide.load.resource.gif.StreamGifDecoder;
 
@@ -21,17 +22,19 @@ public class EncryptedGifCacheDecoder extends EncryptedCoder implements Resource
 
   private final byte[]           secret;
   private final StreamGifDecoder gifDecoder;
+  private final ArrayPool        arrayPool;
 
-  public EncryptedGifCacheDecoder(@NonNull byte[] secret, @NonNull StreamGifDecoder gifDecoder) {
+  public EncryptedGifCacheDecoder(@NonNull byte[] secret, @NonNull StreamGifDecoder gifDecoder, @NonNull ArrayPool arrayPool) {
     this.secret     = secret;
     this.gifDecoder = gifDecoder;
+    this.arrayPool  = arrayPool;
   }
 
   @Override
   public boolean handles(@NonNull File source, @NonNull Options options) {
     Log.w(TAG, "Checking item for encrypted GIF cache decoder: " + source.toString());
 
-    try (InputStream inputStream = createEncryptedInputStream(secret, source)) {
+    try (InputStream inputStream = createEncryptedInputStream(secret, source, arrayPool)) {
       return gifDecoder.handles(inputStream, options);
     } catch (IOException e) {
       Log.w(TAG, e);
@@ -43,8 +46,12 @@ public class EncryptedGifCacheDecoder extends EncryptedCoder implements Resource
   @Override
   public Resource<GifDrawable> decode(@NonNull File source, int width, int height, @NonNull Options options) throws IOException {
     Log.w(TAG, "Encrypted GIF cache decoder running...");
-    try (InputStream inputStream = createEncryptedInputStream(secret, source)) {
+    long startTime = System.currentTimeMillis();
+
+    try (InputStream inputStream = createEncryptedInputStream(secret, source, arrayPool)) {
       return gifDecoder.decode(inputStream, width, height, options);
+    } finally {
+      EncryptedCacheStats.getInstance().onDecode(System.currentTimeMillis() - startTime);
     }
   }
 
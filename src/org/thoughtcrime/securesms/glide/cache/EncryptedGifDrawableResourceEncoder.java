@@ -8,6 +8,7 @@ import com.bumptech.glide.load.EncodeStrategy;
 import com.bumptech.glide.load.Options;
 import com.bumptech.glide.load.ResourceEncoder;
 import com.bumptech.glide.load.engine.Resource;
+import com.bumptech.glide.load.engine.bitmap_recycle.ArrayPool;
 import com.bumptech.glide.load.resource.gif.GifDrawable;
 import com.bumptech.glide.util.ByteBufferUtil;
 
@@ -19,10 +20,12 @@ public class EncryptedGifDrawableResourceEncoder extends EncryptedCoder implemen
 
   private static final String TAG = EncryptedGifDrawableResourceEncoder.class.getSimpleName();
 
-  private final byte[] secret;
+  private final byte[]    secret;
+  private final ArrayPool arrayPool;
 
-  public EncryptedGifDrawableResourceEncoder(@NonNull byte[] secret) {
-    this.secret = secret;
+  public EncryptedGifDrawableResourceEncoder(@NonNull byte[] secret, @NonNull ArrayPool arrayPool) {
+    this.secret    = secret;
+    this.arrayPool = arrayPool;
   }
 
   @Override
@@ -33,9 +36,12 @@ public class EncryptedGifDrawableResourceEncoder extends EncryptedCoder implemen
   @Override
   public boolean encode(@NonNull Resource<GifDrawable> data, @NonNull File file, @NonNull Options options) {
     GifDrawable drawable = data.get();
+    long        start    = System.currentTimeMillis();
 
-    try (OutputStream outputStream = createEncryptedOutputStream(secret, file)) {
+    try (OutputStream outputStream = createEncryptedOutputStream(secret, file, arrayPool)) {
       ByteBufferUtil.toStream(drawable.getBuffer(), outputStream);
+      outputStream.close();
+      EncryptedCacheStats.getInstance().onWrite(System.currentTimeMillis() - start);
       return true;
     } catch (IOException e) {
       Log.w(TAG, e);
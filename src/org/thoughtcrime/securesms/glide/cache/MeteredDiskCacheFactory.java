@@ -0,0 +1,75 @@
+package org.thoughtcrime.securesms.glide.cache;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+
+import com.bumptech.glide.load.Key;
+import com.bumptech.glide.load.engine.cache.DiskCache;
+import com.bumptech.glide.load.engine.cache.InternalCacheDiskCacheFactory;
+
+import java.io.File;
+
+/**
+ * Builds Glide's disk LRU cache with the given size budget, and records its hits and misses
+ * in {@link EncryptedCacheStats}.
+ *
+ * The LRU order is kept in the cache's journal, so entries are evicted by when they were last
+ * read, across process restarts.
+ */
+public class MeteredDiskCacheFactory implements DiskCache.Factory {
+
+  private final DiskCache.Factory factory;
+
+  public MeteredDiskCacheFactory(@NonNull Context context, long maxSizeBytes) {
+    this(new InternalCacheDiskCacheFactory(context, maxSizeBytes));
+  }
+
+  @VisibleForTesting
+  MeteredDiskCacheFactory(@NonNull DiskCache.Factory factory) {
+    this.factory = factory;
+  }
+
+  @Override
+  public @Nullable DiskCache build() {
+    DiskCache diskCache = factory.build();
+
+    if (diskCache == null) return null;
+    else                   return new MeteredDiskCache(diskCache);
+  }
+
+  private static class MeteredDiskCache implements DiskCache {
+
+    private final DiskCache diskCache;
+
+    private MeteredDiskCache(@NonNull DiskCache diskCache) {
+      this.diskCache = diskCache;
+    }
+
+    @Override
+    public @Nullable File get(Key key) {
+      File file = diskCache.get(key);
+
+      if (file != null) EncryptedCacheStats.getInstance().onHit();
+      else              EncryptedCacheStats.getInstance().onMiss();
+
+      return file;
+    }
+
+    @Override
+    public void put(Key key, Writer writer) {
+      diskCache.put(key, writer);
+    }
+
+    @Override
+    public void delete(Key key) {
+      diskCache.delete(key);
+    }
+
+    @Override
+    public void clear() {
+      diskCache.clear();
+    }
+  }
+}
@@ -0,0 +1,14 @@
+package org.thoughtcrime.securesms.jobmanager;
+
+import android.support.annotation.Nullable;
+
+/**
+ * A job that doesn't need to be queued again while an equivalent job is still waiting to run.
+ * Jobs with the same key are considered equivalent; a job added while another with its key is
+ * queued (and hasn't started yet) is dropped.
+ */
+public interface CoalescingJob {
+
+  @Nullable String getCoalescingKey();
+
+}
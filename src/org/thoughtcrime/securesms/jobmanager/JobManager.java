@@ -0,0 +1,391 @@
+package org.thoughtcrime.securesms.jobmanager;
+
+import android.content.Context;
+import android.os.PowerManager;
+import android.os.Process;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import org.thoughtcrime.securesms.util.ServiceUtil;
+import org.thoughtcrime.securesms.util.Util;
+import org.whispersystems.jobqueue.Job;
+import org.whispersystems.jobqueue.dependencies.ContextDependent;
+import org.whispersystems.jobqueue.dependencies.DependencyInjector;
+import org.whispersystems.jobqueue.requirements.Requirement;
+import org.whispersystems.jobqueue.requirements.RequirementListener;
+import org.whispersystems.jobqueue.requirements.RequirementProvider;
+
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs jobs on prioritized queues (see {@link JobQueue}), each with its own consumer threads.
+ *
+ * Jobs in the same group never run concurrently, and run in the order they were added when
+ * they share a queue. Persistent jobs are stored (see {@link JobSerializer}) and restored on
+ * startup. Jobs implementing {@link CoalescingJob} are dropped (or merged, see {@link MergingJob})
+ * if an equivalent job is still waiting, and the time jobs spend waiting is tracked per queue.
+ *
+ * A job that asks for a wake lock (see {@link Job#needsWakeLock()}) gets its own as soon as it's
+ * added, with its own timeout, and keeps it until it has run or been coalesced into another job.
+ * The device can't sleep between a receiver adding the job and the job running.
+ */
+public class JobManager implements RequirementListener {
+
+  private static final String TAG = JobManager.class.getSimpleName();
+
+  private static final long SLOW_WAIT_MILLIS   = TimeUnit.SECONDS.toMillis(5);
+  private static final int  METRICS_LOG_PERIOD = 50;
+
+  private final Context                              context;
+  private final DependencyInjector                   dependencyInjector;
+  private final JobStorage                           storage;
+  private final Executor                             eventExecutor;
+  private final Map<JobQueue, LinkedList<QueuedJob>> queues;
+  private final Map<JobQueue, QueueMetrics>          metrics;
+  private final Map<String, QueuedJob>               waitingByKey;
+  private final Set<String>                          activeGroups;
+
+  public JobManager(@NonNull Context context,
+                    @Nullable DependencyInjector dependencyInjector,
+                    @NonNull RequirementProvider... requirementProviders)
+  {
+    this.context            = context.getApplicationContext();
+    this.dependencyInjector = dependencyInjector;
+    this.storage            = new JobStorage(this.context, new JobSerializer());
+    this.eventExecutor      = Executors.newSingleThreadExecutor();
+    this.queues             = new EnumMap<>(JobQueue.class);
+    this.metrics            = new EnumMap<>(JobQueue.class);
+    this.waitingByKey       = new HashMap<>();
+    this.activeGroups       = new HashSet<>();
+
+    for (RequirementProvider provider : requirementProviders) {
+      provider.setListener(this);
+    }
+
+    for (JobQueue queue : JobQueue.values()) {
+      queues.put(queue, new LinkedList<>());
+      metrics.put(queue, new QueueMetrics(queue));
+    }
+
+    eventExecutor.execute(this::restorePersistedJobs);
+
+    for (JobQueue queue : JobQueue.values()) {
+      for (int i = 0; i < queue.getConcurrency(); i++) {
+        new Consumer(queue, i).start();
+      }
+    }
+  }
+
+  public void add(@NonNull Job job) {
+    add(job, JobQueue.forJob(job), 0);
+  }
+
+  public void add(@NonNull Job job, @NonNull JobQueue queue) {
+    add(job, queue, 0);
+  }
+
+  /**
+   * Adds a job that won't run until the delay has passed, so that jobs added in the meantime
+   * can be coalesced into it.
+   */
+  public void add(@NonNull Job job, long delayMillis) {
+    add(job, JobQueue.forJob(job), delayMillis);
+  }
+
+  private void add(@NonNull Job job, @NonNull JobQueue queue, long delayMillis) {
+    final long                  runAfter = SystemClock.elapsedRealtime() + delayMillis;
+    final PowerManager.WakeLock wakeLock = acquireWakeLock(job);
+
+    eventExecutor.execute(() -> {
+      String    key = getCoalescingKey(job);
+      QueuedJob waiting;
+
+      synchronized (JobManager.this) {
+        waiting = key != null ? waitingByKey.get(key) : null;
+
+        if (waiting != null && waiting.job instanceof MergingJob) {
+          ((MergingJob)waiting.job).merge(job);
+        }
+      }
+
+      if (waiting != null) {
+        Log.w(TAG, "Coalescing with waiting job: " + key);
+        releaseWakeLock(wakeLock);
+
+        if (waiting.job instanceof MergingJob && waiting.persistentId != -1) {
+          try {
+            storage.update(waiting.persistentId, waiting.job);
+          } catch (IOException e) {
+            Log.w(TAG, e);
+          }
+        }
+
+        return;
+      }
+
+      long persistentId = -1;
+
+      if (job.isPersistent()) {
+        try {
+          persistentId = storage.store(job);
+        } catch (IOException e) {
+          Log.w(TAG, e);
+        }
+      }
+
+      if (dependencyInjector != null) {
+        dependencyInjector.injectDependencies(job);
+      }
+
+      job.onAdded();
+      enqueue(new QueuedJob(job, queue, persistentId, key, runAfter, wakeLock));
+    });
+  }
+
+  @Override
+  public synchronized void onRequirementStatusChanged() {
+    notifyAll();
+  }
+
+  private void restorePersistedJobs() {
+    for (JobStorage.StoredJob stored : storage.getAll()) {
+      Job job = stored.getJob();
+
+      if (job instanceof ContextDependent) {
+        ((ContextDependent)job).setContext(context);
+      }
+
+      for (Requirement requirement : job.getRequirements()) {
+        if (requirement instanceof ContextDependent) {
+          ((ContextDependent)requirement).setContext(context);
+        }
+      }
+
+      if (dependencyInjector != null) {
+        dependencyInjector.injectDependencies(job);
+      }
+
+      enqueue(new QueuedJob(job, JobQueue.forJob(job), stored.getId(), getCoalescingKey(job), SystemClock.elapsedRealtime(), null));
+    }
+  }
+
+  private synchronized void enqueue(@NonNull QueuedJob queued) {
+    queues.get(queued.queue).add(queued);
+
+    if (queued.coalescingKey != null && !waitingByKey.containsKey(queued.coalescingKey)) {
+      waitingByKey.put(queued.coalescingKey, queued);
+    }
+
+    notifyAll();
+  }
+
+  private synchronized @NonNull QueuedJob take(@NonNull JobQueue queue) {
+    while (true) {
+      Set<String>         blockedGroups = new HashSet<>(activeGroups);
+      Iterator<QueuedJob> iterator      = queues.get(queue).iterator();
+      long                now           = SystemClock.elapsedRealtime();
+      long                nextDelay     = 0;
+
+      while (iterator.hasNext()) {
+        QueuedJob queued  = iterator.next();
+        String    groupId = queued.job.getGroupId();
+
+        if (groupId != null && blockedGroups.contains(groupId)) {
+          continue;
+        }
+
+        if (queued.runAfter > now) {
+          if (groupId != null) blockedGroups.add(groupId);
+          nextDelay = nextDelay == 0 ? queued.runAfter - now : Math.min(nextDelay, queued.runAfter - now);
+          continue;
+        }
+
+        if (!queued.job.isRequirementsMet()) {
+          if (groupId != null) blockedGroups.add(groupId);
+          continue;
+        }
+
+        iterator.remove();
+
+        if (groupId != null)                                 activeGroups.add(groupId);
+        if (waitingByKey.get(queued.coalescingKey) == queued) waitingByKey.remove(queued.coalescingKey);
+
+        metrics.get(queue).onStarted(queued, now - queued.runAfter);
+
+        return queued;
+      }
+
+      Util.wait(this, nextDelay);
+    }
+  }
+
+  private synchronized void release(@NonNull QueuedJob queued, boolean deferred) {
+    String groupId = queued.job.getGroupId();
+
+    if (groupId != null) {
+      activeGroups.remove(groupId);
+    }
+
+    if (deferred) {
+      queues.get(queued.queue).addFirst(queued);
+
+      if (queued.coalescingKey != null && !waitingByKey.containsKey(queued.coalescingKey)) {
+        waitingByKey.put(queued.coalescingKey, queued);
+      }
+    }
+
+    notifyAll();
+  }
+
+  private @NonNull JobResult run(@NonNull QueuedJob queued) {
+    Job job = queued.job;
+
+    for (; queued.runIteration < job.getRetryCount(); queued.runIteration++) {
+      try {
+        job.onRun();
+        return JobResult.SUCCESS;
+      } catch (RuntimeException e) {
+        throw e;
+      } catch (Exception e) {
+        Log.w(TAG, e);
+
+        if (!job.onShouldRetry(e)) {
+          return JobResult.FAILURE;
+        }
+
+        if (!job.isRequirementsMet()) {
+          queued.runIteration++;
+          return JobResult.DEFERRED;
+        }
+      }
+    }
+
+    return JobResult.FAILURE;
+  }
+
+  private @Nullable PowerManager.WakeLock acquireWakeLock(@NonNull Job job) {
+    if (!job.needsWakeLock()) return null;
+
+    PowerManager.WakeLock wakeLock = ServiceUtil.getPowerManager(context).newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, "JobManager:" + job.getClass().getSimpleName());
+
+    wakeLock.setReferenceCounted(false);
+
+    if (job.getWakeLockTimeout() > 0) wakeLock.acquire(job.getWakeLockTimeout());
+    else                              wakeLock.acquire();
+
+    return wakeLock;
+  }
+
+  private static void releaseWakeLock(@Nullable PowerManager.WakeLock wakeLock) {
+    if (wakeLock != null && wakeLock.isHeld()) {
+      wakeLock.release();
+    }
+  }
+
+  private static @Nullable String getCoalescingKey(@NonNull Job job) {
+    if (job instanceof CoalescingJob) return ((CoalescingJob)job).getCoalescingKey();
+    else                              return null;
+  }
+
+  private class Consumer extends Thread {
+
+    private final JobQueue queue;
+
+    Consumer(@NonNull JobQueue queue, int index) {
+      super("JobConsumer-" + queue.name().toLowerCase() + "-" + index);
+      this.queue = queue;
+    }
+
+    @Override
+    public void run() {
+      Process.setThreadPriority(queue.getThreadPriority());
+
+      while (true) {
+        QueuedJob queued = take(queue);
+        JobResult result;
+
+        try {
+          result = JobManager.this.run(queued);
+        } finally {
+          releaseWakeLock(queued.wakeLock);
+        }
+
+        if (result == JobResult.FAILURE) {
+          queued.job.onCanceled();
+        }
+
+        if (result != JobResult.DEFERRED && queued.persistentId != -1) {
+          storage.remove(queued.persistentId);
+        }
+
+        release(queued, result == JobResult.DEFERRED);
+      }
+    }
+  }
+
+  private static class QueuedJob {
+
+    private final Job                   job;
+    private final JobQueue              queue;
+    private final long                  persistentId;
+    private final String                coalescingKey;
+    private final long                  runAfter;
+    private final PowerManager.WakeLock wakeLock;
+
+    private int runIteration;
+
+    private QueuedJob(@NonNull Job job, @NonNull JobQueue queue, long persistentId, @Nullable String coalescingKey,
+                      long runAfter, @Nullable PowerManager.WakeLock wakeLock)
+    {
+      this.job           = job;
+      this.queue         = queue;
+      this.persistentId  = persistentId;
+      this.coalescingKey = coalescingKey;
+      this.runAfter      = runAfter;
+      this.wakeLock      = wakeLock;
+    }
+  }
+
+  private static class QueueMetrics {
+
+    private final JobQueue queue;
+
+    private int  started;
+    private long totalWait;
+    private long maxWait;
+
+    private QueueMetrics(@NonNull JobQueue queue) {
+      this.queue = queue;
+    }
+
+    private void onStarted(@NonNull QueuedJob queued, long waitMillis) {
+      started++;
+      totalWait += waitMillis;
+      maxWait    = Math.max(maxWait, waitMillis);
+
+      if (waitMillis > SLOW_WAIT_MILLIS) {
+        Log.w(TAG, queued.job.getClass().getSimpleName() + " waited " + waitMillis + "ms on " + queue);
+      }
+
+      if (started % METRICS_LOG_PERIOD == 0) {
+        Log.i(TAG, queue + ": " + started + " jobs started, average wait: " + (totalWait / started) + "ms, max wait: " + maxWait + "ms");
+      }
+    }
+  }
+
+  private enum JobResult {
+    SUCCESS, FAILURE, DEFERRED
+  }
+}
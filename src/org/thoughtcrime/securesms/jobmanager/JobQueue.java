@@ -0,0 +1,96 @@
+package org.thoughtcrime.securesms.jobmanager;
+
+import android.os.Process;
+import android.support.annotation.NonNull;
+
+import org.thoughtcrime.securesms.jobs.AttachmentDownloadJob;
+import org.thoughtcrime.securesms.jobs.AvatarDownloadJob;
+import org.thoughtcrime.securesms.jobs.LocalBackupJob;
+import org.thoughtcrime.securesms.jobs.MmsDownloadJob;
+import org.thoughtcrime.securesms.jobs.MmsReceiveJob;
+import org.thoughtcrime.securesms.jobs.MultiDeviceContactUpdateJob;
+import org.thoughtcrime.securesms.jobs.MultiDeviceReadReceiptUpdateJob;
+import org.thoughtcrime.securesms.jobs.MultiDeviceReadUpdateJob;
+import org.thoughtcrime.securesms.jobs.PushDecryptJob;
+import org.thoughtcrime.securesms.jobs.PushGroupUpdateJob;
+import org.thoughtcrime.securesms.jobs.PushReceivedJob;
+import org.thoughtcrime.securesms.jobs.RetrieveProfileAvatarJob;
+import org.thoughtcrime.securesms.jobs.SendJob;
+import org.thoughtcrime.securesms.jobs.SendReadReceiptJob;
+import org.thoughtcrime.securesms.jobs.SmsReceiveJob;
+import org.thoughtcrime.securesms.jobs.SmsSentJob;
+import org.thoughtcrime.securesms.jobs.UpdateApkJob;
+import org.whispersystems.jobqueue.Job;
+
+/**
+ * The queues jobs are scheduled on, in order of priority. Each queue has its own consumer
+ * threads, so a slow download or maintenance job can't hold up an incoming message. Long
+ * running backups and contact syncs get a queue of their own, so they can't hold up the
+ * short maintenance jobs either.
+ */
+public enum JobQueue {
+
+  DECRYPT    (1, Process.THREAD_PRIORITY_DEFAULT),
+  SEND       (2, Process.THREAD_PRIORITY_DEFAULT),
+  RECEIPTS   (1, Process.THREAD_PRIORITY_BACKGROUND),
+  DOWNLOADS  (4, Process.THREAD_PRIORITY_BACKGROUND),
+  SYNC       (1, Process.THREAD_PRIORITY_BACKGROUND),
+  MAINTENANCE(2, Process.THREAD_PRIORITY_LOWEST);
+
+  private final int concurrency;
+  private final int threadPriority;
+
+  JobQueue(int concurrency, int threadPriority) {
+    this.concurrency    = concurrency;
+    this.threadPriority = threadPriority;
+  }
+
+  public int getConcurrency() {
+    return concurrency;
+  }
+
+  public int getThreadPriority() {
+    return threadPriority;
+  }
+
+  public static @NonNull JobQueue forJob(@NonNull Job job) {
+    if (job instanceof PushDecryptJob  ||
+        job instanceof PushReceivedJob ||
+        job instanceof SmsReceiveJob   ||
+        job instanceof MmsReceiveJob)
+    {
+      return DECRYPT;
+    }
+
+    if (job instanceof SendJob ||
+        job instanceof PushGroupUpdateJob)
+    {
+      return SEND;
+    }
+
+    if (job instanceof SendReadReceiptJob              ||
+        job instanceof MultiDeviceReadUpdateJob        ||
+        job instanceof MultiDeviceReadReceiptUpdateJob ||
+        job instanceof SmsSentJob)
+    {
+      return RECEIPTS;
+    }
+
+    if (job instanceof AttachmentDownloadJob    ||
+        job instanceof MmsDownloadJob           ||
+        job instanceof AvatarDownloadJob        ||
+        job instanceof RetrieveProfileAvatarJob ||
+        job instanceof UpdateApkJob)
+    {
+      return DOWNLOADS;
+    }
+
+    if (job instanceof LocalBackupJob ||
+        job instanceof MultiDeviceContactUpdateJob)
+    {
+      return SYNC;
+    }
+
+    return MAINTENANCE;
+  }
+}
@@ -0,0 +1,66 @@
+package org.thoughtcrime.securesms.jobmanager;
+
+import android.support.annotation.NonNull;
+
+import org.thoughtcrime.securesms.util.Base64;
+import org.whispersystems.jobqueue.Job;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Serializes jobs into a versioned record: a format version followed by the job's Java
+ * serialization. Records are stored as blobs, so there's no text encoding step either way.
+ * The version lets a different job encoding be introduced later without dropping stored jobs.
+ */
+class JobSerializer {
+
+  private static final int VERSION          = 2;
+  private static final int VERSION_DEFLATED = 1;
+
+  @NonNull byte[] serialize(@NonNull Job job) throws IOException {
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    baos.write(VERSION);
+
+    try (ObjectOutputStream out = new ObjectOutputStream(baos)) {
+      out.writeObject(job);
+    }
+
+    return baos.toByteArray();
+  }
+
+  @NonNull Job deserialize(@NonNull byte[] serialized) throws IOException {
+    if (serialized.length == 0) {
+      throw new IOException("Empty job record!");
+    }
+
+    InputStream in = new ByteArrayInputStream(serialized, 1, serialized.length - 1);
+
+    switch (serialized[0]) {
+      case VERSION:          return readJob(in);
+      case VERSION_DEFLATED: return readJob(new InflaterInputStream(in));
+      default:               throw new IOException("Unknown job format: " + serialized[0]);
+    }
+  }
+
+  /**
+   * Reads a job persisted by the previous job manager, which stored Base64 encoded
+   * Java serialization.
+   */
+  @NonNull Job deserializeLegacy(@NonNull String serialized) throws IOException {
+    return readJob(new ByteArrayInputStream(Base64.decode(serialized)));
+  }
+
+  private @NonNull Job readJob(@NonNull InputStream in) throws IOException {
+    try (ObjectInputStream ois = new ObjectInputStream(in)) {
+      return (Job)ois.readObject();
+    } catch (ClassNotFoundException | ClassCastException e) {
+      throw new IOException(e);
+    }
+  }
+}
@@ -0,0 +1,165 @@
+package org.thoughtcrime.securesms.jobmanager;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import org.whispersystems.jobqueue.Job;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Persists jobs that should survive a restart, in the order they were added.
+ */
+class JobStorage {
+
+  private static final String TAG = JobStorage.class.getSimpleName();
+
+  private static final String DATABASE_NAME        = "jobs.db";
+  private static final int    DATABASE_VERSION     = 1;
+  private static final String LEGACY_DATABASE_NAME = "_jobqueue-TextSecureJobs";
+
+  private static final String TABLE_NAME = "job";
+  private static final String ID         = "_id";
+  private static final String ITEM       = "item";
+
+  private static final String CREATE_TABLE = "CREATE TABLE " + TABLE_NAME + " (" + ID + " INTEGER PRIMARY KEY, " + ITEM + " BLOB);";
+
+  private final Context        context;
+  private final JobSerializer  serializer;
+  private final DatabaseHelper databaseHelper;
+
+  JobStorage(@NonNull Context context, @NonNull JobSerializer serializer) {
+    this.context        = context;
+    this.serializer     = serializer;
+    this.databaseHelper = new DatabaseHelper(context);
+  }
+
+  long store(@NonNull Job job) throws IOException {
+    ContentValues values = new ContentValues(1);
+    values.put(ITEM, serializer.serialize(job));
+
+    return databaseHelper.getWritableDatabase().insert(TABLE_NAME, null, values);
+  }
+
+  void update(long id, @NonNull Job job) throws IOException {
+    ContentValues values = new ContentValues(1);
+    values.put(ITEM, serializer.serialize(job));
+
+    databaseHelper.getWritableDatabase().update(TABLE_NAME, values, ID + " = ?", new String[] {String.valueOf(id)});
+  }
+
+  void remove(long id) {
+    databaseHelper.getWritableDatabase().delete(TABLE_NAME, ID + " = ?", new String[] {String.valueOf(id)});
+  }
+
+  @NonNull List<StoredJob> getAll() {
+    migrateLegacyJobs();
+
+    List<StoredJob> results = new LinkedList<>();
+
+    try (Cursor cursor = databaseHelper.getReadableDatabase().query(TABLE_NAME, null, null, null, null, null, ID + " ASC")) {
+      while (cursor.moveToNext()) {
+        long   id   = cursor.getLong(cursor.getColumnIndexOrThrow(ID));
+        byte[] item = cursor.getBlob(cursor.getColumnIndexOrThrow(ITEM));
+
+        try {
+          results.add(new StoredJob(id, serializer.deserialize(item)));
+        } catch (IOException e) {
+          Log.w(TAG, e);
+          remove(id);
+        }
+      }
+    }
+
+    return results;
+  }
+
+  private void migrateLegacyJobs() {
+    File legacyDatabase = context.getDatabasePath(LEGACY_DATABASE_NAME);
+
+    if (!legacyDatabase.exists()) return;
+
+    SQLiteDatabase target = databaseHelper.getWritableDatabase();
+    SQLiteDatabase legacy = null;
+
+    try {
+      legacy = SQLiteDatabase.openDatabase(legacyDatabase.getPath(), null, SQLiteDatabase.OPEN_READONLY);
+
+      try (Cursor cursor = legacy.query("queue", new String[] {"item", "encrypted"}, null, null, null, null, "_id ASC")) {
+        target.beginTransaction();
+
+        try {
+          while (cursor.moveToNext()) {
+            if (cursor.getInt(1) != 0) {
+              Log.w(TAG, "Skipping encrypted legacy job...");
+              continue;
+            }
+
+            try {
+              store(serializer.deserializeLegacy(cursor.getString(0)));
+            } catch (IOException e) {
+              Log.w(TAG, e);
+            }
+          }
+
+          target.setTransactionSuccessful();
+        } finally {
+          target.endTransaction();
+        }
+      }
+    } catch (SQLiteException e) {
+      Log.w(TAG, e);
+    } finally {
+      if (legacy != null) legacy.close();
+    }
+
+    if (!context.deleteDatabase(LEGACY_DATABASE_NAME)) {
+      Log.w(TAG, "Failed to delete legacy job database!");
+    }
+  }
+
+  static class StoredJob {
+
+    private final long id;
+    private final Job  job;
+
+    private StoredJob(long id, @NonNull Job job) {
+      this.id  = id;
+      this.job = job;
+    }
+
+    long getId() {
+      return id;
+    }
+
+    @NonNull Job getJob() {
+      return job;
+    }
+  }
+
+  private static class DatabaseHelper extends SQLiteOpenHelper {
+
+    DatabaseHelper(@NonNull Context context) {
+      super(context, DATABASE_NAME, null, DATABASE_VERSION);
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+      db.execSQL(CREATE_TABLE);
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+
+    }
+  }
+}
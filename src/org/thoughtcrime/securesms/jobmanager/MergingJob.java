@@ -0,0 +1,18 @@
+package org.thoughtcrime.securesms.jobmanager;
+
+import android.support.annotation.NonNull;
+
+import org.whispersystems.jobqueue.Job;
+
+/**
+ * A {@link CoalescingJob} that absorbs the work of the jobs coalesced into it, rather than
+ * simply dropping them. Merging happens while the job is waiting, never while it runs.
+ */
+public interface MergingJob extends CoalescingJob {
+
+  /**
+   * @param job a job with the same coalescing key, which won't be run itself.
+   */
+  void merge(@NonNull Job job);
+
+}
@@ -7,16 +7,20 @@ import android.util.Log;
 
 import org.greenrobot.eventbus.EventBus;
 import org.thoughtcrime.securesms.attachments.Attachment;
+import org.thoughtcrime.securesms.attachments.AttachmentDownloadScheduler;
+import org.thoughtcrime.securesms.attachments.AttachmentDownloader;
+import org.thoughtcrime.securesms.attachments.AttachmentDownloader.DownloadedPart;
 import org.thoughtcrime.securesms.attachments.AttachmentId;
+import org.thoughtcrime.securesms.attachments.CdnAttachmentSource;
+import org.thoughtcrime.securesms.crypto.AttachmentSecretProvider;
 import org.thoughtcrime.securesms.crypto.MasterSecret;
 import org.thoughtcrime.securesms.database.AttachmentDatabase;
 import org.thoughtcrime.securesms.database.DatabaseFactory;
-import org.thoughtcrime.securesms.dependencies.InjectableType;
 import org.thoughtcrime.securesms.events.PartProgressEvent;
 import org.thoughtcrime.securesms.jobs.requirements.MasterSecretRequirement;
 import org.thoughtcrime.securesms.mms.MmsException;
 import org.thoughtcrime.securesms.notifications.MessageNotifier;
-import org.thoughtcrime.securesms.util.AttachmentUtil;
+import org.thoughtcrime.securesms.push.SignalServiceNetworkAccess;
 import org.thoughtcrime.securesms.util.Base64;
 import org.thoughtcrime.securesms.util.Hex;
 import org.thoughtcrime.securesms.util.Util;
@@ -24,24 +28,17 @@ import org.whispersystems.jobqueue.JobParameters;
 import org.whispersystems.jobqueue.requirements.NetworkRequirement;
 import org.whispersystems.libsignal.InvalidMessageException;
 import org.whispersystems.libsignal.util.guava.Optional;
-import org.whispersystems.signalservice.api.SignalServiceMessageReceiver;
 import org.whispersystems.signalservice.api.messages.SignalServiceAttachmentPointer;
 import org.whispersystems.signalservice.api.push.exceptions.NonSuccessfulResponseCodeException;
 import org.whispersystems.signalservice.api.push.exceptions.PushNetworkException;
 
-import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
 
-import javax.inject.Inject;
-
-public class AttachmentDownloadJob extends MasterSecretJob implements InjectableType {
+public class AttachmentDownloadJob extends MasterSecretJob {
   private static final long   serialVersionUID    = 2L;
   private static final int    MAX_ATTACHMENT_SIZE = 150 * 1024  * 1024;
   private static final String TAG                  = AttachmentDownloadJob.class.getSimpleName();
 
-  @Inject transient SignalServiceMessageReceiver messageReceiver;
-
   private final long    messageId;
   private final long    partRowId;
   private final long    partUniqueId;
@@ -49,10 +46,9 @@ public class AttachmentDownloadJob extends MasterSecretJob implements Injectable
 
   public AttachmentDownloadJob(Context context, long messageId, AttachmentId attachmentId, boolean manual) {
     super(context, JobParameters.newBuilder()
-                                .withGroupId(AttachmentDownloadJob.class.getCanonicalName())
+                                .withGroupId(AttachmentDownloadJob.class.getSimpleName() + attachmentId)
                                 .withRequirement(new MasterSecretRequirement(context))
                                 .withRequirement(new NetworkRequirement(context))
-                                .withPersistence()
                                 .create());
 
     this.messageId    = messageId;
@@ -67,29 +63,36 @@ public class AttachmentDownloadJob extends MasterSecretJob implements Injectable
 
   @Override
   public void onRun(MasterSecret masterSecret) throws IOException {
-    final AttachmentDatabase database     = DatabaseFactory.getAttachmentDatabase(context);
-    final AttachmentId       attachmentId = new AttachmentId(partRowId, partUniqueId);
-    final Attachment         attachment   = database.getAttachment(attachmentId);
+    final AttachmentDatabase          database     = DatabaseFactory.getAttachmentDatabase(context);
+    final AttachmentDownloadScheduler scheduler    = AttachmentDownloadScheduler.getInstance(context);
+    final AttachmentId                attachmentId = new AttachmentId(partRowId, partUniqueId);
+
+    if (!scheduler.onStarted(attachmentId)) {
+      Log.w(TAG, "Download wasn't handed out by the scheduler, queueing " + attachmentId);
+      scheduler.schedule(messageId, attachmentId, manual);
+      return;
+    }
+
+    final Attachment attachment = database.getAttachment(attachmentId);
 
     if (attachment == null) {
       Log.w(TAG, "attachment no longer exists.");
+      AttachmentDownloader.discard(context.getDir(AttachmentDatabase.DIRECTORY, Context.MODE_PRIVATE), attachmentId);
+      scheduler.onFinished(attachmentId);
       return;
     }
 
     if (!attachment.isInProgress()) {
       Log.w(TAG, "Attachment was already downloaded.");
-      return;
-    }
-
-    if (!manual && !AttachmentUtil.isAutoDownloadPermitted(context, attachment)) {
-      Log.w(TAG, "Attachment can't be auto downloaded...");
+      scheduler.onFinished(attachmentId);
       return;
     }
 
     Log.w(TAG, "Downloading push part " + attachmentId);
-    database.setTransferState(messageId, attachmentId, AttachmentDatabase.TRANSFER_PROGRESS_STARTED);
 
     retrieveAttachment(messageId, attachmentId, attachment);
+    scheduler.onFinished(attachmentId);
+
     MessageNotifier.updateNotification(context);
   }
 
@@ -97,6 +100,7 @@ public class AttachmentDownloadJob extends MasterSecretJob implements Injectable
   public void onCanceled() {
     final AttachmentId attachmentId = new AttachmentId(partRowId, partUniqueId);
     markFailed(messageId, attachmentId);
+    AttachmentDownloadScheduler.getInstance(context).onFinished(attachmentId);
   }
 
   @Override
@@ -110,24 +114,21 @@ public class AttachmentDownloadJob extends MasterSecretJob implements Injectable
       throws IOException
   {
 
-    AttachmentDatabase database       = DatabaseFactory.getAttachmentDatabase(context);
-    File               attachmentFile = null;
+    AttachmentDatabase database = DatabaseFactory.getAttachmentDatabase(context);
 
     try {
-      attachmentFile = createTempFile();
-
-      SignalServiceAttachmentPointer pointer = createAttachmentPointer(attachment);
-      InputStream                    stream  = messageReceiver.retrieveAttachment(pointer, attachmentFile, MAX_ATTACHMENT_SIZE, (total, progress) -> EventBus.getDefault().postSticky(new PartProgressEvent(attachment, total, progress)));
-
-      database.insertAttachmentsForPlaceholder(messageId, attachmentId, stream);
-    } catch (InvalidPartException | NonSuccessfulResponseCodeException | InvalidMessageException | MmsException e) {
+      SignalServiceAttachmentPointer pointer    = createAttachmentPointer(attachment);
+      AttachmentDownloader           downloader = new AttachmentDownloader(AttachmentSecretProvider.getInstance(context).getOrCreateAttachmentSecret(),
+                                                                           context.getDir(AttachmentDatabase.DIRECTORY, Context.MODE_PRIVATE),
+                                                                           CdnAttachmentSource.forAttachment(new SignalServiceNetworkAccess(context).getConfiguration(context), pointer.getId()));
+      DownloadedPart                 part       = downloader.download(attachmentId, pointer.getKey(), pointer.getDigest().orNull(),
+                                                                      pointer.getSize().or(0), MAX_ATTACHMENT_SIZE,
+                                                                      (total, progress) -> EventBus.getDefault().postSticky(new PartProgressEvent(attachment, total, progress)));
+
+      database.insertAttachmentsForPlaceholder(messageId, attachmentId, part);
+    } catch (InvalidPartException | NonSuccessfulResponseCodeException | InvalidMessageException e) {
       Log.w(TAG, e);
       markFailed(messageId, attachmentId);
-    } finally {
-      if (attachmentFile != null) {
-        //noinspection ResultOfMethodCallIgnored
-        attachmentFile.delete();
-      }
     }
   }
 
@@ -171,17 +172,6 @@ public class AttachmentDownloadJob extends MasterSecretJob implements Injectable
     }
   }
 
-  private File createTempFile() throws InvalidPartException {
-    try {
-      File file = File.createTempFile("push-attachment", "tmp", context.getCacheDir());
-      file.deleteOnExit();
-
-      return file;
-    } catch (IOException e) {
-      throw new InvalidPartException(e);
-    }
-  }
-
   private void markFailed(long messageId, AttachmentId attachmentId) {
     try {
       AttachmentDatabase database = DatabaseFactory.getAttachmentDatabase(context);
@@ -6,18 +6,34 @@ import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.util.Log;
 
+import com.annimon.stream.Stream;
+
+import org.thoughtcrime.securesms.database.Address;
+import org.thoughtcrime.securesms.jobmanager.MergingJob;
 import org.thoughtcrime.securesms.recipients.Recipient;
 import org.thoughtcrime.securesms.util.DirectoryHelper;
+import org.thoughtcrime.securesms.util.Util;
+import org.whispersystems.jobqueue.Job;
 import org.whispersystems.jobqueue.JobParameters;
 import org.whispersystems.jobqueue.requirements.NetworkRequirement;
 import org.whispersystems.signalservice.api.push.exceptions.PushNetworkException;
 
 import java.io.IOException;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class DirectoryRefreshJob extends ContextJob implements MergingJob {
 
-public class DirectoryRefreshJob extends ContextJob {
+  private static final long serialVersionUID = 1L;
 
-  @Nullable private transient Recipient    recipient;
-            private transient boolean      notifyOfNewUsers;
+  /**
+   * How long a lookup for specific recipients waits for more recipients to be added to it.
+   */
+  public static final long RECIPIENT_BATCH_WINDOW_MILLIS = TimeUnit.SECONDS.toMillis(2);
+
+  @Nullable private final List<String> addresses;
+            private final boolean      notifyOfNewUsers;
 
   public DirectoryRefreshJob(@NonNull Context context, boolean notifyOfNewUsers) {
     this(context, null, notifyOfNewUsers);
@@ -32,10 +48,29 @@ public class DirectoryRefreshJob extends ContextJob {
                                 .withRequirement(new NetworkRequirement(context))
                                 .create());
 
-    this.recipient        = recipient;
+    this.addresses        = recipient != null ? new LinkedList<>(Util.asList(recipient.getAddress().serialize())) : null;
     this.notifyOfNewUsers = notifyOfNewUsers;
   }
 
+  @Override
+  public @NonNull String getCoalescingKey() {
+    if (addresses == null) return DirectoryRefreshJob.class.getSimpleName() + "::" + notifyOfNewUsers;
+    else                   return DirectoryRefreshJob.class.getSimpleName() + "::recipients";
+  }
+
+  @Override
+  public void merge(@NonNull Job job) {
+    List<String> merged = ((DirectoryRefreshJob)job).addresses;
+
+    if (addresses == null || merged == null) return;
+
+    for (String address : merged) {
+      if (!addresses.contains(address)) {
+        addresses.add(address);
+      }
+    }
+  }
+
   @Override
   public void onAdded() {}
 
@@ -47,10 +82,12 @@ public class DirectoryRefreshJob extends ContextJob {
 
     try {
       wakeLock.acquire();
-      if (recipient == null) {
+      if (addresses == null) {
         DirectoryHelper.refreshDirectory(context, notifyOfNewUsers);
       } else {
-        DirectoryHelper.refreshDirectoryFor(context, recipient);
+        DirectoryHelper.refreshDirectoryFor(context, Stream.of(addresses)
+                                                           .map(address -> Recipient.from(context, Address.fromSerialized(address), false))
+                                                           .toList());
       }
     } finally {
       if (wakeLock.isHeld()) wakeLock.release();
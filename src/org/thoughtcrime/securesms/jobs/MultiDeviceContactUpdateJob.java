@@ -2,10 +2,7 @@ package org.thoughtcrime.securesms.jobs;
 
 import android.Manifest;
 import android.content.Context;
-import android.content.res.AssetFileDescriptor;
-import android.database.Cursor;
 import android.net.Uri;
-import android.os.Build;
 import android.provider.ContactsContract;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
@@ -13,16 +10,23 @@ import android.util.Log;
 
 import org.thoughtcrime.securesms.contacts.ContactAccessor;
 import org.thoughtcrime.securesms.contacts.ContactAccessor.ContactData;
+import org.thoughtcrime.securesms.contacts.SystemContactAvatarCache;
+import org.thoughtcrime.securesms.contacts.SystemContactAvatarCache.CachedAvatar;
 import org.thoughtcrime.securesms.crypto.MasterSecret;
 import org.thoughtcrime.securesms.crypto.ProfileKeyUtil;
 import org.thoughtcrime.securesms.database.Address;
 import org.thoughtcrime.securesms.database.DatabaseFactory;
 import org.thoughtcrime.securesms.database.IdentityDatabase;
+import org.thoughtcrime.securesms.database.RecipientDatabase;
 import org.thoughtcrime.securesms.dependencies.InjectableType;
+import org.thoughtcrime.securesms.jobmanager.CoalescingJob;
 import org.thoughtcrime.securesms.jobs.requirements.MasterSecretRequirement;
 import org.thoughtcrime.securesms.permissions.Permissions;
 import org.thoughtcrime.securesms.recipients.Recipient;
+import org.thoughtcrime.securesms.util.Conversions;
+import org.thoughtcrime.securesms.util.Hex;
 import org.thoughtcrime.securesms.util.TextSecurePreferences;
+import org.thoughtcrime.securesms.util.Util;
 import org.whispersystems.jobqueue.JobParameters;
 import org.whispersystems.jobqueue.requirements.NetworkRequirement;
 import org.whispersystems.libsignal.IdentityKey;
@@ -39,30 +43,54 @@ import org.whispersystems.signalservice.api.messages.multidevice.VerifiedMessage
 import org.whispersystems.signalservice.api.push.exceptions.PushNetworkException;
 import org.whispersystems.signalservice.api.util.InvalidNumberException;
 
-import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import javax.inject.Inject;
 
-public class MultiDeviceContactUpdateJob extends MasterSecretJob implements InjectableType {
+public class MultiDeviceContactUpdateJob extends MasterSecretJob implements InjectableType, CoalescingJob {
 
   private static final long serialVersionUID = 2L;
 
   private static final String TAG = MultiDeviceContactUpdateJob.class.getSimpleName();
 
+  /**
+   * How often all contacts are sent, rather than only the ones that changed since the last sync.
+   */
+  private static final long FULL_SYNC_INTERVAL = TimeUnit.DAYS.toMillis(7);
+
   @Inject transient SignalServiceMessageSender messageSender;
 
-  private final @Nullable String address;
+  private final @Nullable String  address;
+  private final           boolean forceSync;
 
   public MultiDeviceContactUpdateJob(@NonNull Context context) {
-    this(context, null);
+    this(context, null, false);
+  }
+
+  /**
+   * @param forceSync Send every contact, even if linked devices should already have them.
+   */
+  public MultiDeviceContactUpdateJob(@NonNull Context context, boolean forceSync) {
+    this(context, null, forceSync);
   }
 
   public MultiDeviceContactUpdateJob(@NonNull Context context, @Nullable Address address) {
+    this(context, address, false);
+  }
+
+  private MultiDeviceContactUpdateJob(@NonNull Context context, @Nullable Address address, boolean forceSync) {
     super(context, JobParameters.newBuilder()
                                 .withRequirement(new NetworkRequirement(context))
                                 .withRequirement(new MasterSecretRequirement(context))
@@ -72,6 +100,14 @@ public class MultiDeviceContactUpdateJob extends MasterSecretJob implements Inje
 
     if (address != null) this.address = address.serialize();
     else                 this.address = null;
+
+    this.forceSync = forceSync;
+  }
+
+  @Override
+  public @NonNull String getCoalescingKey() {
+    if (address != null) return MultiDeviceContactUpdateJob.class.getSimpleName() + "::" + address;
+    else                 return MultiDeviceContactUpdateJob.class.getSimpleName() + "::all::" + forceSync;
   }
 
   @Override
@@ -97,21 +133,20 @@ public class MultiDeviceContactUpdateJob extends MasterSecretJob implements Inje
       Recipient                                 recipient       = Recipient.from(context, address, false);
       Optional<IdentityDatabase.IdentityRecord> identityRecord  = DatabaseFactory.getIdentityDatabase(context).getIdentity(address);
       Optional<VerifiedMessage>                 verifiedMessage = getVerifiedMessage(recipient, identityRecord);
+      Optional<CachedAvatar>                    avatar          = getAvatar(recipient.getContactUri());
+      Optional<String>                          name            = Optional.fromNullable(recipient.getName());
+      Optional<String>                          color           = Optional.of(recipient.getColor().serialize());
+      Optional<byte[]>                          profileKey      = Optional.fromNullable(recipient.getProfileKey());
+      boolean                                   blocked         = recipient.isBlocked();
+      Optional<Integer>                         expireTimer     = recipient.getExpireMessages() > 0 ? Optional.of(recipient.getExpireMessages()) : Optional.absent();
 
-      out.write(new DeviceContact(address.toPhoneString(),
-                                  Optional.fromNullable(recipient.getName()),
-                                  getAvatar(recipient.getContactUri()),
-                                  Optional.fromNullable(recipient.getColor().serialize()),
-                                  verifiedMessage,
-                                  Optional.fromNullable(recipient.getProfileKey()),
-                                  recipient.isBlocked(),
-                                  recipient.getExpireMessages() > 0 ?
-                                      Optional.of(recipient.getExpireMessages()) :
-                                      Optional.absent()));
+      writeContact(out, new DeviceContact(address.toPhoneString(), name, getAvatarStream(avatar), color, verifiedMessage, profileKey, blocked, expireTimer));
 
       out.close();
       sendUpdate(messageSender, contactDataFile, false);
 
+      DatabaseFactory.getRecipientDatabase(context)
+                     .setDeviceSyncDigests(Collections.singletonMap(address, getSyncDigest(name, avatar, color, identityRecord, profileKey, blocked, expireTimer)));
     } catch(InvalidNumberException e) {
       Log.w(TAG, e);
     } finally {
@@ -119,6 +154,10 @@ public class MultiDeviceContactUpdateJob extends MasterSecretJob implements Inje
     }
   }
 
+  /**
+   * Sends the contacts that changed since they were last synced, or every contact (replacing
+   * the linked devices' list) if it's been {@link #FULL_SYNC_INTERVAL} since that was last done.
+   */
   private void generateFullContactUpdate()
       throws IOException, UntrustedIdentityException, NetworkException
   {
@@ -126,7 +165,13 @@ public class MultiDeviceContactUpdateJob extends MasterSecretJob implements Inje
       Log.w(TAG, "No contact permissions, skipping multi-device contact update...");
       return;
     }
-    
+
+    RecipientDatabase    recipientDatabase = DatabaseFactory.getRecipientDatabase(context);
+    boolean              complete          = forceSync || System.currentTimeMillis() - TextSecurePreferences.getLastFullContactSyncTime(context) > FULL_SYNC_INTERVAL;
+    Map<Address, String> syncedDigests     = complete ? new HashMap<>() : recipientDatabase.getDeviceSyncDigests();
+    Map<Address, String> changedDigests    = new HashMap<>();
+    Set<String>          avatarHashes      = new HashSet<>();
+
     File contactDataFile = createTempFile("multidevice-contact-update");
 
     try {
@@ -138,26 +183,58 @@ public class MultiDeviceContactUpdateJob extends MasterSecretJob implements Inje
         Address                                   address     = Address.fromExternal(context, contactData.numbers.get(0).number);
         Recipient                                 recipient   = Recipient.from(context, address, false);
         Optional<IdentityDatabase.IdentityRecord> identity    = DatabaseFactory.getIdentityDatabase(context).getIdentity(address);
-        Optional<VerifiedMessage>                 verified    = getVerifiedMessage(recipient, identity);
+        Optional<CachedAvatar>                    avatar      = getAvatar(contactUri);
         Optional<String>                          name        = Optional.fromNullable(contactData.name);
         Optional<String>                          color       = Optional.of(recipient.getColor().serialize());
         Optional<byte[]>                          profileKey  = Optional.fromNullable(recipient.getProfileKey());
         boolean                                   blocked     = recipient.isBlocked();
         Optional<Integer>                         expireTimer = recipient.getExpireMessages() > 0 ? Optional.of(recipient.getExpireMessages()) : Optional.absent();
+        String                                    digest      = getSyncDigest(name, avatar, color, identity, profileKey, blocked, expireTimer);
 
-        out.write(new DeviceContact(address.toPhoneString(), name, getAvatar(contactUri), color, verified, profileKey, blocked, expireTimer));
+        if (avatar.isPresent()) {
+          avatarHashes.add(avatar.get().getHash());
+        }
+
+        if (digest.equals(syncedDigests.get(address))) {
+          continue;
+        }
+
+        Optional<VerifiedMessage> verified = getVerifiedMessage(recipient, identity);
+
+        writeContact(out, new DeviceContact(address.toPhoneString(), name, getAvatarStream(avatar), color, verified, profileKey, blocked, expireTimer));
+        changedDigests.put(address, digest);
       }
 
       if (ProfileKeyUtil.hasProfileKey(context)) {
-        out.write(new DeviceContact(TextSecurePreferences.getLocalNumber(context),
-                                    Optional.absent(), Optional.absent(),
-                                    Optional.absent(), Optional.absent(),
-                                    Optional.of(ProfileKeyUtil.getProfileKey(context)),
-                                    false, Optional.absent()));
+        Address          localAddress = Address.fromSerialized(TextSecurePreferences.getLocalNumber(context));
+        Optional<byte[]> profileKey   = Optional.of(ProfileKeyUtil.getProfileKey(context));
+        String           digest       = getSyncDigest(Optional.absent(), Optional.absent(), Optional.absent(), Optional.absent(), profileKey, false, Optional.absent());
+
+        if (!digest.equals(syncedDigests.get(localAddress))) {
+          out.write(new DeviceContact(TextSecurePreferences.getLocalNumber(context),
+                                      Optional.absent(), Optional.absent(),
+                                      Optional.absent(), Optional.absent(),
+                                      profileKey,
+                                      false, Optional.absent()));
+          changedDigests.put(localAddress, digest);
+        }
       }
 
       out.close();
-      sendUpdate(messageSender, contactDataFile, true);
+
+      Log.w(TAG, "Sending " + changedDigests.size() + " of " + contacts.size() + " contacts, complete: " + complete);
+
+      if (complete || !changedDigests.isEmpty()) {
+        sendUpdate(messageSender, contactDataFile, complete);
+      }
+
+      if (complete) recipientDatabase.replaceDeviceSyncDigests(changedDigests);
+      else          recipientDatabase.setDeviceSyncDigests(changedDigests);
+
+      if (complete) {
+        TextSecurePreferences.setLastFullContactSyncTime(context, System.currentTimeMillis());
+        SystemContactAvatarCache.getInstance().retainOnly(context, avatarHashes);
+      }
     } catch(InvalidNumberException e) {
       Log.w(TAG, e);
     } finally {
@@ -200,56 +277,71 @@ public class MultiDeviceContactUpdateJob extends MasterSecretJob implements Inje
     }
   }
 
-  private Optional<SignalServiceAttachmentStream> getAvatar(@Nullable Uri uri) throws IOException {
+  private void writeContact(DeviceContactsOutputStream out, DeviceContact contact) throws IOException {
+    try {
+      out.write(contact);
+    } finally {
+      if (contact.getAvatar().isPresent()) {
+        Util.close(contact.getAvatar().get().getInputStream());
+      }
+    }
+  }
+
+  private Optional<CachedAvatar> getAvatar(@Nullable Uri uri) {
     if (uri == null) {
       return Optional.absent();
     }
-    
-    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.ICE_CREAM_SANDWICH) {
-      try {
-        Uri                 displayPhotoUri = Uri.withAppendedPath(uri, ContactsContract.Contacts.Photo.DISPLAY_PHOTO);
-        AssetFileDescriptor fd              = context.getContentResolver().openAssetFileDescriptor(displayPhotoUri, "r");
-
-        return Optional.of(SignalServiceAttachment.newStreamBuilder()
-                                                  .withStream(fd.createInputStream())
-                                                  .withContentType("image/*")
-                                                  .withLength(fd.getLength())
-                                                  .build());
-      } catch (IOException e) {
-        Log.w(TAG, e);
-      }
-    }
 
-    Uri photoUri = Uri.withAppendedPath(uri, ContactsContract.Contacts.Photo.CONTENT_DIRECTORY);
+    return Optional.fromNullable(SystemContactAvatarCache.getInstance().get(context, uri));
+  }
 
-    if (photoUri == null) {
+  private Optional<SignalServiceAttachmentStream> getAvatarStream(Optional<CachedAvatar> avatar) throws IOException {
+    if (!avatar.isPresent()) {
       return Optional.absent();
     }
 
-    Cursor cursor = context.getContentResolver().query(photoUri,
-                                                       new String[] {
-                                                           ContactsContract.CommonDataKinds.Photo.PHOTO,
-                                                           ContactsContract.CommonDataKinds.Phone.MIMETYPE
-                                                       }, null, null, null);
+    File file = avatar.get().getFile();
 
+    return Optional.of(SignalServiceAttachment.newStreamBuilder()
+                                              .withStream(new FileInputStream(file))
+                                              .withContentType("image/*")
+                                              .withLength(file.length())
+                                              .build());
+  }
+
+  /**
+   * A digest of everything a linked device is sent about a contact, used to tell whether it
+   * needs to be sent again.
+   */
+  private String getSyncDigest(Optional<String> name, Optional<CachedAvatar> avatar, Optional<String> color,
+                               Optional<IdentityDatabase.IdentityRecord> identity, Optional<byte[]> profileKey,
+                               boolean blocked, Optional<Integer> expireTimer)
+  {
     try {
-      if (cursor != null && cursor.moveToNext()) {
-        byte[] data = cursor.getBlob(0);
-
-        if (data != null) {
-          return Optional.of(SignalServiceAttachment.newStreamBuilder()
-                                                    .withStream(new ByteArrayInputStream(data))
-                                                    .withContentType("image/*")
-                                                    .withLength(data.length)
-                                                    .build());
-        }
-      }
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+
+      updateDigest(digest, name.isPresent() ? name.get().getBytes() : null);
+      updateDigest(digest, avatar.isPresent() ? avatar.get().getHash().getBytes() : null);
+      updateDigest(digest, color.isPresent() ? color.get().getBytes() : null);
+      updateDigest(digest, identity.isPresent() ? identity.get().getIdentityKey().serialize() : null);
+      updateDigest(digest, identity.isPresent() ? identity.get().getVerifiedStatus().name().getBytes() : null);
+      updateDigest(digest, profileKey.orNull());
+      updateDigest(digest, String.valueOf(blocked).getBytes());
+      updateDigest(digest, expireTimer.isPresent() ? String.valueOf(expireTimer.get()).getBytes() : null);
+
+      return Hex.toStringCondensed(digest.digest());
+    } catch (NoSuchAlgorithmException e) {
+      throw new AssertionError(e);
+    }
+  }
 
-      return Optional.absent();
-    } finally {
-      if (cursor != null) {
-        cursor.close();
-      }
+  private void updateDigest(MessageDigest digest, @Nullable byte[] value) {
+    if (value == null) {
+      digest.update((byte)0);
+    } else {
+      digest.update((byte)1);
+      digest.update(Conversions.intToByteArray(value.length));
+      digest.update(value);
     }
   }
 
@@ -1,6 +1,7 @@
 package org.thoughtcrime.securesms.jobs;
 
 import android.content.Context;
+import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.util.Log;
 
@@ -9,6 +10,7 @@ import org.thoughtcrime.securesms.database.Address;
 import org.thoughtcrime.securesms.database.DatabaseFactory;
 import org.thoughtcrime.securesms.database.GroupDatabase;
 import org.thoughtcrime.securesms.dependencies.InjectableType;
+import org.thoughtcrime.securesms.jobmanager.CoalescingJob;
 import org.thoughtcrime.securesms.jobs.requirements.MasterSecretRequirement;
 import org.thoughtcrime.securesms.recipients.Recipient;
 import org.thoughtcrime.securesms.util.GroupUtil;
@@ -34,7 +36,7 @@ import java.util.List;
 
 import javax.inject.Inject;
 
-public class MultiDeviceGroupUpdateJob extends MasterSecretJob implements InjectableType {
+public class MultiDeviceGroupUpdateJob extends MasterSecretJob implements InjectableType, CoalescingJob {
 
   private static final long serialVersionUID = 1L;
   private static final String TAG = MultiDeviceGroupUpdateJob.class.getSimpleName();
@@ -50,6 +52,11 @@ public class MultiDeviceGroupUpdateJob extends MasterSecretJob implements Inject
                                 .create());
   }
 
+  @Override
+  public @NonNull String getCoalescingKey() {
+    return MultiDeviceGroupUpdateJob.class.getSimpleName();
+  }
+
   @Override
   public void onRun(MasterSecret masterSecret) throws Exception {
     File                 contactDataFile = createTempFile("multidevice-contact-update");
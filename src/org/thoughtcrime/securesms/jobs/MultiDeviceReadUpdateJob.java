@@ -1,13 +1,16 @@
 package org.thoughtcrime.securesms.jobs;
 
 import android.content.Context;
+import android.support.annotation.NonNull;
 import android.util.Log;
 
 import org.thoughtcrime.securesms.crypto.MasterSecret;
 import org.thoughtcrime.securesms.database.MessagingDatabase.SyncMessageId;
 import org.thoughtcrime.securesms.dependencies.InjectableType;
+import org.thoughtcrime.securesms.jobmanager.MergingJob;
 import org.thoughtcrime.securesms.jobs.requirements.MasterSecretRequirement;
 import org.thoughtcrime.securesms.util.TextSecurePreferences;
+import org.whispersystems.jobqueue.Job;
 import org.whispersystems.jobqueue.JobParameters;
 import org.whispersystems.jobqueue.requirements.NetworkRequirement;
 import org.whispersystems.signalservice.api.SignalServiceMessageSender;
@@ -20,14 +23,21 @@ import java.io.IOException;
 import java.io.Serializable;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import javax.inject.Inject;
 
-public class MultiDeviceReadUpdateJob extends MasterSecretJob implements InjectableType {
+public class MultiDeviceReadUpdateJob extends MasterSecretJob implements InjectableType, MergingJob {
 
   private static final long serialVersionUID = 1L;
   private static final String TAG = MultiDeviceReadUpdateJob.class.getSimpleName();
 
+  /**
+   * How long a read update waits before it's sent, so that messages read shortly after
+   * one another are synced in one message.
+   */
+  public static final long BATCH_WINDOW_MILLIS = TimeUnit.SECONDS.toMillis(3);
+
   private final List<SerializableSyncMessageId> messageIds;
 
   @Inject transient SignalServiceMessageSender messageSender;
@@ -47,6 +57,16 @@ public class MultiDeviceReadUpdateJob extends MasterSecretJob implements Injecta
   }
 
 
+  @Override
+  public @NonNull String getCoalescingKey() {
+    return MultiDeviceReadUpdateJob.class.getSimpleName();
+  }
+
+  @Override
+  public void merge(@NonNull Job job) {
+    messageIds.addAll(((MultiDeviceReadUpdateJob)job).messageIds);
+  }
+
   @Override
   public void onRun(MasterSecret masterSecret) throws IOException, UntrustedIdentityException {
     if (!TextSecurePreferences.isMultiDevice(context)) {
@@ -15,6 +15,7 @@ import org.thoughtcrime.securesms.ApplicationContext;
 import org.thoughtcrime.securesms.ConversationListActivity;
 import org.thoughtcrime.securesms.R;
 import org.thoughtcrime.securesms.attachments.Attachment;
+import org.thoughtcrime.securesms.attachments.AttachmentDownloadScheduler;
 import org.thoughtcrime.securesms.attachments.DatabaseAttachment;
 import org.thoughtcrime.securesms.attachments.PointerAttachment;
 import org.thoughtcrime.securesms.crypto.IdentityKeyUtil;
@@ -93,8 +94,10 @@ import org.whispersystems.signalservice.api.messages.multidevice.VerifiedMessage
 import org.whispersystems.signalservice.api.push.SignalServiceAddress;
 
 import java.security.MessageDigest;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
 public class PushDecryptJob extends ContextJob {
@@ -103,14 +106,33 @@ public class PushDecryptJob extends ContextJob {
 
   public static final String TAG = PushDecryptJob.class.getSimpleName();
 
-  private final long messageId;
-  private final long smsMessageId;
+  private static final int BATCH_SIZE = 50;
+
+  private final long    messageId;
+  private final long    smsMessageId;
+  private final boolean batch;
+
+  private transient Set<Long> notificationThreads;
+  private transient boolean   notificationAllThreads;
+  private transient boolean   refreshPreKeys;
 
   public PushDecryptJob(Context context, long pushMessageId) {
     this(context, pushMessageId, -1);
   }
 
   public PushDecryptJob(Context context, long pushMessageId, long smsMessageId) {
+    this(context, pushMessageId, smsMessageId, false);
+  }
+
+  /**
+   * @param batch if true, the job also decrypts the batched envelopes received after this
+   *              one, and the jobs for those envelopes find nothing left to do.
+   */
+  public PushDecryptJob(Context context, long pushMessageId, boolean batch) {
+    this(context, pushMessageId, -1, batch);
+  }
+
+  private PushDecryptJob(Context context, long pushMessageId, long smsMessageId, boolean batch) {
     super(context, JobParameters.newBuilder()
                                 .withPersistence()
                                 .withGroupId("__PUSH_DECRYPT_JOB__")
@@ -118,6 +140,7 @@ public class PushDecryptJob extends ContextJob {
                                 .create());
     this.messageId    = pushMessageId;
     this.smsMessageId = smsMessageId;
+    this.batch        = batch;
   }
 
   @Override
@@ -145,12 +168,16 @@ public class PushDecryptJob extends ContextJob {
       return;
     }
 
-    PushDatabase          database             = DatabaseFactory.getPushDatabase(context);
-    SignalServiceEnvelope envelope             = database.get(messageId);
-    Optional<Long>        optionalSmsMessageId = smsMessageId > 0 ? Optional.of(smsMessageId) : Optional.absent();
+    if (batch) {
+      handleBatch();
+    } else {
+      PushDatabase          database             = DatabaseFactory.getPushDatabase(context);
+      SignalServiceEnvelope envelope             = database.get(messageId);
+      Optional<Long>        optionalSmsMessageId = smsMessageId > 0 ? Optional.of(smsMessageId) : Optional.absent();
 
-    handleMessage(envelope, optionalSmsMessageId);
-    database.delete(messageId);
+      handleMessage(envelope, optionalSmsMessageId, createCipher());
+      database.delete(messageId);
+    }
   }
 
   @Override
@@ -163,12 +190,101 @@ public class PushDecryptJob extends ContextJob {
 
   }
 
-  private void handleMessage(SignalServiceEnvelope envelope, Optional<Long> smsMessageId) {
+  /**
+   * Drains batched envelopes in the order they were received, starting with this job's own.
+   * Each chunk is decrypted with one protocol store. Sessions live outside the database and
+   * advance as soon as an envelope is decrypted, so every envelope's messages and the deletion
+   * of its row are committed on their own, before the next envelope is decrypted. Notifications
+   * and prekey refreshes are deferred until the whole batch has been handled.
+   */
+  private void handleBatch() {
+    PushDatabase        database = DatabaseFactory.getPushDatabase(context);
+    SignalServiceCipher cipher   = createCipher();
+    long                fromId   = messageId;
+    int                 count    = 0;
+    long                start    = System.currentTimeMillis();
+
+    notificationThreads    = new HashSet<>();
+    notificationAllThreads = false;
+    refreshPreKeys         = false;
+
+    try {
+      while (true) {
+        List<Pair<Long, SignalServiceEnvelope>> envelopes = getPendingBatch(database, fromId);
+
+        if (envelopes.isEmpty()) break;
+
+        for (Pair<Long, SignalServiceEnvelope> envelope : envelopes) {
+          database.beginTransaction();
+
+          try {
+            handleMessage(envelope.second, Optional.absent(), cipher);
+            database.delete(envelope.first);
+            database.setTransactionSuccessful();
+          } finally {
+            database.endTransaction();
+          }
+
+          count++;
+        }
+
+        if (envelopes.size() < BATCH_SIZE) break;
+
+        fromId = envelopes.get(envelopes.size() - 1).first + 1;
+      }
+    } finally {
+      if (count > 0) {
+        Log.w(TAG, "Decrypted batch of " + count + " envelopes in " + (System.currentTimeMillis() - start) + "ms");
+      }
+
+      if (!notificationThreads.isEmpty()) MessageNotifier.updateNotification(context, notificationThreads);
+      if (notificationAllThreads)         MessageNotifier.updateNotification(context);
+
+      if (refreshPreKeys) {
+        ApplicationContext.getInstance(context).getJobManager().add(new RefreshPreKeysJob(context));
+      }
+
+      notificationThreads = null;
+    }
+  }
+
+  private List<Pair<Long, SignalServiceEnvelope>> getPendingBatch(PushDatabase database, long fromId) {
+    List<Pair<Long, SignalServiceEnvelope>> envelopes = new LinkedList<>();
+    PushDatabase.Reader                     reader    = database.readerFor(database.getPendingBatch(fromId, BATCH_SIZE));
+
     try {
-      GroupDatabase        groupDatabase = DatabaseFactory.getGroupDatabase(context);
-      SignalProtocolStore  axolotlStore  = new SignalProtocolStoreImpl(context);
-      SignalServiceAddress localAddress  = new SignalServiceAddress(TextSecurePreferences.getLocalNumber(context));
-      SignalServiceCipher  cipher        = new SignalServiceCipher(localAddress, axolotlStore);
+      SignalServiceEnvelope envelope;
+
+      while ((envelope = reader.getNext()) != null) {
+        envelopes.add(new Pair<>(reader.getCurrentId(), envelope));
+      }
+    } finally {
+      reader.close();
+    }
+
+    return envelopes;
+  }
+
+  private SignalServiceCipher createCipher() {
+    SignalProtocolStore  axolotlStore = new SignalProtocolStoreImpl(context);
+    SignalServiceAddress localAddress = new SignalServiceAddress(TextSecurePreferences.getLocalNumber(context));
+
+    return new SignalServiceCipher(localAddress, axolotlStore);
+  }
+
+  private void updateNotification(long threadId) {
+    if (notificationThreads != null) notificationThreads.add(threadId);
+    else                             MessageNotifier.updateNotification(context, threadId);
+  }
+
+  private void updateNotification() {
+    if (notificationThreads != null) notificationAllThreads = true;
+    else                             MessageNotifier.updateNotification(context);
+  }
+
+  private void handleMessage(SignalServiceEnvelope envelope, Optional<Long> smsMessageId, SignalServiceCipher cipher) {
+    try {
+      GroupDatabase groupDatabase = DatabaseFactory.getGroupDatabase(context);
 
       SignalServiceContent content = cipher.decrypt(envelope);
 
@@ -215,7 +331,8 @@ public class PushDecryptJob extends ContextJob {
       }
 
       if (envelope.isPreKeySignalMessage()) {
-        ApplicationContext.getInstance(context).getJobManager().add(new RefreshPreKeysJob(context));
+        if (batch) refreshPreKeys = true;
+        else       ApplicationContext.getInstance(context).getJobManager().add(new RefreshPreKeysJob(context));
       }
     } catch (InvalidVersionException e) {
       Log.w(TAG, e);
@@ -346,7 +463,7 @@ public class PushDecryptJob extends ContextJob {
       sessionStore.deleteAllSessions(envelope.getSource());
 
       SecurityEvent.broadcastSecurityUpdateEvent(context);
-      MessageNotifier.updateNotification(context, threadId);
+      updateNotification(threadId);
     }
   }
 
@@ -460,7 +577,7 @@ public class PushDecryptJob extends ContextJob {
 
     if (threadId != null) {
       DatabaseFactory.getThreadDatabase(getContext()).setRead(threadId, true);
-      MessageNotifier.updateNotification(getContext());
+      updateNotification();
     }
 
     MessageNotifier.setLastDesktopActivityTimestamp(message.getTimestamp());
@@ -471,7 +588,7 @@ public class PushDecryptJob extends ContextJob {
     if (message.isContactsRequest()) {
       ApplicationContext.getInstance(context)
                         .getJobManager()
-                        .add(new MultiDeviceContactUpdateJob(getContext()));
+                        .add(new MultiDeviceContactUpdateJob(getContext(), true));
     }
 
     if (message.isGroupsRequest()) {
@@ -514,7 +631,7 @@ public class PushDecryptJob extends ContextJob {
 
     MessageNotifier.setLastDesktopActivityTimestamp(envelopeTimestamp);
     MessageNotifier.cancelDelayedNotifications();
-    MessageNotifier.updateNotification(context);
+    updateNotification();
   }
 
   private void handleMediaMessage(@NonNull SignalServiceEnvelope envelope,
@@ -544,16 +661,14 @@ public class PushDecryptJob extends ContextJob {
       List<DatabaseAttachment> attachments = DatabaseFactory.getAttachmentDatabase(context).getAttachmentsForMessage(insertResult.get().getMessageId());
 
       for (DatabaseAttachment attachment : attachments) {
-        ApplicationContext.getInstance(context)
-                          .getJobManager()
-                          .add(new AttachmentDownloadJob(context, insertResult.get().getMessageId(), attachment.getAttachmentId(), false));
+        AttachmentDownloadScheduler.getInstance(context).schedule(insertResult.get().getMessageId(), attachment.getAttachmentId(), false);
       }
 
       if (smsMessageId.isPresent()) {
         DatabaseFactory.getSmsDatabase(context).deleteMessage(smsMessageId.get());
       }
 
-      MessageNotifier.updateNotification(context, insertResult.get().getThreadId());
+      updateNotification(insertResult.get().getThreadId());
     }
   }
 
@@ -601,9 +716,7 @@ public class PushDecryptJob extends ContextJob {
     database.markAsSent(messageId, true);
 
     for (DatabaseAttachment attachment : DatabaseFactory.getAttachmentDatabase(context).getAttachmentsForMessage(messageId)) {
-      ApplicationContext.getInstance(context)
-                        .getJobManager()
-                        .add(new AttachmentDownloadJob(context, messageId, attachment.getAttachmentId(), false));
+      AttachmentDownloadScheduler.getInstance(context).schedule(messageId, attachment.getAttachmentId(), false);
     }
 
     if (message.getMessage().getExpiresInSeconds() > 0) {
@@ -652,7 +765,7 @@ public class PushDecryptJob extends ContextJob {
     }
 
     if (threadId != null) {
-      MessageNotifier.updateNotification(context, threadId);
+      updateNotification(threadId);
     }
   }
 
@@ -708,7 +821,7 @@ public class PushDecryptJob extends ContextJob {
 
       if (insertResult.isPresent()) {
         smsDatabase.markAsInvalidVersionKeyExchange(insertResult.get().getMessageId());
-        MessageNotifier.updateNotification(context, insertResult.get().getThreadId());
+        updateNotification(insertResult.get().getThreadId());
       }
     } else {
       smsDatabase.markAsInvalidVersionKeyExchange(smsMessageId.get());
@@ -725,7 +838,7 @@ public class PushDecryptJob extends ContextJob {
 
       if (insertResult.isPresent()) {
         smsDatabase.markAsDecryptFailed(insertResult.get().getMessageId());
-        MessageNotifier.updateNotification(context, insertResult.get().getThreadId());
+        updateNotification(insertResult.get().getThreadId());
       }
     } else {
       smsDatabase.markAsDecryptFailed(smsMessageId.get());
@@ -742,7 +855,7 @@ public class PushDecryptJob extends ContextJob {
 
       if (insertResult.isPresent()) {
         smsDatabase.markAsNoSession(insertResult.get().getMessageId());
-        MessageNotifier.updateNotification(context, insertResult.get().getThreadId());
+        updateNotification(insertResult.get().getThreadId());
       }
     } else {
       smsDatabase.markAsNoSession(smsMessageId.get());
@@ -759,7 +872,7 @@ public class PushDecryptJob extends ContextJob {
 
       if (insertResult.isPresent()) {
         smsDatabase.markAsLegacyVersion(insertResult.get().getMessageId());
-        MessageNotifier.updateNotification(context, insertResult.get().getThreadId());
+        updateNotification(insertResult.get().getThreadId());
       }
     } else {
       smsDatabase.markAsLegacyVersion(smsMessageId.get());
@@ -804,7 +917,7 @@ public class PushDecryptJob extends ContextJob {
 
         if (insertResult.isPresent()) {
           database.setMismatchedIdentity(insertResult.get().getMessageId(), sourceAddress, identityKey);
-          MessageNotifier.updateNotification(context, insertResult.get().getThreadId());
+          updateNotification(insertResult.get().getThreadId());
         }
       } else {
         database.updateMessageBody(smsMessageId.get(), encoded);
@@ -9,8 +9,8 @@ import org.thoughtcrime.securesms.database.Address;
 import org.thoughtcrime.securesms.database.DatabaseFactory;
 import org.thoughtcrime.securesms.database.MessagingDatabase.SyncMessageId;
 import org.thoughtcrime.securesms.database.RecipientDatabase;
+import org.thoughtcrime.securesms.jobmanager.JobManager;
 import org.thoughtcrime.securesms.recipients.Recipient;
-import org.whispersystems.jobqueue.JobManager;
 import org.whispersystems.jobqueue.JobParameters;
 import org.whispersystems.signalservice.api.messages.SignalServiceEnvelope;
 
@@ -28,7 +28,7 @@ public abstract class PushReceivedJob extends ContextJob {
 
     if (!isActiveNumber(recipient)) {
       DatabaseFactory.getRecipientDatabase(context).setRegistered(recipient, RecipientDatabase.RegisteredState.REGISTERED);
-      ApplicationContext.getInstance(context).getJobManager().add(new DirectoryRefreshJob(context, recipient, false));
+      ApplicationContext.getInstance(context).getJobManager().add(new DirectoryRefreshJob(context, recipient, false), DirectoryRefreshJob.RECIPIENT_BATCH_WINDOW_MILLIS);
     }
 
     if (envelope.isReceipt()) {
@@ -45,8 +45,8 @@ public abstract class PushReceivedJob extends ContextJob {
     JobManager jobManager = ApplicationContext.getInstance(context).getJobManager();
 
     if (!recipients.isBlocked()) {
-      long messageId = DatabaseFactory.getPushDatabase(context).insert(envelope);
-      jobManager.add(new PushDecryptJob(context, messageId));
+      long messageId = DatabaseFactory.getPushDatabase(context).insert(envelope, true);
+      jobManager.add(new PushDecryptJob(context, messageId, true));
     } else {
       Log.w(TAG, "*** Received blocked push message, ignoring...");
     }
@@ -1,9 +1,11 @@
 package org.thoughtcrime.securesms.jobs;
 
 import android.content.Context;
+import android.support.annotation.NonNull;
 import android.util.Log;
 
 import org.thoughtcrime.securesms.dependencies.InjectableType;
+import org.thoughtcrime.securesms.jobmanager.CoalescingJob;
 import org.thoughtcrime.securesms.util.TextSecurePreferences;
 import org.whispersystems.jobqueue.JobParameters;
 import org.whispersystems.jobqueue.requirements.NetworkRequirement;
@@ -15,7 +17,7 @@ import java.util.concurrent.TimeUnit;
 
 import javax.inject.Inject;
 
-public class RefreshAttributesJob extends ContextJob implements InjectableType {
+public class RefreshAttributesJob extends ContextJob implements InjectableType, CoalescingJob {
 
   public static final long serialVersionUID = 1L;
 
@@ -32,6 +34,11 @@ public class RefreshAttributesJob extends ContextJob implements InjectableType {
                                 .create());
   }
 
+  @Override
+  public @NonNull String getCoalescingKey() {
+    return RefreshAttributesJob.class.getSimpleName();
+  }
+
   @Override
   public void onAdded() {}
 
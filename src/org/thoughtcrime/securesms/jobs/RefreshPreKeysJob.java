@@ -20,6 +20,7 @@ import org.whispersystems.signalservice.api.push.exceptions.NonSuccessfulRespons
 import org.whispersystems.signalservice.api.push.exceptions.PushNetworkException;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.List;
 
 import javax.inject.Inject;
@@ -77,6 +78,7 @@ public class RefreshPreKeysJob extends MasterSecretJob implements InjectableType
   public boolean onShouldRetryThrowable(Exception exception) {
     if (exception instanceof NonSuccessfulResponseCodeException) return false;
     if (exception instanceof PushNetworkException)               return true;
+    if (exception instanceof InterruptedIOException)             return true;
 
     return false;
   }
@@ -15,17 +15,31 @@ import org.thoughtcrime.securesms.mms.MmsException;
 import org.thoughtcrime.securesms.transport.UndeliverableMessageException;
 import org.thoughtcrime.securesms.util.MediaUtil;
 import org.thoughtcrime.securesms.util.Util;
+import org.thoughtcrime.securesms.util.concurrent.WindowedTaskQueue;
 import org.whispersystems.jobqueue.JobParameters;
+import org.whispersystems.libsignal.util.guava.Optional;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 public abstract class SendJob extends MasterSecretJob {
 
   @SuppressWarnings("unused")
   private final static String TAG = SendJob.class.getSimpleName();
 
+  private static final int RESIZE_THREADS = 2;
+  private static final int RESIZE_WINDOW  = RESIZE_THREADS;
+
+  private static final ExecutorService RESIZE_EXECUTOR = newResizeExecutor();
+
   public SendJob(Context context, JobParameters parameters) {
     super(context, parameters);
   }
@@ -41,6 +55,15 @@ public abstract class SendJob extends MasterSecretJob {
     onSend(masterSecret);
   }
 
+  private static ExecutorService newResizeExecutor() {
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(RESIZE_THREADS, RESIZE_THREADS, 30, TimeUnit.SECONDS,
+                                                         new LinkedBlockingQueue<>(),
+                                                         runnable -> new Thread(runnable, "AttachmentResizer"));
+    executor.allowCoreThreadTimeOut(true);
+
+    return executor;
+  }
+
   protected abstract void onSend(MasterSecret masterSecret) throws Exception;
 
   protected void markAttachmentsUploaded(long messageId, @NonNull List<Attachment> attachments) {
@@ -51,33 +74,60 @@ public abstract class SendJob extends MasterSecretJob {
     }
   }
 
+  /**
+   * Resizes the attachments that need it on a small worker pool, so the images of a message
+   * with many attachments are encoded in parallel. The results are stored in their original order,
+   * and only {@link #RESIZE_WINDOW} resizes are in flight at a time, so their output doesn't pile
+   * up in memory.
+   */
   protected List<Attachment> scaleAndStripExifFromAttachments(@NonNull MediaConstraints constraints,
                                                               @NonNull List<Attachment> attachments)
       throws UndeliverableMessageException
   {
-    AttachmentDatabase attachmentDatabase = DatabaseFactory.getAttachmentDatabase(context);
-    List<Attachment>   results            = new LinkedList<>();
+    AttachmentDatabase                    attachmentDatabase = DatabaseFactory.getAttachmentDatabase(context);
+    List<Callable<Optional<MediaStream>>> tasks              = new ArrayList<>(attachments.size());
+    List<Attachment>                      results            = new LinkedList<>();
 
     for (Attachment attachment : attachments) {
-      try {
-        if (constraints.isSatisfied(context, attachment)) {
-          if (MediaUtil.isJpeg(attachment)) {
-            MediaStream stripped = constraints.getResizedMedia(context, attachment);
-            results.add(attachmentDatabase.updateAttachmentData(attachment, stripped));
-          } else {
-            results.add(attachment);
-          }
-        } else if (constraints.canResize(attachment)) {
-          MediaStream resized = constraints.getResizedMedia(context, attachment);
-          results.add(attachmentDatabase.updateAttachmentData(attachment, resized));
-        } else {
-          throw new UndeliverableMessageException("Size constraints could not be met!");
-        }
-      } catch (IOException | MmsException e) {
-        throw new UndeliverableMessageException(e);
+      tasks.add(() -> getResizedMedia(constraints, attachment));
+    }
+
+    WindowedTaskQueue<Optional<MediaStream>> resizes = new WindowedTaskQueue<>(RESIZE_EXECUTOR, tasks, RESIZE_WINDOW);
+
+    try {
+      for (int i = 0; i < attachments.size(); i++) {
+        Attachment            attachment = attachments.get(i);
+        Optional<MediaStream> resized    = resizes.next();
+
+        if (resized.isPresent()) results.add(attachmentDatabase.updateAttachmentData(attachment, resized.get()));
+        else                     results.add(attachment);
       }
+    } catch (ExecutionException e) {
+      if      (e.getCause() instanceof UndeliverableMessageException) throw (UndeliverableMessageException)e.getCause();
+      else if (e.getCause() instanceof RuntimeException)              throw (RuntimeException)e.getCause();
+      else                                                            throw new UndeliverableMessageException(e.getCause());
+    } catch (MmsException e) {
+      throw new UndeliverableMessageException(e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new UndeliverableMessageException(e);
+    } finally {
+      resizes.cancel();
     }
 
     return results;
   }
+
+  private Optional<MediaStream> getResizedMedia(@NonNull MediaConstraints constraints, @NonNull Attachment attachment)
+      throws UndeliverableMessageException, IOException
+  {
+    if (constraints.isSatisfied(context, attachment)) {
+      if (MediaUtil.isJpeg(attachment)) return Optional.of(constraints.getResizedMedia(context, attachment));
+      else                              return Optional.absent();
+    } else if (constraints.canResize(attachment)) {
+      return Optional.of(constraints.getResizedMedia(context, attachment));
+    } else {
+      throw new UndeliverableMessageException("Size constraints could not be met!");
+    }
+  }
 }
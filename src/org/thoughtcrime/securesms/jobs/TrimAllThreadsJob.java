@@ -0,0 +1,49 @@
+package org.thoughtcrime.securesms.jobs;
+
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import org.thoughtcrime.securesms.database.DatabaseFactory;
+import org.thoughtcrime.securesms.database.ThreadDatabase.RetentionPolicy;
+import org.whispersystems.jobqueue.JobParameters;
+
+/**
+ * Applies the retention policy to every thread, for the message age limit. It shares a group
+ * with {@link TrimThreadJob}, so it never trims a thread at the same time as one of those.
+ */
+public class TrimAllThreadsJob extends ContextJob {
+
+  private static final String TAG = TrimAllThreadsJob.class.getSimpleName();
+
+  public TrimAllThreadsJob(@NonNull Context context) {
+    super(context, JobParameters.newBuilder().withGroupId(TrimThreadJob.class.getSimpleName()).create());
+  }
+
+  @Override
+  public void onAdded() {}
+
+  @Override
+  public void onRun() {
+    RetentionPolicy policy = RetentionPolicy.fromPreferences(context);
+
+    if (policy.getMaxAge() <= 0) {
+      return;
+    }
+
+    long startMillis = System.currentTimeMillis();
+    DatabaseFactory.getThreadDatabase(context).trimAllThreads(policy, null);
+    Log.w(TAG, "Trimmed all threads in " + (System.currentTimeMillis() - startMillis) + "ms");
+  }
+
+  @Override
+  public boolean onShouldRetry(Exception exception) {
+    return false;
+  }
+
+  @Override
+  public void onCanceled() {
+    Log.w(TAG, "Canceling trim of all threads");
+  }
+}
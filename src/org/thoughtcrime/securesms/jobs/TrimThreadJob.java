@@ -20,7 +20,7 @@ import android.content.Context;
 import android.util.Log;
 
 import org.thoughtcrime.securesms.database.DatabaseFactory;
-import org.thoughtcrime.securesms.util.TextSecurePreferences;
+import org.thoughtcrime.securesms.database.ThreadDatabase.RetentionPolicy;
 import org.whispersystems.jobqueue.Job;
 import org.whispersystems.jobqueue.JobParameters;
 
@@ -44,13 +44,12 @@ public class TrimThreadJob extends Job {
 
   @Override
   public void onRun() {
-    boolean trimmingEnabled   = TextSecurePreferences.isThreadLengthTrimmingEnabled(context);
-    int     threadLengthLimit = TextSecurePreferences.getThreadTrimLength(context);
+    RetentionPolicy policy = RetentionPolicy.fromPreferences(context);
 
-    if (!trimmingEnabled)
+    if (!policy.isEnabled())
       return;
 
-    DatabaseFactory.getThreadDatabase(context).trimThread(threadId, threadLengthLimit);
+    DatabaseFactory.getThreadDatabase(context).trimThread(threadId, policy);
   }
 
   @Override
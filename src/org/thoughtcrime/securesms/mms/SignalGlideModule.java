@@ -20,6 +20,7 @@ import com.bumptech.glide.load.resource.gif.GifDrawable;
 import com.bumptech.glide.load.resource.gif.StreamGifDecoder;
 import com.bumptech.glide.module.AppGlideModule;
 
+import org.thoughtcrime.securesms.R;
 import org.thoughtcrime.securesms.contacts.avatars.ContactPhoto;
 import org.thoughtcrime.securesms.crypto.AttachmentSecret;
 import org.thoughtcrime.securesms.crypto.AttachmentSecretProvider;
@@ -30,10 +31,12 @@ import org.thoughtcrime.securesms.glide.cache.EncryptedCacheEncoder;
 import org.thoughtcrime.securesms.glide.cache.EncryptedGifCacheDecoder;
 import org.thoughtcrime.securesms.glide.cache.EncryptedBitmapResourceEncoder;
 import org.thoughtcrime.securesms.glide.cache.EncryptedGifDrawableResourceEncoder;
+import org.thoughtcrime.securesms.glide.cache.MeteredDiskCacheFactory;
 import org.thoughtcrime.securesms.glide.GiphyPaddedUrlLoader;
 import org.thoughtcrime.securesms.glide.OkHttpUrlLoader;
 import org.thoughtcrime.securesms.mms.AttachmentStreamUriLoader.AttachmentModel;
 import org.thoughtcrime.securesms.mms.DecryptableStreamUriLoader.DecryptableUri;
+import org.thoughtcrime.securesms.util.Util;
 
 import java.io.File;
 import java.io.InputStream;
@@ -48,8 +51,11 @@ public class SignalGlideModule extends AppGlideModule {
 
   @Override
   public void applyOptions(Context context, GlideBuilder builder) {
+    int diskCacheSizeMb = context.getResources().getInteger(Util.isLowMemory(context) ? R.integer.glide_disk_cache_size_lowmem_mb
+                                                                                      : R.integer.glide_disk_cache_size_mb);
+
     builder.setLogLevel(Log.ERROR);
-//    builder.setDiskCache(new NoopDiskCacheFactory());
+    builder.setDiskCache(new MeteredDiskCacheFactory(context, diskCacheSizeMb * 1024L * 1024L));
   }
 
   @Override
@@ -59,11 +65,11 @@ public class SignalGlideModule extends AppGlideModule {
 
     registry.prepend(File.class, File.class, UnitModelLoader.Factory.getInstance());
     registry.prepend(InputStream.class, new EncryptedCacheEncoder(secret, glide.getArrayPool()));
-    registry.prepend(File.class, Bitmap.class, new EncryptedBitmapCacheDecoder(secret, new StreamBitmapDecoder(new Downsampler(registry.getImageHeaderParsers(), context.getResources().getDisplayMetrics(), glide.getBitmapPool(), glide.getArrayPool()), glide.getArrayPool())));
-    registry.prepend(File.class, GifDrawable.class, new EncryptedGifCacheDecoder(secret, new StreamGifDecoder(registry.getImageHeaderParsers(), new ByteBufferGifDecoder(context, registry.getImageHeaderParsers(), glide.getBitmapPool(), glide.getArrayPool()), glide.getArrayPool())));
+    registry.prepend(File.class, Bitmap.class, new EncryptedBitmapCacheDecoder(secret, new StreamBitmapDecoder(new Downsampler(registry.getImageHeaderParsers(), context.getResources().getDisplayMetrics(), glide.getBitmapPool(), glide.getArrayPool()), glide.getArrayPool()), glide.getArrayPool()));
+    registry.prepend(File.class, GifDrawable.class, new EncryptedGifCacheDecoder(secret, new StreamGifDecoder(registry.getImageHeaderParsers(), new ByteBufferGifDecoder(context, registry.getImageHeaderParsers(), glide.getBitmapPool(), glide.getArrayPool()), glide.getArrayPool()), glide.getArrayPool()));
 
-    registry.prepend(Bitmap.class, new EncryptedBitmapResourceEncoder(secret));
-    registry.prepend(GifDrawable.class, new EncryptedGifDrawableResourceEncoder(secret));
+    registry.prepend(Bitmap.class, new EncryptedBitmapResourceEncoder(secret, glide.getArrayPool()));
+    registry.prepend(GifDrawable.class, new EncryptedGifDrawableResourceEncoder(secret, glide.getArrayPool()));
 
     registry.append(ContactPhoto.class, InputStream.class, new ContactPhotoLoader.Factory(context));
     registry.append(DecryptableUri.class, InputStream.class, new DecryptableStreamUriLoader.Factory(context));
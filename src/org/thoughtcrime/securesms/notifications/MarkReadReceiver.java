@@ -77,7 +77,7 @@ public class MarkReadReceiver extends BroadcastReceiver {
 
     ApplicationContext.getInstance(context)
                       .getJobManager()
-                      .add(new MultiDeviceReadUpdateJob(context, syncMessageIds));
+                      .add(new MultiDeviceReadUpdateJob(context, syncMessageIds), MultiDeviceReadUpdateJob.BATCH_WINDOW_MILLIS);
 
     Map<Address, List<SyncMessageId>> addressMap = Stream.of(markedReadMessages)
                                                          .map(MarkedMessageInfo::getSyncMessageId)
@@ -55,6 +55,7 @@ import org.thoughtcrime.securesms.util.TextSecurePreferences;
 import org.thoughtcrime.securesms.webrtc.CallNotificationBuilder;
 import org.whispersystems.signalservice.internal.util.Util;
 
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.ListIterator;
@@ -191,12 +192,22 @@ public class MessageNotifier {
   }
 
   public static void updateNotification(@NonNull Context context, long threadId)
+  {
+    updateNotification(context, Collections.singleton(threadId));
+  }
+
+  /**
+   * Updates notifications once for messages that arrived in several threads, e.g. after a
+   * batch of queued messages has been decrypted. Each thread is handled as it would be on its
+   * own, but the notification is only rebuilt and signaled once.
+   */
+  public static void updateNotification(@NonNull Context context, @NonNull Set<Long> threadIds)
   {
     if (System.currentTimeMillis() - lastDesktopActivityTimestamp < DESKTOP_ACTIVITY_PERIOD) {
       Log.w(TAG, "Scheduling delayed notification...");
-      executor.execute(new DelayedNotification(context, threadId));
+      executor.execute(new DelayedNotification(context, threadIds));
     } else {
-      updateNotification(context, threadId, true);
+      updateNotification(context, threadIds, true);
     }
   }
 
@@ -204,26 +215,40 @@ public class MessageNotifier {
                                         long      threadId,
                                         boolean   signal)
   {
-    boolean    isVisible  = visibleThread == threadId;
+    updateNotification(context, Collections.singleton(threadId), signal);
+  }
 
-    ThreadDatabase threads    = DatabaseFactory.getThreadDatabase(context);
-    Recipient      recipients = DatabaseFactory.getThreadDatabase(context)
-                                               .getRecipientForThreadId(threadId);
+  private static void updateNotification(@NonNull Context   context,
+                                         @NonNull Set<Long> threadIds,
+                                         boolean            signal)
+  {
+    ThreadDatabase threads            = DatabaseFactory.getThreadDatabase(context);
+    long           visible            = visibleThread;
+    boolean        notifyOtherThreads = false;
 
-    if (isVisible) {
-      List<MarkedMessageInfo> messageIds = threads.setRead(threadId, false);
-      MarkReadReceiver.process(context, messageIds);
-    }
+    for (long threadId : threadIds) {
+      boolean   isVisible  = visible == threadId;
+      Recipient recipients = threads.getRecipientForThreadId(threadId);
 
-    if (!TextSecurePreferences.isNotificationsEnabled(context) ||
-        (recipients != null && recipients.isMuted()))
-    {
-      return;
+      if (isVisible) {
+        List<MarkedMessageInfo> messageIds = threads.setRead(threadId, false);
+        MarkReadReceiver.process(context, messageIds);
+      }
+
+      if (!TextSecurePreferences.isNotificationsEnabled(context) ||
+          (recipients != null && recipients.isMuted()))
+      {
+        continue;
+      }
+
+      if (isVisible) {
+        sendInThreadNotification(context, recipients);
+      } else {
+        notifyOtherThreads = true;
+      }
     }
 
-    if (isVisible) {
-      sendInThreadNotification(context, threads.getRecipientForThreadId(threadId));
-    } else {
+    if (notifyOtherThreads) {
       updateNotification(context, signal, 0);
     }
   }
@@ -505,13 +530,13 @@ public class MessageNotifier {
 
     private final AtomicBoolean canceled = new AtomicBoolean(false);
 
-    private final Context context;
-    private final long    threadId;
-    private final long    delayUntil;
+    private final Context   context;
+    private final Set<Long> threadIds;
+    private final long      delayUntil;
 
-    private DelayedNotification(Context context, long threadId) {
+    private DelayedNotification(Context context, Set<Long> threadIds) {
       this.context    = context;
-      this.threadId   = threadId;
+      this.threadIds  = threadIds;
       this.delayUntil = System.currentTimeMillis() + DELAY;
     }
 
@@ -528,7 +553,7 @@ public class MessageNotifier {
 
       if (!canceled.get()) {
         Log.w(TAG, "Not canceled, notifying...");
-        MessageNotifier.updateNotification(context, threadId, true);
+        MessageNotifier.updateNotification(context, threadIds, true);
         MessageNotifier.cancelDelayedNotifications();
       } else {
         Log.w(TAG, "Canceled, not notifying...");
@@ -24,6 +24,7 @@ import org.thoughtcrime.securesms.backup.BackupDialog;
 import org.thoughtcrime.securesms.backup.FullBackupBase;
 import org.thoughtcrime.securesms.backup.FullBackupBase.BackupEvent;
 import org.thoughtcrime.securesms.components.SwitchPreferenceCompat;
+import org.thoughtcrime.securesms.database.ThreadDatabase.RetentionPolicy;
 import org.thoughtcrime.securesms.jobs.LocalBackupJob;
 import org.thoughtcrime.securesms.permissions.Permissions;
 import org.thoughtcrime.securesms.preferences.widgets.ProgressPreference;
@@ -56,6 +57,8 @@ public class ChatsPreferenceFragment extends ListSummaryPreferenceFragment {
         .setOnPreferenceClickListener(new TrimNowClickListener());
     findPreference(TextSecurePreferences.THREAD_TRIM_LENGTH)
         .setOnPreferenceChangeListener(new TrimLengthValidationListener());
+    findPreference(TextSecurePreferences.THREAD_TRIM_AGE)
+        .setOnPreferenceChangeListener(new ListSummaryListener());
 
     findPreference(TextSecurePreferences.BACKUP_ENABLED)
         .setOnPreferenceClickListener(new BackupClickListener());
@@ -63,6 +66,7 @@ public class ChatsPreferenceFragment extends ListSummaryPreferenceFragment {
         .setOnPreferenceClickListener(new BackupCreateListener());
 
     initializeListSummary((ListPreference) findPreference(TextSecurePreferences.MESSAGE_BODY_TEXT_SIZE_PREF));
+    initializeListSummary((ListPreference) findPreference(TextSecurePreferences.THREAD_TRIM_AGE));
 
     EventBus.getDefault().register(this);
   }
@@ -72,6 +76,12 @@ public class ChatsPreferenceFragment extends ListSummaryPreferenceFragment {
     addPreferencesFromResource(R.xml.preferences_chats);
   }
 
+  @Override
+  public void onStart() {
+    super.onStart();
+    getPreferenceScreen().getSharedPreferences().registerOnSharedPreferenceChangeListener((ApplicationPreferencesActivity)getActivity());
+  }
+
   @Override
   public void onResume() {
     super.onResume();
@@ -80,6 +90,12 @@ public class ChatsPreferenceFragment extends ListSummaryPreferenceFragment {
     setBackupSummary();
   }
 
+  @Override
+  public void onStop() {
+    super.onStop();
+    getPreferenceScreen().getSharedPreferences().unregisterOnSharedPreferenceChangeListener((ApplicationPreferencesActivity) getActivity());
+  }
+
   @Override
   public void onDestroy() {
     super.onDestroy();
@@ -177,15 +193,24 @@ public class ChatsPreferenceFragment extends ListSummaryPreferenceFragment {
     @Override
     public boolean onPreferenceClick(Preference preference) {
       final int threadLengthLimit = TextSecurePreferences.getThreadTrimLength(getActivity());
+      final int threadAgeLimit    = TextSecurePreferences.getThreadTrimAgeDays(getActivity());
       AlertDialog.Builder builder = new AlertDialog.Builder(getActivity());
       builder.setTitle(R.string.ApplicationPreferencesActivity_delete_all_old_messages_now);
-      builder.setMessage(getResources().getQuantityString(R.plurals.ApplicationPreferencesActivity_this_will_immediately_trim_all_conversations_to_the_d_most_recent_messages,
-                                                          threadLengthLimit, threadLengthLimit));
+
+      if (threadAgeLimit > 0) {
+        CharSequence ageLimit = ((ListPreference) findPreference(TextSecurePreferences.THREAD_TRIM_AGE)).getEntry();
+        builder.setMessage(getResources().getQuantityString(R.plurals.ApplicationPreferencesActivity_this_will_immediately_trim_all_conversations_to_the_d_most_recent_messages_and_delete_messages_older_than_s,
+                                                            threadLengthLimit, threadLengthLimit, ageLimit));
+      } else {
+        builder.setMessage(getResources().getQuantityString(R.plurals.ApplicationPreferencesActivity_this_will_immediately_trim_all_conversations_to_the_d_most_recent_messages,
+                                                            threadLengthLimit, threadLengthLimit));
+      }
+
       builder.setPositiveButton(R.string.ApplicationPreferencesActivity_delete,
         new DialogInterface.OnClickListener() {
           @Override
           public void onClick(DialogInterface dialog, int which) {
-            Trimmer.trimAllThreads(getActivity(), threadLengthLimit);
+            Trimmer.trimAllThreads(getActivity(), RetentionPolicy.fromPreferences(getActivity()));
           }
         });
 
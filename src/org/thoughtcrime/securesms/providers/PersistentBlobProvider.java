@@ -7,6 +7,7 @@ import android.content.UriMatcher;
 import android.net.Uri;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
 import android.util.Log;
 import android.util.Pair;
 import android.webkit.MimeTypeMap;
@@ -21,6 +22,7 @@ import org.thoughtcrime.securesms.util.Util;
 
 import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -95,6 +97,37 @@ public class PersistentBlobProvider {
     return create(context, attachmentSecret, input, System.currentTimeMillis(), mimeType, fileName, fileSize);
   }
 
+  /**
+   * Creates a blob by letting the writer write its contents straight into the encrypted file,
+   * rather than buffering them in memory first.
+   */
+  @WorkerThread
+  public Uri create(@NonNull  Context context,
+                    @NonNull  BlobWriter writer,
+                    @NonNull  String mimeType,
+                    @Nullable String fileName)
+      throws IOException
+  {
+    final long id   = System.currentTimeMillis();
+    final File file = getFile(context, id).file;
+
+    Pair<byte[], OutputStream> output  = ModernEncryptingPartOutputStream.createFor(attachmentSecret, file, true);
+    CountingOutputStream       counter = new CountingOutputStream(output.second);
+
+    try {
+      try {
+        writer.write(counter);
+      } finally {
+        counter.close();
+      }
+    } catch (IOException | RuntimeException e) {
+      if (!file.delete()) Log.w(TAG, "Failed to delete partially written blob: " + id);
+      throw e;
+    }
+
+    return buildUri(id, mimeType, fileName, counter.getCount());
+  }
+
   private Uri create(@NonNull Context context,
                      @NonNull  AttachmentSecret attachmentSecret,
                      @NonNull  InputStream input,
@@ -104,6 +137,10 @@ public class PersistentBlobProvider {
                      @Nullable Long fileSize)
   {
     persistToDisk(context, attachmentSecret, id, input);
+    return buildUri(id, mimeType, fileName, fileSize);
+  }
+
+  private Uri buildUri(long id, @NonNull String mimeType, @Nullable String fileName, @Nullable Long fileSize) {
     final Uri uniqueUri = CONTENT_URI.buildUpon()
                                      .appendPath(mimeType)
                                      .appendPath(fileName)
@@ -231,6 +268,35 @@ public class PersistentBlobProvider {
     return externalDir;
   }
 
+  public interface BlobWriter {
+    void write(@NonNull OutputStream outputStream) throws IOException;
+  }
+
+  private static class CountingOutputStream extends FilterOutputStream {
+
+    private long count;
+
+    private CountingOutputStream(@NonNull OutputStream out) {
+      super(out);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      out.write(b);
+      count++;
+    }
+
+    @Override
+    public void write(@NonNull byte[] buffer, int offset, int length) throws IOException {
+      out.write(buffer, offset, length);
+      count += length;
+    }
+
+    private long getCount() {
+      return count;
+    }
+  }
+
   public static boolean isAuthority(@NonNull Context context, @NonNull Uri uri) {
     int matchResult = MATCHER.match(uri);
     return matchResult == MATCH_NEW || matchResult == MATCH_OLD || isExternalBlobUri(context, uri);
@@ -0,0 +1,52 @@
+package org.thoughtcrime.securesms.qr;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.ChecksumException;
+import com.google.zxing.DecodeHintType;
+import com.google.zxing.FormatException;
+import com.google.zxing.NotFoundException;
+import com.google.zxing.PlanarYUVLuminanceSource;
+import com.google.zxing.Result;
+import com.google.zxing.common.HybridBinarizer;
+import com.google.zxing.qrcode.QRCodeReader;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Decodes QR codes straight out of NV21 camera preview frames.
+ *
+ * Only the centered square of the frame is binarized, which is where the user is asked to hold
+ * the code. The frame is never rotated, as the QR decoder finds codes in any orientation.
+ */
+public class QrFrameDecoder {
+
+  private final QRCodeReader                reader = new QRCodeReader();
+  private final Map<DecodeHintType, Object> hints  = new EnumMap<>(DecodeHintType.class);
+
+  public void setCharacterSet(@NonNull String characterSet) {
+    hints.put(DecodeHintType.CHARACTER_SET, characterSet);
+  }
+
+  public @Nullable String decode(@NonNull byte[] data, int width, int height) {
+    int size = Math.min(width, height);
+    int left = (width - size) / 2;
+    int top  = (height - size) / 2;
+
+    try {
+      PlanarYUVLuminanceSource source = new PlanarYUVLuminanceSource(data, width, height, left, top, size, size, false);
+      Result                   result = reader.decode(new BinaryBitmap(new HybridBinarizer(source)), hints);
+
+      if (result != null) return result.getText();
+    } catch (NullPointerException | ChecksumException | FormatException | NotFoundException e) {
+      // Most frames won't contain a readable code
+    } finally {
+      reader.reset();
+    }
+
+    return null;
+  }
+}
@@ -1,41 +1,26 @@
 package org.thoughtcrime.securesms.qr;
 
-import android.content.res.Configuration;
 import android.support.annotation.NonNull;
-import android.support.annotation.Nullable;
 import android.util.Log;
 
-import com.google.zxing.BinaryBitmap;
-import com.google.zxing.ChecksumException;
-import com.google.zxing.DecodeHintType;
-import com.google.zxing.FormatException;
-import com.google.zxing.NotFoundException;
-import com.google.zxing.PlanarYUVLuminanceSource;
-import com.google.zxing.Result;
-import com.google.zxing.common.HybridBinarizer;
-import com.google.zxing.qrcode.QRCodeReader;
-
 import org.thoughtcrime.securesms.components.camera.CameraView;
 import org.thoughtcrime.securesms.components.camera.CameraView.PreviewFrame;
 import org.thoughtcrime.securesms.util.Util;
 
-import java.util.HashMap;
-import java.util.Map;
 import java.util.concurrent.atomic.AtomicReference;
 
 public class ScanningThread extends Thread implements CameraView.PreviewCallback {
 
   private static final String TAG = ScanningThread.class.getSimpleName();
 
-  private final QRCodeReader                  reader       = new QRCodeReader();
+  private final QrFrameDecoder                decoder      = new QrFrameDecoder();
   private final AtomicReference<ScanListener> scanListener = new AtomicReference<>();
-  private final Map<DecodeHintType, String>   hints        = new HashMap<>();
 
   private boolean scanning = true;
   private PreviewFrame previewFrame;
 
   public void setCharacterSet(String characterSet) {
-    hints.put(DecodeHintType.CHARACTER_SET, characterSet);
+    decoder.setCharacterSet(characterSet);
   }
 
   public void setScanListener(ScanListener scanListener) {
@@ -46,8 +31,18 @@ public class ScanningThread extends Thread implements CameraView.PreviewCallback
   public void onPreviewFrame(@NonNull PreviewFrame previewFrame) {
     try {
       synchronized (this) {
-        this.previewFrame = previewFrame;
-        this.notify();
+        if (this.previewFrame != null) {
+          // Still busy with an older frame, so drop the one that was waiting
+          this.previewFrame.release();
+        }
+
+        if (scanning) {
+          this.previewFrame = previewFrame;
+          this.notify();
+        } else {
+          this.previewFrame = null;
+          previewFrame.release();
+        }
       }
     } catch (RuntimeException e) {
       Log.w(TAG, e);
@@ -71,9 +66,11 @@ public class ScanningThread extends Thread implements CameraView.PreviewCallback
         previewFrame = null;
       }
 
-      String       data         = getScannedData(ourFrame.getData(), ourFrame.getWidth(), ourFrame.getHeight(), ourFrame.getOrientation());
+      String       data         = decoder.decode(ourFrame.getData(), ourFrame.getWidth(), ourFrame.getHeight());
       ScanListener scanListener = this.scanListener.get();
 
+      ourFrame.release();
+
       if (data != null && scanListener != null) {
         scanListener.onQrDataFound(data);
         return;
@@ -84,42 +81,13 @@ public class ScanningThread extends Thread implements CameraView.PreviewCallback
   public void stopScanning() {
     synchronized (this) {
       scanning = false;
-      notify();
-    }
-  }
-
-  private @Nullable String getScannedData(byte[] data, int width, int height, int orientation) {
-    try {
-      if (orientation == Configuration.ORIENTATION_PORTRAIT) {
-        byte[] rotatedData = new byte[data.length];
 
-        for (int y = 0; y < height; y++) {
-          for (int x = 0; x < width; x++) {
-            rotatedData[x * height + height - y - 1] = data[x + y * width];
-          }
-        }
-
-        int tmp = width;
-        width  = height;
-        height = tmp;
-        data   = rotatedData;
+      if (previewFrame != null) {
+        previewFrame.release();
+        previewFrame = null;
       }
 
-      PlanarYUVLuminanceSource source = new PlanarYUVLuminanceSource(data, width, height,
-                                                                     0, 0, width, height,
-                                                                     false);
-
-      BinaryBitmap bitmap = new BinaryBitmap(new HybridBinarizer(source));
-      Result       result = reader.decode(bitmap, hints);
-
-      if (result != null) return result.getText();
-
-    } catch (NullPointerException | ChecksumException | FormatException e) {
-      Log.w(TAG, e);
-    } catch (NotFoundException e) {
-      // Thanks ZXing...
+      notify();
     }
-
-    return null;
   }
 }
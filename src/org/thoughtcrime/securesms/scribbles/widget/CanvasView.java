@@ -23,6 +23,7 @@ import android.graphics.RectF;
 import android.graphics.Typeface;
 import android.util.AttributeSet;
 import android.util.Log;
+import android.util.SparseArray;
 import android.view.MotionEvent;
 import android.view.View;
 
@@ -69,6 +70,23 @@ public class CanvasView extends View {
   // for Undo, Redo
   private int historyPointer = 0;
 
+  // Committed strokes are drawn once into this layer, only the strokes after it are drawn live.
+  // Every CHECKPOINT_INTERVAL strokes a copy of the layer is kept, so undo replays from the
+  // nearest one, and only the latest few are kept to bound memory.
+  private static final int CHECKPOINT_INTERVAL = 16;
+  private static final int MAX_CHECKPOINTS     = 3;
+
+  private Bitmap              committedLayer  = null;
+  private Canvas              committedCanvas = null;
+  private int                 committedCount  = 0;
+  private SparseArray<Bitmap> checkpoints     = new SparseArray<>();
+  private Paint               layerPaint      = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+  // for render, reused for every stroke
+  private Matrix renderMatrix = new Matrix();
+  private Path   renderPath   = new Path();
+  private Paint  renderPaint  = new Paint();
+
   // Flags
   private Mode mode      = Mode.DRAW;
   private Drawer drawer  = Drawer.PEN;
@@ -195,6 +213,7 @@ public class CanvasView extends View {
       this.historyPointer++;
     } else {
       // On the way of Undo or Redo
+      this.discardCheckpointsAfter(this.historyPointer);
       this.pathLists.set(this.historyPointer, path);
       this.paintLists.set(this.historyPointer, this.createPaint());
       this.historyPointer++;
@@ -206,6 +225,87 @@ public class CanvasView extends View {
     }
   }
 
+  /**
+   * This method draws the finished strokes into the committed layer,
+   * so that they don't have to be drawn again on every frame.
+   */
+  private void commitHistory() {
+    if (this.committedCanvas == null) {
+      return;
+    }
+
+    while (this.committedCount < this.historyPointer) {
+      this.committedCanvas.drawPath(this.pathLists.get(this.committedCount), this.paintLists.get(this.committedCount));
+      this.committedCount++;
+
+      if (this.committedCount % CHECKPOINT_INTERVAL == 0 && this.checkpoints.get(this.committedCount) == null) {
+        this.takeCheckpoint();
+      }
+    }
+  }
+
+  /**
+   * This method rebuilds the committed layer for the current history pointer,
+   * replaying only the strokes after the latest checkpoint that precedes it.
+   */
+  private void rewindHistory() {
+    if (this.committedCanvas == null) {
+      return;
+    }
+
+    int index = -1;
+
+    for (int i = this.checkpoints.size() - 1; i >= 0; i--) {
+      if (this.checkpoints.keyAt(i) <= this.historyPointer) {
+        index = i;
+        break;
+      }
+    }
+
+    this.committedLayer.eraseColor(Color.TRANSPARENT);
+
+    if (index != -1) {
+      this.committedCanvas.drawBitmap(this.checkpoints.valueAt(index), 0F, 0F, null);
+      this.committedCount = this.checkpoints.keyAt(index);
+    } else {
+      this.committedCount = 0;
+    }
+
+    this.commitHistory();
+  }
+
+  private void takeCheckpoint() {
+    try {
+      if (this.checkpoints.size() >= MAX_CHECKPOINTS) {
+        this.checkpoints.valueAt(0).recycle();
+        this.checkpoints.removeAt(0);
+      }
+
+      this.checkpoints.put(this.committedCount, this.committedLayer.copy(Bitmap.Config.ARGB_8888, false));
+    } catch (OutOfMemoryError e) {
+      Log.w(TAG, e);
+    }
+  }
+
+  /**
+   * This method drops the checkpoints that include the stroke at the given index or any after it,
+   * since that stroke is about to change.
+   */
+  private void discardCheckpointsAfter(int index) {
+    for (int i = this.checkpoints.size() - 1; i >= 0 && this.checkpoints.keyAt(i) > index; i--) {
+      this.checkpoints.valueAt(i).recycle();
+      this.checkpoints.removeAt(i);
+    }
+  }
+
+  private void discardCheckpoints() {
+    for (int i = 0; i < this.checkpoints.size(); i++) {
+      this.checkpoints.valueAt(i).recycle();
+    }
+
+    this.checkpoints.clear();
+  }
+
   /**
    * This method gets the instance of Path that pointer indicates.
    *
@@ -238,6 +338,14 @@ public class CanvasView extends View {
             this.controlX = event.getX();
             this.controlY = event.getY();
 
+            if (this.committedCount >= this.historyPointer) {
+              // The curve is about to change, so it can't stay in the committed layer
+              this.historyPointer--;
+              this.discardCheckpointsAfter(this.historyPointer);
+              this.rewindHistory();
+              this.historyPointer++;
+            }
+
             this.isDown = true;
           }
         }
@@ -336,6 +444,8 @@ public class CanvasView extends View {
       this.startX = 0F;
       this.startY = 0F;
       this.isDown = false;
+
+      this.commitHistory();
     }
   }
 
@@ -356,15 +466,39 @@ public class CanvasView extends View {
     canvas.drawColor(this.baseColor);
 
     if (this.bitmap != null) {
-      canvas.drawBitmap(this.bitmap, 0F, 0F, new Paint());
+      canvas.drawBitmap(this.bitmap, 0F, 0F, this.layerPaint);
+    }
+
+    if (this.committedLayer == null) {
+      this.drawHistory(canvas, 0, this.historyPointer);
+      return;
+    }
+
+    boolean erasing = this.hasEraser(this.committedCount, this.historyPointer);
+    int     saved   = erasing ? canvas.saveLayer(0F, 0F, this.canvasWidth, this.canvasHeight, null, Canvas.ALL_SAVE_FLAG) : -1;
+
+    canvas.drawBitmap(this.committedLayer, 0F, 0F, this.layerPaint);
+    this.drawHistory(canvas, this.committedCount, this.historyPointer);
+
+    if (erasing) {
+      canvas.restoreToCount(saved);
     }
+  }
 
-    for (int i = 0; i < this.historyPointer; i++) {
-      Path path   = this.pathLists.get(i);
-      Paint paint = this.paintLists.get(i);
+  private void drawHistory(Canvas canvas, int from, int to) {
+    for (int i = from; i < to; i++) {
+      canvas.drawPath(this.pathLists.get(i), this.paintLists.get(i));
+    }
+  }
 
-      canvas.drawPath(path, paint);
+  private boolean hasEraser(int from, int to) {
+    for (int i = from; i < to; i++) {
+      if (this.paintLists.get(i).getXfermode() != null) {
+        return true;
+      }
     }
+
+    return false;
   }
 
   @Override
@@ -372,27 +506,61 @@ public class CanvasView extends View {
     super.onSizeChanged(w, h, oldw, oldh);
     this.canvasWidth = w;
     this.canvasHeight = h;
-  }
 
-  public void render(Canvas canvas) {
-    float scaleX = 1.0F * canvas.getWidth() / canvasWidth;
-    float scaleY = 1.0F * canvas.getHeight() / canvasHeight;
+    this.discardCheckpoints();
+
+    if (this.committedLayer != null) {
+      this.committedLayer.recycle();
+      this.committedLayer  = null;
+      this.committedCanvas = null;
+    }
 
-    Matrix matrix = new Matrix();
-    matrix.setScale(scaleX, scaleY);
+    if (w > 0 && h > 0) {
+      try {
+        this.committedLayer  = Bitmap.createBitmap(w, h, Bitmap.Config.ARGB_8888);
+        this.committedCanvas = new Canvas(this.committedLayer);
+      } catch (OutOfMemoryError e) {
+        Log.w(TAG, e);
+      }
+    }
 
-    for (int i = 0; i < this.historyPointer; i++) {
-      Path path   = this.pathLists.get(i);
-      Paint paint = this.paintLists.get(i);
+    this.committedCount = 0;
 
-      Path scaledPath = new Path();
-      path.transform(matrix, scaledPath);
+    if (!this.isDown) {
+      this.commitHistory();
+    }
+  }
+
+  /**
+   * This method draws every stroke onto the given canvas, scaled to its size, in one pass.
+   * Eraser strokes only erase other strokes, not what's already on the canvas.
+   * Stroke widths are scaled uniformly, even if the canvas has a different aspect ratio.
+   *
+   * @param canvas the canvas to render at its own resolution
+   */
+  public void render(Canvas canvas) {
+    float   scaleX  = 1.0F * canvas.getWidth() / canvasWidth;
+    float   scaleY  = 1.0F * canvas.getHeight() / canvasHeight;
+    boolean erasing = this.hasEraser(0, this.historyPointer);
+    int     saved   = erasing ? canvas.saveLayer(0F, 0F, canvas.getWidth(), canvas.getHeight(), null, Canvas.ALL_SAVE_FLAG)
+                              : canvas.save();
+
+    if (Math.abs(scaleX - scaleY) < 0.001F) {
+      canvas.scale(scaleX, scaleX);
+      this.drawHistory(canvas, 0, this.historyPointer);
+    } else {
+      this.renderMatrix.setScale(scaleX, scaleY);
 
-      Paint scaledPaint = new Paint(paint);
-      scaledPaint.setStrokeWidth(scaledPaint.getStrokeWidth() * scaleX);
+      for (int i = 0; i < this.historyPointer; i++) {
+        this.pathLists.get(i).transform(this.renderMatrix, this.renderPath);
+        this.renderPaint.set(this.paintLists.get(i));
+        this.renderPaint.setStrokeWidth(this.renderPaint.getStrokeWidth() * scaleX);
 
-      canvas.drawPath(scaledPath, scaledPaint);
+        canvas.drawPath(this.renderPath, this.renderPaint);
+      }
     }
+
+    canvas.restoreToCount(saved);
   }
 
   /**
@@ -469,6 +637,11 @@ public class CanvasView extends View {
   public boolean undo() {
     if (this.historyPointer > 1) {
       this.historyPointer--;
+
+      if (this.historyPointer < this.committedCount) {
+        this.rewindHistory();
+      }
+
       this.invalidate();
 
       return true;
@@ -485,6 +658,7 @@ public class CanvasView extends View {
   public boolean redo() {
     if (this.historyPointer < this.pathLists.size()) {
       this.historyPointer++;
+      this.commitHistory();
       this.invalidate();
 
       return true;
@@ -514,6 +688,7 @@ public class CanvasView extends View {
       this.historyPointer++;
     } else {
       // On the way of Undo or Redo
+      this.discardCheckpointsAfter(this.historyPointer);
       this.pathLists.set(this.historyPointer, path);
       this.paintLists.set(this.historyPointer, paint);
       this.historyPointer++;
@@ -525,6 +700,7 @@ public class CanvasView extends View {
     }
 
     // Clear
+    this.commitHistory();
     this.invalidate();
   }
 
@@ -0,0 +1,44 @@
+package org.thoughtcrime.securesms.service;
+
+
+import android.content.Context;
+import android.content.Intent;
+
+import org.thoughtcrime.securesms.ApplicationContext;
+import org.thoughtcrime.securesms.database.ThreadDatabase.RetentionPolicy;
+import org.thoughtcrime.securesms.jobs.TrimAllThreadsJob;
+import org.thoughtcrime.securesms.util.TextSecurePreferences;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Trims every thread once a day while there's a message age limit. Messages only age out with
+ * time, so unlike the length limit it can't be kept just by trimming as messages arrive.
+ */
+public class TrimThreadsListener extends PersistentAlarmManagerListener {
+
+  private static final long INTERVAL = TimeUnit.DAYS.toMillis(1);
+
+  @Override
+  protected long getNextScheduledExecutionTime(Context context) {
+    return TextSecurePreferences.getNextThreadTrimTime(context);
+  }
+
+  @Override
+  protected long onAlarm(Context context, long scheduledTime) {
+    if (RetentionPolicy.fromPreferences(context).getMaxAge() > 0) {
+      ApplicationContext.getInstance(context).getJobManager().add(new TrimAllThreadsJob(context));
+    }
+
+    long nextTime = System.currentTimeMillis() + INTERVAL;
+    TextSecurePreferences.setNextThreadTrimTime(context, nextTime);
+
+    return nextTime;
+  }
+
+  public static void schedule(Context context) {
+    if (RetentionPolicy.fromPreferences(context).getMaxAge() > 0) {
+      new TrimThreadsListener().onReceive(context, new Intent());
+    }
+  }
+}
@@ -43,6 +43,7 @@ import org.thoughtcrime.securesms.util.ServiceUtil;
 import org.thoughtcrime.securesms.util.TextSecurePreferences;
 import org.thoughtcrime.securesms.util.Util;
 import org.thoughtcrime.securesms.webrtc.CallNotificationBuilder;
+import org.thoughtcrime.securesms.webrtc.CallSignalingPipeline;
 import org.thoughtcrime.securesms.webrtc.IncomingPstnCallReceiver;
 import org.thoughtcrime.securesms.webrtc.PeerConnectionFactoryOptions;
 import org.thoughtcrime.securesms.webrtc.PeerConnectionWrapper;
@@ -181,6 +182,8 @@ public class WebRtcCallService extends Service implements InjectableType, PeerCo
   private ExecutorService          networkExecutor = Executors.newSingleThreadExecutor();
   private ScheduledExecutorService timeoutExecutor = Executors.newScheduledThreadPool(1);
 
+  private CallSignalingPipeline signalingPipeline;
+
   @Override
   public void onCreate() {
     super.onCreate();
@@ -249,6 +252,10 @@ public class WebRtcCallService extends Service implements InjectableType, PeerCo
       unregisterReceiver(powerButtonReceiver);
       powerButtonReceiver = null;
     }
+
+    if (signalingPipeline != null) {
+      signalingPipeline.shutdown();
+    }
   }
 
   @Override
@@ -267,6 +274,8 @@ public class WebRtcCallService extends Service implements InjectableType, PeerCo
   private void initializeResources() {
     ApplicationContext.getInstance(this).injectDependencies(this);
 
+    this.signalingPipeline = new CallSignalingPipeline(messageSender::sendCallMessage, serviceExecutor);
+
     this.callState             = CallState.STATE_IDLE;
     this.lockManager           = new LockManager(this);
     this.peerConnectionFactory = new PeerConnectionFactory(new PeerConnectionFactoryOptions());
@@ -520,7 +529,7 @@ public class WebRtcCallService extends Service implements InjectableType, PeerCo
       return;
     }
 
-    ListenableFutureTask<Boolean> listenableFutureTask = sendMessage(recipient, SignalServiceCallMessage.forIceUpdate(iceUpdateMessage));
+    ListenableFutureTask<Boolean> listenableFutureTask = signalingPipeline.sendIceUpdate(getSignalServiceAddress(recipient), iceUpdateMessage);
 
     listenableFutureTask.addListener(new FailureListener<Boolean>(callState, callId) {
       @Override
@@ -925,6 +934,7 @@ public class WebRtcCallService extends Service implements InjectableType, PeerCo
     this.remoteVideoEnabled        = false;
     this.pendingOutgoingIceUpdates = null;
     this.pendingIncomingIceUpdates = null;
+    signalingPipeline.cancelIceUpdates();
     lockManager.updatePhoneState(LockManager.PhoneState.IDLE);
   }
 
@@ -949,18 +959,11 @@ public class WebRtcCallService extends Service implements InjectableType, PeerCo
   private ListenableFutureTask<Boolean> sendMessage(@NonNull final Recipient recipient,
                                                     @NonNull final SignalServiceCallMessage callMessage)
   {
-    Callable<Boolean> callable = new Callable<Boolean>() {
-      @Override
-      public Boolean call() throws Exception {
-        messageSender.sendCallMessage(new SignalServiceAddress(recipient.getAddress().toPhoneString()), callMessage);
-        return true;
-      }
-    };
-
-    ListenableFutureTask<Boolean> listenableFutureTask = new ListenableFutureTask<>(callable, null, serviceExecutor);
-    networkExecutor.execute(listenableFutureTask);
+    return signalingPipeline.send(getSignalServiceAddress(recipient), callMessage);
+  }
 
-    return listenableFutureTask;
+  private @NonNull SignalServiceAddress getSignalServiceAddress(@NonNull Recipient recipient) {
+    return new SignalServiceAddress(recipient.getAddress().toPhoneString());
   }
 
   private void startCallCardActivity() {
@@ -27,6 +27,9 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.ref.SoftReference;
+import java.util.LinkedList;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -41,8 +44,15 @@ public class BitmapUtil {
 
   private static final int MAX_COMPRESSION_QUALITY          = 90;
   private static final int MIN_COMPRESSION_QUALITY          = 45;
-  private static final int MAX_COMPRESSION_ATTEMPTS         = 5;
   private static final int MIN_COMPRESSION_QUALITY_DECREASE = 5;
+  private static final int MAX_COMPRESSION_ATTEMPTS         = 5;
+  private static final int PROBE_SCALE                      = 3;
+  private static final int MIN_PROBE_DIMENSION              = 160;
+  private static final int MAX_ENCODE_BUFFERS               = 2;
+
+  private static final LinkedList<SoftReference<EncodeBuffer>> encodeBuffers = new LinkedList<>();
+
+  private static SoftReference<byte[]> nv21Buffer = new SoftReference<>(null);
 
   @WorkerThread
   public static <T> ScaleResult createScaledBytes(Context context, T model, MediaConstraints constraints)
@@ -59,10 +69,6 @@ public class BitmapUtil {
       throws BitmapDecodingException
   {
     try {
-      int    quality  = MAX_COMPRESSION_QUALITY;
-      int    attempts = 0;
-      byte[] bytes;
-
       Bitmap scaledBitmap = GlideApp.with(context.getApplicationContext())
                                     .asBitmap()
                                     .load(model)
@@ -76,35 +82,121 @@ public class BitmapUtil {
         throw new BitmapDecodingException("Unable to decode image");
       }
 
-      try {
-        do {
-          ByteArrayOutputStream baos = new ByteArrayOutputStream();
-          scaledBitmap.compress(CompressFormat.JPEG, quality, baos);
-          bytes = baos.toByteArray();
-
-          Log.w(TAG, "iteration with quality " + quality + " size " + (bytes.length / 1024) + "kb");
-          if (quality == MIN_COMPRESSION_QUALITY) break;
+      EncodeBuffer buffer = obtainEncodeBuffer();
 
-          int nextQuality = (int)Math.floor(quality * Math.sqrt((double)maxImageSize / bytes.length));
-          if (quality - nextQuality < MIN_COMPRESSION_QUALITY_DECREASE) {
-            nextQuality = quality - MIN_COMPRESSION_QUALITY_DECREASE;
-          }
-          quality = Math.max(nextQuality, MIN_COMPRESSION_QUALITY);
-        }
-        while (bytes.length > maxImageSize && attempts++ < MAX_COMPRESSION_ATTEMPTS);
-        if (bytes.length > maxImageSize) {
-          throw new BitmapDecodingException("Unable to scale image below: " + bytes.length);
+      try {
+        int quality = encodeUntilFits(q -> {
+          buffer.compress(scaledBitmap, q);
+          Log.w(TAG, "encode with quality " + q + " size " + (buffer.size() / 1024) + "kb");
+          return buffer.size();
+        }, predictQuality(scaledBitmap, maxImageSize, buffer), maxImageSize);
+
+        if (buffer.size() > maxImageSize) {
+          throw new BitmapDecodingException("Unable to scale image below: " + buffer.size());
         }
-        Log.w(TAG, "createScaledBytes(" + model.toString() + ") -> quality " + Math.min(quality, MAX_COMPRESSION_QUALITY) + ", " + attempts + " attempt(s)");
-        return new ScaleResult(bytes, scaledBitmap.getWidth(), scaledBitmap.getHeight());
+
+        Log.w(TAG, "createScaledBytes(" + model.toString() + ") -> quality " + quality);
+        return new ScaleResult(buffer.toByteArray(), scaledBitmap.getWidth(), scaledBitmap.getHeight());
       } finally {
-        if (scaledBitmap != null) scaledBitmap.recycle();
+        scaledBitmap.recycle();
+        recycleEncodeBuffer(buffer);
       }
     } catch (InterruptedException | ExecutionException e) {
       throw new BitmapDecodingException(e);
     }
   }
 
+  /**
+   * Picks the highest quality whose output is expected to fit, by searching over encodes of a
+   * downscaled copy of the bitmap. The probe has a fraction of the pixels but slightly more detail
+   * per pixel, so its estimates err on the large side.
+   */
+  private static int predictQuality(@NonNull Bitmap bitmap, int maxImageSize, @NonNull EncodeBuffer buffer) {
+    int probeWidth  = bitmap.getWidth()  / PROBE_SCALE;
+    int probeHeight = bitmap.getHeight() / PROBE_SCALE;
+
+    if (Math.min(probeWidth, probeHeight) < MIN_PROBE_DIMENSION) {
+      return MAX_COMPRESSION_QUALITY;
+    }
+
+    Bitmap probe     = Bitmap.createScaledBitmap(bitmap, probeWidth, probeHeight, true);
+    double pixelRate = (double)(bitmap.getWidth() * bitmap.getHeight()) / (probeWidth * probeHeight);
+
+    try {
+      buffer.compress(probe, MAX_COMPRESSION_QUALITY);
+
+      if (buffer.size() * pixelRate <= maxImageSize) {
+        return MAX_COMPRESSION_QUALITY;
+      }
+
+      int low  = MIN_COMPRESSION_QUALITY;
+      int high = MAX_COMPRESSION_QUALITY - 1;
+
+      while (low < high) {
+        int quality = (low + high + 1) / 2;
+
+        buffer.compress(probe, quality);
+
+        if (buffer.size() * pixelRate <= maxImageSize) low  = quality;
+        else                                           high = quality - 1;
+      }
+
+      return low;
+    } finally {
+      probe.recycle();
+    }
+  }
+
+  /**
+   * Encodes at the starting quality, then keeps lowering the quality while the output is too
+   * large, until the minimum quality has been tried or {@link #MAX_COMPRESSION_ATTEMPTS} encodes
+   * have been made.
+   *
+   * @return The quality of the last encode.
+   */
+  @VisibleForTesting
+  static int encodeUntilFits(@NonNull Encoder encoder, int quality, int maxImageSize) {
+    int size     = encoder.encode(quality);
+    int attempts = 1;
+
+    while (size > maxImageSize && quality > MIN_COMPRESSION_QUALITY && attempts < MAX_COMPRESSION_ATTEMPTS) {
+      quality = getNextQuality(quality, size, maxImageSize);
+      size    = encoder.encode(quality);
+      attempts++;
+    }
+
+    return quality;
+  }
+
+  private static int getNextQuality(int quality, int size, int maxImageSize) {
+    int nextQuality = (int)Math.floor(quality * Math.sqrt((double)maxImageSize / size));
+
+    if (quality - nextQuality < MIN_COMPRESSION_QUALITY_DECREASE) {
+      nextQuality = quality - MIN_COMPRESSION_QUALITY_DECREASE;
+    }
+
+    return Math.max(nextQuality, MIN_COMPRESSION_QUALITY);
+  }
+
+  private static @NonNull EncodeBuffer obtainEncodeBuffer() {
+    synchronized (encodeBuffers) {
+      while (!encodeBuffers.isEmpty()) {
+        EncodeBuffer buffer = encodeBuffers.removeFirst().get();
+        if (buffer != null) return buffer;
+      }
+    }
+
+    return new EncodeBuffer();
+  }
+
+  private static void recycleEncodeBuffer(@NonNull EncodeBuffer buffer) {
+    synchronized (encodeBuffers) {
+      if (encodeBuffers.size() < MAX_ENCODE_BUFFERS) {
+        encodeBuffers.addFirst(new SoftReference<>(buffer));
+      }
+    }
+  }
+
   @WorkerThread
   public static <T> Bitmap createScaledBitmap(Context context, T model, int maxWidth, int maxHeight)
       throws BitmapDecodingException
@@ -184,25 +276,49 @@ public class BitmapUtil {
     return BitmapFactory.decodeByteArray(bytes, 0, bytes.length);
   }
 
-  public static byte[] createFromNV21(@NonNull final byte[] data,
-                                      final int width,
-                                      final int height,
-                                      int rotation,
-                                      final Rect croppingRect,
-                                      final boolean flipHorizontal)
+  /**
+   * Rotates, flips and crops an NV21 preview frame and compresses it as a JPEG straight into
+   * the output stream. The cropping rect is in rotated coordinates.
+   */
+  public static void createFromNV21(@NonNull final byte[] data,
+                                    final int width,
+                                    final int height,
+                                    final int rotation,
+                                    @NonNull final Rect croppingRect,
+                                    final boolean flipHorizontal,
+                                    @NonNull final OutputStream outputStream)
       throws IOException
   {
-    byte[] rotated = rotateNV21(data, width, height, rotation, flipHorizontal);
+    if ((width * height * 3) / 2 > data.length) {
+      throw new IOException("provided width and height don't jive with the data length (" +
+                            data.length + "). Width: " + width + " height: " + height +
+                            " = data length: " + (width * height * 3) / 2);
+    }
+
     final int rotatedWidth  = rotation % 180 > 0 ? height : width;
     final int rotatedHeight = rotation % 180 > 0 ? width  : height;
-    YuvImage previewImage = new YuvImage(rotated, ImageFormat.NV21,
-                                         rotatedWidth, rotatedHeight, null);
-
-    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-    previewImage.compressToJpeg(croppingRect, 80, outputStream);
-    byte[] bytes = outputStream.toByteArray();
-    outputStream.close();
-    return bytes;
+    final int left          = Math.max(0, croppingRect.left) & ~1;
+    final int top           = Math.max(0, croppingRect.top) & ~1;
+    final int cropWidth     = (Math.min(rotatedWidth, croppingRect.right) - left) & ~1;
+    final int cropHeight    = (Math.min(rotatedHeight, croppingRect.bottom) - top) & ~1;
+
+    if (cropWidth <= 0 || cropHeight <= 0) {
+      throw new IOException("Empty cropping rect: " + croppingRect);
+    }
+
+    byte[] buffer = obtainNV21Buffer(cropWidth * cropHeight * 3 / 2);
+
+    try {
+      transformNV21(data, width, height, rotation, flipHorizontal, left, top, cropWidth, cropHeight, buffer);
+
+      YuvImage previewImage = new YuvImage(buffer, ImageFormat.NV21, cropWidth, cropHeight, null);
+
+      if (!previewImage.compressToJpeg(new Rect(0, 0, cropWidth, cropHeight), 80, outputStream)) {
+        throw new IOException("Failed to compress preview frame");
+      }
+    } finally {
+      recycleNV21Buffer(buffer);
+    }
   }
 
   /*
@@ -211,52 +327,104 @@ public class BitmapUtil {
    * subsampled chroma samples.
    *
    * http://www.fourcc.org/yuv.php#NV21
+   *
+   * Rotates by the given multiple of 90 degrees, optionally flips horizontally, and crops to the
+   * given (even aligned, rotated) rect, writing a tightly packed NV21 image into the output.
+   * The luma and chroma planes are transformed separately, one output row at a time.
    */
-  public static byte[] rotateNV21(@NonNull final byte[] yuv,
-                                  final int width,
-                                  final int height,
-                                  final int rotation,
-                                  final boolean flipHorizontal)
-      throws IOException
+  public static void transformNV21(@NonNull final byte[] input,
+                                   final int width,
+                                   final int height,
+                                   final int rotation,
+                                   final boolean flipHorizontal,
+                                   final int cropLeft,
+                                   final int cropTop,
+                                   final int cropWidth,
+                                   final int cropHeight,
+                                   @NonNull final byte[] output)
   {
-    if (rotation == 0) return yuv;
     if (rotation % 90 != 0 || rotation < 0 || rotation > 270) {
       throw new IllegalArgumentException("0 <= rotation < 360, rotation % 90 == 0");
-    } else if ((width * height * 3) / 2 != yuv.length) {
-      throw new IOException("provided width and height don't jive with the data length (" +
-                            yuv.length + "). Width: " + width + " height: " + height +
-                            " = data length: " + (width * height * 3) / 2);
     }
 
-    final byte[]  output    = new byte[yuv.length];
-    final int     frameSize = width * height;
-    final boolean swap      = rotation % 180 != 0;
-    final boolean xflip     = flipHorizontal ? rotation % 270 == 0 : rotation % 270 != 0;
-    final boolean yflip     = rotation >= 180;
-
-    for (int j = 0; j < height; j++) {
-      for (int i = 0; i < width; i++) {
-        final int yIn = j * width + i;
-        final int uIn = frameSize + (j >> 1) * width + (i & ~1);
-        final int vIn = uIn       + 1;
-
-        final int wOut     = swap ? height              : width;
-        final int hOut     = swap ? width               : height;
-        final int iSwapped = swap ? j                   : i;
-        final int jSwapped = swap ? i                   : j;
-        final int iOut     = xflip ? wOut - iSwapped - 1 : iSwapped;
-        final int jOut     = yflip ? hOut - jSwapped - 1 : jSwapped;
-
-        final int yOut = jOut * wOut + iOut;
-        final int uOut = frameSize + (jOut >> 1) * wOut + (iOut & ~1);
-        final int vOut = uOut + 1;
-
-        output[yOut] = (byte)(0xff & yuv[yIn]);
-        output[uOut] = (byte)(0xff & yuv[uIn]);
-        output[vOut] = (byte)(0xff & yuv[vIn]);
+    if (((width | height | cropLeft | cropTop | cropWidth | cropHeight) & 1) != 0) {
+      throw new IllegalArgumentException("NV21 dimensions and cropping must be even");
+    }
+
+    final boolean swap          = rotation % 180 != 0;
+    final boolean xflip         = flipHorizontal ? rotation % 270 == 0 : rotation % 270 != 0;
+    final boolean yflip         = rotation >= 180;
+    final int     rotatedWidth  = swap ? height : width;
+    final int     rotatedHeight = swap ? width  : height;
+
+    if (cropLeft < 0 || cropTop < 0 || cropLeft + cropWidth > rotatedWidth || cropTop + cropHeight > rotatedHeight) {
+      throw new IllegalArgumentException("Cropping rect is outside of the rotated frame");
+    }
+
+    if (input.length < width * height * 3 / 2 || output.length < cropWidth * cropHeight * 3 / 2) {
+      throw new IllegalArgumentException("Buffers are too small for the frame");
+    }
+
+    transformPlane(input, 0, width, height, 1, swap, xflip, yflip,
+                   cropLeft, cropTop, cropWidth, cropHeight, output, 0);
+
+    transformPlane(input, width * height, width / 2, height / 2, 2, swap, xflip, yflip,
+                   cropLeft / 2, cropTop / 2, cropWidth / 2, cropHeight / 2, output, cropWidth * cropHeight);
+  }
+
+  private static void transformPlane(byte[] input, int inputOffset, int width, int height, int sampleSize,
+                                     boolean swap, boolean xflip, boolean yflip,
+                                     int cropLeft, int cropTop, int cropWidth, int cropHeight,
+                                     byte[] output, int outputOffset)
+  {
+    final int rotatedWidth  = swap ? height : width;
+    final int rotatedHeight = swap ? width  : height;
+    final int step          = (swap ? width : 1) * (xflip ? -1 : 1);
+
+    int out = outputOffset;
+
+    for (int row = cropTop; row < cropTop + cropHeight; row++) {
+      final int iSwapped = xflip ? rotatedWidth - cropLeft - 1 : cropLeft;
+      final int jSwapped = yflip ? rotatedHeight - row - 1     : row;
+      final int i        = swap  ? jSwapped : iSwapped;
+      final int j        = swap  ? iSwapped : jSwapped;
+
+      int in = j * width + i;
+
+      if (step == 1) {
+        System.arraycopy(input, inputOffset + in * sampleSize, output, out, cropWidth * sampleSize);
+        out += cropWidth * sampleSize;
+      } else if (sampleSize == 1) {
+        for (int column = 0; column < cropWidth; column++, in += step) {
+          output[out++] = input[inputOffset + in];
+        }
+      } else {
+        for (int column = 0; column < cropWidth; column++, in += step) {
+          output[out++] = input[inputOffset + in * 2];
+          output[out++] = input[inputOffset + in * 2 + 1];
+        }
+      }
+    }
+  }
+
+  private static @NonNull byte[] obtainNV21Buffer(int size) {
+    synchronized (BitmapUtil.class) {
+      byte[] buffer = nv21Buffer.get();
+      nv21Buffer.clear();
+
+      if (buffer != null && buffer.length >= size) return buffer;
+      else                                         return new byte[size];
+    }
+  }
+
+  private static void recycleNV21Buffer(@NonNull byte[] buffer) {
+    synchronized (BitmapUtil.class) {
+      byte[] current = nv21Buffer.get();
+
+      if (current == null || current.length < buffer.length) {
+        nv21Buffer = new SoftReference<>(buffer);
       }
     }
-    return output;
   }
 
   public static Bitmap createFromDrawable(final Drawable drawable, final int width, final int height) {
@@ -335,6 +503,30 @@ public class BitmapUtil {
     return Math.min(maximumTextureSize, MAX_ALLOWED_TEXTURE_SIZE);
   }
 
+  @VisibleForTesting
+  interface Encoder {
+    /**
+     * @return The size of the output at the given quality.
+     */
+    int encode(int quality);
+  }
+
+  /**
+   * An output stream that keeps its backing array between encodes, so repeated compressions
+   * only grow it instead of reallocating it every time.
+   */
+  private static class EncodeBuffer extends ByteArrayOutputStream {
+
+    private EncodeBuffer() {
+      super(1024 * 1024);
+    }
+
+    void compress(@NonNull Bitmap bitmap, int quality) {
+      reset();
+      bitmap.compress(CompressFormat.JPEG, quality, this);
+    }
+  }
+
   public static class ScaleResult {
     private final byte[] bitmap;
     private final int    width;
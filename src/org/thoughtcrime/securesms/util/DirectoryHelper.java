@@ -153,6 +153,57 @@ public class DirectoryHelper {
     }
   }
 
+  public static void refreshDirectoryFor(@NonNull Context context,
+                                         @NonNull List<Recipient> recipients)
+      throws IOException
+  {
+    if (recipients.size() == 1) {
+      refreshDirectoryFor(context, recipients.get(0));
+      return;
+    }
+
+    SignalServiceAccountManager accountManager = AccountManagerFactory.createManager(context);
+    Set<String>                 numbers        = Stream.of(recipients).map(recipient -> recipient.getAddress().serialize()).collect(Collectors.toSet());
+    List<ContactTokenDetails>   activeTokens   = accountManager.getContacts(numbers);
+
+    if (activeTokens == null) return;
+
+    Set<String>   activeNumbers       = Stream.of(activeTokens).map(ContactTokenDetails::getNumber).collect(Collectors.toSet());
+    List<Address> activeAddresses     = new LinkedList<>();
+    List<Address> inactiveAddresses   = new LinkedList<>();
+    List<Address> newlyActiveContacts = new LinkedList<>();
+    boolean       newlyActive         = false;
+
+    for (Recipient recipient : recipients) {
+      Address address = recipient.getAddress();
+
+      if (activeNumbers.contains(address.serialize())) {
+        activeAddresses.add(address);
+
+        if (recipient.resolve().getRegistered() != RegisteredState.REGISTERED) {
+          newlyActive = true;
+          if (recipient.isSystemContact()) newlyActiveContacts.add(address);
+        }
+      } else {
+        inactiveAddresses.add(address);
+      }
+    }
+
+    DatabaseFactory.getRecipientDatabase(context).setRegistered(activeAddresses, inactiveAddresses);
+
+    if (!activeAddresses.isEmpty() && Permissions.hasAll(context, Manifest.permission.WRITE_CONTACTS)) {
+      updateContactsDatabase(context, activeAddresses, false);
+    }
+
+    if (newlyActive && TextSecurePreferences.isMultiDevice(context)) {
+      ApplicationContext.getInstance(context).getJobManager().add(new MultiDeviceContactUpdateJob(context));
+    }
+
+    if (!newlyActiveContacts.isEmpty()) {
+      notifyNewUsers(context, newlyActiveContacts);
+    }
+  }
+
   private static void updateContactsDatabase(@NonNull Context context, @NonNull List<Address> activeAddresses, boolean removeMissing) {
     Optional<AccountHolder> account = getOrCreateAccount(context);
 
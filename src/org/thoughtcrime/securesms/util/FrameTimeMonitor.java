@@ -0,0 +1,95 @@
+package org.thoughtcrime.securesms.util;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.support.annotation.NonNull;
+import android.util.Log;
+import android.view.Choreographer;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures frame times between {@link #start()} and {@link #stop()} and logs a summary,
+ * so that the cost of work done on the main thread (e.g. while scrolling) shows up
+ * in the logs as dropped frames.
+ */
+public class FrameTimeMonitor {
+
+  private static final long FRAME_BUDGET_NANOS = TimeUnit.MICROSECONDS.toNanos(16667);
+
+  private final String        tag;
+  private final FrameCallback callback;
+
+  private boolean running;
+  private long    lastFrameNanos;
+  private int     frames;
+  private int     droppedFrames;
+  private long    totalNanos;
+  private long    maxNanos;
+
+  public FrameTimeMonitor(@NonNull String tag) {
+    this.tag      = tag;
+    this.callback = Build.VERSION.SDK_INT >= 16 ? new FrameCallback() : null;
+  }
+
+  public void start() {
+    if (callback == null || running) return;
+
+    running        = true;
+    lastFrameNanos = 0;
+    frames         = 0;
+    droppedFrames  = 0;
+    totalNanos     = 0;
+    maxNanos       = 0;
+
+    callback.post();
+  }
+
+  public void stop() {
+    if (callback == null || !running) return;
+
+    running = false;
+    callback.remove();
+
+    if (frames > 0) {
+      Log.i(tag, "Frames: " + frames +
+                 ", dropped: " + droppedFrames +
+                 ", average: " + TimeUnit.NANOSECONDS.toMicros(totalNanos / frames) / 1000f + "ms" +
+                 ", max: " + TimeUnit.NANOSECONDS.toMicros(maxNanos) / 1000f + "ms");
+    }
+  }
+
+  private void onFrame(long frameTimeNanos) {
+    if (lastFrameNanos != 0) {
+      long elapsed = frameTimeNanos - lastFrameNanos;
+
+      frames++;
+      totalNanos += elapsed;
+      maxNanos    = Math.max(maxNanos, elapsed);
+
+      if (elapsed > FRAME_BUDGET_NANOS) {
+        droppedFrames += (int)(elapsed / FRAME_BUDGET_NANOS) - 1;
+      }
+    }
+
+    lastFrameNanos = frameTimeNanos;
+  }
+
+  @TargetApi(16)
+  private class FrameCallback implements Choreographer.FrameCallback {
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+      onFrame(frameTimeNanos);
+      if (running) post();
+    }
+
+    void post() {
+      Choreographer.getInstance().postFrameCallback(this);
+    }
+
+    void remove() {
+      Choreographer.getInstance().removeFrameCallback(this);
+    }
+  }
+}
@@ -48,6 +48,8 @@ public class TextSecurePreferences {
   public  static final String MMSC_PASSWORD_PREF               = "pref_apn_mmsc_password";
   public  static final String THREAD_TRIM_LENGTH               = "pref_trim_length";
   public  static final String THREAD_TRIM_NOW                  = "pref_trim_now";
+  public  static final String THREAD_TRIM_AGE                  = "pref_trim_age";
+  private static final String THREAD_TRIM_TIME                 = "pref_trim_next_time";
   public  static final String ENABLE_MANUAL_MMS_PREF           = "pref_enable_manual_mms";
 
   private static final String LAST_VERSION_CODE_PREF           = "last_version_code";
@@ -69,7 +71,7 @@ public class TextSecurePreferences {
   private static final String SMS_DELIVERY_REPORT_PREF         = "pref_delivery_report_sms";
   public  static final String MMS_USER_AGENT                   = "pref_mms_user_agent";
   private static final String MMS_CUSTOM_USER_AGENT            = "pref_custom_mms_user_agent";
-  private static final String THREAD_TRIM_ENABLED              = "pref_trim_threads";
+  public  static final String THREAD_TRIM_ENABLED              = "pref_trim_threads";
   private static final String LOCAL_NUMBER_PREF                = "pref_local_number";
   private static final String VERIFYING_STATE_PREF             = "pref_verifying";
   public  static final String REGISTERED_GCM_PREF              = "pref_gcm_registered";
@@ -150,6 +152,30 @@ public class TextSecurePreferences {
   private static final String REGISTRATION_LOCK_LAST_REMINDER_TIME     = "pref_registration_lock_last_reminder_time";
   private static final String REGISTRATION_LOCK_NEXT_REMINDER_INTERVAL = "pref_registration_lock_next_reminder_interval";
 
+  private static final String LAST_FULL_CONTACT_SYNC_TIME_PREF = "pref_last_full_contact_sync_time";
+
+  private static final Set<String> SNAPSHOT_KEYS = new HashSet<>(Arrays.asList(READ_RECEIPTS_PREF,
+                                                                                LOCAL_NUMBER_PREF,
+                                                                                REGISTERED_GCM_PREF,
+                                                                                NOTIFICATION_PREF,
+                                                                                IN_THREAD_NOTIFICATION_PREF,
+                                                                                NOTIFICATION_PRIVACY_PREF,
+                                                                                NOTIFICATION_PRIORITY_PREF,
+                                                                                MESSAGE_BODY_TEXT_SIZE_PREF));
+
+  private static volatile Snapshot snapshot;
+
+  // SharedPreferences only holds its listeners weakly.
+  private static SharedPreferences.OnSharedPreferenceChangeListener snapshotListener;
+
+  public static long getLastFullContactSyncTime(@NonNull Context context) {
+    return getLongPreference(context, LAST_FULL_CONTACT_SYNC_TIME_PREF, 0L);
+  }
+
+  public static void setLastFullContactSyncTime(@NonNull Context context, long value) {
+    setLongPreference(context, LAST_FULL_CONTACT_SYNC_TIME_PREF, value);
+  }
+
   public static boolean isScreenLockEnabled(@NonNull Context context) {
     return getBooleanPreference(context, SCREEN_LOCK, false);
   }
@@ -308,7 +334,7 @@ public class TextSecurePreferences {
   }
 
   public static boolean isReadReceiptsEnabled(Context context) {
-    return getBooleanPreference(context, READ_RECEIPTS_PREF, false);
+    return getSnapshot(context).readReceiptsEnabled;
   }
 
   public static void setReadReceiptsEnabled(Context context, boolean enabled) {
@@ -340,11 +366,11 @@ public class TextSecurePreferences {
   }
 
   public static int getNotificationPriority(Context context) {
-    return Integer.valueOf(getStringPreference(context, NOTIFICATION_PRIORITY_PREF, String.valueOf(NotificationCompat.PRIORITY_HIGH)));
+    return getSnapshot(context).notificationPriority;
   }
 
   public static int getMessageBodyTextSize(Context context) {
-    return Integer.valueOf(getStringPreference(context, MESSAGE_BODY_TEXT_SIZE_PREF, "16"));
+    return getSnapshot(context).messageBodyTextSize;
   }
 
   public static boolean isTurnOnly(Context context) {
@@ -393,7 +419,7 @@ public class TextSecurePreferences {
   }
 
   public static NotificationPrivacyPreference getNotificationPrivacy(Context context) {
-    return new NotificationPrivacyPreference(getStringPreference(context, NOTIFICATION_PRIVACY_PREF, "all"));
+    return getSnapshot(context).notificationPrivacy;
   }
 
   public static boolean isNewContactsNotificationEnabled(Context context) {
@@ -489,7 +515,7 @@ public class TextSecurePreferences {
   }
 
   public static boolean isInThreadNotifications(Context context) {
-    return getBooleanPreference(context, IN_THREAD_NOTIFICATION_PREF, true);
+    return getSnapshot(context).inThreadNotifications;
   }
 
   public static long getSignedPreKeyRotationTime(Context context) {
@@ -533,7 +559,7 @@ public class TextSecurePreferences {
   }
 
   public static String getLocalNumber(Context context) {
-    return getStringPreference(context, LOCAL_NUMBER_PREF, null);
+    return getSnapshot(context).localNumber;
   }
 
   public static void setLocalNumber(Context context, String localNumber) {
@@ -723,7 +749,7 @@ public class TextSecurePreferences {
   }
 
   public static boolean isPushRegistered(Context context) {
-    return getBooleanPreference(context, REGISTERED_GCM_PREF, false);
+    return getSnapshot(context).pushRegistered;
   }
 
   public static void setPushRegistered(Context context, boolean registered) {
@@ -800,7 +826,7 @@ public class TextSecurePreferences {
   }
 
   public static boolean isNotificationsEnabled(Context context) {
-    return getBooleanPreference(context, NOTIFICATION_PREF, true);
+    return getSnapshot(context).notificationsEnabled;
   }
 
   public static boolean isCallNotificationsEnabled(Context context) {
@@ -881,6 +907,18 @@ public class TextSecurePreferences {
     return Integer.parseInt(getStringPreference(context, THREAD_TRIM_LENGTH, "500"));
   }
 
+  public static int getThreadTrimAgeDays(Context context) {
+    return Integer.parseInt(getStringPreference(context, THREAD_TRIM_AGE, "0"));
+  }
+
+  public static void setNextThreadTrimTime(Context context, long time) {
+    setLongPreference(context, THREAD_TRIM_TIME, time);
+  }
+
+  public static long getNextThreadTrimTime(Context context) {
+    return getLongPreference(context, THREAD_TRIM_TIME, -1);
+  }
+
   public static boolean isSystemEmojiPreferred(Context context) {
     return getBooleanPreference(context, SYSTEM_EMOJI_PREF, false);
   }
@@ -904,7 +942,9 @@ public class TextSecurePreferences {
   }
 
   public static void setBooleanPreference(Context context, String key, boolean value) {
-    PreferenceManager.getDefaultSharedPreferences(context).edit().putBoolean(key, value).apply();
+    SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(context);
+    preferences.edit().putBoolean(key, value).apply();
+    onPreferenceChanged(preferences, key);
   }
 
   public static boolean getBooleanPreference(Context context, String key, boolean defaultValue) {
@@ -912,7 +952,9 @@ public class TextSecurePreferences {
   }
 
   public static void setStringPreference(Context context, String key, String value) {
-    PreferenceManager.getDefaultSharedPreferences(context).edit().putString(key, value).apply();
+    SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(context);
+    preferences.edit().putString(key, value).apply();
+    onPreferenceChanged(preferences, key);
   }
 
   public static String getStringPreference(Context context, String key, String defaultValue) {
@@ -940,7 +982,9 @@ public class TextSecurePreferences {
   }
 
   private static void removePreference(Context context, String key) {
-    PreferenceManager.getDefaultSharedPreferences(context).edit().remove(key).apply();
+    SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(context);
+    preferences.edit().remove(key).apply();
+    onPreferenceChanged(preferences, key);
   }
 
   private static Set<String> getStringSetPreference(Context context, String key, Set<String> defaultValues) {
@@ -951,4 +995,72 @@ public class TextSecurePreferences {
       return defaultValues;
     }
   }
+
+  private static @NonNull Snapshot getSnapshot(Context context) {
+    Snapshot current = snapshot;
+    return current != null ? current : initializeSnapshot(context);
+  }
+
+  private static synchronized @NonNull Snapshot initializeSnapshot(Context context) {
+    if (snapshot == null) {
+      SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(context);
+
+      snapshotListener = TextSecurePreferences::onPreferenceChanged;
+      preferences.registerOnSharedPreferenceChangeListener(snapshotListener);
+
+      snapshot = new Snapshot(preferences);
+    }
+
+    return snapshot;
+  }
+
+  private static void onPreferenceChanged(SharedPreferences preferences, String key) {
+    if (key != null && !SNAPSHOT_KEYS.contains(key)) return;
+
+    synchronized (TextSecurePreferences.class) {
+      if (snapshot != null) {
+        snapshot = new Snapshot(preferences);
+      }
+    }
+  }
+
+  private static int parseInteger(@Nullable String value, int defaultValue) {
+    try {
+      return value != null ? Integer.parseInt(value) : defaultValue;
+    } catch (NumberFormatException e) {
+      Log.w(TAG, e);
+      return defaultValue;
+    }
+  }
+
+  /**
+   * The preferences that are read on hot paths, such as once per row of a list, held in memory so
+   * that reading one is a field read rather than a lookup in the shared preferences.
+   *
+   * A snapshot is never modified. When one of its preferences changes, whether through a setter
+   * here or through a settings screen, it's replaced with a new one. Setters replace it right away,
+   * since the listener is only called later on the main thread.
+   */
+  private static class Snapshot {
+
+    private final boolean                       readReceiptsEnabled;
+    private final String                        localNumber;
+    private final boolean                       pushRegistered;
+    private final boolean                       notificationsEnabled;
+    private final boolean                       inThreadNotifications;
+    private final NotificationPrivacyPreference notificationPrivacy;
+    private final int                           notificationPriority;
+    private final int                           messageBodyTextSize;
+
+    private Snapshot(@NonNull SharedPreferences preferences) {
+      this.readReceiptsEnabled   = preferences.getBoolean(READ_RECEIPTS_PREF, false);
+      this.localNumber           = preferences.getString(LOCAL_NUMBER_PREF, null);
+      this.pushRegistered        = preferences.getBoolean(REGISTERED_GCM_PREF, false);
+      this.notificationsEnabled  = preferences.getBoolean(NOTIFICATION_PREF, true);
+      this.inThreadNotifications = preferences.getBoolean(IN_THREAD_NOTIFICATION_PREF, true);
+      this.notificationPrivacy   = new NotificationPrivacyPreference(preferences.getString(NOTIFICATION_PRIVACY_PREF, "all"));
+      this.notificationPriority  = parseInteger(preferences.getString(NOTIFICATION_PRIORITY_PREF, null), NotificationCompat.PRIORITY_HIGH);
+      this.messageBodyTextSize   = parseInteger(preferences.getString(MESSAGE_BODY_TEXT_SIZE_PREF, null), 16);
+    }
+  }
 }
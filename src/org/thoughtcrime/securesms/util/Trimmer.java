@@ -8,19 +8,22 @@ import android.widget.Toast;
 import org.thoughtcrime.securesms.R;
 import org.thoughtcrime.securesms.database.DatabaseFactory;
 import org.thoughtcrime.securesms.database.ThreadDatabase;
+import org.thoughtcrime.securesms.database.ThreadDatabase.RetentionPolicy;
 
 public class Trimmer {
 
-  public static void trimAllThreads(Context context, int threadLengthLimit) {
-    new TrimmingProgressTask(context).executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, threadLengthLimit);
+  public static void trimAllThreads(Context context, RetentionPolicy policy) {
+    new TrimmingProgressTask(context, policy).executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
   }
 
-  private static class TrimmingProgressTask extends AsyncTask<Integer, Integer, Void> implements ThreadDatabase.ProgressListener {
-    private ProgressDialog progressDialog;
-    private Context context;
+  private static class TrimmingProgressTask extends AsyncTask<Void, Integer, Void> implements ThreadDatabase.ProgressListener {
+    private ProgressDialog  progressDialog;
+    private Context         context;
+    private RetentionPolicy policy;
 
-    public TrimmingProgressTask(Context context) {
+    public TrimmingProgressTask(Context context, RetentionPolicy policy) {
       this.context = context;
+      this.policy  = policy;
     }
 
     @Override
@@ -36,8 +39,8 @@ public class Trimmer {
     }
 
     @Override
-    protected Void doInBackground(Integer... params) {
-      DatabaseFactory.getThreadDatabase(context).trimAllThreads(params[0], this);
+    protected Void doInBackground(Void... params) {
+      DatabaseFactory.getThreadDatabase(context).trimAllThreads(policy, this);
       return null;
     }
 
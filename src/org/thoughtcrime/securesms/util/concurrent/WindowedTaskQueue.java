@@ -0,0 +1,71 @@
+package org.thoughtcrime.securesms.util.concurrent;
+
+import android.support.annotation.NonNull;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Runs tasks on an executor and returns their results in the order the tasks were given, with
+ * at most a fixed number of them submitted and not yet consumed at a time. Large results, like
+ * resized images, can't pile up in memory while earlier ones are still being handled.
+ */
+public class WindowedTaskQueue<T> {
+
+  private final ExecutorService       executor;
+  private final List<Callable<T>>     tasks;
+  private final int                   window;
+  private final LinkedList<Future<T>> pending = new LinkedList<>();
+
+  private int submitted;
+
+  public WindowedTaskQueue(@NonNull ExecutorService executor, @NonNull List<Callable<T>> tasks, int window) {
+    if (window < 1) throw new IllegalArgumentException("Window must be at least 1: " + window);
+
+    this.executor = executor;
+    this.tasks    = tasks;
+    this.window   = window;
+
+    fill();
+  }
+
+  public boolean hasNext() {
+    return !pending.isEmpty();
+  }
+
+  /**
+   * Waits for the next task's result, and submits another task in its place.
+   */
+  public T next() throws ExecutionException, InterruptedException {
+    Future<T> next = pending.removeFirst();
+
+    try {
+      return next.get();
+    } finally {
+      fill();
+    }
+  }
+
+  /**
+   * Cancels the tasks that haven't started yet, and stops submitting new ones.
+   */
+  public void cancel() {
+    submitted = tasks.size();
+
+    for (Future<T> future : pending) {
+      future.cancel(false);
+    }
+
+    pending.clear();
+  }
+
+  private void fill() {
+    while (pending.size() < window && submitted < tasks.size()) {
+      pending.add(executor.submit(tasks.get(submitted++)));
+    }
+  }
+}
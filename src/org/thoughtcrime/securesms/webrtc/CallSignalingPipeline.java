@@ -0,0 +1,297 @@
+package org.thoughtcrime.securesms.webrtc;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import org.thoughtcrime.securesms.util.ListenableFutureTask;
+import org.whispersystems.signalservice.api.crypto.UntrustedIdentityException;
+import org.whispersystems.signalservice.api.messages.calls.IceUpdateMessage;
+import org.whispersystems.signalservice.api.messages.calls.SignalServiceCallMessage;
+import org.whispersystems.signalservice.api.push.SignalServiceAddress;
+
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends call signaling messages, in order, on a dedicated thread.
+ *
+ * Trickled ICE candidates are held for a short window and sent together as a single message,
+ * for the whole call rather than only while it's being set up. Hangup and busy messages are
+ * sent ahead of queued ICE candidates and messages for other calls, but never ahead of an
+ * offer, answer or other message still queued for their own call. How long each message waited
+ * and took to send is tracked per message type.
+ */
+public class CallSignalingPipeline {
+
+  private static final String TAG = CallSignalingPipeline.class.getSimpleName();
+
+  public  static final long ICE_BATCH_WINDOW_MILLIS = 100;
+  private static final int  STATS_LOG_PERIOD        = 10;
+
+  private final Transport                transport;
+  private final Executor                 callbackExecutor;
+  private final long                     iceBatchWindowMillis;
+  private final ThreadPoolExecutor       sendExecutor;
+  private final ScheduledExecutorService batchExecutor;
+  private final AtomicLong               sequence;
+  private final Map<Type, Stats>         stats;
+
+  private @Nullable IceBatch pendingIceBatch;
+
+  public CallSignalingPipeline(@NonNull Transport transport, @Nullable Executor callbackExecutor) {
+    this(transport, callbackExecutor, ICE_BATCH_WINDOW_MILLIS);
+  }
+
+  public CallSignalingPipeline(@NonNull Transport transport, @Nullable Executor callbackExecutor, long iceBatchWindowMillis) {
+    this.transport            = transport;
+    this.callbackExecutor     = callbackExecutor;
+    this.iceBatchWindowMillis = iceBatchWindowMillis;
+    this.sendExecutor         = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new PriorityBlockingQueue<>(),
+                                                       runnable -> new Thread(runnable, "CallSignaling"));
+    this.batchExecutor        = Executors.newSingleThreadScheduledExecutor(runnable -> new Thread(runnable, "CallSignalingBatch"));
+    this.sequence             = new AtomicLong();
+    this.stats                = new EnumMap<>(Type.class);
+  }
+
+  public synchronized ListenableFutureTask<Boolean> send(@NonNull SignalServiceAddress address,
+                                                         @NonNull SignalServiceCallMessage message)
+  {
+    ListenableFutureTask<Boolean> future = createSendTask(address, message);
+    Type                          type   = getType(message);
+    long                          callId = getCallId(message);
+
+    if (type == Type.HANGUP || type == Type.BUSY) enqueue(createUrgentTask(type, callId, future));
+    else                                          enqueue(new SendTask(Priority.NORMAL, type, callId, sequence.getAndIncrement(), 0, future));
+
+    return future;
+  }
+
+  /**
+   * Adds a candidate to the batch for this address, which is sent once the batch window has
+   * passed. All candidates in a batch share the returned future.
+   */
+  public synchronized ListenableFutureTask<Boolean> sendIceUpdate(@NonNull SignalServiceAddress address,
+                                                                  @NonNull IceUpdateMessage iceUpdate)
+  {
+    if (pendingIceBatch != null && !pendingIceBatch.address.equals(address)) {
+      flushIceUpdates();
+    }
+
+    if (pendingIceBatch == null) {
+      List<IceUpdateMessage>        iceUpdates = new LinkedList<>();
+      ListenableFutureTask<Boolean> future     = createSendTask(address, SignalServiceCallMessage.forIceUpdates(iceUpdates));
+
+      pendingIceBatch = new IceBatch(address, iceUpdates, future);
+      pendingIceBatch.flush = batchExecutor.schedule(this::flushIceUpdates, iceBatchWindowMillis, TimeUnit.MILLISECONDS);
+    }
+
+    pendingIceBatch.iceUpdates.add(iceUpdate);
+
+    return pendingIceBatch.future;
+  }
+
+  /**
+   * Drops ICE candidates that haven't been sent yet, for when the call they belong to is over.
+   */
+  public synchronized void cancelIceUpdates() {
+    if (pendingIceBatch != null) {
+      pendingIceBatch.flush.cancel(false);
+      pendingIceBatch = null;
+    }
+
+    Iterator<Runnable> iterator = sendExecutor.getQueue().iterator();
+
+    while (iterator.hasNext()) {
+      if (((SendTask)iterator.next()).type == Type.ICE) iterator.remove();
+    }
+  }
+
+  public void shutdown() {
+    batchExecutor.shutdownNow();
+    sendExecutor.shutdown();
+  }
+
+  private synchronized void flushIceUpdates() {
+    if (pendingIceBatch == null) return;
+
+    IceBatch batch = pendingIceBatch;
+    pendingIceBatch = null;
+
+    batch.flush.cancel(false);
+
+    Log.i(TAG, "Sending " + batch.iceUpdates.size() + " batched ice candidates");
+    enqueue(new SendTask(Priority.NORMAL, Type.ICE, getCallId(batch.iceUpdates), sequence.getAndIncrement(), 0, batch.future));
+  }
+
+  /**
+   * Creates a task that's sent ahead of everything queued, unless a message other than an ICE
+   * update is still queued for the same call. Then it's sent right after the last of those, so
+   * the remote party never sees a hangup before the offer or answer it ends.
+   */
+  private @NonNull SendTask createUrgentTask(@NonNull Type type, long callId, @NonNull ListenableFutureTask<Boolean> future) {
+    SendTask last = null;
+
+    for (Runnable runnable : sendExecutor.getQueue()) {
+      SendTask queued = (SendTask)runnable;
+
+      if (queued.callId == callId && queued.type != Type.ICE && (last == null || queued.compareTo(last) > 0)) {
+        last = queued;
+      }
+    }
+
+    if (last == null) return new SendTask(Priority.URGENT, type, callId, sequence.getAndIncrement(), 0, future);
+    else              return new SendTask(last.priority, type, callId, last.sequence, last.position + 1, future);
+  }
+
+  private void enqueue(@NonNull SendTask task) {
+    sendExecutor.execute(task);
+  }
+
+  private ListenableFutureTask<Boolean> createSendTask(@NonNull SignalServiceAddress address,
+                                                       @NonNull SignalServiceCallMessage message)
+  {
+    return new ListenableFutureTask<>(() -> {
+      transport.sendCallMessage(address, message);
+      return true;
+    }, null, callbackExecutor);
+  }
+
+  private void onSent(@NonNull SendTask task, long waitMillis, long sendMillis) {
+    Log.i(TAG, task.type + " sent after waiting " + waitMillis + "ms, sending took " + sendMillis + "ms");
+
+    synchronized (stats) {
+      Stats typeStats = stats.get(task.type);
+
+      if (typeStats == null) {
+        typeStats = new Stats();
+        stats.put(task.type, typeStats);
+      }
+
+      typeStats.count++;
+      typeStats.totalMillis += waitMillis + sendMillis;
+      typeStats.maxMillis    = Math.max(typeStats.maxMillis, waitMillis + sendMillis);
+
+      if (typeStats.count % STATS_LOG_PERIOD == 0) {
+        Log.i(TAG, task.type + ": " + typeStats.count + " sent, average latency: " + (typeStats.totalMillis / typeStats.count) + "ms, max: " + typeStats.maxMillis + "ms");
+      }
+    }
+  }
+
+  private static long getCallId(@NonNull SignalServiceCallMessage message) {
+    if      (message.getOfferMessage().isPresent())      return message.getOfferMessage().get().getId();
+    else if (message.getAnswerMessage().isPresent())     return message.getAnswerMessage().get().getId();
+    else if (message.getHangupMessage().isPresent())     return message.getHangupMessage().get().getId();
+    else if (message.getBusyMessage().isPresent())       return message.getBusyMessage().get().getId();
+    else if (message.getIceUpdateMessages().isPresent()) return getCallId(message.getIceUpdateMessages().get());
+    else                                                 return -1;
+  }
+
+  private static long getCallId(@NonNull List<IceUpdateMessage> iceUpdates) {
+    return iceUpdates.isEmpty() ? -1 : iceUpdates.get(0).getId();
+  }
+
+  private static @NonNull Type getType(@NonNull SignalServiceCallMessage message) {
+    if      (message.getOfferMessage().isPresent())      return Type.OFFER;
+    else if (message.getAnswerMessage().isPresent())     return Type.ANSWER;
+    else if (message.getHangupMessage().isPresent())     return Type.HANGUP;
+    else if (message.getBusyMessage().isPresent())       return Type.BUSY;
+    else if (message.getIceUpdateMessages().isPresent()) return Type.ICE;
+    else                                                 return Type.OTHER;
+  }
+
+  private class SendTask implements Runnable, Comparable<SendTask> {
+
+    private final Priority                      priority;
+    private final Type                          type;
+    private final long                          callId;
+    private final long                          sequence;
+    private final int                           position;
+    private final ListenableFutureTask<Boolean> future;
+    private final long                          queuedAt;
+
+    /**
+     * @param sequence The order the task was queued in, within its priority.
+     * @param position Orders tasks placed directly after the task with the same sequence.
+     */
+    private SendTask(@NonNull Priority priority, @NonNull Type type, long callId, long sequence, int position,
+                     @NonNull ListenableFutureTask<Boolean> future)
+    {
+      this.priority = priority;
+      this.type     = type;
+      this.callId   = callId;
+      this.sequence = sequence;
+      this.position = position;
+      this.future   = future;
+      this.queuedAt = System.currentTimeMillis();
+    }
+
+    @Override
+    public void run() {
+      long startedAt = System.currentTimeMillis();
+
+      future.run();
+      onSent(this, startedAt - queuedAt, System.currentTimeMillis() - startedAt);
+    }
+
+    @Override
+    public int compareTo(@NonNull SendTask other) {
+      if      (priority != other.priority) return priority.compareTo(other.priority);
+      else if (sequence != other.sequence) return Long.compare(sequence, other.sequence);
+      else                                 return Integer.compare(position, other.position);
+    }
+  }
+
+  private static class IceBatch {
+
+    private final SignalServiceAddress          address;
+    private final List<IceUpdateMessage>        iceUpdates;
+    private final ListenableFutureTask<Boolean> future;
+
+    private ScheduledFuture<?> flush;
+
+    private IceBatch(@NonNull SignalServiceAddress address,
+                     @NonNull List<IceUpdateMessage> iceUpdates,
+                     @NonNull ListenableFutureTask<Boolean> future)
+    {
+      this.address    = address;
+      this.iceUpdates = iceUpdates;
+      this.future     = future;
+    }
+  }
+
+  private static class Stats {
+    private int  count;
+    private long totalMillis;
+    private long maxMillis;
+  }
+
+  private enum Priority {
+    URGENT, NORMAL
+  }
+
+  private enum Type {
+    OFFER, ANSWER, HANGUP, BUSY, ICE, OTHER
+  }
+
+  /**
+   * Delivers signaling messages to the remote party. This is normally the message sender,
+   * but can be replaced with a local stand-in.
+   */
+  public interface Transport {
+    void sendCallMessage(@NonNull SignalServiceAddress address, @NonNull SignalServiceCallMessage message)
+        throws IOException, UntrustedIdentityException;
+  }
+}
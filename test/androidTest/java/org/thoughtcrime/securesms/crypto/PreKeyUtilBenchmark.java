@@ -0,0 +1,62 @@
+package org.thoughtcrime.securesms.crypto;
+
+import android.util.Log;
+
+import org.thoughtcrime.securesms.TextSecureTestCase;
+import org.thoughtcrime.securesms.util.Hex;
+import org.whispersystems.libsignal.ecc.ECKeyPair;
+
+import java.io.InterruptedIOException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Measures how many one-time prekey pairs a batch generates per second, on one thread and on the
+ * worker pool.
+ */
+public class PreKeyUtilBenchmark extends TextSecureTestCase {
+
+  private static final String TAG = PreKeyUtilBenchmark.class.getSimpleName();
+
+  private static final int BATCH_SIZE = 100;
+  private static final int ROUNDS     = 3;
+
+  public void testBatchKeepsEveryKeyPair() throws Exception {
+    List<ECKeyPair> keyPairs   = PreKeyUtil.generateKeyPairs(BATCH_SIZE - 1, 2);
+    Set<String>     publicKeys = new HashSet<>();
+
+    for (ECKeyPair keyPair : keyPairs) {
+      publicKeys.add(Hex.toStringCondensed(keyPair.getPublicKey().serialize()));
+    }
+
+    assertEquals(BATCH_SIZE - 1, keyPairs.size());
+    assertEquals(BATCH_SIZE - 1, publicKeys.size());
+  }
+
+  public void testInterruptedBatchKeepsInterruptStatus() {
+    Thread.currentThread().interrupt();
+
+    try {
+      PreKeyUtil.generateKeyPairs(BATCH_SIZE, 2);
+      fail("Expected InterruptedIOException");
+    } catch (InterruptedIOException e) {
+      assertTrue(Thread.interrupted());
+    }
+  }
+
+  public void testBatchThroughput() throws Exception {
+    for (int threads = 1; threads <= 2; threads++) {
+      long bestNanos = Long.MAX_VALUE;
+
+      for (int round = 0; round < ROUNDS; round++) {
+        long startNanos = System.nanoTime();
+        assertEquals(BATCH_SIZE, PreKeyUtil.generateKeyPairs(BATCH_SIZE, threads).size());
+        bestNanos = Math.min(bestNanos, System.nanoTime() - startNanos);
+      }
+
+      Log.w(TAG, threads + " thread(s): " + (BATCH_SIZE * 1000000000L / bestNanos) + " key pairs/s, " +
+                 (bestNanos / 1000000) + "ms per batch of " + BATCH_SIZE);
+    }
+  }
+}
@@ -0,0 +1,198 @@
+package org.thoughtcrime.securesms.database;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import org.thoughtcrime.securesms.TextSecureTestCase;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares mapping message rows by looking each column up by name with mapping them through
+ * cached column indexes, with a reader per row (as the conversation adapter does) and a reader
+ * per cursor (as notifications do).
+ */
+public class ColumnIndexCacheBenchmark extends TextSecureTestCase {
+
+  private static final String TAG = ColumnIndexCacheBenchmark.class.getSimpleName();
+
+  private static final String[] MESSAGE_COLUMNS = {"_id", "address", "address_device_id", "type", "date_received",
+                                                   "date_sent", "thread_id", "status", "delivery_receipt_count",
+                                                   "read_receipt_count", "mismatched_identities", "subscription_id",
+                                                   "expires_in", "expire_started", "body"};
+
+  private static final int ROWS   = 20000;
+  private static final int WARMUP = 3;
+
+  private static final ColumnIndexCache.Resolver<MessageColumns> RESOLVER = new ColumnIndexCache.Resolver<MessageColumns>() {
+    @Override
+    public @NonNull MessageColumns resolve(@NonNull Cursor cursor) {
+      return new MessageColumns(cursor);
+    }
+  };
+
+  public void testRowMapper() {
+    Cursor cursor = createCursor();
+
+    for (int i = 0; i < WARMUP; i++) {
+      readByName(cursor);
+      readWithReaderPerRow(cursor);
+      readWithReaderPerCursor(cursor);
+    }
+
+    long startNanos  = System.nanoTime();
+    long byName      = readByName(cursor);
+    long byNameNanos = System.nanoTime() - startNanos;
+
+    startNanos       = System.nanoTime();
+    long perRow      = readWithReaderPerRow(cursor);
+    long perRowNanos = System.nanoTime() - startNanos;
+
+    startNanos          = System.nanoTime();
+    long perCursor      = readWithReaderPerCursor(cursor);
+    long perCursorNanos = System.nanoTime() - startNanos;
+
+    assertEquals(byName, perRow);
+    assertEquals(byName, perCursor);
+
+    Log.w(TAG, "Read " + cursor.getCount() + " rows: by name " + TimeUnit.NANOSECONDS.toMillis(byNameNanos) + "ms, " +
+               "cached with a reader per row " + TimeUnit.NANOSECONDS.toMillis(perRowNanos) + "ms, " +
+               "cached with a reader per cursor " + TimeUnit.NANOSECONDS.toMillis(perCursorNanos) + "ms");
+
+    cursor.close();
+  }
+
+  private static @NonNull Cursor createCursor() {
+    MatrixCursor cursor = new MatrixCursor(MESSAGE_COLUMNS, ROWS);
+
+    for (int i = 0; i < ROWS; i++) {
+      Object[] row = new Object[MESSAGE_COLUMNS.length];
+
+      for (int j = 0; j < row.length; j++) {
+        row[j] = i + j;
+      }
+
+      row[1]  = "+1415555" + (i % 100);
+      row[10] = "";
+      row[14] = "Message " + i;
+
+      cursor.addRow(row);
+    }
+
+    return cursor;
+  }
+
+  /**
+   * How every reader used to map a row, looking each column up by name.
+   */
+  private static long readByName(@NonNull Cursor cursor) {
+    long checksum = 0;
+
+    cursor.moveToPosition(-1);
+
+    while (cursor.moveToNext()) {
+      checksum += cursor.getLong(cursor.getColumnIndexOrThrow("_id"));
+      checksum += cursor.getString(cursor.getColumnIndexOrThrow("address")).length();
+      checksum += cursor.getInt(cursor.getColumnIndexOrThrow("address_device_id"));
+      checksum += cursor.getLong(cursor.getColumnIndexOrThrow("type"));
+      checksum += cursor.getLong(cursor.getColumnIndexOrThrow("date_received"));
+      checksum += cursor.getLong(cursor.getColumnIndexOrThrow("date_sent"));
+      checksum += cursor.getLong(cursor.getColumnIndexOrThrow("thread_id"));
+      checksum += cursor.getInt(cursor.getColumnIndexOrThrow("status"));
+      checksum += cursor.getInt(cursor.getColumnIndexOrThrow("delivery_receipt_count"));
+      checksum += cursor.getInt(cursor.getColumnIndexOrThrow("read_receipt_count"));
+      checksum += cursor.getString(cursor.getColumnIndexOrThrow("mismatched_identities")).length();
+      checksum += cursor.getInt(cursor.getColumnIndexOrThrow("subscription_id"));
+      checksum += cursor.getLong(cursor.getColumnIndexOrThrow("expires_in"));
+      checksum += cursor.getLong(cursor.getColumnIndexOrThrow("expire_started"));
+      checksum += cursor.getString(cursor.getColumnIndexOrThrow("body")).length();
+    }
+
+    return checksum;
+  }
+
+  private static long readWithReaderPerRow(@NonNull Cursor cursor) {
+    long checksum = 0;
+
+    cursor.moveToPosition(-1);
+
+    while (cursor.moveToNext()) {
+      checksum += read(cursor, new ColumnIndexCache<>(MessageColumns.class, RESOLVER).get(cursor));
+    }
+
+    return checksum;
+  }
+
+  private static long readWithReaderPerCursor(@NonNull Cursor cursor) {
+    ColumnIndexCache<MessageColumns> cache    = new ColumnIndexCache<>(MessageColumns.class, RESOLVER);
+    long                             checksum = 0;
+
+    cursor.moveToPosition(-1);
+
+    while (cursor.moveToNext()) {
+      checksum += read(cursor, cache.get(cursor));
+    }
+
+    return checksum;
+  }
+
+  private static long read(@NonNull Cursor cursor, @NonNull MessageColumns columns) {
+    return cursor.getLong(columns.id)                              +
+           cursor.getString(columns.address).length()              +
+           cursor.getInt(columns.addressDeviceId)                  +
+           cursor.getLong(columns.type)                            +
+           cursor.getLong(columns.dateReceived)                    +
+           cursor.getLong(columns.dateSent)                        +
+           cursor.getLong(columns.threadId)                        +
+           cursor.getInt(columns.status)                           +
+           cursor.getInt(columns.deliveryReceiptCount)             +
+           cursor.getInt(columns.readReceiptCount)                 +
+           cursor.getString(columns.mismatchedIdentities).length() +
+           cursor.getInt(columns.subscriptionId)                   +
+           cursor.getLong(columns.expiresIn)                       +
+           cursor.getLong(columns.expireStarted)                   +
+           cursor.getString(columns.body).length();
+  }
+
+  /**
+   * The same columns {@link SmsDatabase}'s reader maps.
+   */
+  private static class MessageColumns {
+
+    private final int id;
+    private final int address;
+    private final int addressDeviceId;
+    private final int type;
+    private final int dateReceived;
+    private final int dateSent;
+    private final int threadId;
+    private final int status;
+    private final int deliveryReceiptCount;
+    private final int readReceiptCount;
+    private final int mismatchedIdentities;
+    private final int subscriptionId;
+    private final int expiresIn;
+    private final int expireStarted;
+    private final int body;
+
+    private MessageColumns(@NonNull Cursor cursor) {
+      this.id                   = cursor.getColumnIndexOrThrow("_id");
+      this.address              = cursor.getColumnIndexOrThrow("address");
+      this.addressDeviceId      = cursor.getColumnIndexOrThrow("address_device_id");
+      this.type                 = cursor.getColumnIndexOrThrow("type");
+      this.dateReceived         = cursor.getColumnIndexOrThrow("date_received");
+      this.dateSent             = cursor.getColumnIndexOrThrow("date_sent");
+      this.threadId             = cursor.getColumnIndexOrThrow("thread_id");
+      this.status               = cursor.getColumnIndexOrThrow("status");
+      this.deliveryReceiptCount = cursor.getColumnIndexOrThrow("delivery_receipt_count");
+      this.readReceiptCount     = cursor.getColumnIndexOrThrow("read_receipt_count");
+      this.mismatchedIdentities = cursor.getColumnIndexOrThrow("mismatched_identities");
+      this.subscriptionId       = cursor.getColumnIndexOrThrow("subscription_id");
+      this.expiresIn            = cursor.getColumnIndexOrThrow("expires_in");
+      this.expireStarted        = cursor.getColumnIndexOrThrow("expire_started");
+      this.body                 = cursor.getColumnIndexOrThrow("body");
+    }
+  }
+}
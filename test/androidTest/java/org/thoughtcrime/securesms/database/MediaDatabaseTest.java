@@ -0,0 +1,140 @@
+package org.thoughtcrime.securesms.database;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+
+import net.sqlcipher.database.SQLiteDatabase;
+
+import org.thoughtcrime.securesms.TextSecureTestCase;
+
+import java.util.Calendar;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads the gallery of a made up thread, written straight to the message and attachment tables.
+ */
+public class MediaDatabaseTest extends TextSecureTestCase {
+
+  private static final long THREAD_ID = -4242;
+  private static final long HOUR      = TimeUnit.HOURS.toMillis(1);
+  private static final long DAY       = TimeUnit.DAYS.toMillis(1);
+
+  private Context        context;
+  private SQLiteDatabase database;
+  private long           now;
+
+  @Override
+  public void setUp() {
+    super.setUp();
+    context  = getInstrumentation().getTargetContext();
+    database = DatabaseFactory.getBackupDatabase(context);
+    now      = System.currentTimeMillis();
+  }
+
+  @Override
+  public void tearDown() throws Exception {
+    database.delete(AttachmentDatabase.TABLE_NAME, AttachmentDatabase.MMS_ID + " IN (SELECT " + MmsDatabase.ID + " FROM " + MmsDatabase.TABLE_NAME + " WHERE " + MmsDatabase.THREAD_ID + " = ?)",
+                    new String[] {String.valueOf(THREAD_ID)});
+    database.delete(MmsDatabase.TABLE_NAME, MmsDatabase.THREAD_ID + " = ?", new String[] {String.valueOf(THREAD_ID)});
+    super.tearDown();
+  }
+
+  public void testBuckets() {
+    long march = getDate(2015, Calendar.MARCH, 15);
+
+    insertMedia(now - HOUR, "image/jpeg", true);
+    insertMedia(now - 2 * HOUR, "video/mp4", true);
+    insertMedia(now - 3 * HOUR, "IMAGE/PNG", true);
+    insertMedia(now - 3 * HOUR, "audio/aac", true);
+    insertMedia(now - 3 * HOUR, "image/jpeg", false);
+    insertMedia(now - DAY - HOUR, "image/jpeg", true);
+    insertMedia(now - 3 * DAY, "image/gif", true);
+    insertMedia(march, "image/jpeg", true);
+    insertMedia(march + HOUR, "image/jpeg", true);
+    insertMedia(march - DAY, "video/3gpp", true);
+
+    List<MediaDatabase.GalleryBucket> buckets = DatabaseFactory.getMediaDatabase(context)
+                                                               .getGalleryBucketsForThread(THREAD_ID, now - DAY, now - 2 * DAY, now - 7 * DAY, now - 30 * DAY);
+
+    assertEquals(4, buckets.size());
+    assertBucket(MediaDatabase.GalleryBucket.TODAY, 3, buckets.get(0));
+    assertBucket(MediaDatabase.GalleryBucket.YESTERDAY, 1, buckets.get(1));
+    assertBucket(MediaDatabase.GalleryBucket.THIS_WEEK, 1, buckets.get(2));
+    assertBucket("2015-03", 3, buckets.get(3));
+  }
+
+  public void testPagesReadOnFromTheLastItem() {
+    for (int i = 0; i < 25; i++) {
+      insertMedia(now - (i / 3) * HOUR, i % 2 == 0 ? "image/jpeg" : "video/mp4", true);
+    }
+
+    List<Long> expected = new LinkedList<>();
+    List<Long> paged    = new LinkedList<>();
+    long[]     after    = null;
+
+    try (Cursor cursor = DatabaseFactory.getMediaDatabase(context).getGalleryPageForThread(THREAD_ID, 0, 100)) {
+      long lastDate = Long.MAX_VALUE;
+
+      while (cursor.moveToNext()) {
+        long[] key = MediaDatabase.getGalleryPageKey(cursor);
+
+        assertTrue(key[0] <= lastDate);
+        lastDate = key[0];
+        expected.add(key[1]);
+      }
+    }
+
+    assertEquals(25, expected.size());
+
+    do {
+      try (Cursor cursor = after == null ? DatabaseFactory.getMediaDatabase(context).getGalleryPageForThread(THREAD_ID, 0, 4)
+                                         : DatabaseFactory.getMediaDatabase(context).getGalleryPageForThread(THREAD_ID, after[0], after[1], 4))
+      {
+        after = null;
+
+        while (cursor.moveToNext()) {
+          after = MediaDatabase.getGalleryPageKey(cursor);
+          paged.add(after[1]);
+        }
+      }
+    } while (after != null);
+
+    assertEquals(expected, paged);
+
+    try (Cursor cursor = DatabaseFactory.getMediaDatabase(context).getGalleryPageForThread(THREAD_ID, 8, 4)) {
+      assertTrue(cursor.moveToFirst());
+      assertEquals(expected.get(8).longValue(), MediaDatabase.getGalleryPageKey(cursor)[1]);
+    }
+  }
+
+  private void assertBucket(String key, int count, MediaDatabase.GalleryBucket bucket) {
+    assertEquals(key, bucket.getKey());
+    assertEquals(count, bucket.getCount());
+  }
+
+  private void insertMedia(long dateReceived, String contentType, boolean hasData) {
+    ContentValues message = new ContentValues();
+    message.put(MmsDatabase.THREAD_ID, THREAD_ID);
+    message.put(MmsDatabase.DATE_SENT, dateReceived);
+    message.put(MmsDatabase.DATE_RECEIVED, dateReceived);
+    message.put(MmsDatabase.MESSAGE_BOX, 0);
+
+    ContentValues attachment = new ContentValues();
+    attachment.put(AttachmentDatabase.MMS_ID, database.insert(MmsDatabase.TABLE_NAME, null, message));
+    attachment.put(AttachmentDatabase.CONTENT_TYPE, contentType);
+    attachment.put(AttachmentDatabase.DATA, hasData ? "/nonexistent" : null);
+    attachment.put(AttachmentDatabase.UNIQUE_ID, now);
+
+    database.insert(AttachmentDatabase.TABLE_NAME, null, attachment);
+  }
+
+  private static long getDate(int year, int month, int day) {
+    Calendar calendar = Calendar.getInstance();
+    calendar.clear();
+    calendar.set(year, month, day, 12, 0);
+    return calendar.getTimeInMillis();
+  }
+}
@@ -0,0 +1,144 @@
+package org.thoughtcrime.securesms.database;
+
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.thoughtcrime.securesms.TextSecureTestCase;
+import org.thoughtcrime.securesms.attachments.AttachmentId;
+import org.thoughtcrime.securesms.attachments.DatabaseAttachment;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares reading the attachments of a media heavy thread from the packed column with reading
+ * them from the JSON array they used to be stored as.
+ */
+public class PackedAttachmentsBenchmark extends TextSecureTestCase {
+
+  private static final String TAG = PackedAttachmentsBenchmark.class.getSimpleName();
+
+  private static final int MESSAGES = 2000;
+  private static final int WARMUP   = 3;
+
+  public void testMediaThread() throws JSONException {
+    Random       random = new Random(42);
+    List<String> packed = new ArrayList<>(MESSAGES);
+    List<String> json   = new ArrayList<>(MESSAGES);
+    long         id     = 1;
+
+    for (int message = 0; message < MESSAGES; message++) {
+      StringBuilder packedBuilder = new StringBuilder();
+      StringBuilder jsonBuilder   = new StringBuilder("[");
+      int           count         = 1 + random.nextInt(10);
+
+      for (int i = 0; i < count; i++, id++) {
+        String fileName = "IMG_" + random.nextInt(100000) + ".jpg";
+        int    width    = 640 + random.nextInt(3000);
+        int    height   = 480 + random.nextInt(3000);
+        long   size     = random.nextInt(5000000);
+
+        packedBuilder.append(id).append(',').append(System.currentTimeMillis()).append(',').append(message).append(",1,1,")
+                     .append(PackedAttachments.packString("image/jpeg")).append("0,").append(size).append(',')
+                     .append(PackedAttachments.packString(fileName)).append("-,-,-,")
+                     .append(PackedAttachments.packString(String.valueOf(1000000000000L + id))).append("0,")
+                     .append(width).append(',').append(height).append(",0,");
+
+        if (i > 0) jsonBuilder.append(',');
+
+        jsonBuilder.append("{\"_id\":").append(id).append(",\"unique_id\":").append(System.currentTimeMillis())
+                   .append(",\"mid\":").append(message).append(",\"data_size\":").append(size)
+                   .append(",\"file_name\":\"").append(fileName).append("\",\"_data\":\"/data/parts/part").append(id)
+                   .append(".mms\",\"thumbnail\":\"/data/parts/part").append(id).append(".thumb\",\"ct\":\"image/jpeg\"")
+                   .append(",\"cl\":null,\"fast_preflight_id\":\"").append(1000000000000L + id).append('"')
+                   .append(",\"voice_note\":0,\"width\":").append(width).append(",\"height\":").append(height)
+                   .append(",\"quote\":0,\"cd\":null,\"name\":null,\"pending_push\":0}");
+      }
+
+      packed.add(packedBuilder.toString());
+      json.add(jsonBuilder.append(']').toString());
+    }
+
+    for (int i = 0; i < WARMUP; i++) {
+      unpackAll(packed);
+      parseAll(json);
+    }
+
+    long startNanos  = System.nanoTime();
+    long packedCount = unpackAll(packed);
+    long packedNanos = System.nanoTime() - startNanos;
+
+    startNanos     = System.nanoTime();
+    long jsonCount = parseAll(json);
+    long jsonNanos = System.nanoTime() - startNanos;
+
+    assertEquals(jsonCount, packedCount);
+
+    Log.w(TAG, "Read " + packedCount + " attachments of " + packed.size() + " messages: " +
+               "packed " + TimeUnit.NANOSECONDS.toMillis(packedNanos) + "ms (" + totalLength(packed) + " chars), " +
+               "json " + TimeUnit.NANOSECONDS.toMillis(jsonNanos) + "ms (" + totalLength(json) + " chars)");
+  }
+
+  private static long unpackAll(List<String> rows) {
+    long count = 0;
+
+    for (String row : rows) {
+      count += PackedAttachments.unpack(row).size();
+    }
+
+    return count;
+  }
+
+  /**
+   * Reads the attachments the way they used to be, from a JSON array of objects.
+   */
+  private static long parseAll(List<String> rows) throws JSONException {
+    long count = 0;
+
+    for (String row : rows) {
+      JSONArray                array       = new JSONArray(row);
+      List<DatabaseAttachment> attachments = new LinkedList<>();
+
+      for (int i = 0; i < array.length(); i++) {
+        JSONObject object = array.getJSONObject(i);
+
+        attachments.add(new DatabaseAttachment(new AttachmentId(object.getLong("_id"), object.getLong("unique_id")),
+                                               object.getLong("mid"),
+                                               !object.isNull("_data"),
+                                               !object.isNull("thumbnail"),
+                                               object.getString("ct"),
+                                               object.getInt("pending_push"),
+                                               object.getLong("data_size"),
+                                               object.getString("file_name"),
+                                               object.isNull("cl") ? null : object.getString("cl"),
+                                               object.isNull("cd") ? null : object.getString("cd"),
+                                               object.isNull("name") ? null : object.getString("name"),
+                                               null,
+                                               object.getString("fast_preflight_id"),
+                                               object.getInt("voice_note") == 1,
+                                               object.getInt("width"),
+                                               object.getInt("height"),
+                                               object.getInt("quote") == 1));
+      }
+
+      count += attachments.size();
+    }
+
+    return count;
+  }
+
+  private static long totalLength(List<String> rows) {
+    long length = 0;
+
+    for (String row : rows) {
+      length += row.length();
+    }
+
+    return length;
+  }
+}
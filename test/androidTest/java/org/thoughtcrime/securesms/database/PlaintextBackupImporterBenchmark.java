@@ -0,0 +1,90 @@
+package org.thoughtcrime.securesms.database;
+
+import android.content.Context;
+import android.util.Log;
+
+import org.thoughtcrime.securesms.TextSecureTestCase;
+import org.thoughtcrime.securesms.recipients.Recipient;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Imports a generated plaintext backup of many messages spread over a few conversations, and
+ * measures how many messages are imported per second.
+ */
+public class PlaintextBackupImporterBenchmark extends TextSecureTestCase {
+
+  private static final String TAG = PlaintextBackupImporterBenchmark.class.getSimpleName();
+
+  private static final int    MESSAGES       = 20000;
+  private static final int    CONVERSATIONS  = 20;
+  private static final String ADDRESS_PREFIX = "+1555010";
+  private static final int    INBOX_TYPE     = 1;
+
+  private Context context;
+  private File    fixture;
+
+  @Override
+  public void setUp() {
+    super.setUp();
+    context = getInstrumentation().getTargetContext();
+    fixture = new File(context.getCacheDir(), "plaintext-backup-benchmark.xml");
+  }
+
+  @Override
+  public void tearDown() throws Exception {
+    ThreadDatabase threads = DatabaseFactory.getThreadDatabase(context);
+
+    for (int i = 0; i < CONVERSATIONS; i++) {
+      long threadId = threads.getThreadIdIfExistsFor(Recipient.from(context, Address.fromSerialized(getAddress(i)), false));
+      if (threadId != -1) threads.deleteConversation(threadId);
+    }
+
+    if (!fixture.delete()) Log.w(TAG, "Failed to delete fixture");
+
+    super.tearDown();
+  }
+
+  public void testImport() throws Exception {
+    writeFixture();
+
+    final AtomicInteger progress   = new AtomicInteger();
+    final Set<Integer>  reports    = new HashSet<>();
+    long                startNanos = System.nanoTime();
+
+    PlaintextBackupImporter.importPlaintext(context, fixture, new PlaintextBackupImporter.ProgressListener() {
+      @Override
+      public void onProgress(int imported) {
+        progress.set(imported);
+        reports.add(imported);
+      }
+    });
+
+    long elapsedNanos = System.nanoTime() - startNanos;
+
+    Log.w(TAG, "Imported " + MESSAGES + " messages in " + (elapsedNanos / 1000000) + "ms, " +
+               (MESSAGES * 1000000000L / elapsedNanos) + " messages/s");
+
+    assertEquals(MESSAGES, progress.get());
+    assertTrue(reports.size() > 1);
+  }
+
+  private void writeFixture() throws Exception {
+    XmlBackup.Writer writer = new XmlBackup.Writer(fixture.getAbsolutePath(), MESSAGES);
+    long             now    = System.currentTimeMillis();
+
+    for (int i = 0; i < MESSAGES; i++) {
+      writer.writeItem(new XmlBackup.XmlBackupItem(0, getAddress(i % CONVERSATIONS), null, now - MESSAGES + i,
+                                                   INBOX_TYPE, null, "Message " + i, null, 1, -1));
+    }
+
+    writer.close();
+  }
+
+  private static String getAddress(int conversation) {
+    return ADDRESS_PREFIX + String.format("%04d", conversation);
+  }
+}
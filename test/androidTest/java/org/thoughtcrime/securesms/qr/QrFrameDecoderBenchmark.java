@@ -0,0 +1,65 @@
+package org.thoughtcrime.securesms.qr;
+
+import android.util.Log;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.WriterException;
+import com.google.zxing.common.BitMatrix;
+import com.google.zxing.qrcode.QRCodeWriter;
+
+import org.thoughtcrime.securesms.TextSecureTestCase;
+
+import java.util.Arrays;
+
+/**
+ * Measures how long decoding a portrait camera preview frame takes.
+ */
+public class QrFrameDecoderBenchmark extends TextSecureTestCase {
+
+  private static final String TAG = QrFrameDecoderBenchmark.class.getSimpleName();
+
+  private static final String CONTENTS = "tsdevice:/?uuid=bmFuY3k&pub_key=BWp0eXBlOmNvbS5leGFtcGxlOmtleQ";
+
+  private static final int WIDTH  = 1280;
+  private static final int HEIGHT = 720;
+  private static final int WARMUP = 10;
+  private static final int FRAMES = 100;
+
+  public void testDecodeFrame() throws Exception {
+    QrFrameDecoder decoder = new QrFrameDecoder();
+    byte[]         frame   = createFrame();
+
+    for (int i = 0; i < WARMUP; i++) {
+      decoder.decode(frame, WIDTH, HEIGHT);
+    }
+
+    long startNanos = System.nanoTime();
+
+    for (int i = 0; i < FRAMES; i++) {
+      assertEquals(CONTENTS, decoder.decode(frame, WIDTH, HEIGHT));
+    }
+
+    Log.w(TAG, "Decoded " + WIDTH + "x" + HEIGHT + " frames in " + ((System.nanoTime() - startNanos) / FRAMES / 1000) + "us per frame");
+  }
+
+  /**
+   * Renders the QR code, turned by 90 degrees, into the center of an NV21 frame, the way a
+   * portrait preview arrives from the camera.
+   */
+  private static byte[] createFrame() throws WriterException {
+    BitMatrix matrix = new QRCodeWriter().encode(CONTENTS, BarcodeFormat.QR_CODE, 400, 400);
+    byte[]    frame  = new byte[WIDTH * HEIGHT * 3 / 2];
+    int       left   = (WIDTH - matrix.getWidth()) / 2;
+    int       top    = (HEIGHT - matrix.getHeight()) / 2;
+
+    Arrays.fill(frame, (byte)128);
+
+    for (int y = 0; y < matrix.getHeight(); y++) {
+      for (int x = 0; x < matrix.getWidth(); x++) {
+        frame[(top + y) * WIDTH + left + x] = matrix.get(y, matrix.getWidth() - x - 1) ? (byte)16 : (byte)235;
+      }
+    }
+
+    return frame;
+  }
+}
@@ -0,0 +1,83 @@
+package org.thoughtcrime.securesms.util;
+
+import android.util.Log;
+
+import org.thoughtcrime.securesms.TextSecureTestCase;
+
+import java.util.Random;
+
+/**
+ * Compares rotating, mirroring and cropping a front camera capture in one pass with the per pixel
+ * rotation the capture path used to do.
+ */
+public class BitmapUtilBenchmark extends TextSecureTestCase {
+
+  private static final String TAG = BitmapUtilBenchmark.class.getSimpleName();
+
+  private static final int WARMUP = 5;
+  private static final int FRAMES = 20;
+
+  public void testTransformNV21() {
+    benchmark(1920, 1080);
+    benchmark(3840, 2160);
+  }
+
+  private static void benchmark(int width, int height) {
+    byte[] frame  = new byte[width * height * 3 / 2];
+    byte[] output = new byte[frame.length];
+
+    new Random(width * 31 + height).nextBytes(frame);
+
+    for (int i = 0; i < WARMUP; i++) {
+      BitmapUtil.transformNV21(frame, width, height, 270, true, 0, 0, height, width, output);
+    }
+
+    long startNanos = System.nanoTime();
+
+    for (int i = 0; i < FRAMES; i++) {
+      BitmapUtil.transformNV21(frame, width, height, 270, true, 0, 0, height, width, output);
+    }
+
+    long transformNanos = (System.nanoTime() - startNanos) / FRAMES;
+
+    startNanos = System.nanoTime();
+
+    for (int i = 0; i < FRAMES; i++) {
+      rotatePerPixel(frame, width, height, 270, true);
+    }
+
+    long perPixelNanos = (System.nanoTime() - startNanos) / FRAMES;
+
+    Log.w(TAG, "Transformed " + width + "x" + height + " frames in " + (transformNanos / 1000) + "us per frame, " +
+               "per pixel rotation took " + (perPixelNanos / 1000) + "us per frame");
+  }
+
+  private static byte[] rotatePerPixel(byte[] yuv, int width, int height, int rotation, boolean flipHorizontal) {
+    final byte[]  output    = new byte[yuv.length];
+    final int     frameSize = width * height;
+    final boolean swap      = rotation % 180 != 0;
+    final boolean xflip     = flipHorizontal ? rotation % 270 == 0 : rotation % 270 != 0;
+    final boolean yflip     = rotation >= 180;
+    final int     wOut      = swap ? height : width;
+    final int     hOut      = swap ? width  : height;
+
+    for (int j = 0; j < height; j++) {
+      for (int i = 0; i < width; i++) {
+        final int yIn      = j * width + i;
+        final int uIn      = frameSize + (j >> 1) * width + (i & ~1);
+        final int iSwapped = swap  ? j                    : i;
+        final int jSwapped = swap  ? i                    : j;
+        final int iOut     = xflip ? wOut - iSwapped - 1 : iSwapped;
+        final int jOut     = yflip ? hOut - jSwapped - 1 : jSwapped;
+        final int yOut     = jOut * wOut + iOut;
+        final int uOut     = frameSize + (jOut >> 1) * wOut + (iOut & ~1);
+
+        output[yOut]     = yuv[yIn];
+        output[uOut]     = yuv[uIn];
+        output[uOut + 1] = yuv[uIn + 1];
+      }
+    }
+
+    return output;
+  }
+}
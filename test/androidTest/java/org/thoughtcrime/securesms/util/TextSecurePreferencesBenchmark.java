@@ -0,0 +1,82 @@
+package org.thoughtcrime.securesms.util;
+
+import android.content.Context;
+import android.util.Log;
+
+import org.thoughtcrime.securesms.TextSecureTestCase;
+
+/**
+ * Compares the preference reads made for each row of the conversation list, read through the
+ * shared preferences and read from the in-memory snapshot.
+ */
+public class TextSecurePreferencesBenchmark extends TextSecureTestCase {
+
+  private static final String TAG = TextSecurePreferencesBenchmark.class.getSimpleName();
+
+  private static final int ROWS   = 10000;
+  private static final int ROUNDS = 5;
+
+  private Context context;
+
+  @Override
+  public void setUp() {
+    super.setUp();
+    context = getInstrumentation().getTargetContext();
+  }
+
+  public void testSnapshotFollowsSetters() {
+    boolean enabled = TextSecurePreferences.isReadReceiptsEnabled(context);
+
+    try {
+      TextSecurePreferences.setReadReceiptsEnabled(context, !enabled);
+      assertEquals(!enabled, TextSecurePreferences.isReadReceiptsEnabled(context));
+    } finally {
+      TextSecurePreferences.setReadReceiptsEnabled(context, enabled);
+    }
+
+    assertEquals(enabled, TextSecurePreferences.isReadReceiptsEnabled(context));
+  }
+
+  public void testPerRowReads() {
+    long sharedPreferencesNanos = Long.MAX_VALUE;
+    long snapshotNanos          = Long.MAX_VALUE;
+
+    for (int round = 0; round < ROUNDS; round++) {
+      sharedPreferencesNanos = Math.min(sharedPreferencesNanos, readSharedPreferences());
+      snapshotNanos          = Math.min(snapshotNanos, readSnapshot());
+    }
+
+    Log.w(TAG, "Per row: shared preferences " + (sharedPreferencesNanos / ROWS) + "ns, " +
+               "snapshot " + (snapshotNanos / ROWS) + "ns");
+
+    assertTrue(snapshotNanos < sharedPreferencesNanos);
+  }
+
+  private long readSharedPreferences() {
+    int  count      = 0;
+    long startNanos = System.nanoTime();
+
+    for (int i = 0; i < ROWS; i++) {
+      if (TextSecurePreferences.getBooleanPreference(context, TextSecurePreferences.READ_RECEIPTS_PREF, false)) count++;
+      if (TextSecurePreferences.getStringPreference(context, "pref_local_number", null) != null)                 count++;
+    }
+
+    long elapsed = System.nanoTime() - startNanos;
+    assertTrue(count >= 0);
+    return elapsed;
+  }
+
+  private long readSnapshot() {
+    int  count      = 0;
+    long startNanos = System.nanoTime();
+
+    for (int i = 0; i < ROWS; i++) {
+      if (TextSecurePreferences.isReadReceiptsEnabled(context))   count++;
+      if (TextSecurePreferences.getLocalNumber(context) != null) count++;
+    }
+
+    long elapsed = System.nanoTime() - startNanos;
+    assertTrue(count >= 0);
+    return elapsed;
+  }
+}
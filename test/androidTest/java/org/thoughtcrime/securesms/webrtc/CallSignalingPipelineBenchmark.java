@@ -0,0 +1,107 @@
+package org.thoughtcrime.securesms.webrtc;
+
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import org.thoughtcrime.securesms.TextSecureTestCase;
+import org.whispersystems.signalservice.api.messages.calls.IceUpdateMessage;
+import org.whispersystems.signalservice.api.messages.calls.SignalServiceCallMessage;
+import org.whispersystems.signalservice.api.push.SignalServiceAddress;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Trickles candidates every 5ms over a transport that takes 20ms per message, with and without
+ * batching, and measures how many messages were needed and how long candidates took to arrive.
+ */
+public class CallSignalingPipelineBenchmark extends TextSecureTestCase {
+
+  private static final String TAG = CallSignalingPipelineBenchmark.class.getSimpleName();
+
+  private static final SignalServiceAddress ADDRESS          = new SignalServiceAddress("+14152222222");
+  private static final long                 CALL_ID          = 1;
+  private static final int                  CANDIDATES       = 40;
+  private static final long                 TRICKLE_MILLIS   = 5;
+  private static final long                 TRANSPORT_MILLIS = 20;
+
+  public void testTrickleLatency() throws Exception {
+    int unbatched = trickle(0);
+    int batched   = trickle(CallSignalingPipeline.ICE_BATCH_WINDOW_MILLIS);
+
+    assertTrue(batched < unbatched);
+  }
+
+  /**
+   * @return The number of messages the candidates were sent in.
+   */
+  private int trickle(long windowMillis) throws Exception {
+    BlockingQueue<Delivery> delivered = new LinkedBlockingQueue<>();
+    CallSignalingPipeline   pipeline  = new CallSignalingPipeline(new DelayedTransport(delivered), null, windowMillis);
+    long[]                  createdAt = new long[CANDIDATES];
+
+    for (int i = 0; i < CANDIDATES; i++) {
+      createdAt[i] = System.nanoTime();
+      pipeline.sendIceUpdate(ADDRESS, new IceUpdateMessage(CALL_ID, "audio", i, "candidate:" + i + " 1 udp 2122260223 192.168.0.2 5000" + i + " typ host"));
+      Thread.sleep(TRICKLE_MILLIS);
+    }
+
+    int  messages     = 0;
+    int  received     = 0;
+    long totalLatency = 0;
+
+    while (received < CANDIDATES) {
+      Delivery delivery = delivered.poll(5, TimeUnit.SECONDS);
+
+      assertNotNull(delivery);
+      messages++;
+
+      for (IceUpdateMessage iceUpdate : delivery.message.getIceUpdateMessages().get()) {
+        totalLatency += delivery.deliveredAt - createdAt[iceUpdate.getSdpMLineIndex()];
+        received++;
+      }
+    }
+
+    Log.w(TAG, "Batch window " + windowMillis + "ms: " + CANDIDATES + " candidates in " + messages + " messages, " +
+               "average latency " + TimeUnit.NANOSECONDS.toMillis(totalLatency / CANDIDATES) + "ms");
+
+    pipeline.shutdown();
+
+    assertEquals(CANDIDATES, received);
+    return messages;
+  }
+
+  private static class Delivery {
+    private final SignalServiceCallMessage message;
+    private final long                     deliveredAt;
+
+    private Delivery(@NonNull SignalServiceCallMessage message, long deliveredAt) {
+      this.message     = message;
+      this.deliveredAt = deliveredAt;
+    }
+  }
+
+  /**
+   * Delivers messages to a local queue after a fixed delay, standing in for the server.
+   */
+  private static class DelayedTransport implements CallSignalingPipeline.Transport {
+
+    private final BlockingQueue<Delivery> delivered;
+
+    private DelayedTransport(@NonNull BlockingQueue<Delivery> delivered) {
+      this.delivered = delivered;
+    }
+
+    @Override
+    public void sendCallMessage(@NonNull SignalServiceAddress address, @NonNull SignalServiceCallMessage message) {
+      try {
+        Thread.sleep(TRANSPORT_MILLIS);
+      } catch (InterruptedException e) {
+        throw new AssertionError(e);
+      }
+
+      delivered.add(new Delivery(message, System.nanoTime()));
+    }
+  }
+}
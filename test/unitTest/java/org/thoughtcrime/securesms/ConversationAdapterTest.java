@@ -4,33 +4,44 @@ import android.database.Cursor;
 
 import org.junit.Before;
 import org.junit.Test;
+import org.thoughtcrime.securesms.database.MmsSmsDatabase;
+import org.thoughtcrime.securesms.database.model.MessageRecord;
 
 import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.anyString;
 import static org.powermock.api.mockito.PowerMockito.mock;
 import static org.powermock.api.mockito.PowerMockito.when;
 
 public class ConversationAdapterTest extends BaseUnitTest {
-  private Cursor cursor = mock(Cursor.class);
-  private ConversationAdapter adapter;
+  private Cursor                cursor = mock(Cursor.class);
+  private MmsSmsDatabase        db     = mock(MmsSmsDatabase.class);
+  private MmsSmsDatabase.Reader reader = mock(MmsSmsDatabase.Reader.class);
+  private MessageRecord         record = mock(MessageRecord.class);
+  private ConversationAdapter   adapter;
 
   @Override
   @Before
   public void setUp() throws Exception {
     super.setUp();
-    adapter = new ConversationAdapter(context, cursor);
+    adapter = new ConversationAdapter(context, db, cursor);
     when(cursor.getColumnIndexOrThrow(anyString())).thenReturn(0);
+    when(db.readerFor(any(Cursor.class))).thenReturn(reader);
+    when(reader.getCurrent()).thenReturn(record);
+    when(record.getBody()).thenReturn("");
   }
 
   @Test
   public void testGetItemIdEquals() throws Exception {
-    when(cursor.getString(anyInt())).thenReturn(null).thenReturn("SMS::1::1");
+    when(cursor.getLong(anyInt())).thenReturn(1L);
+    when(cursor.getString(anyInt())).thenReturn("sms").thenReturn("SMS::1::1");
     long firstId = adapter.getItemId(cursor);
-    when(cursor.getString(anyInt())).thenReturn(null).thenReturn("MMS::1::1");
+    when(cursor.getString(anyInt())).thenReturn("mms").thenReturn("MMS::1::1");
     long secondId = adapter.getItemId(cursor);
     assertNotEquals(firstId, secondId);
-    when(cursor.getString(anyInt())).thenReturn(null).thenReturn("MMS::2::1");
+    when(cursor.getLong(anyInt())).thenReturn(2L);
+    when(cursor.getString(anyInt())).thenReturn("mms").thenReturn("MMS::2::1");
     long thirdId = adapter.getItemId(cursor);
     assertNotEquals(secondId, thirdId);
   }
@@ -0,0 +1,130 @@
+package org.thoughtcrime.securesms.attachments;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.thoughtcrime.securesms.BaseUnitTest;
+import org.thoughtcrime.securesms.database.AttachmentDatabase;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AttachmentDownloadSchedulerTest extends BaseUnitTest {
+
+  private List<DatabaseAttachment> pending;
+  private List<AttachmentId>       dispatched;
+
+  @Before
+  @Override
+  public void setUp() throws Exception {
+    super.setUp();
+    pending    = new LinkedList<>();
+    dispatched = new LinkedList<>();
+  }
+
+  @Test
+  public void testSmallestFirstUpToLimit() {
+    DatabaseAttachment large   = attachment(1, 300);
+    DatabaseAttachment small   = attachment(2, 100);
+    DatabaseAttachment unknown = attachment(3, 0);
+    DatabaseAttachment medium  = attachment(4, 200);
+
+    pending.addAll(Arrays.asList(large, small, unknown, medium));
+
+    AttachmentDownloadScheduler scheduler = createScheduler(2);
+    scheduler.refresh();
+
+    assertEquals(Arrays.asList(small.getAttachmentId(), medium.getAttachmentId()), dispatched);
+
+    assertTrue(scheduler.onStarted(small.getAttachmentId()));
+    scheduler.refresh();
+    assertEquals(2, dispatched.size());
+
+    pending.remove(small);
+    scheduler.onFinished(small.getAttachmentId());
+
+    assertEquals(Arrays.asList(small.getAttachmentId(), medium.getAttachmentId(), large.getAttachmentId()), dispatched);
+  }
+
+  @Test
+  public void testSkipsUploadsAndDownloaded() {
+    DatabaseAttachment upload     = new DatabaseAttachment(new AttachmentId(1, 1), 1, false, false, "image/jpeg",
+                                                           AttachmentDatabase.TRANSFER_PROGRESS_STARTED, 100, null, null,
+                                                           null, null, null, null, false, 0, 0, false);
+    DatabaseAttachment downloaded = new DatabaseAttachment(new AttachmentId(2, 2), 1, true, false, "image/jpeg",
+                                                           AttachmentDatabase.TRANSFER_PROGRESS_STARTED, 100, null, "2",
+                                                           null, null, null, null, false, 0, 0, false);
+
+    pending.addAll(Arrays.asList(upload, downloaded));
+
+    createScheduler(2).refresh();
+
+    assertTrue(dispatched.isEmpty());
+  }
+
+  @Test
+  public void testVisibleFirst() {
+    DatabaseAttachment small = attachment(1, 100);
+    DatabaseAttachment large = attachment(2, 300);
+
+    pending.addAll(Arrays.asList(small, large));
+
+    AttachmentDownloadScheduler scheduler = createScheduler(1);
+    scheduler.setVisible(Collections.singletonList(large.getAttachmentId()));
+
+    assertEquals(Collections.singletonList(large.getAttachmentId()), dispatched);
+  }
+
+  @Test
+  public void testTakesBackWhenNoLongerVisible() {
+    DatabaseAttachment first  = attachment(1, 100);
+    DatabaseAttachment second = attachment(2, 300);
+
+    pending.addAll(Arrays.asList(first, second));
+
+    AttachmentDownloadScheduler scheduler = createScheduler(1);
+    scheduler.setVisible(Collections.singletonList(first.getAttachmentId()));
+    scheduler.setVisible(Collections.singletonList(second.getAttachmentId()));
+
+    assertEquals(Arrays.asList(first.getAttachmentId(), second.getAttachmentId()), dispatched);
+    assertFalse(scheduler.onStarted(first.getAttachmentId()));
+    assertTrue(scheduler.onStarted(second.getAttachmentId()));
+  }
+
+  @Test
+  public void testStartedNotTakenBack() {
+    DatabaseAttachment first  = attachment(1, 100);
+    DatabaseAttachment second = attachment(2, 300);
+
+    pending.addAll(Arrays.asList(first, second));
+
+    AttachmentDownloadScheduler scheduler = createScheduler(1);
+    scheduler.setVisible(Collections.singletonList(first.getAttachmentId()));
+
+    assertTrue(scheduler.onStarted(first.getAttachmentId()));
+
+    scheduler.setVisible(Collections.singletonList(second.getAttachmentId()));
+
+    assertEquals(Collections.singletonList(first.getAttachmentId()), dispatched);
+    assertTrue(scheduler.onStarted(first.getAttachmentId()));
+  }
+
+  private AttachmentDownloadScheduler createScheduler(int maxConcurrent) {
+    return new AttachmentDownloadScheduler(context,
+                                           () -> new LinkedList<>(pending),
+                                           attachment -> dispatched.add(attachment.getAttachmentId()),
+                                           Runnable::run,
+                                           maxConcurrent);
+  }
+
+  private static DatabaseAttachment attachment(long id, long size) {
+    return new DatabaseAttachment(new AttachmentId(id, id), 1, false, false, "image/jpeg",
+                                  AttachmentDatabase.TRANSFER_PROGRESS_STARTED, size, null, String.valueOf(id),
+                                  null, null, null, null, false, 0, 0, false);
+  }
+}
@@ -0,0 +1,279 @@
+package org.thoughtcrime.securesms.attachments;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.powermock.core.classloader.annotations.PowerMockIgnore;
+import org.thoughtcrime.securesms.BaseUnitTest;
+import org.thoughtcrime.securesms.crypto.AttachmentSecret;
+import org.thoughtcrime.securesms.crypto.ModernDecryptingPartInputStream;
+import org.thoughtcrime.securesms.util.Util;
+import org.whispersystems.libsignal.InvalidMessageException;
+import org.whispersystems.signalservice.api.push.exceptions.PushNetworkException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.InetSocketAddress;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import okhttp3.OkHttpClient;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@PowerMockIgnore({"javax.crypto.*", "javax.net.*", "com.sun.net.httpserver.*", "okhttp3.*", "okio.*"})
+public class AttachmentDownloaderTest extends BaseUnitTest {
+
+  private static final AttachmentId ATTACHMENT_ID = new AttachmentId(1, 2);
+  private static final int          SIZE          = 1024 * 1024 + 5;
+  private static final int          PADDING       = 1000;
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private AttachmentSecret attachmentSecret;
+  private byte[]           plaintext;
+  private byte[]           keyMaterial;
+  private byte[]           ciphertext;
+  private byte[]           digest;
+  private RangeHandler     handler;
+  private HttpServer       server;
+
+  @Before
+  public void setUp() throws Exception {
+    super.setUp();
+
+    SecureRandom random = new SecureRandom();
+
+    attachmentSecret = new AttachmentSecret(new byte[32], new byte[32], Util.getSecretBytes(32));
+    plaintext        = new byte[SIZE];
+    keyMaterial      = Util.getSecretBytes(64);
+
+    random.nextBytes(plaintext);
+
+    ciphertext = encrypt(Arrays.copyOf(plaintext, SIZE + PADDING), keyMaterial);
+    digest     = MessageDigest.getInstance("SHA-256").digest(ciphertext);
+    handler    = new RangeHandler(ciphertext);
+    server     = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+
+    server.createContext("/attachments/1", handler);
+    server.start();
+  }
+
+  @After
+  public void tearDown() {
+    server.stop(0);
+  }
+
+  @Test
+  public void testDownload() throws Exception {
+    AttachmentDownloader.DownloadedPart part = createDownloader().download(ATTACHMENT_ID, keyMaterial, digest, SIZE, Integer.MAX_VALUE, null);
+
+    assertEquals(SIZE, part.getLength());
+    assertEquals(SIZE, part.getFile().length());
+    assertArrayEquals(plaintext, readPart(part));
+    assertEquals(1, handler.ranges.size());
+    assertEquals("", handler.ranges.get(0));
+    assertFalse(hasLeftovers());
+  }
+
+  @Test
+  public void testResumeAfterInterruption() throws Exception {
+    handler.failAfter = 700 * 1024;
+
+    try {
+      createDownloader().download(ATTACHMENT_ID, keyMaterial, digest, SIZE, Integer.MAX_VALUE, null);
+      fail();
+    } catch (PushNetworkException e) {
+      // Expected
+    }
+
+    assertTrue(hasLeftovers());
+
+    AttachmentDownloader.DownloadedPart part = createDownloader().download(ATTACHMENT_ID, keyMaterial, digest, SIZE, Integer.MAX_VALUE, null);
+
+    assertArrayEquals(plaintext, readPart(part));
+    assertEquals(2, handler.ranges.size());
+
+    long resumedAt = Long.parseLong(handler.ranges.get(1).replace("bytes=", "").replace("-", ""));
+
+    assertTrue(resumedAt > 16);
+    assertTrue(resumedAt < 700 * 1024);
+    assertEquals(0, (resumedAt - 16) % 16);
+    assertFalse(hasLeftovers());
+  }
+
+  @Test
+  public void testCorruptPartialStartsOver() throws Exception {
+    handler.failAfter = 700 * 1024;
+
+    try {
+      createDownloader().download(ATTACHMENT_ID, keyMaterial, digest, SIZE, Integer.MAX_VALUE, null);
+      fail();
+    } catch (PushNetworkException e) {
+      // Expected
+    }
+
+    RandomAccessFile partial = new RandomAccessFile(getPartial(), "rw");
+    partial.seek(1024);
+    int value = partial.read();
+    partial.seek(1024);
+    partial.write(value ^ 1);
+    partial.close();
+
+    AttachmentDownloader.DownloadedPart part = createDownloader().download(ATTACHMENT_ID, keyMaterial, digest, SIZE, Integer.MAX_VALUE, null);
+
+    assertArrayEquals(plaintext, readPart(part));
+    assertEquals(3, handler.ranges.size());
+    assertEquals("", handler.ranges.get(2));
+    assertFalse(hasLeftovers());
+  }
+
+  @Test
+  public void testBadMacDiscardsPartial() throws Exception {
+    ciphertext[ciphertext.length - 1] ^= 1;
+
+    try {
+      createDownloader().download(ATTACHMENT_ID, keyMaterial, null, SIZE, Integer.MAX_VALUE, null);
+      fail();
+    } catch (InvalidMessageException e) {
+      // Expected
+    }
+
+    assertFalse(hasLeftovers());
+  }
+
+  @Test
+  public void testBadDigest() throws Exception {
+    digest[0] ^= 1;
+
+    try {
+      createDownloader().download(ATTACHMENT_ID, keyMaterial, digest, SIZE, Integer.MAX_VALUE, null);
+      fail();
+    } catch (InvalidMessageException e) {
+      // Expected
+    }
+
+    assertFalse(hasLeftovers());
+  }
+
+  @Test
+  public void testTooLarge() throws Exception {
+    try {
+      createDownloader().download(ATTACHMENT_ID, keyMaterial, digest, SIZE, SIZE, null);
+      fail();
+    } catch (InvalidMessageException e) {
+      // Expected
+    }
+  }
+
+  private AttachmentDownloader createDownloader() {
+    String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/attachments/1";
+    return new AttachmentDownloader(attachmentSecret, folder.getRoot(), new CdnAttachmentSource(new OkHttpClient(), url, null));
+  }
+
+  private byte[] readPart(AttachmentDownloader.DownloadedPart part) throws IOException {
+    InputStream           in  = ModernDecryptingPartInputStream.createFor(attachmentSecret, part.getRandom(), part.getFile(), 0);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    Util.copy(in, out);
+    return out.toByteArray();
+  }
+
+  private File getPartial() {
+    for (File file : folder.getRoot().listFiles()) {
+      if (file.getName().startsWith("download-") && file.getName().endsWith(".mms")) return file;
+    }
+
+    throw new AssertionError("No partial download");
+  }
+
+  private boolean hasLeftovers() {
+    for (File file : folder.getRoot().listFiles()) {
+      if (file.getName().startsWith("download-")) return true;
+    }
+
+    return false;
+  }
+
+  private static byte[] encrypt(byte[] plaintext, byte[] keyMaterial) throws Exception {
+    byte[] iv = Util.getSecretBytes(16);
+
+    Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+    cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(keyMaterial, 0, 32, "AES"), new IvParameterSpec(iv));
+
+    Mac mac = Mac.getInstance("HmacSHA256");
+    mac.init(new SecretKeySpec(keyMaterial, 32, 32, "HmacSHA256"));
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    out.write(iv);
+    out.write(cipher.doFinal(plaintext));
+    out.write(mac.doFinal(out.toByteArray()));
+
+    return out.toByteArray();
+  }
+
+  /**
+   * Serves a file with Range requests the way the CDN does, and can drop the connection partway
+   * through a response.
+   */
+  private static class RangeHandler implements HttpHandler {
+
+    private final byte[]       content;
+    private final List<String> ranges = new CopyOnWriteArrayList<>();
+
+    private volatile int failAfter = -1;
+
+    private RangeHandler(byte[] content) {
+      this.content = content;
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+      String range = exchange.getRequestHeaders().getFirst("Range");
+      int    start = range == null ? 0 : Integer.parseInt(range.replace("bytes=", "").replace("-", ""));
+      int    limit = failAfter >= 0 ? failAfter : content.length;
+
+      ranges.add(range == null ? "" : range);
+      failAfter = -1;
+
+      if (range != null) {
+        exchange.getResponseHeaders().add("Content-Range", "bytes " + start + "-" + (content.length - 1) + "/" + content.length);
+        exchange.sendResponseHeaders(206, content.length - start);
+      } else {
+        exchange.sendResponseHeaders(200, content.length);
+      }
+
+      OutputStream out = exchange.getResponseBody();
+
+      try {
+        out.write(content, start, Math.min(limit, content.length) - start);
+        out.flush();
+      } finally {
+        exchange.close();
+      }
+    }
+  }
+}
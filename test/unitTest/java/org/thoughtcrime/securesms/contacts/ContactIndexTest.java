@@ -0,0 +1,109 @@
+package org.thoughtcrime.securesms.contacts;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.thoughtcrime.securesms.BaseUnitTest;
+import org.thoughtcrime.securesms.database.Address;
+
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class ContactIndexTest extends BaseUnitTest {
+
+  private ContactIndex.Snapshot snapshot;
+
+  @Before
+  @Override
+  public void setUp() throws Exception {
+    super.setUp();
+
+    snapshot = new ContactIndex.Snapshot(Arrays.asList(contact(1, "Zo\u00eb Baker",   "+14155550101",    true),
+                                                       contact(2, "Alice Smith",      "+14155550102",    false),
+                                                       contact(3, "Bob Alison",       "(415) 555-0103",  true),
+                                                       contact(4, "Carol Kalina",     "+14155550104",    false),
+                                                       contact(4, "Carol Kalina",     "+14155550105",    false),
+                                                       contact(5, "\u00c9mile Zola",  "+33155550106",    true)));
+  }
+
+  @Test
+  public void testNormalizeName() {
+    assertEquals("zoe baker", ContactIndex.normalizeName("  Zo\u00eb   BAKER! "));
+    assertEquals("mary jane", ContactIndex.normalizeName("Mary-Jane"));
+    assertEquals("", ContactIndex.normalizeName(null));
+  }
+
+  @Test
+  public void testToT9() {
+    assertEquals("25423 76484", ContactIndex.toT9("alice smith"));
+  }
+
+  @Test
+  public void testEmptyFilterReturnsAllInNameOrder() {
+    assertEquals(Arrays.asList("Alice Smith", "Carol Kalina", "Carol Kalina"), names(snapshot.search(null, false)));
+    assertEquals(Arrays.asList("Bob Alison", "\u00c9mile Zola", "Zo\u00eb Baker"), names(snapshot.search("", true)));
+  }
+
+  @Test
+  public void testSearchAllIncludesRegistered() {
+    assertEquals(Arrays.asList("Alice Smith", "Bob Alison", "Carol Kalina", "Carol Kalina"), names(snapshot.searchAll("ali")));
+    assertEquals(6, snapshot.searchAll(null).size());
+  }
+
+  @Test
+  public void testPrefixBeforeWordBeforeSubstring() {
+    assertEquals(Arrays.asList("Alice Smith", "Carol Kalina", "Carol Kalina"), names(snapshot.search("ali", false)));
+    assertEquals(Arrays.asList("Bob Alison"), names(snapshot.search("ali", true)));
+  }
+
+  @Test
+  public void testIgnoresCaseAndAccents() {
+    assertEquals(Arrays.asList("Zo\u00eb Baker", "\u00c9mile Zola"), names(snapshot.search("ZO", true)));
+    assertEquals(Arrays.asList("\u00c9mile Zola"), names(snapshot.search("emile", true)));
+  }
+
+  @Test
+  public void testT9() {
+    assertEquals(Arrays.asList("Alice Smith"), names(snapshot.search("76484", false)));
+    assertEquals(Arrays.asList("Zo\u00eb Baker", "\u00c9mile Zola"), names(snapshot.search("96", true)));
+  }
+
+  @Test
+  public void testNumber() {
+    assertEquals(Arrays.asList("Bob Alison"), names(snapshot.search("555-0103", true)));
+    assertEquals(Arrays.asList("Carol Kalina"), names(snapshot.search("+1 415 555 0105", false)));
+  }
+
+  @Test
+  public void testSetRegistered() {
+    snapshot.setRegistered(Address.fromSerialized("14155550102"), true);
+
+    assertEquals(Arrays.asList("Alice Smith"), names(snapshot.search("alice", true)));
+    assertEquals(0, snapshot.search("alice", false).size());
+  }
+
+  @Test
+  public void testDistinct() {
+    ContactIndex.Snapshot duplicates = new ContactIndex.Snapshot(Arrays.asList(contact(1, "Alice", "+14155550101", true),
+                                                                               contact(2, "Alice Work", "+14155550101", true)));
+
+    assertEquals(2, duplicates.search(null, true).size());
+    assertEquals(1, duplicates.search(null, true).distinct().size());
+  }
+
+  private static ContactIndex.Contact contact(long id, String name, String number, boolean registered) {
+    return new ContactIndex.Contact(id, name, number, 2, null, Address.fromSerialized(ContactIndex.toDigits(number)), registered);
+  }
+
+  private static List<String> names(ContactIndex.Results results) {
+    List<String> names = new LinkedList<>();
+
+    for (int i = 0; i < results.size(); i++) {
+      names.add(results.getName(i));
+    }
+
+    return names;
+  }
+}
@@ -0,0 +1,343 @@
+package org.thoughtcrime.securesms.database;
+
+import android.content.ContentResolver;
+import android.database.CharArrayBuffer;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.database.DataSetObserver;
+import android.net.Uri;
+import android.os.Bundle;
+import android.support.annotation.NonNull;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class ColumnIndexCacheTest {
+
+  private static final String[] MESSAGE_COLUMNS = {"_id", "address", "address_device_id", "type", "date_received",
+                                                   "date_sent", "thread_id", "status", "delivery_receipt_count",
+                                                   "read_receipt_count", "mismatched_identities", "subscription_id",
+                                                   "expires_in", "expire_started", "body", "read", "notified",
+                                                   "transport_type", "subject", "unique_row_id"};
+
+  @Test
+  public void testIndexesAreResolvedOncePerProjection() {
+    AtomicInteger   resolved = new AtomicInteger();
+    SyntheticCursor cursor   = new SyntheticCursor(10, MESSAGE_COLUMNS.clone());
+
+    for (int i = 0; i < 10; i++) {
+      ColumnIndexCache<MessageColumns> cache = new ColumnIndexCache<>(MessageColumns.class, c -> {
+        resolved.incrementAndGet();
+        return new MessageColumns(c);
+      });
+
+      cursor.moveToPosition(i);
+      assertEquals(i, cursor.getLong(cache.get(cursor).id));
+    }
+
+    assertEquals(1, resolved.get());
+  }
+
+  @Test
+  public void testMergedPartsAreResolvedSeparately() {
+    String[] reordered = new String[MESSAGE_COLUMNS.length];
+
+    for (int i = 0; i < reordered.length; i++) {
+      reordered[i] = MESSAGE_COLUMNS[reordered.length - i - 1];
+    }
+
+    SyntheticCursor                  cursor = new SyntheticCursor(4, MESSAGE_COLUMNS.clone(), reordered);
+    ColumnIndexCache<MessageColumns> cache  = new ColumnIndexCache<>(MessageColumns.class, MessageColumns::new);
+
+    for (int i = 0; i < 4; i++) {
+      cursor.moveToPosition(i);
+      assertEquals(i, cursor.getLong(cache.get(cursor).id));
+      assertEquals(cursor.getColumnIndexOrThrow("body"), cache.get(cursor).body);
+    }
+
+    assertSame(cache.get(cursor), ColumnIndexCache.get(cursor, MessageColumns.class, MessageColumns::new));
+  }
+
+  /**
+   * The same columns {@link SmsDatabase}'s reader maps.
+   */
+  private static class MessageColumns {
+
+    private final int id;
+    private final int address;
+    private final int addressDeviceId;
+    private final int type;
+    private final int dateReceived;
+    private final int dateSent;
+    private final int threadId;
+    private final int status;
+    private final int deliveryReceiptCount;
+    private final int readReceiptCount;
+    private final int mismatchedIdentities;
+    private final int subscriptionId;
+    private final int expiresIn;
+    private final int expireStarted;
+    private final int body;
+
+    private MessageColumns(@NonNull Cursor cursor) {
+      this.id                   = cursor.getColumnIndexOrThrow("_id");
+      this.address              = cursor.getColumnIndexOrThrow("address");
+      this.addressDeviceId      = cursor.getColumnIndexOrThrow("address_device_id");
+      this.type                 = cursor.getColumnIndexOrThrow("type");
+      this.dateReceived         = cursor.getColumnIndexOrThrow("date_received");
+      this.dateSent             = cursor.getColumnIndexOrThrow("date_sent");
+      this.threadId             = cursor.getColumnIndexOrThrow("thread_id");
+      this.status               = cursor.getColumnIndexOrThrow("status");
+      this.deliveryReceiptCount = cursor.getColumnIndexOrThrow("delivery_receipt_count");
+      this.readReceiptCount     = cursor.getColumnIndexOrThrow("read_receipt_count");
+      this.mismatchedIdentities = cursor.getColumnIndexOrThrow("mismatched_identities");
+      this.subscriptionId       = cursor.getColumnIndexOrThrow("subscription_id");
+      this.expiresIn            = cursor.getColumnIndexOrThrow("expires_in");
+      this.expireStarted        = cursor.getColumnIndexOrThrow("expire_started");
+      this.body                 = cursor.getColumnIndexOrThrow("body");
+    }
+  }
+
+  /**
+   * A cursor over generated rows, where the value of a column is derived from the row number.
+   * Column lookups work the way SQLiteCursor's do. Given more than one projection, it acts
+   * like a MergeCursor whose parts take turns by row.
+   */
+  private static class SyntheticCursor implements Cursor {
+
+    private final int                    count;
+    private final String[][]             projections;
+    private final Map<String, Integer>[] columnMaps;
+
+    private int position = -1;
+
+    @SuppressWarnings("unchecked")
+    private SyntheticCursor(int count, String[]... projections) {
+      this.count       = count;
+      this.projections = projections;
+      this.columnMaps  = new Map[projections.length];
+
+      for (int i = 0; i < projections.length; i++) {
+        columnMaps[i] = new HashMap<>();
+
+        for (int j = 0; j < projections[i].length; j++) {
+          columnMaps[i].put(projections[i][j], j);
+        }
+      }
+    }
+
+    private int getPart() {
+      return Math.max(position, 0) % projections.length;
+    }
+
+    private String getColumn(int columnIndex) {
+      return projections[getPart()][columnIndex];
+    }
+
+    @Override
+    public int getColumnIndex(String columnName) {
+      int periodIndex = columnName.lastIndexOf('.');
+
+      if (periodIndex != -1) {
+        columnName = columnName.substring(periodIndex + 1);
+      }
+
+      Integer index = columnMaps[getPart()].get(columnName);
+      return index != null ? index : -1;
+    }
+
+    @Override
+    public int getColumnIndexOrThrow(String columnName) throws IllegalArgumentException {
+      int index = getColumnIndex(columnName);
+
+      if (index < 0) throw new IllegalArgumentException("column '" + columnName + "' does not exist");
+      return index;
+    }
+
+    @Override
+    public String getColumnName(int columnIndex) {
+      return getColumn(columnIndex);
+    }
+
+    @Override
+    public String[] getColumnNames() {
+      return projections[getPart()];
+    }
+
+    @Override
+    public int getColumnCount() {
+      return projections[getPart()].length;
+    }
+
+    @Override
+    public long getLong(int columnIndex) {
+      return "_id".equals(getColumn(columnIndex)) ? position : position + columnIndex;
+    }
+
+    @Override
+    public int getInt(int columnIndex) {
+      return (int)getLong(columnIndex);
+    }
+
+    @Override
+    public short getShort(int columnIndex) {
+      return (short)getLong(columnIndex);
+    }
+
+    @Override
+    public float getFloat(int columnIndex) {
+      return getLong(columnIndex);
+    }
+
+    @Override
+    public double getDouble(int columnIndex) {
+      return getLong(columnIndex);
+    }
+
+    @Override
+    public String getString(int columnIndex) {
+      return getColumn(columnIndex);
+    }
+
+    @Override
+    public byte[] getBlob(int columnIndex) {
+      return getColumn(columnIndex).getBytes();
+    }
+
+    @Override
+    public void copyStringToBuffer(int columnIndex, CharArrayBuffer buffer) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int getType(int columnIndex) {
+      return FIELD_TYPE_INTEGER;
+    }
+
+    @Override
+    public boolean isNull(int columnIndex) {
+      return false;
+    }
+
+    @Override
+    public int getCount() {
+      return count;
+    }
+
+    @Override
+    public int getPosition() {
+      return position;
+    }
+
+    @Override
+    public boolean move(int offset) {
+      return moveToPosition(position + offset);
+    }
+
+    @Override
+    public boolean moveToPosition(int position) {
+      this.position = Math.max(-1, Math.min(position, count));
+      return this.position >= 0 && this.position < count;
+    }
+
+    @Override
+    public boolean moveToFirst() {
+      return moveToPosition(0);
+    }
+
+    @Override
+    public boolean moveToLast() {
+      return moveToPosition(count - 1);
+    }
+
+    @Override
+    public boolean moveToNext() {
+      return moveToPosition(position + 1);
+    }
+
+    @Override
+    public boolean moveToPrevious() {
+      return moveToPosition(position - 1);
+    }
+
+    @Override
+    public boolean isFirst() {
+      return position == 0 && count > 0;
+    }
+
+    @Override
+    public boolean isLast() {
+      return position == count - 1 && count > 0;
+    }
+
+    @Override
+    public boolean isBeforeFirst() {
+      return position == -1 || count == 0;
+    }
+
+    @Override
+    public boolean isAfterLast() {
+      return position == count || count == 0;
+    }
+
+    @Override
+    public void deactivate() {}
+
+    @Override
+    public boolean requery() {
+      return true;
+    }
+
+    @Override
+    public void close() {}
+
+    @Override
+    public boolean isClosed() {
+      return false;
+    }
+
+    @Override
+    public void registerContentObserver(ContentObserver observer) {}
+
+    @Override
+    public void unregisterContentObserver(ContentObserver observer) {}
+
+    @Override
+    public void registerDataSetObserver(DataSetObserver observer) {}
+
+    @Override
+    public void unregisterDataSetObserver(DataSetObserver observer) {}
+
+    @Override
+    public void setNotificationUri(ContentResolver resolver, Uri uri) {}
+
+    @Override
+    public Uri getNotificationUri() {
+      return null;
+    }
+
+    @Override
+    public boolean getWantsAllOnMoveCalls() {
+      return false;
+    }
+
+    @Override
+    public void setExtras(Bundle extras) {}
+
+    @Override
+    public Bundle getExtras() {
+      return null;
+    }
+
+    @Override
+    public Bundle respond(Bundle extras) {
+      return null;
+    }
+  }
+}
@@ -0,0 +1,86 @@
+package org.thoughtcrime.securesms.database;
+
+import org.junit.Test;
+import org.thoughtcrime.securesms.attachments.AttachmentId;
+import org.thoughtcrime.securesms.attachments.DatabaseAttachment;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PackedAttachmentsTest {
+
+  /**
+   * Columns as SQLite packs them, including a file name with commas, colons and an emoji, and
+   * a string that is only a dash.
+   */
+  private static final String PACKED = "1,111,1,1,0," + string("image/jpeg") + "0,12345," + string("a,b:c \uD83D\uDE00.jpg") + string(null) + string("") +
+                                       string("\u540D\u524D") + string("-1") + "0,640,480,0," +
+                                       "2,222,1,0,0," + string(null) + "2,0," + string(null) + string("loc") + string(null) + string(null) + string(null) + "1,0,0,1," +
+                                       "3,333,3,1,1," + string("video/mp4") + "1,-5," + string("-") + string(null) + string(null) + string(null) + string(null) + "0,1,2,0,";
+
+  @Test
+  public void testUnpack() {
+    List<DatabaseAttachment> attachments = PackedAttachments.unpack(PACKED);
+
+    assertEquals(3, attachments.size());
+
+    DatabaseAttachment first = attachments.get(0);
+    assertEquals(new AttachmentId(1, 111), first.getAttachmentId());
+    assertEquals(1, first.getMmsId());
+    assertEquals("image/jpeg", first.getContentType());
+    assertEquals(12345, first.getSize());
+    assertEquals("a,b:c \uD83D\uDE00.jpg", first.getFileName());
+    assertNull(first.getLocation());
+    assertEquals("", first.getKey());
+    assertEquals("\u540D\u524D", first.getRelay());
+    assertEquals("-1", first.getFastPreflightId());
+    assertEquals(640, first.getWidth());
+    assertEquals(480, first.getHeight());
+    assertFalse(first.isVoiceNote());
+    assertFalse(first.isQuote());
+
+    DatabaseAttachment second = attachments.get(1);
+    assertNull(second.getContentType());
+    assertEquals(2, second.getTransferState());
+    assertEquals("loc", second.getLocation());
+    assertTrue(second.isVoiceNote());
+    assertTrue(second.isQuote());
+
+    DatabaseAttachment third = attachments.get(2);
+    assertEquals(-5, third.getSize());
+    assertEquals("-", third.getFileName());
+    assertNull(third.getFastPreflightId());
+  }
+
+  @Test
+  public void testUnpackEmbeddedNul() {
+    String packed = "4,444,4,1,1," + string("image/png") + "0,10," + string("evil\u0000.png") + string(null) + string(null) + string("a\u0000b") + string(null) + "0,1,1,0,";
+
+    List<DatabaseAttachment> attachments = PackedAttachments.unpack(packed);
+
+    assertEquals(1, attachments.size());
+    assertEquals("evil\u0000.png", attachments.get(0).getFileName());
+    assertEquals("a\u0000b", attachments.get(0).getRelay());
+    assertEquals(1, attachments.get(0).getHeight());
+  }
+
+  @Test
+  public void testPackString() {
+    assertEquals("612C00,", PackedAttachments.packString("a,\u0000"));
+    assertEquals(",", PackedAttachments.packString(""));
+    assertEquals("-,", PackedAttachments.packString(null));
+  }
+
+  @Test
+  public void testUnpackEmpty() {
+    assertTrue(PackedAttachments.unpack(null).isEmpty());
+  }
+
+  private static String string(String value) {
+    return PackedAttachments.packString(value);
+  }
+}
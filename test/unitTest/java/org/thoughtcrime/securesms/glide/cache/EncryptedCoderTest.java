@@ -0,0 +1,111 @@
+package org.thoughtcrime.securesms.glide.cache;
+
+import com.bumptech.glide.load.engine.bitmap_recycle.ArrayPool;
+import com.bumptech.glide.load.engine.bitmap_recycle.LruArrayPool;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.powermock.core.classloader.annotations.PowerMockIgnore;
+import org.thoughtcrime.securesms.BaseUnitTest;
+import org.thoughtcrime.securesms.util.Util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+@PowerMockIgnore({"javax.crypto.*"})
+public class EncryptedCoderTest extends BaseUnitTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private EncryptedCoder coder;
+  private ArrayPool      arrayPool;
+  private byte[]         masterKey;
+
+  @Before
+  @Override
+  public void setUp() throws Exception {
+    super.setUp();
+    coder     = new EncryptedCoder();
+    arrayPool = new LruArrayPool(64 * 1024);
+    masterKey = Util.getSecretBytes(32);
+  }
+
+  @Test
+  public void testRoundTrip() throws IOException {
+    byte[] data = Util.getSecretBytes(100 * 1024);
+    File   file = write(masterKey, data);
+
+    assertArrayEquals(data, read(masterKey, file));
+  }
+
+  @Test
+  public void testReadUsesKeyCachedOnWrite() throws IOException {
+    byte[] data = Util.getSecretBytes(1024);
+    File   file = write(masterKey, data);
+    int    keys = EncryptedCoder.getDerivedKeyCount();
+
+    assertArrayEquals(data, read(masterKey, file));
+    assertArrayEquals(data, read(masterKey, file));
+    assertEquals(keys, EncryptedCoder.getDerivedKeyCount());
+  }
+
+  @Test
+  public void testCachedKeyNotUsedWithOtherMasterKey() throws IOException {
+    File file = write(masterKey, Util.getSecretBytes(1024));
+
+    try {
+      read(Util.getSecretBytes(32), file);
+      fail("Read with a different master key");
+    } catch (IOException e) {
+      assertEquals("Key change on encrypted cache file!", e.getMessage());
+    }
+  }
+
+  @Test
+  public void testCachedKeysAreBounded() throws IOException {
+    byte[] data  = Util.getSecretBytes(16);
+    File   first = write(masterKey, data);
+
+    for (int i = 0; i < EncryptedCoder.DERIVED_KEY_CACHE_SIZE; i++) {
+      write(masterKey, data);
+    }
+
+    assertEquals(EncryptedCoder.DERIVED_KEY_CACHE_SIZE, EncryptedCoder.getDerivedKeyCount());
+    assertArrayEquals(data, read(masterKey, first));
+  }
+
+  private File write(byte[] masterKey, byte[] data) throws IOException {
+    File file = folder.newFile();
+
+    try (OutputStream out = coder.createEncryptedOutputStream(masterKey, file, arrayPool)) {
+      out.write(data);
+    }
+
+    return file;
+  }
+
+  private byte[] read(byte[] masterKey, File file) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    try (InputStream in = coder.createEncryptedInputStream(masterKey, file, arrayPool)) {
+      byte[] buffer = new byte[4096];
+      int    read;
+
+      while ((read = in.read(buffer)) != -1) {
+        out.write(buffer, 0, read);
+      }
+    }
+
+    return out.toByteArray();
+  }
+}
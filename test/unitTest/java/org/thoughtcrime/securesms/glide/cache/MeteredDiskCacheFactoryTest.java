@@ -0,0 +1,76 @@
+package org.thoughtcrime.securesms.glide.cache;
+
+import com.bumptech.glide.load.Key;
+import com.bumptech.glide.load.engine.cache.DiskCache;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.thoughtcrime.securesms.BaseUnitTest;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class MeteredDiskCacheFactoryTest extends BaseUnitTest {
+
+  private DiskCache         diskCache;
+  private DiskCache.Factory factory;
+
+  @Before
+  @Override
+  public void setUp() throws Exception {
+    super.setUp();
+    diskCache = mock(DiskCache.class);
+    factory   = mock(DiskCache.Factory.class);
+
+    when(factory.build()).thenReturn(diskCache);
+  }
+
+  @Test
+  public void testCountsHitsAndMisses() {
+    Key                 cached = mock(Key.class);
+    Key                 absent = mock(Key.class);
+    File                file   = new File("cached");
+    EncryptedCacheStats stats  = EncryptedCacheStats.getInstance();
+    int                 hits   = stats.getHits();
+    int                 misses = stats.getMisses();
+
+    when(diskCache.get(cached)).thenReturn(file);
+
+    DiskCache metered = new MeteredDiskCacheFactory(factory).build();
+
+    assertSame(file, metered.get(cached));
+    assertSame(file, metered.get(cached));
+    assertNull(metered.get(absent));
+
+    assertEquals(hits + 2, stats.getHits());
+    assertEquals(misses + 1, stats.getMisses());
+  }
+
+  @Test
+  public void testWritesGoToDiskCache() {
+    Key              key     = mock(Key.class);
+    DiskCache.Writer writer  = mock(DiskCache.Writer.class);
+    DiskCache        metered = new MeteredDiskCacheFactory(factory).build();
+
+    metered.put(key, writer);
+    metered.delete(key);
+    metered.clear();
+
+    verify(diskCache).put(key, writer);
+    verify(diskCache).delete(key);
+    verify(diskCache).clear();
+  }
+
+  @Test
+  public void testNoDiskCache() {
+    when(factory.build()).thenReturn(null);
+
+    assertNull(new MeteredDiskCacheFactory(factory).build());
+  }
+}
@@ -0,0 +1,52 @@
+package org.thoughtcrime.securesms.qr;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.WriterException;
+import com.google.zxing.common.BitMatrix;
+import com.google.zxing.qrcode.QRCodeWriter;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+
+public class QrFrameDecoderTest {
+
+  private static final String CONTENTS = "tsdevice:/?uuid=bmFuY3k&pub_key=BWp0eXBlOmNvbS5leGFtcGxlOmtleQ";
+
+  private static final int WIDTH  = 1280;
+  private static final int HEIGHT = 720;
+
+  @Test
+  public void testDecodeLandscapeFrame() throws Exception {
+    assertEquals(CONTENTS, new QrFrameDecoder().decode(createFrame(false), WIDTH, HEIGHT));
+  }
+
+  @Test
+  public void testDecodeRotatedFrame() throws Exception {
+    assertEquals(CONTENTS, new QrFrameDecoder().decode(createFrame(true), WIDTH, HEIGHT));
+  }
+
+  /**
+   * Renders the QR code into the center of an NV21 frame, optionally turned by 90 degrees,
+   * the way a portrait preview arrives from the camera.
+   */
+  private static byte[] createFrame(boolean rotated) throws WriterException {
+    BitMatrix matrix = new QRCodeWriter().encode(CONTENTS, BarcodeFormat.QR_CODE, 400, 400);
+    byte[]    frame  = new byte[WIDTH * HEIGHT * 3 / 2];
+    int       left   = (WIDTH - matrix.getWidth()) / 2;
+    int       top    = (HEIGHT - matrix.getHeight()) / 2;
+
+    Arrays.fill(frame, (byte)128);
+
+    for (int y = 0; y < matrix.getHeight(); y++) {
+      for (int x = 0; x < matrix.getWidth(); x++) {
+        boolean black = rotated ? matrix.get(y, matrix.getWidth() - x - 1) : matrix.get(x, y);
+        frame[(top + y) * WIDTH + left + x] = black ? (byte)16 : (byte)235;
+      }
+    }
+
+    return frame;
+  }
+}
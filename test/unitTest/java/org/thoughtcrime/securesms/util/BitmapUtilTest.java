@@ -0,0 +1,156 @@
+package org.thoughtcrime.securesms.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BitmapUtilTest {
+
+  private static final int[] ROTATIONS = {0, 90, 180, 270};
+
+  @Test
+  public void testTransformNV21MatchesPerPixelRotation() {
+    int    width  = 64;
+    int    height = 48;
+    byte[] frame  = createFrame(width, height);
+
+    for (int rotation : ROTATIONS) {
+      for (boolean flip : new boolean[] {false, true}) {
+        int rotatedWidth  = rotation % 180 != 0 ? height : width;
+        int rotatedHeight = rotation % 180 != 0 ? width  : height;
+
+        assertTransform(frame, width, height, rotation, flip, 0, 0, rotatedWidth, rotatedHeight);
+        assertTransform(frame, width, height, rotation, flip, 6, 4, rotatedWidth - 10, rotatedHeight - 14);
+        assertTransform(frame, width, height, rotation, flip, rotatedWidth - 2, rotatedHeight - 2, 2, 2);
+      }
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testTransformNV21RejectsOddCrop() {
+    BitmapUtil.transformNV21(new byte[64 * 48 * 3 / 2], 64, 48, 90, false, 1, 0, 10, 10, new byte[150]);
+  }
+
+  @Test
+  public void testEncodeUntilFitsStopsAtFirstFit() {
+    List<Integer> qualities = new ArrayList<>();
+
+    int quality = BitmapUtil.encodeUntilFits(q -> {
+      qualities.add(q);
+      return q * 1000;
+    }, 90, 100000);
+
+    assertEquals(90, quality);
+    assertEquals(Collections.singletonList(90), qualities);
+  }
+
+  @Test
+  public void testEncodeUntilFitsKeepsLoweringQuality() {
+    List<Integer> qualities = new ArrayList<>();
+
+    // Each step down shrinks the output less than the square root estimate expects
+    int quality = BitmapUtil.encodeUntilFits(q -> {
+      qualities.add(q);
+      return 30000 + q * 1000;
+    }, 90, 100000);
+
+    assertTrue(qualities.size() > 2);
+    assertTrue(qualities.size() <= 5);
+    assertEquals(quality, (int)qualities.get(qualities.size() - 1));
+    assertTrue(30000 + quality * 1000 <= 100000);
+
+    for (int i = 1; i < qualities.size(); i++) {
+      assertTrue(qualities.get(i) < qualities.get(i - 1));
+    }
+  }
+
+  @Test
+  public void testEncodeUntilFitsStopsAtMinimumQuality() {
+    List<Integer> qualities = new ArrayList<>();
+
+    int quality = BitmapUtil.encodeUntilFits(q -> {
+      qualities.add(q);
+      return 1000000;
+    }, 90, 100000);
+
+    assertEquals(45, quality);
+    assertEquals(45, (int)qualities.get(qualities.size() - 1));
+    assertTrue(qualities.size() <= 5);
+  }
+
+  private static void assertTransform(byte[] frame, int width, int height, int rotation, boolean flip,
+                                      int left, int top, int cropWidth, int cropHeight)
+  {
+    byte[] expected = crop(rotatePerPixel(frame, width, height, rotation, flip),
+                           rotation % 180 != 0 ? height : width,
+                           rotation % 180 != 0 ? width  : height,
+                           left, top, cropWidth, cropHeight);
+    byte[] actual   = new byte[cropWidth * cropHeight * 3 / 2];
+
+    BitmapUtil.transformNV21(frame, width, height, rotation, flip, left, top, cropWidth, cropHeight, actual);
+
+    assertArrayEquals("rotation: " + rotation + " flip: " + flip, expected, actual);
+  }
+
+  private static byte[] createFrame(int width, int height) {
+    byte[] frame = new byte[width * height * 3 / 2];
+    new Random(width * 31 + height).nextBytes(frame);
+    return frame;
+  }
+
+  /**
+   * The straightforward per pixel rotation the capture path used to do before cropping.
+   */
+  private static byte[] rotatePerPixel(byte[] yuv, int width, int height, int rotation, boolean flipHorizontal) {
+    final byte[]  output    = new byte[yuv.length];
+    final int     frameSize = width * height;
+    final boolean swap      = rotation % 180 != 0;
+    final boolean xflip     = flipHorizontal ? rotation % 270 == 0 : rotation % 270 != 0;
+    final boolean yflip     = rotation >= 180;
+    final int     wOut      = swap ? height : width;
+    final int     hOut      = swap ? width  : height;
+
+    for (int j = 0; j < height; j++) {
+      for (int i = 0; i < width; i++) {
+        final int yIn      = j * width + i;
+        final int uIn      = frameSize + (j >> 1) * width + (i & ~1);
+        final int iSwapped = swap  ? j                    : i;
+        final int jSwapped = swap  ? i                    : j;
+        final int iOut     = xflip ? wOut - iSwapped - 1 : iSwapped;
+        final int jOut     = yflip ? hOut - jSwapped - 1 : jSwapped;
+        final int yOut     = jOut * wOut + iOut;
+        final int uOut     = frameSize + (jOut >> 1) * wOut + (iOut & ~1);
+
+        output[yOut]     = yuv[yIn];
+        output[uOut]     = yuv[uIn];
+        output[uOut + 1] = yuv[uIn + 1];
+      }
+    }
+
+    return output;
+  }
+
+  private static byte[] crop(byte[] yuv, int width, int height, int left, int top, int cropWidth, int cropHeight) {
+    byte[] output = new byte[cropWidth * cropHeight * 3 / 2];
+    int    out    = 0;
+
+    for (int row = top; row < top + cropHeight; row++) {
+      System.arraycopy(yuv, row * width + left, output, out, cropWidth);
+      out += cropWidth;
+    }
+
+    for (int row = top / 2; row < (top + cropHeight) / 2; row++) {
+      System.arraycopy(yuv, width * height + row * width + left, output, out, cropWidth);
+      out += cropWidth;
+    }
+
+    return output;
+  }
+}
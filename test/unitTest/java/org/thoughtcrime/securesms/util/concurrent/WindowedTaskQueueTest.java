@@ -0,0 +1,83 @@
+package org.thoughtcrime.securesms.util.concurrent;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class WindowedTaskQueueTest {
+
+  private final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void testResultsInOrderWithinWindow() throws Exception {
+    final AtomicInteger started  = new AtomicInteger();
+    final AtomicInteger consumed = new AtomicInteger();
+    final AtomicInteger maxAhead = new AtomicInteger();
+
+    List<Callable<Integer>> tasks = new ArrayList<>();
+
+    for (int i = 0; i < 20; i++) {
+      final int index = i;
+
+      tasks.add(() -> {
+        int ahead = started.incrementAndGet() - consumed.get();
+        synchronized (maxAhead) {
+          maxAhead.set(Math.max(maxAhead.get(), ahead));
+        }
+        Thread.sleep(index % 3);
+        return index;
+      });
+    }
+
+    WindowedTaskQueue<Integer> queue = new WindowedTaskQueue<>(executor, tasks, 2);
+
+    for (int i = 0; i < 20; i++) {
+      assertTrue(queue.hasNext());
+      assertEquals(i, (int)queue.next());
+      consumed.incrementAndGet();
+    }
+
+    assertFalse(queue.hasNext());
+    assertEquals(20, started.get());
+    assertTrue(maxAhead.get() <= 3);
+  }
+
+  @Test
+  public void testCancelStopsSubmitting() throws Exception {
+    final AtomicInteger started = new AtomicInteger();
+
+    List<Callable<Integer>> tasks = new ArrayList<>();
+
+    for (int i = 0; i < 10; i++) {
+      tasks.add(started::incrementAndGet);
+    }
+
+    WindowedTaskQueue<Integer> queue = new WindowedTaskQueue<>(executor, tasks, 2);
+
+    queue.next();
+    queue.cancel();
+
+    assertFalse(queue.hasNext());
+    assertTrue(started.get() <= 3);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testRejectsEmptyWindow() {
+    new WindowedTaskQueue<>(executor, new ArrayList<Callable<Integer>>(), 0);
+  }
+}
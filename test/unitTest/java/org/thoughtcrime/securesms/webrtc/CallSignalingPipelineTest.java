@@ -0,0 +1,181 @@
+package org.thoughtcrime.securesms.webrtc;
+
+import android.support.annotation.NonNull;
+
+import org.junit.Test;
+import org.thoughtcrime.securesms.BaseUnitTest;
+import org.thoughtcrime.securesms.util.ListenableFutureTask;
+import org.whispersystems.signalservice.api.messages.calls.AnswerMessage;
+import org.whispersystems.signalservice.api.messages.calls.BusyMessage;
+import org.whispersystems.signalservice.api.messages.calls.HangupMessage;
+import org.whispersystems.signalservice.api.messages.calls.IceUpdateMessage;
+import org.whispersystems.signalservice.api.messages.calls.OfferMessage;
+import org.whispersystems.signalservice.api.messages.calls.SignalServiceCallMessage;
+import org.whispersystems.signalservice.api.push.SignalServiceAddress;
+
+import java.util.Collections;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class CallSignalingPipelineTest extends BaseUnitTest {
+
+  private static final SignalServiceAddress ADDRESS       = new SignalServiceAddress("+14152222222");
+  private static final long                 CALL_ID       = 1;
+  private static final long                 OTHER_CALL_ID = 2;
+
+  @Test
+  public void testTrickledCandidatesAreCoalesced() throws Exception {
+    LoopbackTransport     transport = new LoopbackTransport(0);
+    CallSignalingPipeline pipeline  = new CallSignalingPipeline(transport, null, 50);
+
+    ListenableFutureTask<Boolean> batch = pipeline.sendIceUpdate(ADDRESS, createIceUpdate(0));
+
+    for (int i = 1; i < 10; i++) {
+      assertSame(batch, pipeline.sendIceUpdate(ADDRESS, createIceUpdate(i)));
+    }
+
+    assertTrue(batch.get(1, TimeUnit.SECONDS));
+    assertEquals(10, transport.take().message.getIceUpdateMessages().get().size());
+    assertNull(transport.poll(100));
+
+    pipeline.shutdown();
+  }
+
+  @Test
+  public void testHangupIsSentAheadOfCandidatesAndOtherCalls() throws Exception {
+    LoopbackTransport     transport = new LoopbackTransport(0);
+    CallSignalingPipeline pipeline  = new CallSignalingPipeline(transport, null);
+
+    transport.hold();
+
+    pipeline.send(ADDRESS, SignalServiceCallMessage.forOffer(new OfferMessage(CALL_ID, "offer")));
+    transport.awaitHeld();
+
+    pipeline.send(ADDRESS, SignalServiceCallMessage.forOffer(new OfferMessage(OTHER_CALL_ID, "other offer")));
+    pipeline.send(ADDRESS, SignalServiceCallMessage.forIceUpdates(Collections.singletonList(createIceUpdate(0))));
+    pipeline.send(ADDRESS, SignalServiceCallMessage.forHangup(new HangupMessage(CALL_ID)));
+
+    transport.release();
+
+    assertTrue(transport.take().message.getOfferMessage().isPresent());
+    assertTrue(transport.take().message.getHangupMessage().isPresent());
+    assertEquals(OTHER_CALL_ID, transport.take().message.getOfferMessage().get().getId());
+    assertTrue(transport.take().message.getIceUpdateMessages().isPresent());
+
+    pipeline.shutdown();
+  }
+
+  @Test
+  public void testHangupIsNotSentAheadOfItsCall() throws Exception {
+    LoopbackTransport     transport = new LoopbackTransport(0);
+    CallSignalingPipeline pipeline  = new CallSignalingPipeline(transport, null);
+
+    transport.hold();
+
+    pipeline.send(ADDRESS, SignalServiceCallMessage.forOffer(new OfferMessage(OTHER_CALL_ID, "other offer")));
+    transport.awaitHeld();
+
+    pipeline.send(ADDRESS, SignalServiceCallMessage.forAnswer(new AnswerMessage(CALL_ID, "answer")));
+    pipeline.send(ADDRESS, SignalServiceCallMessage.forIceUpdates(Collections.singletonList(createIceUpdate(0))));
+    pipeline.send(ADDRESS, SignalServiceCallMessage.forHangup(new HangupMessage(CALL_ID)));
+    pipeline.send(ADDRESS, SignalServiceCallMessage.forBusy(new BusyMessage(CALL_ID)));
+
+    transport.release();
+
+    assertTrue(transport.take().message.getOfferMessage().isPresent());
+    assertTrue(transport.take().message.getAnswerMessage().isPresent());
+    assertTrue(transport.take().message.getHangupMessage().isPresent());
+    assertTrue(transport.take().message.getBusyMessage().isPresent());
+    assertTrue(transport.take().message.getIceUpdateMessages().isPresent());
+
+    pipeline.shutdown();
+  }
+
+  @Test
+  public void testCanceledCandidatesAreNotSent() throws Exception {
+    LoopbackTransport     transport = new LoopbackTransport(0);
+    CallSignalingPipeline pipeline  = new CallSignalingPipeline(transport, null, 50);
+
+    pipeline.sendIceUpdate(ADDRESS, createIceUpdate(0));
+    pipeline.cancelIceUpdates();
+
+    assertNull(transport.poll(150));
+
+    pipeline.shutdown();
+  }
+
+  private static IceUpdateMessage createIceUpdate(int index) {
+    return new IceUpdateMessage(CALL_ID, "audio", index, "candidate:" + index + " 1 udp 2122260223 192.168.0.2 5000" + index + " typ host");
+  }
+
+  private static class Delivery {
+    private final SignalServiceCallMessage message;
+
+    private Delivery(@NonNull SignalServiceCallMessage message) {
+      this.message = message;
+    }
+  }
+
+  /**
+   * Delivers messages to a local queue after a fixed delay, standing in for the server.
+   */
+  private static class LoopbackTransport implements CallSignalingPipeline.Transport {
+
+    private final BlockingQueue<Delivery> delivered = new LinkedBlockingQueue<>();
+    private final long                    delayMillis;
+
+    private CountDownLatch held;
+    private CountDownLatch gate;
+
+    private LoopbackTransport(long delayMillis) {
+      this.delayMillis = delayMillis;
+    }
+
+    @Override
+    public void sendCallMessage(@NonNull SignalServiceAddress address, @NonNull SignalServiceCallMessage message) {
+      try {
+        if (gate != null) {
+          held.countDown();
+          gate.await();
+        }
+
+        Thread.sleep(delayMillis);
+      } catch (InterruptedException e) {
+        throw new AssertionError(e);
+      }
+
+      delivered.add(new Delivery(message));
+    }
+
+    void hold() {
+      held = new CountDownLatch(1);
+      gate = new CountDownLatch(1);
+    }
+
+    void awaitHeld() throws InterruptedException {
+      held.await();
+    }
+
+    void release() {
+      gate.countDown();
+    }
+
+    Delivery take() throws InterruptedException {
+      Delivery delivery = delivered.poll(5, TimeUnit.SECONDS);
+
+      if (delivery == null) throw new AssertionError("Nothing delivered");
+      return delivery;
+    }
+
+    Delivery poll(long timeoutMillis) throws InterruptedException {
+      return delivered.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+  }
+}